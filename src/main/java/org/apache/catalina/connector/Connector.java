@@ -554,6 +554,8 @@ public class Connector
         } else if ("org.apache.coyote.ajp.AjpProtocol".equals
                    (getProtocolHandlerClassName())
                    || "org.apache.coyote.ajp.AjpAprProtocol".equals
+                   (getProtocolHandlerClassName())
+                   || "org.apache.coyote.ajp.AjpNioProtocol".equals
                    (getProtocolHandlerClassName())) {
             return "AJP/1.3";
         }
@@ -585,6 +587,9 @@ public class Connector
             if ("HTTP/1.1".equals(protocol) || "http".equals(protocol)) {
                 setProtocolHandlerClassName
                     ("org.apache.coyote.http11.Http11NioProtocol");
+            } else if ("AJP/1.3".equals(protocol) || "ajp".equals(protocol)) {
+                setProtocolHandlerClassName
+                    ("org.apache.coyote.ajp.AjpNioProtocol");
             } else if (protocol != null) {
                 setProtocolHandlerClassName(protocol);
             }
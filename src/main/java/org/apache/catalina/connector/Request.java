@@ -3293,6 +3293,11 @@ public class Request
     }
 
 
+    public boolean hasSendfileRanges() {
+        return coyoteRequest.hasSendfileRanges();
+    }
+
+
     public String toString() {
         StringBuilder buf = new StringBuilder();
         buf.append("Current Servlet stack for thread ").append(Thread.currentThread().getName());
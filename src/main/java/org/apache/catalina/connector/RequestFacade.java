@@ -1044,4 +1044,12 @@ public class RequestFacade implements HttpServletRequest {
         return request.hasSendfile();
     }
 
+    public boolean hasSendfileRanges() {
+        if (request == null) {
+            throw MESSAGES.nullRequestFacade();
+        }
+
+        return request.hasSendfileRanges();
+    }
+
 }
@@ -1435,6 +1435,36 @@ public class Response
     }
 
 
+    /**
+     * Send multiple ranges of a file using sendfile, each one preceded by the
+     * given header bytes, and followed by the trailer bytes after the last
+     * one.
+     * 
+     * @param ranges the ranges, as start (inclusive) and end (exclusive) pairs
+     */
+    public void sendFile(String path, String absolutePath, long[] ranges,
+            byte[][] headers, byte[] trailer) {
+
+        if (!request.hasSendfileRanges())
+            throw MESSAGES.noSendFile();
+
+        sendFile(path, absolutePath, ranges[0], ranges[ranges.length - 1]);
+
+        if (coyoteResponse.getSendfilePath() != null) {
+            coyoteResponse.setSendfileRanges(ranges, headers, trailer);
+            long length = (trailer != null) ? trailer.length : 0;
+            for (int i = 0; i < ranges.length; i += 2) {
+                length += ranges[i + 1] - ranges[i];
+                if (headers != null && headers[i / 2] != null) {
+                    length += headers[i / 2].length;
+                }
+            }
+            outputBuffer.setBytesWritten(length);
+        }
+
+    }
+
+
     /**
      * Set the specified date header to the specified value.
      *
@@ -438,6 +438,19 @@ public class ResponseFacade
 
     }
 
+    public void sendFile(String path, String absolutePath, long[] ranges,
+            byte[][] headers, byte[] trailer) {
+        
+        if (isCommitted())
+            throw new IllegalStateException
+                (/*sm.getString("responseBase.reset.ise")*/);
+
+        response.setAppCommitted(true);
+
+        response.sendFile(path, absolutePath, ranges, headers, trailer);
+
+    }
+
     public void startUpgrade() {
         
         if (isCommitted())
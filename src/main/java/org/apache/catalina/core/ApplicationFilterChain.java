@@ -528,6 +528,27 @@ public final class ApplicationFilterChain implements FilterChain, HttpEventFilte
     }
 
 
+    /**
+     * Add the specified filters to the set of filters that will be executed
+     * in this chain.
+     *
+     * @param filterConfigs The FilterConfigs of the filters, in order
+     */
+    void addFilters(ApplicationFilterConfig[] filterConfigs) {
+
+        int n = filterCount + filterConfigs.length;
+        if (n > filters.length) {
+            ApplicationFilterConfig[] newFilters =
+                new ApplicationFilterConfig[n + INCREMENT];
+            System.arraycopy(filters, 0, newFilters, 0, filterCount);
+            filters = newFilters;
+        }
+        System.arraycopy(filterConfigs, 0, filters, filterCount, filterConfigs.length);
+        filterCount = n;
+
+    }
+
+
     /**
      * Release references to the filters and wrapper executed by this chain.
      */
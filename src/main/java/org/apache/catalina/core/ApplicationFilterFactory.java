@@ -47,6 +47,9 @@
 package org.apache.catalina.core;
 
 
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
 import javax.servlet.Servlet;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletRequestWrapper;
@@ -84,6 +87,12 @@ public final class ApplicationFilterFactory {
     private static final int ASYNC = 16;
     public static final Integer ASYNC_INTEGER = new Integer(ASYNC);
 
+    /**
+     * Number of filter chain templates per servlet, one for each dispatcher
+     * type (or none) and event mode.
+     */
+    static final int TEMPLATE_COUNT = 12;
+
     public static final String DISPATCHER_TYPE_ATTR = 
         Globals.DISPATCHER_TYPE_ATTR;
     public static final String DISPATCHER_REQUEST_PATH_ATTR = 
@@ -188,79 +197,202 @@ public final class ApplicationFilterFactory {
         filterChain.setWrapper(wrapper);
         filterChain.setServlet(servlet);
 
-        // Acquire the filter mappings for this Context
+        // Acquire the templates of this servlet before the filter mappings
+        // for this Context, so that a template built from outdated mappings
+        // is never cached
         StandardContext context = (StandardContext) wrapper.getParent();
+        String servletName = wrapper.getName();
+        FilterChainTemplate[] templates = (servletName == null) ? null
+                : context.findFilterChainTemplates(servletName);
         FilterMap filterMaps[] = context.findFilterMaps();
 
         // If there are no filter mappings, we are done
         if ((filterMaps == null) || (filterMaps.length == 0))
             return (filterChain);
 
-        // Acquire the information we will need to match filter mappings
-        String servletName = wrapper.getName();
-
-        // Add the relevant path-mapped filters to this filter chain
-        for (int i = 0; i < filterMaps.length; i++) {
-            if (!matchDispatcher(filterMaps[i] ,dispatcher)) {
-                continue;
+        if (templates == null) {
+            // Without a servlet name, only the filters mapped by URL pattern
+            // apply, and they are matched directly
+            for (int i = 0; i < filterMaps.length; i++) {
+                if (!matchDispatcher(filterMaps[i], dispatcher)) {
+                    continue;
+                }
+                if (!matchFiltersURL(filterMaps[i], requestPath))
+                    continue;
+                ApplicationFilterConfig filterConfig = findFilterConfig(context,
+                        filterMaps[i], event);
+                if (filterConfig != null) {
+                    filterChain.addFilter(filterConfig);
+                }
             }
-            if (!matchFiltersURL(filterMaps[i], requestPath))
-                continue;
-            ApplicationFilterConfig filterConfig = (ApplicationFilterConfig)
-                context.findFilterConfig(filterMaps[i].getFilterName());
-            if (filterConfig == null) {
-                ;       // FIXME - log configuration problem
-                continue;
+            return (filterChain);
+        }
+
+        // Find the filters precomputed for this servlet and dispatcher type,
+        // and add those matching the request path
+        int index = templateIndex(dispatcher, event);
+        FilterChainTemplate template = templates[index];
+        if (template == null) {
+            template = new FilterChainTemplate(context, filterMaps, dispatcher,
+                    servletName, event);
+            templates[index] = template;
+        }
+        template.addFilters(filterChain, requestPath);
+
+        // Return the completed filter chain
+        return (filterChain);
+
+    }
+
+
+    // ------------------------------------------------ FilterChainTemplate Class
+
+
+    /**
+     * The filters of the chains built for a servlet and a dispatcher type,
+     * which are precomputed from the filter mappings of the context. The
+     * filters mapped by URL pattern are matched against the request path,
+     * and the result is cached for a bounded number of paths.
+     */
+    static final class FilterChainTemplate {
+
+        /**
+         * Maximum number of request paths for which the filters are cached.
+         */
+        protected static final int MAX_PATHS = 256;
+
+        /**
+         * The filter mappings by URL pattern, in order.
+         */
+        private final FilterMap[] urlMaps;
+
+        /**
+         * The filters of the mappings by URL pattern.
+         */
+        private final ApplicationFilterConfig[] urlFilters;
+
+        /**
+         * The filters mapped by servlet name, which follow those mapped by
+         * URL pattern.
+         */
+        private final ApplicationFilterConfig[] servletFilters;
+
+        /**
+         * The filters of all the chains, if all the mappings by URL pattern
+         * match all paths, or else <code>null</code>.
+         */
+        private final ApplicationFilterConfig[] filters;
+
+        /**
+         * The filters of the chains, keyed by request path.
+         */
+        private final ConcurrentHashMap<String, ApplicationFilterConfig[]> paths;
+
+        FilterChainTemplate(StandardContext context, FilterMap[] filterMaps,
+                int dispatcher, String servletName, boolean event) {
+            ArrayList<FilterMap> maps = new ArrayList<FilterMap>();
+            ArrayList<ApplicationFilterConfig> configs = new ArrayList<ApplicationFilterConfig>();
+            boolean matchAll = true;
+            // Add the relevant path-mapped filters to this filter chain
+            for (int i = 0; i < filterMaps.length; i++) {
+                if (!matchDispatcher(filterMaps[i], dispatcher)) {
+                    continue;
+                }
+                if (!filterMaps[i].getMatchAllUrlPatterns()
+                        && filterMaps[i].getURLPatterns().length == 0) {
+                    continue;
+                }
+                ApplicationFilterConfig filterConfig = findFilterConfig(context,
+                        filterMaps[i], event);
+                if (filterConfig != null) {
+                    maps.add(filterMaps[i]);
+                    configs.add(filterConfig);
+                    matchAll = matchAll && filterMaps[i].getMatchAllUrlPatterns();
+                }
             }
-            boolean isEventFilter = false;
-            if (event) {
-                try {
-                    isEventFilter = filterConfig.getFilter() instanceof HttpEventFilter;
-                } catch (Exception e) {
-                    // Note: The try catch is there because getFilter has a lot of 
-                    // declared exceptions. However, the filter is allocated much
-                    // earlier
+            this.urlMaps = maps.toArray(new FilterMap[maps.size()]);
+            this.urlFilters = configs.toArray(new ApplicationFilterConfig[configs.size()]);
+
+            // Add filters that match on servlet name second
+            configs.clear();
+            for (int i = 0; i < filterMaps.length; i++) {
+                if (!matchDispatcher(filterMaps[i], dispatcher)) {
+                    continue;
                 }
-                if (isEventFilter) {
-                    filterChain.addFilter(filterConfig);
+                if (!matchFiltersServlet(filterMaps[i], servletName))
+                    continue;
+                ApplicationFilterConfig filterConfig = findFilterConfig(context,
+                        filterMaps[i], event);
+                if (filterConfig != null) {
+                    configs.add(filterConfig);
                 }
+            }
+            this.servletFilters = configs.toArray(new ApplicationFilterConfig[configs.size()]);
+
+            if (matchAll) {
+                this.filters = match(null);
+                this.paths = null;
             } else {
-                filterChain.addFilter(filterConfig);
+                this.filters = null;
+                this.paths = new ConcurrentHashMap<String, ApplicationFilterConfig[]>();
             }
         }
 
-        // Add filters that match on servlet name second
-        for (int i = 0; i < filterMaps.length; i++) {
-            if (!matchDispatcher(filterMaps[i] ,dispatcher)) {
-                continue;
-            }
-            if (!matchFiltersServlet(filterMaps[i], servletName))
-                continue;
-            ApplicationFilterConfig filterConfig = (ApplicationFilterConfig)
-                context.findFilterConfig(filterMaps[i].getFilterName());
-            if (filterConfig == null) {
-                ;       // FIXME - log configuration problem
-                continue;
+        /**
+         * Add the filters of the chain for the specified request path to the
+         * specified filter chain, in order. Once the cache is full, the
+         * filters of the paths which are not cached are added directly.
+         *
+         * @param filterChain The filter chain being built
+         * @param requestPath Context-relative request path of this request
+         */
+        void addFilters(ApplicationFilterChain filterChain, String requestPath) {
+            if (filters != null) {
+                filterChain.addFilters(filters);
+                return;
             }
-            boolean isEventFilter = false;
-            if (event) {
-                try {
-                    isEventFilter = filterConfig.getFilter() instanceof HttpEventFilter;
-                } catch (Exception e) {
-                    // Note: The try catch is there because getFilter has a lot of 
-                    // declared exceptions. However, the filter is allocated much
-                    // earlier
+            ApplicationFilterConfig[] result = null;
+            if (requestPath != null) {
+                result = paths.get(requestPath);
+                if (result == null && paths.size() < MAX_PATHS) {
+                    result = match(requestPath);
+                    paths.put(requestPath, result);
                 }
-                if (isEventFilter) {
-                    filterChain.addFilter(filterConfig);
+            }
+            if (result != null) {
+                filterChain.addFilters(result);
+                return;
+            }
+            for (int i = 0; i < urlMaps.length; i++) {
+                if (matchFiltersURL(urlMaps[i], requestPath)) {
+                    filterChain.addFilter(urlFilters[i]);
                 }
-            } else {
-                filterChain.addFilter(filterConfig);
             }
+            filterChain.addFilters(servletFilters);
         }
 
-        // Return the completed filter chain
-        return (filterChain);
+        /**
+         * Match the filter mappings by URL pattern against the specified
+         * request path.
+         */
+        private ApplicationFilterConfig[] match(String requestPath) {
+            int n = 0;
+            for (int i = 0; i < urlMaps.length; i++) {
+                if (matchFiltersURL(urlMaps[i], requestPath)) {
+                    n++;
+                }
+            }
+            ApplicationFilterConfig[] result =
+                new ApplicationFilterConfig[n + servletFilters.length];
+            n = 0;
+            for (int i = 0; i < urlMaps.length; i++) {
+                if (matchFiltersURL(urlMaps[i], requestPath)) {
+                    result[n++] = urlFilters[i];
+                }
+            }
+            System.arraycopy(servletFilters, 0, result, n, servletFilters.length);
+            return result;
+        }
 
     }
 
@@ -268,6 +400,53 @@ public final class ApplicationFilterFactory {
     // -------------------------------------------------------- Private Methods
 
 
+    /**
+     * Return the index of the filter chain template for the specified
+     * dispatcher type and event mode.
+     */
+    private static int templateIndex(int dispatcher, boolean event) {
+        int index = 0;
+        switch (dispatcher) {
+            case ERROR : index = 1; break;
+            case FORWARD : index = 2; break;
+            case INCLUDE : index = 3; break;
+            case REQUEST : index = 4; break;
+            case ASYNC : index = 5; break;
+        }
+        return (index << 1) | (event ? 1 : 0);
+    }
+
+
+    /**
+     * Return the filter configuration of the specified filter mapping, or
+     * <code>null</code> if there is none or if it is not an event filter in
+     * event mode.
+     */
+    private static ApplicationFilterConfig findFilterConfig(StandardContext context,
+            FilterMap filterMap, boolean event) {
+        ApplicationFilterConfig filterConfig = (ApplicationFilterConfig)
+            context.findFilterConfig(filterMap.getFilterName());
+        if (filterConfig == null) {
+            ;       // FIXME - log configuration problem
+            return null;
+        }
+        if (event) {
+            boolean isEventFilter = false;
+            try {
+                isEventFilter = filterConfig.getFilter() instanceof HttpEventFilter;
+            } catch (Exception e) {
+                // Note: The try catch is there because getFilter has a lot of 
+                // declared exceptions. However, the filter is allocated much
+                // earlier
+            }
+            if (!isEventFilter) {
+                return null;
+            }
+        }
+        return filterConfig;
+    }
+
+
     /**
      * Return <code>true</code> if the context-relative request path
      * matches the requirements of the specified filter mapping;
@@ -276,7 +455,7 @@ public final class ApplicationFilterFactory {
      * @param filterMap Filter mapping being checked
      * @param requestPath Context-relative request path of this request
      */
-    private boolean matchFiltersURL(FilterMap filterMap, String requestPath) {
+    private static boolean matchFiltersURL(FilterMap filterMap, String requestPath) {
 
         // Check the specific "*" special URL pattern, which also matches
         // named dispatches
@@ -309,7 +488,7 @@ public final class ApplicationFilterFactory {
      * @param testPath URL mapping being checked
      * @param requestPath Context-relative request path of this request
      */
-    private boolean matchFiltersURL(String testPath, String requestPath) {
+    private static boolean matchFiltersURL(String testPath, String requestPath) {
         
         if (testPath == null)
             return (false);
@@ -360,8 +539,8 @@ public final class ApplicationFilterFactory {
      * @param filterMap Filter mapping being checked
      * @param servletName Servlet name being checked
      */
-    private boolean matchFiltersServlet(FilterMap filterMap, 
-                                        String servletName) {
+    private static boolean matchFiltersServlet(FilterMap filterMap, 
+                                               String servletName) {
 
         if (servletName == null) {
             return (false);
@@ -386,7 +565,7 @@ public final class ApplicationFilterFactory {
      * Convienience method which returns true if  the dispatcher type
      * matches the dispatcher types specified in the FilterMap
      */
-    private boolean matchDispatcher(FilterMap filterMap, int dispatcher) {
+    private static boolean matchDispatcher(FilterMap filterMap, int dispatcher) {
         switch (dispatcher) {
             case FORWARD : {
                 if ((filterMap.getDispatcherMapping() & FilterMap.FORWARD) == FilterMap.FORWARD) {
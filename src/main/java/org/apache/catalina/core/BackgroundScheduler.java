@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.catalina.core;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.web.CatalinaLogger;
+
+
+/**
+ * Scheduler shared by all the components which need to run periodic
+ * background tasks, such as the containers. Each task runs at its own rate
+ * on a small pool of daemon threads, so that a long operation, such as
+ * expiring the sessions of a large context, does not delay the tasks of the
+ * other components. A random jitter is applied to the delay between two
+ * runs of a task to spread the tasks of the components which were started
+ * at the same time.
+ */
+public final class BackgroundScheduler {
+
+
+    /**
+     * Number of threads of the scheduler, at least two by default so that a
+     * long task does not delay all the other tasks.
+     */
+    public static final int THREADS =
+        Integer.valueOf(System.getProperty("org.apache.catalina.core.BackgroundScheduler.THREADS",
+                String.valueOf(Math.max(2, Runtime.getRuntime().availableProcessors() / 2)))).intValue();
+
+
+    /**
+     * Maximum variation of the delay between two runs of a task, as a
+     * fraction of its period.
+     */
+    public static final double JITTER =
+        Double.valueOf(System.getProperty("org.apache.catalina.core.BackgroundScheduler.JITTER", "0.1")).doubleValue();
+
+
+    private static final ScheduledThreadPoolExecutor executor =
+        new ScheduledThreadPoolExecutor(THREADS, new SchedulerThreadFactory());
+
+    static {
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+
+    private BackgroundScheduler() {
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Run the given task periodically, until the returned task is cancelled.
+     * The first run happens after a random delay smaller than the period.
+     *
+     * @param runnable The task
+     * @param period The period of the task
+     * @param unit The unit of the period
+     * @return the scheduled task
+     */
+    public static Task schedule(Runnable runnable, long period, TimeUnit unit) {
+        Task task = new Task(runnable, unit.toNanos(period));
+        task.schedule(1 + ThreadLocalRandom.current().nextLong(task.period));
+        return task;
+    }
+
+
+    // ---------------------------------------------------------- Inner Classes
+
+
+    /**
+     * A periodic task, with its execution statistics.
+     */
+    public static final class Task implements Runnable {
+
+        private final Runnable runnable;
+        private final long period;
+        private volatile boolean cancelled = false;
+        private ScheduledFuture<?> future = null;
+
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalTime = new AtomicLong();
+        private final AtomicLong maxTime = new AtomicLong();
+        private final AtomicLong overrunCount = new AtomicLong();
+        private volatile long lastTime = 0;
+
+        private Task(Runnable runnable, long period) {
+            this.runnable = runnable;
+            this.period = Math.max(period, 1);
+        }
+
+        /**
+         * Number of times the task ran.
+         */
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * Total time (in milliseconds) spent running the task.
+         */
+        public long getTotalTime() {
+            return TimeUnit.NANOSECONDS.toMillis(totalTime.get());
+        }
+
+        /**
+         * Longest time (in milliseconds) spent running the task.
+         */
+        public long getMaxTime() {
+            return TimeUnit.NANOSECONDS.toMillis(maxTime.get());
+        }
+
+        /**
+         * Time (in milliseconds) spent during the last run of the task.
+         */
+        public long getLastTime() {
+            return TimeUnit.NANOSECONDS.toMillis(lastTime);
+        }
+
+        /**
+         * Number of runs which took longer than the period of the task.
+         */
+        public long getOverrunCount() {
+            return overrunCount.get();
+        }
+
+        /**
+         * Cancel the task. A run in progress is not interrupted.
+         */
+        public synchronized void cancel() {
+            cancelled = true;
+            if (future != null) {
+                future.cancel(false);
+                future = null;
+            }
+        }
+
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                runnable.run();
+            } catch (Throwable t) {
+                CatalinaLogger.CORE_LOGGER.errorInPeriodicOperation(t);
+            } finally {
+                long time = System.nanoTime() - start;
+                count.incrementAndGet();
+                totalTime.addAndGet(time);
+                lastTime = time;
+                long max = maxTime.get();
+                while (time > max && !maxTime.compareAndSet(max, time)) {
+                    max = maxTime.get();
+                }
+                if (time > period) {
+                    overrunCount.incrementAndGet();
+                }
+                // The next run is scheduled after the end of this one, so
+                // that a slow run cannot pile up with the next ones
+                long jitter = (long) (period * JITTER);
+                long delay = period;
+                if (jitter > 0) {
+                    delay += ThreadLocalRandom.current().nextLong(2 * jitter + 1) - jitter;
+                }
+                schedule(Math.max(delay, 1));
+            }
+        }
+
+        private synchronized void schedule(long delay) {
+            if (!cancelled) {
+                future = executor.schedule(this, delay, TimeUnit.NANOSECONDS);
+            }
+        }
+
+    }
+
+
+    private static class SchedulerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ContainerBackgroundProcessor-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            // Avoid keeping a reference to the class loader of a webapp
+            thread.setContextClassLoader(BackgroundScheduler.class.getClassLoader());
+            return thread;
+        }
+
+    }
+
+
+}
@@ -32,6 +32,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 import javax.management.MBeanRegistration;
 import javax.management.MBeanServer;
@@ -273,15 +274,9 @@ public abstract class ContainerBase
 
 
     /**
-     * The background thread.
+     * The background processing task of this container.
      */
-    private Thread thread = null;
-
-
-    /**
-     * The background thread completion semaphore.
-     */
-    private boolean threadDone = false;
+    private BackgroundScheduler.Task backgroundTask = null;
 
 
     // ------------------------------------------------------------- Properties
@@ -298,12 +293,10 @@ public abstract class ContainerBase
 
     /**
      * Get the delay between the invocation of the backgroundProcess method on
-     * this container and its children. Child containers will not be invoked
-     * if their delay value is not negative (which would mean they are using 
-     * their own thread). Setting this to a positive value will cause 
-     * a thread to be spawn. After waiting the specified amount of time, 
-     * the thread will invoke the executePeriodic method on this container 
-     * and all its children.
+     * this container and its children. Child containers use the delay of
+     * their parent if their own delay value is not positive. Each container
+     * is processed by its own task on the shared {@link BackgroundScheduler},
+     * so that the processing of a container does not delay the others.
      */
     public int getBackgroundProcessorDelay() {
         return backgroundProcessorDelay;
@@ -312,13 +305,59 @@ public abstract class ContainerBase
 
     /**
      * Set the delay between the invocation of the execute method on this
-     * container and its children.
+     * container and its children. If the container is started, the
+     * background processing of this container and of the children using
+     * its delay is rescheduled with the new delay.
      * 
      * @param delay The delay in seconds between the invocation of 
      *              backgroundProcess methods
      */
     public void setBackgroundProcessorDelay(int delay) {
+        int oldDelay = backgroundProcessorDelay;
         backgroundProcessorDelay = delay;
+        if (started && oldDelay != delay) {
+            threadRestart();
+        }
+    }
+
+
+    /**
+     * Return the number of times the background processing of this container
+     * ran since it was started.
+     */
+    public long getBackgroundProcessCount() {
+        BackgroundScheduler.Task task = backgroundTask;
+        return (task == null) ? 0 : task.getCount();
+    }
+
+
+    /**
+     * Return the total time (in milliseconds) spent in the background
+     * processing of this container since it was started.
+     */
+    public long getBackgroundProcessTime() {
+        BackgroundScheduler.Task task = backgroundTask;
+        return (task == null) ? 0 : task.getTotalTime();
+    }
+
+
+    /**
+     * Return the longest time (in milliseconds) spent in the background
+     * processing of this container since it was started.
+     */
+    public long getBackgroundProcessMaxTime() {
+        BackgroundScheduler.Task task = backgroundTask;
+        return (task == null) ? 0 : task.getMaxTime();
+    }
+
+
+    /**
+     * Return the number of times the background processing of this container
+     * took longer than its delay.
+     */
+    public long getBackgroundProcessOverrunCount() {
+        BackgroundScheduler.Task task = backgroundTask;
+        return (task == null) ? 0 : task.getOverrunCount();
     }
 
 
@@ -786,7 +825,47 @@ public abstract class ContainerBase
         }
     }
 
-    private synchronized void addChildInternal(Container child) {
+    private void addChildInternal(Container child) {
+
+        if (!getStartChildrenConcurrently()) {
+            addChildSynchronized(child);
+            return;
+        }
+
+        // Only register the child while holding the lock, so that children
+        // added from several threads start concurrently
+        boolean startChild = false;
+        synchronized (this) {
+            if (child.getName() == null)
+                throw MESSAGES.containerChildWithNullName();
+            if (children.get(child.getName()) != null)
+                throw MESSAGES.containerChildNameNotUnique(child.getName());
+
+            child.setParent(this);  // May throw IAE
+            children.put(child.getName(), child);
+            startChild = started && startChildren && (child instanceof Lifecycle);
+        }
+
+        // Start child
+        if (startChild) {
+            boolean success = false;
+            try {
+                ((Lifecycle) child).start();
+                success = true;
+            } catch (LifecycleException e) {
+                throw MESSAGES.containerChildStartFailed(child.getName(), e);
+            } finally {
+                if (!success) {
+                    children.remove(child.getName());
+                }
+            }
+        }
+
+        fireContainerEvent(ADD_CHILD_EVENT, child);
+
+    }
+
+    private synchronized void addChildSynchronized(Container child) {
 
         if (child.getName() == null)
             throw MESSAGES.containerChildWithNullName();
@@ -1026,11 +1105,7 @@ public abstract class ContainerBase
             ((Lifecycle) resources).start();
 
         // Start our child containers, if any
-        Container children[] = findChildren();
-        for (int i = 0; i < children.length; i++) {
-            if (children[i] instanceof Lifecycle)
-                ((Lifecycle) children[i]).start();
-        }
+        startChildContainers(findChildren());
 
         // Start the Valves in our pipeline (including the basic), if any
         if (pipeline instanceof Lifecycle)
@@ -1039,7 +1114,7 @@ public abstract class ContainerBase
         // Notify our interested LifecycleListeners
         lifecycle.fireLifecycleEvent(START_EVENT, null);
 
-        // Start our thread
+        // Schedule our background processing
         threadStart();
 
         // Notify our interested LifecycleListeners
@@ -1048,6 +1123,30 @@ public abstract class ContainerBase
     }
 
 
+    /**
+     * Return true if a child added to this started container may be started
+     * outside of the container lock, concurrently with other children.
+     */
+    protected boolean getStartChildrenConcurrently() {
+        return false;
+    }
+
+
+    /**
+     * Start the given child containers.
+     *
+     * @param children The child containers
+     * @exception LifecycleException if a child container failed to start
+     */
+    protected void startChildContainers(Container children[])
+        throws LifecycleException {
+        for (int i = 0; i < children.length; i++) {
+            if (children[i] instanceof Lifecycle)
+                ((Lifecycle) children[i]).start();
+        }
+    }
+
+
     /**
      * Gracefully shut down active use of the public methods of this Component.
      *
@@ -1065,7 +1164,7 @@ public abstract class ContainerBase
         // Notify our interested LifecycleListeners
         lifecycle.fireLifecycleEvent(BEFORE_STOP_EVENT, null);
 
-        // Stop our thread
+        // Cancel our background processing
         threadStop();
 
         // Notify our interested LifecycleListeners
@@ -1507,43 +1606,62 @@ public abstract class ContainerBase
 
 
     /**
-     * Start the background thread that will periodically check for
-     * session timeouts.
+     * Schedule the background processing of this container, using its delay
+     * or the delay of its closest parent with a positive one.
      */
-    protected void threadStart() {
+    protected synchronized void threadStart() {
 
-        if (thread != null)
+        if (backgroundTask != null)
             return;
-        if (backgroundProcessorDelay <= 0)
+        int delay = -1;
+        Container container = this;
+        while (container != null && delay <= 0) {
+            delay = container.getBackgroundProcessorDelay();
+            container = container.getParent();
+        }
+        if (delay <= 0)
             return;
 
-        threadDone = false;
-        String threadName = "ContainerBackgroundProcessor[" + toString() + "]";
-        thread = new Thread(new ContainerBackgroundProcessor(), threadName);
-        thread.setDaemon(true);
-        thread.start();
+        backgroundTask = BackgroundScheduler.schedule
+            (new ContainerBackgroundProcessor(), delay, TimeUnit.SECONDS);
 
     }
 
 
     /**
-     * Stop the background thread that is periodically checking for
-     * session timeouts.
+     * Cancel the background processing of this container. A processing in
+     * progress is not waited for.
      */
-    protected void threadStop() {
+    protected synchronized void threadStop() {
 
-        if (thread == null)
+        if (backgroundTask == null)
             return;
 
-        threadDone = true;
-        thread.interrupt();
-        try {
-            thread.join();
-        } catch (InterruptedException e) {
-            ;
-        }
+        backgroundTask.cancel();
+        backgroundTask = null;
+
+    }
+
 
-        thread = null;
+    /**
+     * Reschedule the background processing of this container, and of the
+     * children using its delay, after a change of the delay.
+     */
+    protected void threadRestart() {
+
+        synchronized (this) {
+            if (!started)
+                return;
+            threadStop();
+            threadStart();
+        }
+        Container children[] = findChildren();
+        for (int i = 0; i < children.length; i++) {
+            if ((children[i] instanceof ContainerBase)
+                    && (children[i].getBackgroundProcessorDelay() <= 0)) {
+                ((ContainerBase) children[i]).threadRestart();
+            }
+        }
 
     }
 
@@ -1552,31 +1670,14 @@ public abstract class ContainerBase
 
 
     /**
-     * Private thread class to invoke the backgroundProcess method 
-     * of this container and its children after a fixed delay.
+     * Private task class to invoke the backgroundProcess method of this
+     * container.
      */
     protected class ContainerBackgroundProcessor implements Runnable {
 
         public void run() {
-            while (!threadDone) {
-                try {
-                    Thread.sleep(backgroundProcessorDelay * 1000L);
-                } catch (InterruptedException e) {
-                    ;
-                }
-                if (!threadDone) {
-                    Container parent = (Container) getMappingObject();
-                    ClassLoader cl = 
-                        Thread.currentThread().getContextClassLoader();
-                    if (parent.getLoader() != null) {
-                        cl = parent.getLoader().getClassLoader();
-                    }
-                    processChildren(parent, cl);
-                }
-            }
-        }
-
-        protected void processChildren(Container container, ClassLoader cl) {
+            Container container = (Container) getMappingObject();
+            ClassLoader cl = Thread.currentThread().getContextClassLoader();
             try {
                 if (container.getLoader() != null) {
                     Thread.currentThread().setContextClassLoader
@@ -1594,12 +1695,6 @@ public abstract class ContainerBase
                 }
                 Thread.currentThread().setContextClassLoader(cl);
             }
-            Container[] children = container.findChildren();
-            for (int i = 0; i < children.length; i++) {
-                if (children[i].getBackgroundProcessorDelay() <= 0) {
-                    processChildren(children[i], cl);
-                }
-            }
         }
 
     }
@@ -0,0 +1,301 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.catalina.core;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.Servlet;
+
+
+/**
+ * Bounded pool of the instances of a <code>SingleThreadModel</code> servlet.
+ * The number of allocated instances is bounded by a semaphore, which only
+ * blocks when all the instances are in use, and the idle instances are kept
+ * in a lock free stack, so that the most recently used instance is reused
+ * first.
+ * <p>
+ * An allocation first calls {@link #acquire(long)}, then takes an idle
+ * instance with {@link #poll()}, or creates a new one if there is none and
+ * registers it with {@link #created()}. If the creation fails, the
+ * allocation is cancelled with {@link #cancel()}.
+ */
+public final class ServletInstancePool {
+
+
+    // ----------------------------------------------------------- Constructors
+
+
+    /**
+     * Create a pool allowing the given number of instances.
+     *
+     * @param maxInstances The maximum number of instances
+     */
+    public ServletInstancePool(int maxInstances) {
+        this.maxInstances = Math.max(maxInstances, 1);
+        this.permits = new Permits(this.maxInstances);
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    /**
+     * The idle instances, the most recently used first.
+     */
+    private final ConcurrentLinkedDeque<Servlet> idle = new ConcurrentLinkedDeque<Servlet>();
+
+
+    /**
+     * The permits to allocate an instance.
+     */
+    private final Permits permits;
+
+
+    /**
+     * The maximum number of instances.
+     */
+    private volatile int maxInstances;
+
+
+    /**
+     * The number of created instances.
+     */
+    private final AtomicInteger instances = new AtomicInteger();
+
+
+    /**
+     * The number of allocated instances.
+     */
+    private final AtomicInteger allocated = new AtomicInteger();
+
+
+    /**
+     * The number of allocations which had to wait for an instance.
+     */
+    private final AtomicLong waitCount = new AtomicLong();
+
+
+    /**
+     * The total time spent waiting for an instance, in ns.
+     */
+    private final AtomicLong waitTime = new AtomicLong();
+
+
+    /**
+     * The number of allocations which timed out.
+     */
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    /**
+     * Return the number of created instances.
+     */
+    public int getInstances() {
+        return instances.get();
+    }
+
+
+    /**
+     * Return the number of allocated instances.
+     */
+    public int getAllocated() {
+        return allocated.get();
+    }
+
+
+    /**
+     * Return the number of allocations which had to wait for an instance.
+     */
+    public long getWaitCount() {
+        return waitCount.get();
+    }
+
+
+    /**
+     * Return the total time spent waiting for an instance, in ms.
+     */
+    public long getWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(waitTime.get());
+    }
+
+
+    /**
+     * Return the number of allocations which timed out.
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+
+    /**
+     * Return the maximum number of instances.
+     */
+    public synchronized int getMaxInstances() {
+        return maxInstances;
+    }
+
+
+    /**
+     * Set the maximum number of instances. When it is reduced, fewer
+     * instances are allocated at the same time, and the idle instances in
+     * excess are returned by {@link #pollExcess()} to be destroyed.
+     *
+     * @param maxInstances The maximum number of instances
+     */
+    public synchronized void setMaxInstances(int maxInstances) {
+        maxInstances = Math.max(maxInstances, 1);
+        int delta = maxInstances - this.maxInstances;
+        this.maxInstances = maxInstances;
+        if (delta > 0) {
+            permits.release(delta);
+        } else if (delta < 0) {
+            permits.reducePermits(-delta);
+        }
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Reserve an instance, waiting if all the instances are allocated.
+     *
+     * @param timeout The maximum time to wait, in ms, or zero or less to
+     *  wait until an instance is available
+     * @return <code>false</code> if the timeout elapsed before an instance
+     *  became available
+     * @exception InterruptedException if the thread was interrupted while
+     *  waiting
+     */
+    public boolean acquire(long timeout) throws InterruptedException {
+        if (!permits.tryAcquire()) {
+            waitCount.incrementAndGet();
+            long start = System.nanoTime();
+            try {
+                if (timeout <= 0) {
+                    permits.acquire();
+                } else if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                    timeoutCount.incrementAndGet();
+                    return false;
+                }
+            } finally {
+                waitTime.addAndGet(System.nanoTime() - start);
+            }
+        }
+        allocated.incrementAndGet();
+        return true;
+    }
+
+
+    /**
+     * Take an idle instance, once an instance has been reserved. This is
+     * also used to remove the idle instances when the servlet is unloaded.
+     *
+     * @return the instance, or <code>null</code> if a new instance has to be
+     *  created
+     */
+    public Servlet poll() {
+        return idle.pollFirst();
+    }
+
+
+    /**
+     * Take an idle instance in excess of the maximum number of instances,
+     * the least recently used first, after the maximum was reduced. The
+     * instance is no longer counted, and has to be destroyed.
+     *
+     * @return the instance, or <code>null</code> if there is no idle
+     *  instance in excess
+     */
+    public Servlet pollExcess() {
+        if (instances.get() <= maxInstances) {
+            return null;
+        }
+        Servlet servlet = idle.pollLast();
+        if (servlet == null) {
+            return null;
+        }
+        if (instances.decrementAndGet() < maxInstances) {
+            // Another instance was removed concurrently
+            instances.incrementAndGet();
+            idle.offerLast(servlet);
+            return null;
+        }
+        return servlet;
+    }
+
+
+    /**
+     * Register a new instance, created after reserving an instance.
+     */
+    public void created() {
+        instances.incrementAndGet();
+    }
+
+
+    /**
+     * Cancel an instance reservation, if the instance could not be created.
+     */
+    public void cancel() {
+        allocated.decrementAndGet();
+        permits.release();
+    }
+
+
+    /**
+     * Return an allocated instance to the pool.
+     *
+     * @param servlet The instance
+     */
+    public void release(Servlet servlet) {
+        idle.offerFirst(servlet);
+        allocated.decrementAndGet();
+        permits.release();
+    }
+
+
+    // ---------------------------------------------------------- Inner Classes
+
+
+    /**
+     * Semaphore allowing to reduce the number of permits.
+     */
+    private static final class Permits extends Semaphore {
+
+        private static final long serialVersionUID = 1L;
+
+        Permits(int permits) {
+            super(permits);
+        }
+
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+
+    }
+
+
+}
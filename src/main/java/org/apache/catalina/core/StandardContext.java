@@ -35,8 +35,14 @@ import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import javax.management.ListenerNotFoundException;
 import javax.management.MBeanNotificationInfo;
@@ -85,12 +91,14 @@ import org.apache.catalina.deploy.JspPropertyGroup;
 import org.apache.catalina.deploy.LoginConfig;
 import org.apache.catalina.deploy.SecurityCollection;
 import org.apache.catalina.deploy.SecurityConstraint;
+import org.apache.catalina.deploy.SecurityConstraintIndex;
 import org.apache.catalina.deploy.SessionCookie;
 import org.apache.catalina.deploy.jsp.TagLibraryInfo;
 import org.apache.catalina.session.StandardManager;
 import org.apache.catalina.util.CharsetMapper;
 import org.apache.catalina.util.RequestUtil;
 import org.apache.catalina.util.URLEncoder;
+import org.apache.coyote.LatencyHistogram;
 import org.apache.naming.resources.BaseDirContext;
 import org.apache.naming.resources.DirContextURLStreamHandler;
 import org.apache.naming.resources.FileDirContext;
@@ -280,6 +288,13 @@ public class StandardContext
     protected SecurityConstraint constraints[] = new SecurityConstraint[0];
 
 
+    /**
+     * The index of the security constraints, which is rebuilt on first use
+     * after the constraints change.
+     */
+    protected volatile SecurityConstraintIndex constraintIndex = null;
+
+
     /**
      * The ServletContext implementation associated with this Context.
      */
@@ -367,6 +382,15 @@ public class StandardContext
     protected FilterMap filterMaps[] = new FilterMap[0];
 
 
+    /**
+     * The filter chain templates of the servlets of this application, keyed
+     * by servlet name, which are cleared when the filters or their mappings
+     * change.
+     */
+    protected ConcurrentHashMap<String, ApplicationFilterFactory.FilterChainTemplate[]> filterChainTemplates =
+        new ConcurrentHashMap<String, ApplicationFilterFactory.FilterChainTemplate[]>();
+
+
     /**
      * Filter mappings added via {@link ServletContext} may have to be inserted
      * before the mappings in the deploymenmt descriptor but must be inserted in
@@ -596,6 +620,13 @@ public class StandardContext
     protected boolean cachingAllowed = true;
 
 
+    /**
+     * Latency histogram of the requests processed by this context, if
+     * enabled.
+     */
+    protected volatile LatencyHistogram latencyHistogram = null;
+
+
     /**
      * Case sensitivity.
      */
@@ -634,6 +665,22 @@ public class StandardContext
     protected long startupTime;
     protected long startTime;
     protected long tldScanTime;
+    protected long listenerStartTime;
+    protected long filterStartTime;
+    protected long loadOnStartupTime;
+
+    /**
+     * Initialize the servlets with the same load on startup value
+     * concurrently.
+     */
+    protected boolean parallelStartup =
+        Boolean.valueOf(System.getProperty("org.apache.catalina.core.StandardContext.parallelStartup", "false")).booleanValue();
+
+    /**
+     * Maximum number of threads used for parallel startup, or zero to use
+     * one per processor.
+     */
+    protected int startupThreads = 0;
 
     /** 
      * Name of the engine. If null, the domain is used.
@@ -690,6 +737,65 @@ public class StandardContext
     }
 
 
+    /**
+     * Are latency histograms enabled for this context and its servlets ?
+     */
+    public boolean getLatencyHistograms() {
+        return (latencyHistogram != null);
+    }
+
+
+    /**
+     * Enable latency histograms for this context and its servlets.
+     */
+    public void setLatencyHistograms(boolean latencyHistograms) {
+        if (latencyHistograms && latencyHistogram == null) {
+            latencyHistogram = new LatencyHistogram();
+        } else if (!latencyHistograms) {
+            latencyHistogram = null;
+        }
+    }
+
+
+    /**
+     * Return the latency histogram of this context, or null if latency
+     * histograms are not enabled.
+     */
+    public LatencyHistogram getLatencyHistogram() {
+        return latencyHistogram;
+    }
+
+
+    /**
+     * Return the given percentile of the processing time of the requests
+     * over the last minute, or -1 if latency histograms are not enabled.
+     */
+    public long getLatencyPercentile(double percentile) {
+        LatencyHistogram histogram = latencyHistogram;
+        return (histogram == null) ? -1 : histogram.getPercentile(percentile);
+    }
+
+
+    public long getLatencyP50() {
+        return getLatencyPercentile(50);
+    }
+
+
+    public long getLatencyP90() {
+        return getLatencyPercentile(90);
+    }
+
+
+    public long getLatencyP99() {
+        return getLatencyPercentile(99);
+    }
+
+
+    public long getLatencyP999() {
+        return getLatencyPercentile(99.9);
+    }
+
+
     /**
      * Set case sensitivity.
      */
@@ -1064,6 +1170,55 @@ public class StandardContext
         this.tldScanTime = tldScanTime;
     }
 
+    /**
+     * Gets the time (in milliseconds) spent starting the application
+     * listeners of this context.
+     */
+    public long getListenerStartTime() {
+        return listenerStartTime;
+    }
+
+    /**
+     * Gets the time (in milliseconds) spent starting the filters of this
+     * context.
+     */
+    public long getFilterStartTime() {
+        return filterStartTime;
+    }
+
+    /**
+     * Gets the time (in milliseconds) spent loading the load on startup
+     * servlets of this context.
+     */
+    public long getLoadOnStartupTime() {
+        return loadOnStartupTime;
+    }
+
+    public boolean getParallelStartup() {
+        return parallelStartup;
+    }
+
+    /**
+     * Initialize the servlets with the same load on startup value
+     * concurrently. Servlets with different values are still initialized
+     * in order.
+     */
+    public void setParallelStartup(boolean parallelStartup) {
+        boolean oldParallelStartup = this.parallelStartup;
+        this.parallelStartup = parallelStartup;
+        support.firePropertyChange("parallelStartup", oldParallelStartup, this.parallelStartup);
+    }
+
+    public int getStartupThreads() {
+        return startupThreads;
+    }
+
+    public void setStartupThreads(int startupThreads) {
+        int oldStartupThreads = this.startupThreads;
+        this.startupThreads = startupThreads;
+        support.firePropertyChange("startupThreads", oldStartupThreads, this.startupThreads);
+    }
+
     /**
      * Return the display name of this web application.
      */
@@ -1943,6 +2098,7 @@ public class StandardContext
      */
     public void addApplicationFilterConfig(ApplicationFilterConfig filterConfig) {
         filterConfigs.put(filterConfig.getFilterName(), filterConfig);
+        filterChainTemplates.clear();
         fireContainerEvent("addApplicationFilterConfig", filterConfig);
     }
 
@@ -1975,6 +2131,7 @@ public class StandardContext
         System.arraycopy(filterMaps, 0, results, 0, filterMaps.length);
         results[filterMaps.length] = filterMap;
         filterMaps = results;
+        filterChainTemplates.clear();
         fireContainerEvent("addFilterMap", filterMap);
     }
 
@@ -2000,6 +2157,7 @@ public class StandardContext
         results[filterMapInsertPoint] = filterMap;
         filterMapInsertPoint++;
         filterMaps = results;
+        filterChainTemplates.clear();
         fireContainerEvent("addFilterMap", filterMap);
     }
 
@@ -2417,6 +2575,20 @@ public class StandardContext
     }
 
 
+    /**
+     * Return the index of the security constraints for this web application.
+     */
+    public SecurityConstraintIndex findConstraintIndex() {
+        SecurityConstraint[] constraints = this.constraints;
+        SecurityConstraintIndex index = constraintIndex;
+        if (index == null || index.getConstraints() != constraints) {
+            index = new SecurityConstraintIndex(constraints);
+            constraintIndex = index;
+        }
+        return index;
+    }
+
+
     /**
      * Return the error page entry for the specified HTTP error code,
      * if any; otherwise return <code>null</code>.
@@ -2924,6 +3096,7 @@ public class StandardContext
             filterMapInsertPoint--;
         }
         filterMaps = results;
+        filterChainTemplates.clear();
 
         // Inform interested listeners
         fireContainerEvent("removeFilterMap", filterMap);
@@ -3228,6 +3401,7 @@ public class StandardContext
                 ok = false;
             }
         }
+        filterChainTemplates.clear();
 
         return (ok);
 
@@ -3251,6 +3425,7 @@ public class StandardContext
             filterConfig.release();
         }
         filterConfigs.clear();
+        filterChainTemplates.clear();
         return (true);
 
     }
@@ -3267,6 +3442,28 @@ public class StandardContext
     }
 
 
+    /**
+     * Return the filter chain templates of the specified servlet, indexed
+     * by dispatcher type and event mode, which are filled as the chains are
+     * built.
+     *
+     * @param servletName Name of the servlet
+     */
+    ApplicationFilterFactory.FilterChainTemplate[] findFilterChainTemplates(String servletName) {
+        ApplicationFilterFactory.FilterChainTemplate[] templates =
+            filterChainTemplates.get(servletName);
+        if (templates == null) {
+            templates = new ApplicationFilterFactory.FilterChainTemplate[ApplicationFilterFactory.TEMPLATE_COUNT];
+            ApplicationFilterFactory.FilterChainTemplate[] existing =
+                filterChainTemplates.putIfAbsent(servletName, templates);
+            if (existing != null) {
+                templates = existing;
+            }
+        }
+        return templates;
+    }
+
+
     /**
      * Configure the set of instantiated application event listeners
      * for this Context.  Return <code>true</code> if all listeners wre
@@ -3577,17 +3774,97 @@ public class StandardContext
         }
 
         // Load the collected "load on startup" servlets
-        for (ArrayList<Wrapper> list : map.values()) {
-            for (Wrapper wrapper : list) {
-                try {
-                    wrapper.load();
-                } catch (ServletException e) {
-                    getLogger().error(MESSAGES.errorLoadingServlet(wrapper.getName()), StandardWrapper.getRootCause(e));
-                    // NOTE: load errors (including a servlet that throws
-                    // UnavailableException from tht init() method) are NOT
-                    // fatal to application startup
+        ForkJoinPool pool = null;
+        if (parallelStartup) {
+            pool = new ForkJoinPool((startupThreads > 0) ? startupThreads
+                    : Runtime.getRuntime().availableProcessors());
+        }
+        try {
+            for (ArrayList<Wrapper> list : map.values()) {
+                if (pool != null && list.size() > 1) {
+                    loadOnStartup(pool, list);
+                    continue;
+                }
+                for (Wrapper wrapper : list) {
+                    try {
+                        wrapper.load();
+                    } catch (ServletException e) {
+                        getLogger().error(MESSAGES.errorLoadingServlet(wrapper.getName()), StandardWrapper.getRootCause(e));
+                        // NOTE: load errors (including a servlet that throws
+                        // UnavailableException from tht init() method) are NOT
+                        // fatal to application startup
+                    }
                 }
             }
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+
+    }
+
+
+    /**
+     * Load and initialize the given servlets concurrently, and wait for
+     * all of them. Errors are reported in the order of the servlets, as if
+     * they had been loaded sequentially.
+     *
+     * @param pool The executor used to load the servlets
+     * @param wrappers The servlets to load
+     */
+    protected void loadOnStartup(ExecutorService pool, List<Wrapper> wrappers) {
+
+        ArrayList<Callable<Throwable>> tasks = new ArrayList<Callable<Throwable>>(wrappers.size());
+        for (final Wrapper wrapper : wrappers) {
+            tasks.add(new Callable<Throwable>() {
+                public Throwable call() {
+                    ClassLoader oldCCL = bindThread();
+                    try {
+                        wrapper.load();
+                        return null;
+                    } catch (Throwable t) {
+                        return t;
+                    } finally {
+                        unbindThread(oldCCL);
+                    }
+                }
+            });
+        }
+        List<Future<Throwable>> results = null;
+        try {
+            results = pool.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+
+        // The first unexpected error is fatal to application startup
+        Throwable failure = null;
+        for (int i = 0; i < wrappers.size(); i++) {
+            Throwable t = null;
+            try {
+                t = results.get(i).get();
+            } catch (Exception e) {
+                t = e;
+            }
+            if (t instanceof ServletException) {
+                getLogger().error(MESSAGES.errorLoadingServlet(wrappers.get(i).getName()),
+                        StandardWrapper.getRootCause((ServletException) t));
+            } else if (t != null) {
+                if (failure == null) {
+                    failure = t;
+                } else {
+                    getLogger().error(MESSAGES.errorLoadingServlet(wrappers.get(i).getName()), t);
+                }
+            }
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new IllegalStateException(failure);
         }
 
     }
@@ -3766,9 +4043,11 @@ public class StandardContext
             
             // Configure and call application event listeners
             if (ok) {
+                long t1 = System.currentTimeMillis();
                 if (!contextListenerStart()) {
                     ok = false;
                 }
+                listenerStartTime = System.currentTimeMillis() - t1;
             }
 
            // Start manager
@@ -3780,20 +4059,26 @@ public class StandardContext
 
             // Configure and call application filters
             if (ok) {
+                long t1 = System.currentTimeMillis();
                 if (!filterStart()) {
                     ok = false;
                 }
+                filterStartTime = System.currentTimeMillis() - t1;
             }
             
             // Load and initialize all "load on startup" servlets
             if (ok) {
+                long t1 = System.currentTimeMillis();
                 loadOnStartup(findChildren());
+                loadOnStartupTime = System.currentTimeMillis() - t1;
             }
             
             if (ok) {
+                long t1 = System.currentTimeMillis();
                 if (!listenerStart()) {
                     ok = false;
                 }
+                listenerStartTime += System.currentTimeMillis() - t1;
             }
 
             if (ok) {
@@ -3805,7 +4090,7 @@ public class StandardContext
                 ok = false;
             }
 
-            // Start ContainerBackgroundProcessor thread
+            // Schedule the background processing
             if (ok) {
                 super.threadStart();
             }
@@ -3901,7 +4186,7 @@ public class StandardContext
             // Stop our filters
             filterStop();
 
-            // Stop ContainerBackgroundProcessor thread
+            // Cancel the background processing
             super.threadStop();
 
             if ((manager != null) && (manager instanceof Lifecycle)) {
@@ -4009,6 +4294,9 @@ public class StandardContext
         startupTime = 0;
         startTime = 0;
         tldScanTime = 0;
+        listenerStartTime = 0;
+        filterStartTime = 0;
+        loadOnStartupTime = 0;
 
         // Bugzilla 32867
         distributable = false;
@@ -21,7 +21,13 @@ package org.apache.catalina.core;
 
 import static org.jboss.web.CatalinaMessages.MESSAGES;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
@@ -29,6 +35,7 @@ import javax.management.ObjectName;
 import org.apache.catalina.Container;
 import org.apache.catalina.Context;
 import org.apache.catalina.Host;
+import org.apache.catalina.Lifecycle;
 import org.apache.catalina.LifecycleException;
 import org.apache.catalina.Valve;
 import org.apache.catalina.startup.HostConfig;
@@ -130,6 +137,20 @@ public class StandardHost
     private String workDir = null;
 
 
+    /**
+     * Start the contexts of this Host concurrently.
+     */
+    private boolean parallelStartup =
+        Boolean.valueOf(System.getProperty("org.apache.catalina.core.StandardHost.parallelStartup", "false")).booleanValue();
+
+
+    /**
+     * Maximum number of threads used for parallel startup, or zero to use
+     * one per processor.
+     */
+    private int startupThreads = 0;
+
+
     // ------------------------------------------------------------- Properties
 
 
@@ -308,6 +329,44 @@ public class StandardHost
     }
 
 
+    /**
+     * Return true if the contexts of this Host are started concurrently.
+     */
+    public boolean getParallelStartup() {
+
+        return (parallelStartup);
+    }
+
+
+    /**
+     * Start the contexts of this Host concurrently, as they are independent
+     * from each other.
+     */
+    public void setParallelStartup(boolean parallelStartup) {
+
+        this.parallelStartup = parallelStartup;
+    }
+
+
+    /**
+     * Maximum number of threads used for parallel startup.
+     */
+    public int getStartupThreads() {
+
+        return (startupThreads);
+    }
+
+
+    /**
+     * Maximum number of threads used for parallel startup, or zero to use
+     * one per processor.
+     */
+    public void setStartupThreads(int startupThreads) {
+
+        this.startupThreads = startupThreads;
+    }
+
+
     // --------------------------------------------------------- Public Methods
 
 
@@ -472,6 +531,86 @@ public class StandardHost
     }
 
 
+    /**
+     * Start the contexts added to this started Host outside of the Host lock
+     * if parallel startup is enabled, so that contexts deployed from several
+     * threads start concurrently.
+     */
+    protected boolean getStartChildrenConcurrently() {
+        return parallelStartup;
+    }
+
+
+    /**
+     * Start the given contexts, concurrently if parallel startup is enabled.
+     * All the contexts are started, and the failure of the first one, in
+     * the order of the children, is then reported.
+     */
+    protected void startChildContainers(Container children[])
+        throws LifecycleException {
+
+        if (!parallelStartup || children.length < 2) {
+            super.startChildContainers(children);
+            return;
+        }
+
+        ArrayList<Callable<Throwable>> tasks = new ArrayList<Callable<Throwable>>(children.length);
+        for (final Container child : children) {
+            tasks.add(new Callable<Throwable>() {
+                public Throwable call() {
+                    try {
+                        if (child instanceof Lifecycle) {
+                            ((Lifecycle) child).start();
+                        }
+                        return null;
+                    } catch (Throwable t) {
+                        return t;
+                    }
+                }
+            });
+        }
+        ExecutorService pool = new ForkJoinPool((startupThreads > 0) ? startupThreads
+                : Runtime.getRuntime().availableProcessors());
+        List<Future<Throwable>> results = null;
+        try {
+            results = pool.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LifecycleException(e);
+        } finally {
+            pool.shutdown();
+        }
+
+        Throwable failure = null;
+        for (int i = 0; i < children.length; i++) {
+            Throwable t = null;
+            try {
+                t = results.get(i).get();
+            } catch (Exception e) {
+                t = e;
+            }
+            if (t == null) {
+                continue;
+            }
+            if (failure == null) {
+                failure = t;
+            } else {
+                CatalinaLogger.CORE_LOGGER.errorStartingChildContainer(children[i].getName(), t);
+            }
+        }
+        if (failure instanceof LifecycleException) {
+            throw (LifecycleException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new LifecycleException(failure);
+        }
+
+    }
+
+
     // -------------------- JMX  --------------------
     /**
       * Return the MBean Names of the Valves assoicated with this Host
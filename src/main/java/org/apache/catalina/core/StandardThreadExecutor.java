@@ -18,18 +18,49 @@
 package org.apache.catalina.core;
 
 import java.util.Collection;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.catalina.Executor;
 import org.apache.catalina.LifecycleException;
 import org.apache.catalina.LifecycleListener;
 import org.apache.catalina.util.LifecycleSupport;
+import org.apache.coyote.LatencyHistogram;
+import org.apache.tomcat.util.net.VirtualThreads;
+
 import java.util.concurrent.RejectedExecutionException;
 
+/**
+ * Thread pool which creates new threads up to <code>maxThreads</code> before
+ * queueing the tasks.
+ * <p>
+ * In adaptive mode, the pool is sized from the measured load instead: the
+ * time spent by the tasks in the queue and their processing time are
+ * sampled, and at every <code>adaptiveInterval</code> the maximum pool size
+ * is set between <code>minSpareThreads</code> and <code>maxThreads</code>:
+ * <ul>
+ * <li>if the average queue time exceeds <code>targetQueueTime</code>, the
+ * pool grows in proportion to the excess, up to doubling, unless the last
+ * growth neither raised the throughput nor lowered the queue time</li>
+ * <li>otherwise, it shrinks gradually towards the number of threads busy on
+ * average (Little's law: throughput times processing time), with some
+ * headroom</li>
+ * </ul>
+ * The queue is bounded by <code>maxQueueSize</code>, and tasks which do not
+ * fit are rejected immediately, so that the endpoints close the connection
+ * instead of waiting.
+ * <p>
+ * The tasks are only wrapped to measure their queue time in adaptive mode,
+ * or when <code>statistics</code> is enabled.
+ * <p>
+ * With <code>virtualThreads</code>, each task runs on a new virtual thread
+ * if the JVM supports them, and the pool settings are not used.
+ */
 public class StandardThreadExecutor implements Executor {
     
     // ---------------------------------------------- Properties
@@ -45,11 +76,46 @@ public class StandardThreadExecutor implements Executor {
     
     protected int maxIdleTime = 60000;
     
+    protected int maxQueueSize = Integer.MAX_VALUE;
+    
+    protected boolean adaptive = false;
+    
+    protected int targetQueueTime = 10;
+    
+    protected int adaptiveInterval = 1000;
+    
+    protected boolean virtualThreads = false;
+    
+    protected boolean statistics = false;
+    
     protected ThreadPoolExecutor executor = null;
     
+    protected ExecutorService virtualExecutor = null;
+    
     protected String name;
     
     private LifecycleSupport lifecycle = new LifecycleSupport(this);
+    
+    // ---------------------------------------------- Statistics
+    /**
+     * Queue times over the last minute in microseconds.
+     */
+    protected final LatencyHistogram queueTimes = new LatencyHistogram();
+    
+    protected final AtomicLong rejectedCount = new AtomicLong();
+    
+    // Samples of the current adaptive interval
+    protected final AtomicLong sampledTasks = new AtomicLong();
+    protected final AtomicLong sampledQueueTime = new AtomicLong();
+    protected final AtomicLong sampledProcessingTime = new AtomicLong();
+    
+    // Adaptive controller state, updated by the thread which wins the CAS
+    // on nextAdjustment
+    protected final AtomicLong nextAdjustment = new AtomicLong();
+    protected long lastAdjustment = 0;
+    protected double lastThroughput = 0;
+    protected long lastQueueTime = 0;
+    protected boolean lastGrowth = false;
     // ---------------------------------------------- Constructors
     public StandardThreadExecutor() {
         //empty constructor for the digester
@@ -60,11 +126,26 @@ public class StandardThreadExecutor implements Executor {
     // ---------------------------------------------- Public Methods
     public void start() throws LifecycleException {
         lifecycle.fireLifecycleEvent(BEFORE_START_EVENT, null);
-        TaskQueue taskqueue = new TaskQueue();
+        if (virtualThreads) {
+            virtualExecutor = VirtualThreads.newExecutor(namePrefix);
+            if (virtualExecutor != null) {
+                lifecycle.fireLifecycleEvent(START_EVENT, null);
+                lifecycle.fireLifecycleEvent(AFTER_START_EVENT, null);
+                return;
+            }
+        }
+        TaskQueue taskqueue = new TaskQueue(maxQueueSize);
         TaskThreadFactory tf = new TaskThreadFactory(namePrefix);
         lifecycle.fireLifecycleEvent(START_EVENT, null);
-        executor = new ThreadPoolExecutor(getMinSpareThreads(), getMaxThreads(), maxIdleTime, TimeUnit.MILLISECONDS,taskqueue, tf);
+        // The adaptive mode starts with the minimum and grows with the load
+        int maximumPoolSize = adaptive ? Math.max(getMinSpareThreads(), 1) : getMaxThreads();
+        executor = new ThreadPoolExecutor(getMinSpareThreads(), maximumPoolSize, maxIdleTime, TimeUnit.MILLISECONDS,taskqueue, tf);
         taskqueue.setParent( (ThreadPoolExecutor) executor);
+        lastAdjustment = System.nanoTime();
+        lastThroughput = 0;
+        lastQueueTime = 0;
+        lastGrowth = false;
+        nextAdjustment.set(lastAdjustment + adaptiveInterval * 1000000L);
         lifecycle.fireLifecycleEvent(AFTER_START_EVENT, null);
     }
     
@@ -73,19 +154,86 @@ public class StandardThreadExecutor implements Executor {
         lifecycle.fireLifecycleEvent(STOP_EVENT, null);
         if ( executor != null ) executor.shutdown();
         executor = null;
+        if ( virtualExecutor != null ) virtualExecutor.shutdown();
+        virtualExecutor = null;
         lifecycle.fireLifecycleEvent(AFTER_STOP_EVENT, null);
     }
     
     public void execute(Runnable command) {
+        ExecutorService virtualExecutor = this.virtualExecutor;
+        if (virtualExecutor != null) {
+            if (statistics) {
+                command = new QueuedTask(command, System.nanoTime(), false);
+            }
+            virtualExecutor.execute(command);
+            return;
+        }
+        ThreadPoolExecutor executor = this.executor;
         if ( executor != null ) {
+            boolean adaptive = this.adaptive;
+            if (adaptive || statistics) {
+                long now = System.nanoTime();
+                if (adaptive) {
+                    adjust(executor, now);
+                }
+                command = new QueuedTask(command, now, adaptive);
+            }
             try {
                 executor.execute(command);
             } catch (RejectedExecutionException rx) {
                 //there could have been contention around the queue
-                if ( !( (TaskQueue) executor.getQueue()).force(command) ) throw new RejectedExecutionException();
+                if ( !( (TaskQueue) executor.getQueue()).force(command) ) {
+                    rejectedCount.incrementAndGet();
+                    throw new RejectedExecutionException();
+                }
             }
         } else throw new IllegalStateException("StandardThreadPool not started.");
     }
+    
+    /**
+     * Resize the pool if the adaptive interval has elapsed.
+     */
+    protected void adjust(ThreadPoolExecutor executor, long now) {
+        long next = nextAdjustment.get();
+        if (now - next < 0 || !nextAdjustment.compareAndSet(next, now + adaptiveInterval * 1000000L)) {
+            return;
+        }
+        long elapsed = now - lastAdjustment;
+        lastAdjustment = now;
+        long tasks = sampledTasks.getAndSet(0);
+        long queueTime = sampledQueueTime.getAndSet(0);
+        long processingTime = sampledProcessingTime.getAndSet(0);
+        if (elapsed <= 0) {
+            return;
+        }
+        int size = executor.getMaximumPoolSize();
+        int newSize;
+        double throughput = (double) tasks / elapsed;
+        long meanQueueTime = (tasks > 0) ? queueTime / tasks : 0;
+        boolean growth = false;
+        if (meanQueueTime > targetQueueTime * 1000000L) {
+            if (lastGrowth && throughput <= lastThroughput * 1.05
+                    && meanQueueTime >= lastQueueTime * 0.9) {
+                // More threads did not help, the bottleneck is elsewhere
+                newSize = size;
+            } else {
+                double excess = (double) meanQueueTime / (targetQueueTime * 1000000L) - 1;
+                newSize = size + Math.max(1, (int) Math.ceil(size * Math.min(excess, 1.0)));
+                growth = true;
+            }
+        } else {
+            // Threads busy on average, plus a quarter for bursts
+            int busy = (int) Math.ceil((double) processingTime / elapsed * 1.25) + 1;
+            newSize = Math.max(busy, size - Math.max(1, size / 8));
+        }
+        newSize = Math.max(Math.max(minSpareThreads, 1), Math.min(newSize, maxThreads));
+        lastThroughput = throughput;
+        lastQueueTime = meanQueueTime;
+        lastGrowth = growth && (newSize > size);
+        if (newSize != size) {
+            executor.setMaximumPoolSize(newSize);
+        }
+    }
 
     public int getThreadPriority() {
         return threadPriority;
@@ -137,7 +285,7 @@ public class StandardThreadExecutor implements Executor {
 
     public void setMaxThreads(int maxThreads) {
         this.maxThreads = maxThreads;
-        if (executor != null) {
+        if (executor != null && (!adaptive || executor.getMaximumPoolSize() > maxThreads)) {
             executor.setMaximumPoolSize(maxThreads);
         }
     }
@@ -145,10 +293,86 @@ public class StandardThreadExecutor implements Executor {
     public void setMinSpareThreads(int minSpareThreads) {
         this.minSpareThreads = minSpareThreads;
         if (executor != null) {
+            if (executor.getMaximumPoolSize() < minSpareThreads) {
+                executor.setMaximumPoolSize(minSpareThreads);
+            }
             executor.setCorePoolSize(minSpareThreads);
         }
     }
 
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    /**
+     * Set the maximum number of queued tasks, which is used on start.
+     */
+    public void setMaxQueueSize(int maxQueueSize) {
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Size the pool from the measured queue and processing times, which is
+     * used on start.
+     */
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    public int getTargetQueueTime() {
+        return targetQueueTime;
+    }
+
+    /**
+     * Set the average time in ms that tasks may wait in the queue before the
+     * adaptive mode adds threads.
+     */
+    public void setTargetQueueTime(int targetQueueTime) {
+        this.targetQueueTime = targetQueueTime;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Run each task on a new virtual thread if the JVM supports them, which
+     * is used on start.
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        if (virtualThreads) {
+            VirtualThreads.enable();
+        }
+    }
+
+    public int getAdaptiveInterval() {
+        return adaptiveInterval;
+    }
+
+    /**
+     * Set the interval in ms between two resizes of the pool in adaptive
+     * mode.
+     */
+    public void setAdaptiveInterval(int adaptiveInterval) {
+        this.adaptiveInterval = adaptiveInterval;
+    }
+
+    public boolean isStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Record the queue times of the tasks outside of the adaptive mode.
+     */
+    public void setStatistics(boolean statistics) {
+        this.statistics = statistics;
+    }
+
     public void setName(String name) {
         this.name = name;
     }
@@ -206,6 +430,71 @@ public class StandardThreadExecutor implements Executor {
         return (executor != null) ? executor.getQueue().size() : -1;
     }
 
+    public int getMaximumPoolSize() {
+        return (executor != null) ? executor.getMaximumPoolSize() : 0;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    // Percentiles of the queue time in microseconds over the last minute,
+    // in adaptive mode or with statistics enabled
+    public long getQueueTimeP50() {
+        return queueTimes.getPercentile(50);
+    }
+
+    public long getQueueTimeP90() {
+        return queueTimes.getPercentile(90);
+    }
+
+    public long getQueueTimeP99() {
+        return queueTimes.getPercentile(99);
+    }
+
+    public long getQueueTimeP999() {
+        return queueTimes.getPercentile(99.9);
+    }
+
+    // ---------------------------------------------- QueuedTask Inner Class
+    /**
+     * Task wrapper recording the queue time, and sampling the queue and
+     * processing times for the adaptive mode.
+     */
+    class QueuedTask implements Runnable {
+        final Runnable task;
+        final long queued;
+        final boolean sampled;
+
+        QueuedTask(Runnable task, long queued, boolean sampled) {
+            this.task = task;
+            this.queued = queued;
+            this.sampled = sampled;
+        }
+
+        public void run() {
+            long start = System.nanoTime();
+            long queueTime = start - queued;
+            queueTimes.record(queueTime / 1000);
+            if (!sampled) {
+                task.run();
+                return;
+            }
+            try {
+                task.run();
+            } finally {
+                long end = System.nanoTime();
+                sampledQueueTime.addAndGet(queueTime);
+                sampledProcessingTime.addAndGet(end - start);
+                sampledTasks.incrementAndGet();
+                ThreadPoolExecutor executor = StandardThreadExecutor.this.executor;
+                if (executor != null) {
+                    adjust(executor, end);
+                }
+            }
+        }
+    }
+
     // ---------------------------------------------- TaskQueue Inner Class
     class TaskQueue extends LinkedBlockingQueue<Runnable> {
         ThreadPoolExecutor parent = null;
@@ -27,7 +27,6 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.Stack;
 
 import javax.management.ListenerNotFoundException;
 import javax.management.MBeanNotificationInfo;
@@ -62,6 +61,7 @@ import org.apache.catalina.deploy.SecurityConstraint;
 import org.apache.catalina.security.SecurityUtil;
 import org.apache.catalina.util.Enumerator;
 import org.apache.catalina.util.InstanceSupport;
+import org.apache.coyote.LatencyHistogram;
 import org.apache.tomcat.InstanceManager;
 import org.apache.tomcat.PeriodicEventListener;
 import org.apache.tomcat.util.modeler.Registry;
@@ -135,7 +135,11 @@ public class StandardWrapper
     
     /**
      * The count of allocations that are currently active for STM servlets.
+     *
+     * @deprecated No longer maintained, the allocations are counted by the
+     *  instance pool and returned by {@link #getCountAllocated()}
      */
+    @Deprecated
     protected int countAllocated = 0;
 
     
@@ -260,14 +264,25 @@ public class StandardWrapper
 
     /**
      * Number of instances currently loaded for a STM servlet.
+     *
+     * @deprecated No longer maintained, the instances are counted by the
+     *  instance pool
      */
+    @Deprecated
     protected int nInstances = 0;
 
 
     /**
-     * Stack containing the STM instances.
+     * Maximum time to wait for a STM instance, in ms, or zero or less to
+     * wait until an instance is available.
+     */
+    protected long allocationTimeout = 0;
+
+
+    /**
+     * Pool containing the STM instances.
      */
-    protected Stack instancePool = null;
+    protected volatile ServletInstancePool instancePool = null;
 
     
     /**
@@ -422,11 +437,48 @@ public class StandardWrapper
 
 
     /**
-     * Return the number of active allocations of this servlet.
+     * Return the number of active allocations of this servlet. Only the
+     * allocations of a STM servlet are counted, so this is always zero for
+     * a servlet which does not implement <code>SingleThreadModel</code>.
      */
     public int getCountAllocated() {
 
-        return (this.countAllocated);
+        ServletInstancePool pool = instancePool;
+        return (pool == null) ? 0 : pool.getAllocated();
+
+    }
+
+
+    /**
+     * Return the number of STM instance allocations which had to wait for
+     * an instance to be deallocated.
+     */
+    public long getInstanceWaitCount() {
+
+        ServletInstancePool pool = instancePool;
+        return (pool == null) ? 0 : pool.getWaitCount();
+
+    }
+
+
+    /**
+     * Return the total time spent waiting for STM instances, in ms.
+     */
+    public long getInstanceWaitTime() {
+
+        ServletInstancePool pool = instancePool;
+        return (pool == null) ? 0 : pool.getWaitTime();
+
+    }
+
+
+    /**
+     * Return the number of STM instance allocations which timed out.
+     */
+    public long getInstanceTimeoutCount() {
+
+        ServletInstancePool pool = instancePool;
+        return (pool == null) ? 0 : pool.getTimeoutCount();
 
     }
 
@@ -583,12 +635,43 @@ public class StandardWrapper
 
         int oldMaxInstances = this.maxInstances;
         this.maxInstances = maxInstances;
+        ServletInstancePool pool = instancePool;
+        if (pool != null) {
+            pool.setMaxInstances(maxInstances);
+            destroyExcessInstances(pool);
+        }
         support.firePropertyChange("maxInstances", oldMaxInstances,
                                    this.maxInstances);
 
     }
 
 
+    /**
+     * Return the maximum time to wait for a STM instance, in ms.
+     */
+    public long getAllocationTimeout() {
+
+        return (this.allocationTimeout);
+
+    }
+
+
+    /**
+     * Set the maximum time to wait for a STM instance when all of them are
+     * allocated, in ms, or zero or less to wait until one is deallocated.
+     *
+     * @param allocationTimeout New value of allocationTimeout
+     */
+    public void setAllocationTimeout(long allocationTimeout) {
+
+        long oldAllocationTimeout = this.allocationTimeout;
+        this.allocationTimeout = allocationTimeout;
+        support.firePropertyChange("allocationTimeout", oldAllocationTimeout,
+                                   this.allocationTimeout);
+
+    }
+
+
     /**
      * Set the parent Container of this Wrapper, but only if it is a Context.
      *
@@ -961,32 +1044,34 @@ public class StandardWrapper
             return (instance);
         }
 
-        synchronized (instancePool) {
-
-            while (countAllocated >= nInstances) {
-                // Allocate a new instance if possible, or else wait
-                if (nInstances < maxInstances) {
-                    try {
-                        instancePool.push(loadServlet());
-                        nInstances++;
-                    } catch (ServletException e) {
-                        throw e;
-                    } catch (Throwable e) {
-                        throw new ServletException
-                            (MESSAGES.cannotAllocateServletInstance(), e);
-                    }
-                } else {
-                    try {
-                        instancePool.wait();
-                    } catch (InterruptedException e) {
-                        ;
-                    }
-                }
+        // Reserve an instance, waiting if all of them are allocated
+        ServletInstancePool pool = instancePool;
+        try {
+            if (!pool.acquire(allocationTimeout)) {
+                throw new ServletException
+                    (MESSAGES.servletInstanceAllocationTimeout(getName()));
             }
-            countAllocated++;
-            return (Servlet) instancePool.pop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServletException(MESSAGES.cannotAllocateServletInstance(), e);
+        }
 
+        // Reuse an idle instance, or else create a new one
+        Servlet servlet = pool.poll();
+        if (servlet == null) {
+            try {
+                servlet = loadServlet();
+                pool.created();
+            } catch (ServletException e) {
+                pool.cancel();
+                throw e;
+            } catch (Throwable e) {
+                pool.cancel();
+                throw new ServletException
+                    (MESSAGES.cannotAllocateServletInstance(), e);
+            }
         }
+        return servlet;
 
     }
 
@@ -1008,10 +1093,37 @@ public class StandardWrapper
         }
 
         // Unlock and free this instance
-        synchronized (instancePool) {
-            countAllocated--;
-            instancePool.push(servlet);
-            instancePool.notify();
+        ServletInstancePool pool = instancePool;
+        if (pool != null) {
+            pool.release(servlet);
+            destroyExcessInstances(pool);
+        }
+
+    }
+
+
+    /**
+     * Destroy the idle STM instances in excess of the maximum number of
+     * instances, after it was reduced.
+     *
+     * @param pool The pool of the STM instances
+     */
+    protected void destroyExcessInstances(ServletInstancePool pool) {
+
+        Servlet s = null;
+        while ((s = pool.pollExcess()) != null) {
+            try {
+                if (Globals.IS_SECURITY_ENABLED) {
+                    SecurityUtil.doAsPrivilege("destroy", s);
+                    SecurityUtil.remove(s);
+                } else {
+                    s.destroy();
+                }
+                // Annotation processing
+                ((Context) getParent()).getInstanceManager().destroyInstance(s);
+            } catch (Throwable t) {
+                CatalinaLogger.CORE_LOGGER.errorDestroyingExcessServletInstance(getName(), t);
+            }
         }
 
     }
@@ -1237,7 +1349,7 @@ public class StandardWrapper
             singleThreadModel = servlet instanceof SingleThreadModel;
             if (singleThreadModel) {
                 if (instancePool == null)
-                    instancePool = new Stack();
+                    instancePool = new ServletInstancePool(maxInstances);
             }
             fireContainerEvent("load", this);
 
@@ -1384,7 +1496,6 @@ public class StandardWrapper
               (InstanceEvent.AFTER_DESTROY_EVENT, instance, t);
             instance = null;
             instancePool = null;
-            nInstances = 0;
             fireContainerEvent("unload", this);
             unloading = false;
             throw new ServletException(MESSAGES.errorDestroyingServlet(getName()), t);
@@ -1395,8 +1506,8 @@ public class StandardWrapper
 
         if (singleThreadModel && (instancePool != null)) {
             try {
-                while (!instancePool.isEmpty()) {
-                    Servlet s = (Servlet) instancePool.pop();
+                Servlet s = null;
+                while ((s = instancePool.poll()) != null) {
                     if (Globals.IS_SECURITY_ENABLED) {
                         SecurityUtil.doAsPrivilege("destroy", s);
                         SecurityUtil.remove(instance);                           
@@ -1408,13 +1519,11 @@ public class StandardWrapper
                 }
             } catch (Throwable t) {
                 instancePool = null;
-                nInstances = 0;
                 unloading = false;
                 fireContainerEvent("unload", this);
                 throw new ServletException(MESSAGES.errorDestroyingServlet(getName()), t);
             }
             instancePool = null;
-            nInstances = 0;
         }
 
         singleThreadModel = false;
@@ -1514,6 +1623,39 @@ public class StandardWrapper
            swValve.setErrorCount(errorCount);
     }
 
+    /**
+     * Return the latency histogram of this servlet, or null if latency
+     * histograms are not enabled on the context.
+     */
+    public LatencyHistogram getLatencyHistogram() {
+        return swValve.getLatencyHistogram(false);
+    }
+
+    /**
+     * Return the given percentile of the processing time of the requests
+     * over the last minute, or -1 if latency histograms are not enabled.
+     */
+    public long getLatencyPercentile(double percentile) {
+        LatencyHistogram histogram = swValve.getLatencyHistogram(false);
+        return (histogram == null) ? -1 : histogram.getPercentile(percentile);
+    }
+
+    public long getLatencyP50() {
+        return getLatencyPercentile(50);
+    }
+
+    public long getLatencyP90() {
+        return getLatencyPercentile(90);
+    }
+
+    public long getLatencyP99() {
+        return getLatencyPercentile(99);
+    }
+
+    public long getLatencyP999() {
+        return getLatencyPercentile(99.9);
+    }
+
     /**
      * Increment the error count used for monitoring.
      */
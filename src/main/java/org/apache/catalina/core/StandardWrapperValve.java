@@ -75,6 +75,7 @@ import org.apache.catalina.connector.Response;
 import org.apache.catalina.connector.Request.AsyncListenerRegistration;
 import org.apache.catalina.util.InstanceSupport;
 import org.apache.catalina.valves.ValveBase;
+import org.apache.coyote.LatencyHistogram;
 import org.jboss.servlet.http.HttpEvent;
 import org.jboss.servlet.http.HttpEventServlet;
 import org.jboss.servlet.http.HttpEvent.EventType;
@@ -108,6 +109,7 @@ final class StandardWrapperValve
     private volatile int eventCount;
     private volatile int requestCount;
     private volatile int errorCount;
+    private volatile LatencyHistogram latencyHistogram;
     private InstanceSupport support;
 
 
@@ -142,14 +144,18 @@ final class StandardWrapperValve
         boolean unavailable = false;
         Throwable throwable = null;
         // This should be a Request attribute...
+        StandardWrapper wrapper = (StandardWrapper) getContainer();
+        Servlet servlet = null;
+        Context context = (Context) wrapper.getParent();
+        LatencyHistogram contextHistogram = (context instanceof StandardContext)
+            ? ((StandardContext) context).getLatencyHistogram() : null;
         long t1 = 0;
-        if (SERVLET_STATS) {
+        if (SERVLET_STATS || contextHistogram != null) {
             t1 = System.currentTimeMillis();
+        }
+        if (SERVLET_STATS) {
             requestCount++;
         }
-        StandardWrapper wrapper = (StandardWrapper) getContainer();
-        Servlet servlet = null;
-        Context context = (Context) wrapper.getParent();
         
         // Check for the application being marked unavailable
         if (!context.getAvailable()) {
@@ -340,14 +346,21 @@ final class StandardWrapperValve
             }
         }
 
-        if (SERVLET_STATS) {
-            long time = System.currentTimeMillis() - t1;
-            processingTime += time;
-            if (time > maxTime) {
-                maxTime = time;
+        if (SERVLET_STATS || contextHistogram != null) {
+            long t2 = System.currentTimeMillis();
+            long time = t2 - t1;
+            if (SERVLET_STATS) {
+                processingTime += time;
+                if (time > maxTime) {
+                    maxTime = time;
+                }
+                if (time < minTime) {
+                    minTime = time;
+                }
             }
-            if (time < minTime) {
-                minTime = time;
+            if (contextHistogram != null) {
+                contextHistogram.record(time, t2);
+                getLatencyHistogram(true).record(time, t2);
             }
         }
 
@@ -630,6 +643,24 @@ final class StandardWrapperValve
         response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
     }
 
+    /**
+     * Return the latency histogram of the servlet, creating it if needed.
+     */
+    public LatencyHistogram getLatencyHistogram(boolean create) {
+        LatencyHistogram histogram = latencyHistogram;
+        if (histogram == null && create) {
+            synchronized (this) {
+                histogram = latencyHistogram;
+                if (histogram == null) {
+                    // Servlets get fewer stripes than the context
+                    histogram = new LatencyHistogram(6, 10000L, 2);
+                    latencyHistogram = histogram;
+                }
+            }
+        }
+        return histogram;
+    }
+
     public long getProcessingTime() {
         return processingTime;
     }
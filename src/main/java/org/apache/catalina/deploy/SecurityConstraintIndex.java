@@ -0,0 +1,391 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.catalina.deploy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
+import org.apache.tomcat.util.http.mapper.PathTrie;
+
+
+/**
+ * Immutable index of the security constraints of a web application, used
+ * to find the constraints which apply to a request without iterating over
+ * all of them. The constraints which apply to each URL pattern are
+ * computed once for each HTTP method named by the collections (all the
+ * other methods share the same results), and stored in an exact match
+ * trie, a prefix trie and an extension trie, so that a lookup takes a time
+ * proportional to the length of the path and does not allocate.
+ * <p>
+ * The index is built from a snapshot of the constraints array, and the
+ * constraints must not be modified after they have been added to the
+ * context.
+ */
+public final class SecurityConstraintIndex {
+
+
+    // ----------------------------------------------------------- Constructors
+
+
+    /**
+     * Build the index of the given security constraints.
+     *
+     * @param constraints The security constraints of the web application
+     */
+    public SecurityConstraintIndex(SecurityConstraint[] constraints) {
+
+        this.constraints = constraints;
+
+        // Collect the methods and the patterns used by the collections
+        ArrayList<String> methods = new ArrayList<String>();
+        // The first slot is used for all the methods not named by a collection
+        methods.add(null);
+        LinkedHashSet<String> exactPatterns = new LinkedHashSet<String>();
+        LinkedHashSet<String> prefixPatterns = new LinkedHashSet<String>();
+        LinkedHashSet<String> extensionPatterns = new LinkedHashSet<String>();
+        ArrayList<SecurityConstraint> defaults = new ArrayList<SecurityConstraint>();
+        for (int i = 0; i < constraints.length; i++) {
+            SecurityCollection[] collections = constraints[i].findCollections();
+            if (collections == null) {
+                continue;
+            }
+            for (int j = 0; j < collections.length; j++) {
+                addMethods(methods, collections[j].findMethods());
+                addMethods(methods, collections[j].findMethodOmissions());
+                String[] patterns = collections[j].findPatterns();
+                if (patterns == null) {
+                    continue;
+                }
+                boolean matched = false;
+                for (int k = 0; k < patterns.length; k++) {
+                    String pattern = patterns[k];
+                    exactPatterns.add(pattern);
+                    if (pattern.startsWith("/") && pattern.endsWith("/*")) {
+                        prefixPatterns.add(pattern);
+                    } else if (pattern.startsWith("*.")) {
+                        extensionPatterns.add(pattern);
+                    } else if (pattern.equals("/")) {
+                        matched = true;
+                    }
+                }
+                // The default pattern applies regardless of the method
+                if (matched) {
+                    defaults.add(constraints[i]);
+                }
+            }
+        }
+        this.defaults = toArray(defaults);
+
+        slots = new HashMap<String, Integer>();
+        tables = new Table[methods.size()];
+        for (int s = 0; s < tables.length; s++) {
+            String method = methods.get(s);
+            if (method != null) {
+                slots.put(method, Integer.valueOf(s));
+            }
+            Table table = new Table();
+            for (String pattern : exactPatterns) {
+                Match match = exactMatch(pattern, method);
+                if (match != null) {
+                    table.exact = table.exact.put(pattern, match);
+                }
+            }
+            for (String pattern : prefixPatterns) {
+                Match match = prefixMatch(pattern, method);
+                if (match != null) {
+                    table.prefix =
+                        table.prefix.put(pattern.substring(0, pattern.length() - 2), match);
+                }
+            }
+            for (String pattern : extensionPatterns) {
+                Match match = extensionMatch(pattern, method);
+                if (match != null) {
+                    table.extension = table.extension.put(pattern.substring(2), match);
+                }
+            }
+            tables[s] = table;
+        }
+
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    /**
+     * The security constraints this index was built from.
+     */
+    private final SecurityConstraint[] constraints;
+
+
+    /**
+     * The constraints using the "/" pattern, which apply to all requests
+     * which are not matched by a more specific pattern.
+     */
+    private final SecurityConstraint[] defaults;
+
+
+    /**
+     * The table index of the methods named by the collections.
+     */
+    private final HashMap<String, Integer> slots;
+
+
+    /**
+     * The lookup tables, for each method.
+     */
+    private final Table[] tables;
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    /**
+     * Return the security constraints this index was built from.
+     */
+    public SecurityConstraint[] getConstraints() {
+        return constraints;
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Return the security constraints which apply to the given request path
+     * and method, or <code>null</code> if there is no such constraint. The
+     * returned array is shared and must not be modified.
+     *
+     * @param uri The request path
+     * @param method The HTTP method of the request
+     */
+    public SecurityConstraint[] find(String uri, String method) {
+        char[] buf = uri.toCharArray();
+        return find(buf, 0, buf.length, method);
+    }
+
+
+    /**
+     * Return the security constraints which apply to the given request path
+     * and method, or <code>null</code> if there is no such constraint. The
+     * returned array is shared and must not be modified.
+     *
+     * @param buf The buffer containing the request path
+     * @param start The start of the request path
+     * @param end The end of the request path
+     * @param method The HTTP method of the request
+     */
+    public SecurityConstraint[] find(char[] buf, int start, int end, String method) {
+
+        Integer slot = slots.get(method);
+        Table table = tables[(slot == null) ? 0 : slot.intValue()];
+
+        // Exact match
+        Match match = table.exact.get(buf, start, end);
+        if (match != null) {
+            return match.constraints;
+        }
+
+        // Longest path prefix match, which only stops the lookup if one of
+        // the collections at that length includes the method
+        match = table.prefix.match(buf, start, end);
+        if (match != null && match.constraints != null) {
+            return match.constraints;
+        }
+
+        // Extension match, on the last path segment
+        int slash = -1;
+        int dot = -1;
+        for (int i = end - 1; i >= start; i--) {
+            char c = buf[i];
+            if (c == '/') {
+                slash = i;
+                break;
+            }
+            if (c == '.' && dot < 0) {
+                dot = i;
+            }
+        }
+        if (slash >= 0 && dot > slash && dot != end - 1) {
+            match = table.extension.get(buf, dot + 1, end);
+            if (match != null) {
+                return match.constraints;
+            }
+        }
+
+        return defaults;
+
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    private static void addMethods(ArrayList<String> methods, String[] names) {
+        if (names == null) {
+            return;
+        }
+        for (int i = 0; i < names.length; i++) {
+            if (!methods.contains(names[i])) {
+                methods.add(names[i]);
+            }
+        }
+    }
+
+
+    private static boolean containsPattern(SecurityCollection collection, String pattern) {
+        String[] patterns = collection.findPatterns();
+        if (patterns == null) {
+            return false;
+        }
+        for (int k = 0; k < patterns.length; k++) {
+            if (pattern.equals(patterns[k])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private static SecurityConstraint[] toArray(ArrayList<SecurityConstraint> results) {
+        if (results.size() == 0) {
+            return null;
+        }
+        return results.toArray(new SecurityConstraint[results.size()]);
+    }
+
+
+    /**
+     * Compute the exact match of the pattern, which is found if any
+     * collection not omitting the method uses the pattern.
+     */
+    private Match exactMatch(String pattern, String method) {
+        boolean found = false;
+        ArrayList<SecurityConstraint> results = new ArrayList<SecurityConstraint>();
+        for (int i = 0; i < constraints.length; i++) {
+            SecurityCollection[] collections = constraints[i].findCollections();
+            if (collections == null) {
+                continue;
+            }
+            for (int j = 0; j < collections.length; j++) {
+                if (collections[j].findMethodOmission(method)) {
+                    continue;
+                }
+                String[] patterns = collections[j].findPatterns();
+                if (patterns == null) {
+                    continue;
+                }
+                for (int k = 0; k < patterns.length; k++) {
+                    if (pattern.equals(patterns[k])) {
+                        found = true;
+                        if (collections[j].findMethod(method)) {
+                            results.add(constraints[i]);
+                        }
+                    }
+                }
+            }
+        }
+        return found ? new Match(toArray(results)) : null;
+    }
+
+
+    /**
+     * Compute the prefix match of the pattern, which is found if any
+     * collection not omitting the method uses the pattern. The constraints
+     * are null if none of these collections includes the method.
+     */
+    private Match prefixMatch(String pattern, String method) {
+        boolean matched = false;
+        ArrayList<SecurityConstraint> results = new ArrayList<SecurityConstraint>();
+        for (int i = 0; i < constraints.length; i++) {
+            SecurityCollection[] collections = constraints[i].findCollections();
+            if (collections == null) {
+                continue;
+            }
+            for (int j = 0; j < collections.length; j++) {
+                if (collections[j].findMethodOmission(method)
+                        || !containsPattern(collections[j], pattern)) {
+                    continue;
+                }
+                matched = true;
+                if (collections[j].findMethod(method)) {
+                    results.add(constraints[i]);
+                }
+            }
+        }
+        return matched ? new Match(toArray(results)) : null;
+    }
+
+
+    /**
+     * Compute the extension match of the pattern, which uses the first
+     * collection of each constraint not omitting the method and using the
+     * pattern.
+     */
+    private Match extensionMatch(String pattern, String method) {
+        boolean found = false;
+        ArrayList<SecurityConstraint> results = new ArrayList<SecurityConstraint>();
+        for (int i = 0; i < constraints.length; i++) {
+            SecurityCollection[] collections = constraints[i].findCollections();
+            if (collections == null) {
+                continue;
+            }
+            for (int j = 0; j < collections.length; j++) {
+                if (collections[j].findMethodOmission(method)
+                        || !containsPattern(collections[j], pattern)) {
+                    continue;
+                }
+                found = true;
+                if (collections[j].findMethod(method)) {
+                    results.add(constraints[i]);
+                }
+                break;
+            }
+        }
+        return found ? new Match(toArray(results)) : null;
+    }
+
+
+    // ---------------------------------------------------------- Inner Classes
+
+
+    /**
+     * The lookup tables for a method.
+     */
+    private static final class Table {
+        PathTrie<Match> exact = PathTrie.empty();
+        PathTrie<Match> prefix = PathTrie.empty();
+        PathTrie<Match> extension = PathTrie.empty();
+    }
+
+
+    /**
+     * A matched pattern, with the constraints which apply, or null if none
+     * does.
+     */
+    private static final class Match {
+        final SecurityConstraint[] constraints;
+        Match(SecurityConstraint[] constraints) {
+            this.constraints = constraints;
+        }
+    }
+
+
+}
@@ -50,11 +50,15 @@ import org.apache.catalina.Service;
 import org.apache.catalina.connector.Request;
 import org.apache.catalina.connector.Response;
 import org.apache.catalina.core.ContainerBase;
+import org.apache.catalina.core.StandardContext;
 import org.apache.catalina.deploy.SecurityCollection;
 import org.apache.catalina.deploy.SecurityConstraint;
+import org.apache.catalina.deploy.SecurityConstraintIndex;
 import org.apache.catalina.util.HexUtils;
 import org.apache.catalina.util.LifecycleSupport;
 import org.apache.catalina.util.MD5Encoder;
+import org.apache.tomcat.util.buf.CharChunk;
+import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.modeler.Registry;
 import org.jboss.logging.Logger;
 import org.jboss.web.CatalinaLogger;
@@ -465,6 +469,24 @@ public abstract class RealmBase
             return (null);
         }
 
+        // Use the index of the constraints if the context provides one
+        if (context instanceof StandardContext) {
+            SecurityConstraintIndex index = ((StandardContext) context).findConstraintIndex();
+            MessageBytes uriMB = request.getRequestPathMB();
+            SecurityConstraint[] found = null;
+            if (uriMB.getType() == MessageBytes.T_CHARS) {
+                CharChunk uriCC = uriMB.getCharChunk();
+                found = index.find(uriCC.getBuffer(), uriCC.getStart(),
+                        uriCC.getEnd(), request.getMethod());
+            } else {
+                found = index.find(uriMB.toString(), request.getMethod());
+            }
+            if (found == null && CatalinaLogger.REALM_LOGGER.isDebugEnabled()) {
+                CatalinaLogger.REALM_LOGGER.debug("  No applicable constraint located");
+            }
+            return found;
+        }
+
         // Check each defined security constraint
         String uri = request.getRequestPathMB().toString();
         
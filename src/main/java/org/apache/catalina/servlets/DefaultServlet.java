@@ -37,8 +37,10 @@ import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.StringTokenizer;
+import java.util.zip.GZIPOutputStream;
 
 import javax.naming.InitialContext;
 import javax.naming.NameClassPair;
@@ -171,6 +173,25 @@ public class DefaultServlet
      */
     protected boolean useAcceptRanges = true;
 
+    /**
+     * Should a precompressed ".gz" sibling of a static resource be served to
+     * clients accepting the gzip encoding?
+     */
+    protected boolean precompressed = false;
+
+    /**
+     * Should a gzip compressed variant of the static resources which are
+     * cached in memory be built and cached on the first request?
+     */
+    protected boolean compressCache = false;
+
+    /**
+     * MIME types of the resources for which a compressed variant is built.
+     */
+    protected String[] compressableMimeTypes =
+        { "text/html", "text/xml", "text/plain", "text/css",
+          "application/javascript", "application/json" };
+
     /**
      * Full range marker.
      */
@@ -254,6 +275,19 @@ public class DefaultServlet
         if (getServletConfig().getInitParameter("useAcceptRanges") != null)
             useAcceptRanges = Boolean.parseBoolean(getServletConfig().getInitParameter("useAcceptRanges"));
 
+        precompressed = Boolean.parseBoolean(getServletConfig().getInitParameter("precompressed"));
+
+        compressCache = Boolean.parseBoolean(getServletConfig().getInitParameter("compressCache"));
+
+        if (getServletConfig().getInitParameter("compressableMimeTypes") != null) {
+            StringTokenizer tokenizer = new StringTokenizer
+                (getServletConfig().getInitParameter("compressableMimeTypes"), ",");
+            compressableMimeTypes = new String[tokenizer.countTokens()];
+            for (int i = 0; i < compressableMimeTypes.length; i++) {
+                compressableMimeTypes[i] = tokenizer.nextToken().trim();
+            }
+        }
+
         // Sanity check on the specified buffer sizes
         if (input < 256)
             input = 256;
@@ -673,6 +707,41 @@ public class DefaultServlet
             }
         }
 
+        // Find content type.
+        String contentType = cacheEntry.attributes.getMimeType();
+        if (contentType == null) {
+            contentType = getServletContext().getMimeType(cacheEntry.name);
+            cacheEntry.attributes.setMimeType(contentType);
+        }
+
+        // Select the gzip compressed variant of the resource, if any
+        String variantPath = path;
+        boolean compressed = false;
+        if ((precompressed || compressCache) && (cacheEntry.context == null)
+                && (request.getAttribute(RequestDispatcher.INCLUDE_CONTEXT_PATH) == null)) {
+            response.addHeader("Vary", "Accept-Encoding");
+            if (acceptsGzip(request)) {
+                CacheEntry gzipEntry = null;
+                if (precompressed) {
+                    gzipEntry = resources.lookupCache(path + ".gz");
+                    if ((gzipEntry != null) && gzipEntry.exists
+                            && (gzipEntry.context == null)) {
+                        variantPath = path + ".gz";
+                    } else {
+                        gzipEntry = null;
+                    }
+                }
+                if ((gzipEntry == null) && compressCache) {
+                    gzipEntry = getCompressedEntry(cacheEntry, contentType);
+                }
+                if (gzipEntry != null) {
+                    cacheEntry = gzipEntry;
+                    compressed = true;
+                    response.setHeader("Content-Encoding", "gzip");
+                }
+            }
+        }
+
         // Check if the conditions specified in the optional If headers are
         // satisfied.
         if (cacheEntry.context == null) {
@@ -687,13 +756,6 @@ public class DefaultServlet
 
         }
 
-        // Find content type.
-        String contentType = cacheEntry.attributes.getMimeType();
-        if (contentType == null) {
-            contentType = getServletContext().getMimeType(cacheEntry.name);
-            cacheEntry.attributes.setMimeType(contentType);
-        }
-
         ArrayList<Range> ranges = null;
         long contentLength = -1L;
 
@@ -746,9 +808,9 @@ public class DefaultServlet
             } catch (IllegalStateException e) {
                 // If it fails, we try to get a Writer instead if we're
                 // trying to serve a text file
-                if ( (contentType == null)
+                if ( !compressed && ( (contentType == null)
                         || (contentType.startsWith("text"))
-                        || (contentType.endsWith("xml")) ) {
+                        || (contentType.endsWith("xml")) ) ) {
                     writer = response.getWriter();
                 } else {
                     throw e;
@@ -800,7 +862,7 @@ public class DefaultServlet
                     // Silent catch
                 }
                 if (ostream != null) {
-                    if (!checkSendfile(request, response, path, cacheEntry, contentLength, null))
+                    if (!checkSendfile(request, response, variantPath, cacheEntry, contentLength, null))
                         copy(cacheEntry, renderResult, ostream);
                 } else {
                     copy(cacheEntry, renderResult, writer);
@@ -845,7 +907,7 @@ public class DefaultServlet
                         // Silent catch
                     }
                     if (ostream != null) {
-                        if (!checkSendfile(request, response, path, cacheEntry, range.end - range.start + 1, range))
+                        if (!checkSendfile(request, response, variantPath, cacheEntry, range.end - range.start + 1, range))
                             copy(cacheEntry, ostream, range);
                     } else {
                         copy(cacheEntry, writer, range);
@@ -864,8 +926,9 @@ public class DefaultServlet
                         // Silent catch
                     }
                     if (ostream != null) {
-                        copy(cacheEntry, ostream, ranges.iterator(),
-                             contentType);
+                        if (!checkSendfile(request, response, variantPath, cacheEntry, ranges, contentType))
+                            copy(cacheEntry, ostream, ranges.iterator(),
+                                 contentType);
                     } else {
                         copy(cacheEntry, writer, ranges.iterator(),
                              contentType);
@@ -1484,6 +1547,159 @@ public class DefaultServlet
     // -------------------------------------------------------- protected Methods
 
 
+    /**
+     * Check if the client accepts the gzip content coding.
+     */
+    protected boolean acceptsGzip(HttpServletRequest request) {
+        // An explicit gzip coding takes precedence over "*", whatever the
+        // order, so all the codings are scanned
+        float gzip = -1;
+        float any = -1;
+        Enumeration<String> headers = request.getHeaders("Accept-Encoding");
+        while (headers.hasMoreElements()) {
+            StringTokenizer tokenizer =
+                new StringTokenizer(headers.nextElement(), ",");
+            while (tokenizer.hasMoreTokens()) {
+                String coding = tokenizer.nextToken();
+                String quality = null;
+                int semicolon = coding.indexOf(';');
+                if (semicolon >= 0) {
+                    quality = coding.substring(semicolon + 1).trim();
+                    coding = coding.substring(0, semicolon);
+                }
+                coding = coding.trim();
+                if (coding.equalsIgnoreCase("gzip") || coding.equalsIgnoreCase("x-gzip")) {
+                    gzip = Math.max(gzip, parseQuality(quality));
+                } else if (coding.equals("*")) {
+                    any = Math.max(any, parseQuality(quality));
+                }
+            }
+        }
+        return (gzip >= 0) ? (gzip > 0) : (any > 0);
+    }
+
+
+    /**
+     * Parse the quality value of a coding of an Accept-Encoding header.
+     *
+     * @param quality The parameters of the coding, or <code>null</code>
+     * @return the quality, which is zero if it is invalid
+     */
+    private static float parseQuality(String quality) {
+        if ((quality != null) && quality.startsWith("q=")) {
+            try {
+                return Math.max(Float.parseFloat(quality.substring(2).trim()), 0);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 1;
+    }
+
+
+    /**
+     * Return the gzip compressed variant of a resource whose content is
+     * cached, building it on the first call. The variant is kept with the
+     * cache entry, and its size is charged to the entry so that it counts
+     * towards the size of the cache. It is discarded along with the entry
+     * when the resource is modified or evicted. If the cache has no room for
+     * it, the variant is only used for the current response, and the resource
+     * is then served uncompressed.
+     *
+     * @param entry The cache entry of the resource
+     * @param contentType The content type of the resource
+     * @return the variant, or null if the resource should not be compressed
+     */
+    protected CacheEntry getCompressedEntry(CacheEntry entry, String contentType)
+        throws IOException {
+
+        CacheEntry gzipEntry = entry.gzipEntry;
+        if (gzipEntry != null) {
+            return (gzipEntry.exists) ? gzipEntry : null;
+        }
+        if ((entry.resource == null) || (entry.attributes == null)) {
+            return null;
+        }
+        byte[] content = entry.resource.getContent();
+        if (content == null) {
+            return null;
+        }
+
+        synchronized (entry) {
+            // Compress and charge the variant only once
+            gzipEntry = entry.gzipEntry;
+            if (gzipEntry != null) {
+                return (gzipEntry.exists) ? gzipEntry : null;
+            }
+            gzipEntry = new CacheEntry();
+            gzipEntry.name = entry.name;
+            if (content.length == 0 || !isCompressable(contentType)) {
+                gzipEntry.exists = false;
+                entry.gzipEntry = gzipEntry;
+                return null;
+            }
+            ByteArrayOutputStream buffer =
+                new ByteArrayOutputStream(content.length / 2);
+            GZIPOutputStream gzip = new GZIPOutputStream(buffer);
+            gzip.write(content);
+            gzip.close();
+            byte[] compressedContent = buffer.toByteArray();
+            if (compressedContent.length >= content.length) {
+                // Not worth it
+                gzipEntry.exists = false;
+                entry.gzipEntry = gzipEntry;
+                return null;
+            }
+            ResourceAttributes attributes = new ResourceAttributes();
+            attributes.setContentLength(compressedContent.length);
+            attributes.setLastModified(entry.attributes.getLastModified());
+            attributes.setMimeType(contentType);
+            String eTag = entry.attributes.getETag();
+            if ((eTag != null) && eTag.endsWith("\"")) {
+                // A distinct entity tag for the distinct representation
+                attributes.setETag(eTag.substring(0, eTag.length() - 1)
+                        + "-gzip\"");
+            }
+            gzipEntry.attributes = attributes;
+            gzipEntry.resource = new Resource(compressedContent);
+            // The size of a variant is counted like the size of an entry
+            gzipEntry.size += (compressedContent.length / 1024);
+            if (resources.growCache(entry, gzipEntry.size)) {
+                entry.gzipEntry = gzipEntry;
+            } else {
+                CacheEntry noEntry = new CacheEntry();
+                noEntry.name = entry.name;
+                noEntry.exists = false;
+                entry.gzipEntry = noEntry;
+            }
+            return gzipEntry;
+        }
+
+    }
+
+
+    /**
+     * Check if the given content type should be compressed.
+     */
+    protected boolean isCompressable(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        int semicolon = contentType.indexOf(';');
+        if (semicolon >= 0) {
+            contentType = contentType.substring(0, semicolon);
+        }
+        contentType = contentType.trim();
+        for (int i = 0; i < compressableMimeTypes.length; i++) {
+            if (compressableMimeTypes[i].equalsIgnoreCase(contentType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+
     /**
      * Check if sendfile can be used.
      */
@@ -1511,6 +1727,62 @@ public class DefaultServlet
     }
     
     
+    /**
+     * Check if sendfile can be used for a multiple ranges response, and
+     * send the ranges with their MIME headers if it is the case.
+     */
+    protected boolean checkSendfile(HttpServletRequest request,
+                                  HttpServletResponse response,
+                                  String path, CacheEntry entry,
+                                  ArrayList<Range> ranges, String contentType)
+        throws IOException {
+        long length = 0;
+        for (int i = 0; i < ranges.size(); i++) {
+            Range range = ranges.get(i);
+            length += range.end - range.start + 1;
+        }
+        if ((sendfileSize > 0)
+            && (entry.resource != null)
+            && ((length > sendfileSize) || (entry.resource.getContent() == null))
+            && (entry.attributes.getCanonicalPath() != null)
+            && (request.getClass().getName().equals("org.apache.catalina.connector.RequestFacade"))
+            && (response.getClass().getName().equals("org.apache.catalina.connector.ResponseFacade"))
+            && ((RequestFacade) request).hasSendfileRanges()) {
+            long[] positions = new long[ranges.size() * 2];
+            byte[][] headers = new byte[ranges.size()][];
+            for (int i = 0; i < ranges.size(); i++) {
+                Range range = ranges.get(i);
+                positions[2 * i] = range.start;
+                positions[2 * i + 1] = range.end + 1;
+                // Same MIME header as the one written by copy
+                StringBuilder header = new StringBuilder();
+                header.append("\r\n--").append(mimeSeparation).append("\r\n");
+                if (contentType != null) {
+                    header.append("Content-Type: ").append(contentType).append("\r\n");
+                }
+                header.append("Content-Range: bytes ").append(range.start)
+                    .append('-').append(range.end).append('/').append(range.length)
+                    .append("\r\n\r\n");
+                headers[i] = header.toString().getBytes("ISO-8859-1");
+                length += headers[i].length;
+            }
+            byte[] trailer = ("\r\n--" + mimeSeparation + "--").getBytes("ISO-8859-1");
+            length += trailer.length;
+            if (length < Integer.MAX_VALUE) {
+                response.setContentLength((int) length);
+            } else {
+                // Set the content-length as String to be able to use a long
+                response.setHeader("content-length", "" + length);
+            }
+            ((ResponseFacade) response).sendFile(path, entry.attributes.getCanonicalPath(),
+                    positions, headers, trailer);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+
     /**
      * Check if the if-match condition is satisfied.
      *
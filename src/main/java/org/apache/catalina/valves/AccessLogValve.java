@@ -23,15 +23,26 @@ import static org.jboss.web.CatalinaMessages.MESSAGES;
 
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.Cookie;
@@ -109,6 +120,16 @@ import org.jboss.logging.Logger;
  * yields a non-null value. The logging will be skipped.
  * </p>
  *
+ * <p>
+ * Asynchronous logging is enabled with the <code>asynchronous</code>
+ * property. The request threads then render the log lines into reusable
+ * buffers and queue them in a lock-free ring buffer, from which a background
+ * thread writes them to the log file in batches, and handles the rotation.
+ * If the ring buffer is full, the request threads wait for some space,
+ * unless <code>dropOnOverflow</code> is set, in which case the line is
+ * dropped.
+ * </p>
+ *
  * @author Craig R. McClanahan
  * @author Jason Brittain
  * @author Remy Maucherat
@@ -312,6 +333,47 @@ public class AccessLogValve
      */
     protected AccessLogElement[] logElements = null;
 
+
+    /**
+     * Asynchronous logging.
+     */
+    protected boolean asynchronous = false;
+
+
+    /**
+     * Number of log lines which can be queued in asynchronous mode.
+     */
+    protected int queueSize = 8192;
+
+
+    /**
+     * Drop the log lines if the queue is full, rather than waiting.
+     */
+    protected boolean dropOnOverflow = false;
+
+
+    /**
+     * The channel of the current log file, in asynchronous mode.
+     */
+    protected FileChannel channel = null;
+
+
+    /**
+     * The asynchronous log writer, if any.
+     */
+    protected AsyncLogWriter asyncWriter = null;
+
+
+    /**
+     * The buffers used by each thread to render the log lines in asynchronous
+     * mode.
+     */
+    protected ThreadLocal<LogBuffer> logBuffers = new ThreadLocal<LogBuffer>() {
+        protected LogBuffer initialValue() {
+            return new LogBuffer();
+        }
+    };
+
     // ------------------------------------------------------------- Properties
 
     /**
@@ -456,6 +518,74 @@ public class AccessLogValve
     }
 
 
+    /**
+     * Is the logging asynchronous
+     */
+    public boolean isAsynchronous() {
+        return asynchronous;
+    }
+
+
+    /**
+     * Set the value if the logging should be asynchronous. It takes effect
+     * when the valve is started.
+     *
+     * @param asynchronous true if asynchronous.
+     */
+    public void setAsynchronous(boolean asynchronous) {
+        this.asynchronous = asynchronous;
+    }
+
+
+    /**
+     * Return the number of log lines which can be queued in asynchronous
+     * mode.
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+
+    /**
+     * Set the number of log lines which can be queued in asynchronous mode,
+     * rounded up to a power of two.
+     *
+     * @param queueSize The new queue size
+     */
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+
+    /**
+     * Are the log lines dropped when the queue is full
+     */
+    public boolean isDropOnOverflow() {
+        return dropOnOverflow;
+    }
+
+
+    /**
+     * Set the value if the log lines should be dropped when the queue is
+     * full, rather than having the request thread wait for some space.
+     *
+     * @param dropOnOverflow true to drop the log lines
+     */
+    public void setDropOnOverflow(boolean dropOnOverflow) {
+        this.dropOnOverflow = dropOnOverflow;
+    }
+
+
+    /**
+     * Return the number of log lines which were dropped because the queue
+     * was full.
+     */
+    public long getDroppedCount() {
+        AsyncLogWriter asyncWriter = this.asyncWriter;
+        return (asyncWriter == null) ? 0 : asyncWriter.dropped.get();
+    }
+
+
     /**
      * Return the log file suffix.
      */
@@ -535,7 +665,8 @@ public class AccessLogValve
      * throwables will be caught and logged.
      */
     public void backgroundProcess() {
-        if (started && getEnabled() && writer != null && buffered) {
+        if (started && getEnabled() && writer != null && buffered
+                && asyncWriter == null) {
             writer.flush();
         }
     }    
@@ -568,6 +699,19 @@ public class AccessLogValve
             }
     
             Date date = getDate();
+            AsyncLogWriter asyncWriter = this.asyncWriter;
+            if (asyncWriter != null) {
+                // Render into the buffer of the thread, and queue the bytes
+                LogBuffer buffer = logBuffers.get();
+                StringBuilder result = buffer.line;
+                result.setLength(0);
+                for (int i = 0; i < logElements.length; i++) {
+                    logElements[i].addElement(result, date, request, response, time);
+                }
+                asyncWriter.offer(buffer);
+                return;
+            }
+
             StringBuilder result = new StringBuilder();
     
             for (int i = 0; i < logElements.length; i++) {
@@ -625,6 +769,7 @@ public class AccessLogValve
         writer.flush();
         writer.close();
         writer = null;
+        channel = null;
         dateStamp = "";
         currentLogFile = null;
     }
@@ -637,6 +782,15 @@ public class AccessLogValve
      * @param message Message to be logged
      */
     public void log(String message) {
+        AsyncLogWriter asyncWriter = this.asyncWriter;
+        if (asyncWriter != null) {
+            LogBuffer buffer = logBuffers.get();
+            buffer.line.setLength(0);
+            buffer.line.append(message);
+            asyncWriter.offer(buffer);
+            return;
+        }
+
         if (rotatable) {
             // Only do a logfile switch check once a second, max.
             long systime = System.currentTimeMillis();
@@ -730,12 +884,21 @@ public class AccessLogValve
                 pathname = dir.getAbsolutePath() + File.separator + prefix
                         + suffix;
             }
-            writer = new PrintWriter(new BufferedWriter(new FileWriter(
-                    pathname, true), 128000), false);
+            if (asynchronous) {
+                // The log lines are written to the channel by the log writer
+                // thread, and the writer is only used for file headers
+                FileOutputStream out = new FileOutputStream(pathname, true);
+                channel = out.getChannel();
+                writer = new PrintWriter(new OutputStreamWriter(out), true);
+            } else {
+                writer = new PrintWriter(new BufferedWriter(new FileWriter(
+                        pathname, true), 128000), false);
+            }
             
             currentLogFile = new File(pathname);
         } catch (IOException e) {
             writer = null;
+            channel = null;
             currentLogFile = null;
         }
     }
@@ -866,6 +1029,14 @@ public class AccessLogValve
         currentDate = new Date();
         dateStamp = fileDateFormatter.format(currentDate);
         open();
+
+        if (asynchronous) {
+            asyncWriter = new AsyncLogWriter(queueSize);
+            Thread thread = new Thread(asyncWriter, "AccessLogWriter-" + prefix);
+            thread.setDaemon(true);
+            asyncWriter.thread = thread;
+            thread.start();
+        }
     }
 
 
@@ -885,9 +1056,290 @@ public class AccessLogValve
         lifecycle.fireLifecycleEvent(STOP_EVENT, null);
         started = false;
         
+        if (asyncWriter != null) {
+            // Write the queued log lines before closing the file
+            asyncWriter.stop();
+            asyncWriter = null;
+        }
         close();
     }
     
+    /**
+     * Reusable buffers of a thread, used to render a log line and encode it.
+     */
+    protected static final class LogBuffer {
+
+        protected static final String LINE_SEPARATOR =
+            System.getProperty("line.separator");
+
+        protected final StringBuilder line = new StringBuilder(256);
+        protected final CharsetEncoder encoder = Charset.defaultCharset().newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        protected char[] chars = new char[0];
+        protected CharBuffer charBuffer = null;
+        protected byte[] bytes = new byte[0];
+        protected ByteBuffer byteBuffer = null;
+
+        /**
+         * Encode the line, followed by a line separator.
+         *
+         * @return the number of bytes
+         */
+        protected int encode() {
+            line.append(LINE_SEPARATOR);
+            int length = line.length();
+            if (chars.length < length) {
+                chars = new char[Math.max(length, 2 * chars.length)];
+                charBuffer = CharBuffer.wrap(chars);
+                int maxBytes = (int) Math.ceil(chars.length * encoder.maxBytesPerChar());
+                bytes = new byte[maxBytes];
+                byteBuffer = ByteBuffer.wrap(bytes);
+            }
+            line.getChars(0, length, chars, 0);
+            charBuffer.clear();
+            charBuffer.limit(length);
+            byteBuffer.clear();
+            encoder.reset();
+            encoder.encode(charBuffer, byteBuffer, true);
+            encoder.flush(byteBuffer);
+            return byteBuffer.position();
+        }
+
+    }
+
+
+    /**
+     * Asynchronous log writer. The log lines are queued in a bounded ring
+     * buffer, where each slot has a sequence number telling if it is free
+     * or holds a line: request threads claim a slot with a CAS on the tail,
+     * copy the line into the slot buffer and publish it, and the writer
+     * thread copies the published lines into a batch buffer which is then
+     * written to the log file channel.
+     */
+    protected class AsyncLogWriter implements Runnable {
+
+        protected static final int BATCH_SIZE = 128 * 1024;
+
+        protected final int capacity;
+        protected final int mask;
+        protected final AtomicLongArray sequences;
+        protected final byte[][] slots;
+        protected final int[] lengths;
+        protected final AtomicLong tail = new AtomicLong();
+        protected final AtomicLong dropped = new AtomicLong();
+        // The following fields are only used by the writer thread
+        protected long head = 0;
+        protected final ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_SIZE);
+        protected long lastChecked = 0;
+
+        protected Thread thread = null;
+        protected volatile boolean waiting = false;
+        protected volatile boolean stopped = false;
+
+        protected AsyncLogWriter(int size) {
+            capacity = (size <= 1) ? 2 : Integer.highestOneBit(size - 1) << 1;
+            mask = capacity - 1;
+            sequences = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                sequences.set(i, i);
+            }
+            slots = new byte[capacity][];
+            lengths = new int[capacity];
+        }
+
+        /**
+         * Queue the line of the given buffer.
+         *
+         * @return false if the line was dropped
+         */
+        protected boolean offer(LogBuffer buffer) {
+            int length = buffer.encode();
+            long position;
+            while (true) {
+                position = tail.get();
+                long sequence = sequences.get((int) position & mask);
+                if (sequence == position) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        break;
+                    }
+                } else if (sequence < position) {
+                    // The queue is full
+                    if (dropOnOverflow) {
+                        dropped.incrementAndGet();
+                        return false;
+                    }
+                    if (stopped) {
+                        writeAfterStop(buffer, length);
+                        return true;
+                    }
+                    wakeup();
+                    LockSupport.parkNanos(100000L);
+                }
+            }
+            int index = (int) position & mask;
+            if (stopped) {
+                // The writer thread may have written its last batch already,
+                // so publish an empty line and write this one directly
+                lengths[index] = 0;
+                sequences.set(index, position + 1);
+                writeAfterStop(buffer, length);
+                return true;
+            }
+            byte[] slot = slots[index];
+            if (slot == null || slot.length < length) {
+                slot = new byte[Math.max(length, 256)];
+                slots[index] = slot;
+            }
+            System.arraycopy(buffer.bytes, 0, slot, 0, length);
+            lengths[index] = length;
+            sequences.set(index, position + 1);
+            if (waiting) {
+                wakeup();
+            }
+            return true;
+        }
+
+        /**
+         * Write a line directly, once the writer thread has written the
+         * queued lines and exited, so that the lines of a thread stay in
+         * order.
+         */
+        protected void writeAfterStop(LogBuffer buffer, int length) {
+            boolean interrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            write(ByteBuffer.wrap(buffer.bytes, 0, length));
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        protected void wakeup() {
+            waiting = false;
+            LockSupport.unpark(thread);
+        }
+
+        /**
+         * Stop the writer thread, after it has written all the queued lines.
+         */
+        protected void stop() {
+            stopped = true;
+            wakeup();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        protected boolean available() {
+            return (sequences.get((int) head & mask) == head + 1);
+        }
+
+        public void run() {
+            while (true) {
+                boolean stopping = stopped;
+                checkRotation();
+                int count = drain();
+                if (batch.position() > 0) {
+                    write(batch);
+                }
+                if (count == 0) {
+                    if (stopping) {
+                        if (head == tail.get()) {
+                            break;
+                        }
+                        // Wait for the lines being queued
+                        LockSupport.parkNanos(100000L);
+                        continue;
+                    }
+                    waiting = true;
+                    if (!available() && !stopped) {
+                        LockSupport.parkNanos(this, 1000000000L);
+                    }
+                    waiting = false;
+                }
+            }
+        }
+
+        /**
+         * Copy the published lines to the batch buffer, until it is full.
+         *
+         * @return the number of lines
+         */
+        protected int drain() {
+            int count = 0;
+            while (available()) {
+                int index = (int) head & mask;
+                int length = lengths[index];
+                if (length > batch.remaining()) {
+                    if (batch.position() > 0) {
+                        break;
+                    }
+                    // Line larger than the batch buffer
+                    write(ByteBuffer.wrap(slots[index], 0, length));
+                } else {
+                    batch.put(slots[index], 0, length);
+                }
+                sequences.set(index, head + capacity);
+                head++;
+                count++;
+            }
+            return count;
+        }
+
+        protected void write(ByteBuffer buffer) {
+            if (buffer == batch) {
+                batch.flip();
+            }
+            synchronized (AccessLogValve.this) {
+                try {
+                    while (channel != null && buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                } catch (IOException e) {
+                    log.error("Error writing access log", e);
+                }
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Switch log files if the date has changed, or if the file was
+         * removed, checking at most once a second.
+         */
+        protected void checkRotation() {
+            long systime = System.currentTimeMillis();
+            if ((systime - lastChecked) < 1000) {
+                return;
+            }
+            lastChecked = systime;
+            synchronized (AccessLogValve.this) {
+                if (rotatable) {
+                    String tsDate = fileDateFormatter.format(new Date(systime));
+                    if (!dateStamp.equals(tsDate)) {
+                        close();
+                        dateStamp = tsDate;
+                        open();
+                    }
+                }
+                if (checkExists && currentLogFile != null && !currentLogFile.exists()) {
+                    close();
+                    dateStamp = fileDateFormatter.format(new Date(systime));
+                    open();
+                }
+            }
+        }
+
+    }
+
+
     /**
      * AccessLogElement writes the partial message into the buffer.
      */
@@ -997,9 +1449,9 @@ public class AccessLogValve
      * write date and time, in Common Log Format - %t
      */
     protected class DateAndTimeElement implements AccessLogElement {
-        private Date currentDate = new Date(0);
+        private volatile Date currentDate = new Date(0);
 
-        private String currentDateString = null;
+        private volatile String currentDateString = null;
         
         public void addElement(StringBuilder buf, Date date, Request request,
                 Response response, long time) {
@@ -0,0 +1,295 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.coyote;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram over a sliding time window, with buckets whose width
+ * grows with the value (like HdrHistogram), so that percentiles are
+ * accurate to about 6% over the whole range of values. Recording does not
+ * allocate nor lock: the counts are striped by thread, and the window is
+ * divided in intervals which are cleared by the first thread recording in
+ * them after they expired. The other threads recording in an interval wait
+ * until it has been cleared, so that no value is lost.
+ */
+public final class LatencyHistogram {
+
+
+    // -------------------------------------------------------------- Constants
+
+
+    /**
+     * Values below 2^SUB_BITS are counted exactly, and the larger ones are
+     * counted in 2^(SUB_BITS-1) buckets per power of two.
+     */
+    private static final int SUB_BITS = 5;
+    private static final int HALF = 1 << (SUB_BITS - 1);
+    private static final int MAX_BITS = 32;
+    private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+
+    /**
+     * Number of buckets.
+     */
+    public static final int BUCKETS = (MAX_BITS - SUB_BITS + 2) * HALF;
+
+    /**
+     * Epoch of a slot which is being cleared.
+     */
+    private static final long RESETTING = -2;
+
+
+    // ----------------------------------------------------------- Constructors
+
+
+    /**
+     * Create a histogram over a one minute window, in 10 seconds intervals.
+     */
+    public LatencyHistogram() {
+        this(6, 10000L);
+    }
+
+
+    public LatencyHistogram(int intervals, long intervalTime) {
+        this(intervals, intervalTime,
+                Math.min(Runtime.getRuntime().availableProcessors(), 8));
+    }
+
+
+    /**
+     * @param intervals Number of intervals in the window
+     * @param intervalTime Duration of an interval in ms
+     * @param stripes Number of stripes, rounded up to a power of two
+     */
+    public LatencyHistogram(int intervals, long intervalTime, int stripes) {
+        if (intervals < 1 || intervalTime < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.intervals = intervals;
+        this.intervalTime = intervalTime;
+        // One more slot for the current interval
+        this.slots = intervals + 1;
+        int n = 1;
+        while (n < stripes && n < 64) {
+            n <<= 1;
+        }
+        this.stripes = n;
+        this.epochs = new AtomicLongArray(slots);
+        for (int i = 0; i < slots; i++) {
+            epochs.set(i, -1);
+        }
+        this.counts = new AtomicIntegerArray(slots * this.stripes * BUCKETS);
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    private final int intervals;
+    private final long intervalTime;
+    private final int slots;
+    private final int stripes;
+
+    /**
+     * Interval number of the data held by each slot, -1 if the slot is
+     * unused, or RESETTING while it is cleared.
+     */
+    private final AtomicLongArray epochs;
+
+    /**
+     * Counts, by slot, stripe and bucket.
+     */
+    private final AtomicIntegerArray counts;
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    /**
+     * Return the duration of the window in ms.
+     */
+    public long getWindowTime() {
+        return intervals * intervalTime;
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Record a value.
+     *
+     * @param value The value, usually a time in ms
+     * @param now The current time in ms
+     */
+    public void record(long value, long now) {
+        long epoch = now / intervalTime;
+        int slot = (int) (epoch % slots);
+        long slotEpoch;
+        while ((slotEpoch = epochs.get(slot)) != epoch) {
+            if (slotEpoch == RESETTING) {
+                // Wait until the slot has been cleared by another thread
+                Thread.yield();
+            } else if (slotEpoch > epoch) {
+                // Late recording for an interval which has been reused
+                return;
+            } else if (epochs.compareAndSet(slot, slotEpoch, RESETTING)) {
+                // Clear the slot before publishing its new interval, so
+                // that the values recorded by other threads are kept
+                int start = slot * stripes * BUCKETS;
+                for (int i = start; i < start + stripes * BUCKETS; i++) {
+                    counts.set(i, 0);
+                }
+                epochs.set(slot, epoch);
+            }
+        }
+        int stripe = (int) Thread.currentThread().getId() & (stripes - 1);
+        counts.incrementAndGet((slot * stripes + stripe) * BUCKETS + index(value));
+    }
+
+
+    /**
+     * Record a value.
+     *
+     * @param value The value, usually a time in ms
+     */
+    public void record(long value) {
+        record(value, System.currentTimeMillis());
+    }
+
+
+    /**
+     * Return the counts by bucket over the window.
+     */
+    public long[] getCounts() {
+        long[] result = new long[BUCKETS];
+        long epoch = System.currentTimeMillis() / intervalTime;
+        for (int slot = 0; slot < slots; slot++) {
+            long slotEpoch = epochs.get(slot);
+            if (slotEpoch < 0 || slotEpoch > epoch || epoch - slotEpoch > intervals) {
+                continue;
+            }
+            int start = slot * stripes * BUCKETS;
+            for (int i = 0; i < stripes * BUCKETS; i++) {
+                result[i % BUCKETS] += counts.get(start + i);
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Return the number of values recorded over the window.
+     */
+    public long getCount() {
+        long[] counts = getCounts();
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts[i];
+        }
+        return count;
+    }
+
+
+    /**
+     * Return the value at the given percentile over the window, which is the
+     * highest value equivalent to the matching bucket, or 0 if no value was
+     * recorded.
+     *
+     * @param percentile The percentile, between 0 and 100
+     */
+    public long getPercentile(double percentile) {
+        return getPercentiles(new double[] { percentile })[0];
+    }
+
+
+    /**
+     * Return the values at the given percentiles over the window.
+     *
+     * @param percentiles The percentiles, between 0 and 100, in
+     *        ascending order
+     */
+    public long[] getPercentiles(double[] percentiles) {
+        long[] counts = getCounts();
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts[i];
+        }
+        long[] result = new long[percentiles.length];
+        if (total == 0) {
+            return result;
+        }
+        long cumulated = 0;
+        int bucket = 0;
+        for (int p = 0; p < percentiles.length; p++) {
+            long rank = (long) Math.ceil(total * percentiles[p] / 100.0);
+            if (rank < 1) {
+                rank = 1;
+            }
+            while (bucket < BUCKETS && cumulated + counts[bucket] < rank) {
+                cumulated += counts[bucket++];
+            }
+            result[p] = highestEquivalentValue(Math.min(bucket, BUCKETS - 1));
+        }
+        return result;
+    }
+
+
+    /**
+     * Clear all the values.
+     */
+    public void reset() {
+        for (int i = 0; i < slots; i++) {
+            epochs.set(i, -1);
+        }
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    /**
+     * Return the bucket of a value.
+     */
+    static int index(long value) {
+        if (value < (HALF << 1)) {
+            return (value < 0) ? 0 : (int) value;
+        }
+        if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+
+    /**
+     * Return the highest value counted in a bucket.
+     */
+    static long highestEquivalentValue(int index) {
+        if (index < (HALF << 1)) {
+            return index;
+        }
+        int shift = index / HALF - 1;
+        long sub = index % HALF + HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+
+
+}
@@ -144,6 +144,7 @@ public final class Request {
     private long startTime = 0L;
     private int available = 0;
     private boolean sendfile = false;
+    private boolean sendfileRanges = false;
 
     private RequestInfo reqProcessorMX=new RequestInfo(this);
     // ------------------------------------------------------------- Properties
@@ -180,6 +181,20 @@ public final class Request {
     }
 
 
+    /**
+     * @return true if the connector can send multiple ranges of a file,
+     *         separated by headers, using sendfile
+     */
+    public boolean hasSendfileRanges() {
+        return sendfileRanges;
+    }
+
+
+    public void setSendfileRanges(boolean sendfileRanges) {
+        this.sendfileRanges = sendfileRanges;
+    }
+
+
     // -------------------- Request data --------------------
 
 
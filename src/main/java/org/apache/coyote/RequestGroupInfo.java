@@ -31,6 +31,7 @@ public class RequestGroupInfo {
     private int deadErrorCount = 0;
     private long deadBytesReceived = 0;
     private long deadBytesSent = 0;
+    private final LatencyHistogram latencyHistogram = new LatencyHistogram();
 
     public synchronized void addRequestProcessor( RequestInfo rp ) {
         processors.add( rp );
@@ -157,7 +158,33 @@ public class RequestGroupInfo {
         }
     }
 
+    public LatencyHistogram getLatencyHistogram() {
+        return latencyHistogram;
+    }
+
+    // Percentiles of the processing time over the last minute
+    public long getLatencyP50() {
+        return latencyHistogram.getPercentile(50);
+    }
+
+    public long getLatencyP90() {
+        return latencyHistogram.getPercentile(90);
+    }
+
+    public long getLatencyP99() {
+        return latencyHistogram.getPercentile(99);
+    }
+
+    public long getLatencyP999() {
+        return latencyHistogram.getPercentile(99.9);
+    }
+
+    public long getLatencyCount() {
+        return latencyHistogram.getCount();
+    }
+
     public void resetCounters() {
+        latencyHistogram.reset();
         this.setBytesReceived(0);
         this.setBytesSent(0);
         this.setRequestCount(0);
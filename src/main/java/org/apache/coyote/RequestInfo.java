@@ -155,6 +155,8 @@ public class RequestInfo  {
             maxTime=time;
             maxRequestUri=req.requestURI().toString();
         }
+        if( global != null )
+            global.getLatencyHistogram().record(time, t1);
     }
 
     public int getStage() {
@@ -130,6 +130,9 @@ public final class Response {
     protected String sendfilePath = null;
     protected long sendfileStart = 0;
     protected long sendfileEnd = 0;
+    protected long[] sendfileRanges = null;
+    protected byte[][] sendfileHeaders = null;
+    protected byte[] sendfileTrailer = null;
 
     // ------------------------------------------------------------- Properties
 
@@ -527,6 +530,14 @@ public final class Response {
         }
     }
 
+    /**
+     * Return the content type, without the charset parameter which is added
+     * by {@link #getContentType()}.
+     */
+    public String getContentTypeWithoutCharset() {
+        return contentType;
+    }
+
     public String getContentType() {
 
         String ret = contentType;
@@ -585,6 +596,30 @@ public final class Response {
         this.sendfileEnd = sendfileEnd;
     }
 
+    public long[] getSendfileRanges() {
+        return sendfileRanges;
+    }
+
+    public byte[][] getSendfileHeaders() {
+        return sendfileHeaders;
+    }
+
+    public byte[] getSendfileTrailer() {
+        return sendfileTrailer;
+    }
+
+    /**
+     * Send multiple ranges of the sendfile file, as start (inclusive) and
+     * end (exclusive) pairs, each one preceded by the given header bytes, and
+     * followed by the trailer bytes after the last one.
+     */
+    public void setSendfileRanges(long[] sendfileRanges, byte[][] sendfileHeaders,
+            byte[] sendfileTrailer) {
+        this.sendfileRanges = sendfileRanges;
+        this.sendfileHeaders = sendfileHeaders;
+        this.sendfileTrailer = sendfileTrailer;
+    }
+
     /** 
      * Write a chunk of bytes.
      */
@@ -613,6 +648,9 @@ public final class Response {
         headers.clear();
 
         sendfilePath = null;
+        sendfileRanges = null;
+        sendfileHeaders = null;
+        sendfileTrailer = null;
 
         // update counters
         lastWrite = 1;
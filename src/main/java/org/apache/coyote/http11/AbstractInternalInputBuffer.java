@@ -296,6 +296,22 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 		}
 	}
 
+	/**
+	 * Check if the request line and headers of the next request are already
+	 * buffered, after the end of the current request. This method does not
+	 * read any data.
+	 * 
+	 * @return <tt>true</tt> if the next request can be parsed without waiting
+	 *         for more data
+	 */
+	public boolean hasPipelinedRequest() {
+		int start = pos;
+		while (start < lastValid && (buf[start] == Constants.CR || buf[start] == Constants.LF)) {
+			start++;
+		}
+		return (start < lastValid) && (HttpParser.findHeadersEnd(buf, start, lastValid) >= 0);
+	}
+
 	/**
 	 * Read the request line. This function is meant to be used during the HTTP
 	 * request header parsing. Do NOT attempt to read the request body using it.
@@ -307,7 +323,6 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 	 */
 	public void parseRequestLine() throws IOException {
 
-		int start = 0;
 		// Skipping blank lines
 
 		byte chr = 0;
@@ -322,136 +337,19 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 		} while ((chr == Constants.CR) || (chr == Constants.LF));
 
 		pos--;
-		// Mark the current buffer position
-		start = pos;
-
-		// Reading the method name
-		// Method name is always US-ASCII
-
-		boolean space = false;
-
-		while (!space) {
 
-			// Read new bytes if needed
-			if (pos >= lastValid) {
-				if (!fill()) {
-					throw new EOFException(MESSAGES.eofError());
-				}
-			}
-
-			// Spec says single SP but it also says be tolerant of HT
-			if (buf[pos] == Constants.SP || buf[pos] == Constants.HT) {
-				space = true;
-				request.method().setBytes(buf, start, pos - start);
+		// Make sure the whole line is in the buffer
+		int lf;
+		int scan = pos;
+		while ((lf = HttpParser.findLF(buf, scan, lastValid)) < 0) {
+			scan = lastValid;
+			if (!fillHeader()) {
+				throw new EOFException(MESSAGES.eofError());
 			}
-
-			pos++;
 		}
 
-		// Spec says single SP but also says be tolerant of multiple and/or HT
-		while (space) {
-			// Read new bytes if needed
-			if (pos >= lastValid) {
-				if (!fill()) {
-					throw new EOFException(MESSAGES.eofError());
-				}
-			}
-			if (buf[pos] == Constants.SP || buf[pos] == Constants.HT) {
-				pos++;
-			} else {
-				space = false;
-			}
-		}
-
-		// Mark the current buffer position
-		start = pos;
-		int end = 0;
-		int questionPos = -1;
-
-		// Reading the URI
-
-		boolean eol = false;
-
-		while (!space) {
-
-			// Read new bytes if needed
-			if (pos >= lastValid) {
-				if (!fill()) {
-					throw new EOFException(MESSAGES.eofError());
-				}
-			}
-
-			// Spec says single SP but it also says be tolerant of HT
-			if (buf[pos] == Constants.SP || buf[pos] == Constants.HT) {
-				space = true;
-				end = pos;
-			} else if ((buf[pos] == Constants.CR) || (buf[pos] == Constants.LF)) {
-				// HTTP/0.9 style request
-				eol = true;
-				space = true;
-				end = pos;
-			} else if ((buf[pos] == Constants.QUESTION) && (questionPos == -1)) {
-				questionPos = pos;
-			}
-
-			pos++;
-		}
-
-		request.unparsedURI().setBytes(buf, start, end - start);
-		if (questionPos >= 0) {
-			request.queryString().setBytes(buf, questionPos + 1, end - questionPos - 1);
-			request.requestURI().setBytes(buf, start, questionPos - start);
-		} else {
-			request.requestURI().setBytes(buf, start, end - start);
-		}
-
-		// Spec says single SP but also says be tolerant of multiple and/or HT
-		while (space) {
-			// Read new bytes if needed
-			if (pos >= lastValid) {
-				if (!fill()) {
-					throw new EOFException(MESSAGES.eofError());
-				}
-			}
-			if (buf[pos] == Constants.SP || buf[pos] == Constants.HT) {
-				pos++;
-			} else {
-				space = false;
-			}
-		}
-
-		// Mark the current buffer position
-		start = pos;
-		end = 0;
-
-		// Reading the protocol
-		// Protocol is always US-ASCII
-
-		while (!eol) {
-
-			// Read new bytes if needed
-			if (pos >= lastValid) {
-				if (!fill()) {
-					throw new EOFException(MESSAGES.eofError());
-				}
-			}
-
-			if (buf[pos] == Constants.CR) {
-				end = pos;
-			} else if (buf[pos] == Constants.LF) {
-				if (end == 0)
-					end = pos;
-				eol = true;
-			}
-
-			pos++;
-		}
-
-		if ((end - start) > 0) {
-			request.protocol().setBytes(buf, start, end - start);
-		} else {
-			request.protocol().setString("");
-		}
+		HttpParser.parseRequestLine(buf, pos, lf, request);
+		pos = lf + 1;
 	}
 
 	/**
@@ -460,9 +358,17 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 	 * @throws IOException
 	 */
 	public void parseHeaders() throws IOException {
-		while (parseHeader()) {
+		// Make sure the whole header block is in the buffer
+		int headersEnd;
+		int scan = pos;
+		while ((headersEnd = HttpParser.findHeadersEnd(buf, scan, lastValid)) < 0) {
+			scan = -1 - headersEnd;
+			if (!fillHeader()) {
+				throw new EOFException(MESSAGES.eofError());
+			}
 		}
 
+		pos = HttpParser.parseHeaders(buf, pos, headersEnd, headers);
 		parsingHeader = false;
 		end = pos;
 	}
@@ -619,4 +525,20 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 	 */
 	protected abstract boolean fill() throws IOException;
 
+	/**
+	 * Read more bytes after the ones already in the buffer, while parsing the
+	 * request header.
+	 * 
+	 * @return false if at end of stream
+	 */
+	protected boolean fillHeader() throws IOException {
+		int start = pos;
+		pos = lastValid;
+		try {
+			return fill();
+		} finally {
+			pos = start;
+		}
+	}
+
 }
@@ -28,6 +28,7 @@ import java.util.concurrent.TimeUnit;
 import org.apache.coyote.ActionCode;
 import org.apache.coyote.OutputBuffer;
 import org.apache.coyote.Response;
+import org.apache.coyote.http11.filters.GzipOutputFilter;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.CharChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
@@ -257,6 +258,12 @@ public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 			response.action(ActionCode.ACTION_COMMIT, null);
 		}
 
+		// Flush the data held by the compression filter
+		if ((lastActiveFilter >= 0)
+				&& (activeFilters[lastActiveFilter] instanceof GzipOutputFilter)) {
+			((GzipOutputFilter) activeFilters[lastActiveFilter]).flush();
+		}
+
 		// Flush the current buffer
 		flushBuffer();
 	}
@@ -313,6 +320,19 @@ public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 	 *             an undelying I/O error occured
 	 */
 	public void endRequest() throws IOException {
+		endRequest(false);
+	}
+
+	/**
+	 * End request, and leave the response in the buffer if it can be written
+	 * along with the response of the next pipelined request.
+	 * 
+	 * @param deferFlush
+	 *            <tt>true</tt> if the response does not need to be written now
+	 * @throws IOException
+	 *             an undelying I/O error occured
+	 */
+	public void endRequest(boolean deferFlush) throws IOException {
 
 		if (!committed) {
 			// Send the connector a request for commit. The connector should
@@ -329,7 +349,9 @@ public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 			activeFilters[lastActiveFilter].end();
 		}
 
-		flushBuffer();
+		if (!deferFlush || leftover.getLength() > 0) {
+			flushBuffer();
+		}
 		finished = true;
 	}
 
@@ -347,12 +369,22 @@ public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 	 */
 	public void sendStatus() {
 
+		// Use the pre-encoded status line if there is no custom message
+		int status = response.getStatus();
+		if (!org.apache.coyote.Constants.USE_CUSTOM_STATUS_MSG_IN_HEADER
+				|| response.getMessage() == null) {
+			byte[] statusLine = HeaderBytes.getStatusLine(status);
+			if (statusLine != null) {
+				write(statusLine);
+				return;
+			}
+		}
+
 		// Write protocol name
 		write(Constants.HTTP_11_BYTES);
 		buf[pos++] = Constants.SP;
 
 		// Write status code
-		int status = response.getStatus();
 		switch (status) {
 		case 200:
 			write(Constants._200_BYTES);
@@ -395,10 +427,20 @@ public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 	 */
 	public void sendHeader(MessageBytes name, MessageBytes value) {
 		if (name.getLength() > 0 && !value.isNull()) {
-			write(name);
-			buf[pos++] = Constants.COLON;
-			buf[pos++] = Constants.SP;
-			write(value);
+			byte[] nameBytes = HeaderBytes.getName(name);
+			if (nameBytes != null) {
+				write(nameBytes);
+			} else {
+				write(name);
+				buf[pos++] = Constants.COLON;
+				buf[pos++] = Constants.SP;
+			}
+			byte[] valueBytes = HeaderBytes.getValue(value);
+			if (valueBytes != null) {
+				write(valueBytes);
+			} else {
+				write(value);
+			}
 			buf[pos++] = Constants.CR;
 			buf[pos++] = Constants.LF;
 		}
@@ -430,10 +472,20 @@ public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 	 *            Header value
 	 */
 	public void sendHeader(String name, String value) {
-		write(name);
-		buf[pos++] = Constants.COLON;
-		buf[pos++] = Constants.SP;
-		write(value);
+		byte[] nameBytes = HeaderBytes.getName(name);
+		if (nameBytes != null) {
+			write(nameBytes);
+		} else {
+			write(name);
+			buf[pos++] = Constants.COLON;
+			buf[pos++] = Constants.SP;
+		}
+		byte[] valueBytes = HeaderBytes.getValue(value);
+		if (valueBytes != null) {
+			write(valueBytes);
+		} else {
+			write(value);
+		}
 		buf[pos++] = Constants.CR;
 		buf[pos++] = Constants.LF;
 	}
@@ -470,7 +522,11 @@ public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 		response.setCommitted(true);
 
 		if (pos > 0) {
-			// Sending the response header buffer
+			// Sending the response header buffer, after the previous
+			// pipelined responses if they do not leave enough room
+			if (pos > bbuf.remaining()) {
+				flushBuffer();
+			}
 			bbuf.put(buf, 0, pos);
 		}
 	}
@@ -602,6 +658,21 @@ public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 	 */
 	protected abstract void flushBuffer() throws IOException;
 
+	/**
+	 * Write the buffered bytes followed by the given chunk, without copying
+	 * the chunk in the buffer.
+	 * 
+	 * @param chunk
+	 *            the chunk to write
+	 * @return <tt>true</tt> if the bytes were written, <tt>false</tt> if
+	 *         gathering writes are not supported in the current mode, in
+	 *         which case nothing is written
+	 * @throws IOException
+	 */
+	protected boolean gatheringWrite(ByteChunk chunk) throws IOException {
+		return false;
+	}
+
 	/**
 	 * Flush leftover bytes.
 	 * 
@@ -638,6 +709,12 @@ public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 			int start = chunk.getStart();
 			byte[] b = chunk.getBuffer();
 
+			// Large chunks are written along with the buffered bytes rather
+			// than copied in the buffer
+			if (len > bbuf.remaining() && gatheringWrite(chunk)) {
+				return len;
+			}
+
 			while (len > 0) {
 				int thisTime = len;
 				// if (bbuf.position() == bbuf.capacity()) {
@@ -0,0 +1,156 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.apache.coyote.http11;
+
+import java.util.HashMap;
+
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.HttpMessages;
+
+/**
+ * {@code HeaderBytes}
+ * <p>
+ * Pre-encoded forms of the HTTP/1.1 status lines, and of the names and values
+ * of the common response headers, so that they are written with a single
+ * array copy rather than encoded char by char for each response.
+ * </p>
+ */
+public final class HeaderBytes {
+
+	private static final int MIN_STATUS = 100;
+	private static final int MAX_STATUS = 599;
+
+	/**
+	 * Header names, with the following colon and space.
+	 */
+	private static final String[] NAMES = { "Accept-Ranges", "Cache-Control", "Connection",
+			"Content-Disposition", "Content-Encoding", "Content-Language", "Content-Length",
+			"Content-Range", "Content-Type", "Date", "ETag", "Expires", "Keep-Alive",
+			"Last-Modified", "Location", "Pragma", "Server", "Set-Cookie", "Transfer-Encoding",
+			"Vary", "WWW-Authenticate" };
+
+	/**
+	 * Header values.
+	 */
+	private static final String[] VALUES = { Constants.CHUNKED, Constants.CLOSE,
+			Constants.KEEPALIVE, "gzip", "Accept-Encoding", "bytes", "no-cache" };
+
+	private static final byte[][] statusLines = new byte[MAX_STATUS - MIN_STATUS + 1][];
+	private static final HashMap<String, byte[]> names = new HashMap<String, byte[]>();
+	private static final HashMap<String, byte[]> values = new HashMap<String, byte[]>();
+
+	static {
+		for (int status = MIN_STATUS; status <= MAX_STATUS; status++) {
+			String message = HttpMessages.getMessage(status);
+			if (message != null) {
+				byte[] line = encode(Constants.HTTP_11 + " " + status + " " + message);
+				byte[] statusLine = new byte[line.length + 2];
+				System.arraycopy(line, 0, statusLine, 0, line.length);
+				statusLine[line.length] = Constants.CR;
+				statusLine[line.length + 1] = Constants.LF;
+				statusLines[status - MIN_STATUS] = statusLine;
+			}
+		}
+		for (String name : NAMES) {
+			names.put(name, encode(name + ": "));
+		}
+		for (String value : VALUES) {
+			values.put(value, encode(value));
+		}
+	}
+
+	private HeaderBytes() {
+	}
+
+	/**
+	 * Encode a string the same way as the output buffers do.
+	 */
+	private static byte[] encode(String s) {
+		byte[] result = new byte[s.length()];
+		for (int i = 0; i < result.length; i++) {
+			char c = s.charAt(i);
+			if (((c <= 31) && (c != 9)) || c == 127 || c > 255) {
+				c = ' ';
+			}
+			result[i] = (byte) c;
+		}
+		return result;
+	}
+
+	/**
+	 * @param status
+	 *            the status code
+	 * @return the status line with the standard reason phrase, including the
+	 *         final CRLF, or <tt>null</tt> if the status code is unknown
+	 */
+	public static byte[] getStatusLine(int status) {
+		if (status < MIN_STATUS || status > MAX_STATUS) {
+			return null;
+		}
+		return statusLines[status - MIN_STATUS];
+	}
+
+	/**
+	 * @param name
+	 *            the header name
+	 * @return the header name followed by a colon and a space, or
+	 *         <tt>null</tt> if it is not a common header
+	 */
+	public static byte[] getName(MessageBytes name) {
+		if (name.getType() != MessageBytes.T_STR) {
+			return null;
+		}
+		return names.get(name.getString());
+	}
+
+	/**
+	 * @param name
+	 *            the header name
+	 * @return the header name followed by a colon and a space, or
+	 *         <tt>null</tt> if it is not a common header
+	 */
+	public static byte[] getName(String name) {
+		return names.get(name);
+	}
+
+	/**
+	 * @param value
+	 *            the header value
+	 * @return the header value, or <tt>null</tt> if it is not a common value
+	 */
+	public static byte[] getValue(MessageBytes value) {
+		if (value.getType() != MessageBytes.T_STR) {
+			return null;
+		}
+		return values.get(value.getString());
+	}
+
+	/**
+	 * @param value
+	 *            the header value
+	 * @return the header value, or <tt>null</tt> if it is not a common value
+	 */
+	public static byte[] getValue(String value) {
+		return values.get(value);
+	}
+
+}
@@ -23,6 +23,7 @@ package org.apache.coyote.http11;
 
 import java.io.IOException;
 import java.util.StringTokenizer;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -32,6 +33,7 @@ import org.apache.coyote.Request;
 import org.apache.coyote.Response;
 import org.apache.tomcat.util.buf.Ascii;
 import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.CharChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.net.SSLSupport;
 import org.apache.tomcat.util.net.SocketStatus;
@@ -177,6 +179,18 @@ public abstract class Http11AbstractProcessor implements ActionHook {
 	 */
 	protected Pattern noCompressionUserAgents[] = null;
 
+	/**
+	 * Matchers of the user agents to not use gzip with, reused for all the
+	 * requests.
+	 */
+	protected Matcher noCompressionUserAgentMatchers[] = null;
+	protected Pattern noCompressionUserAgentPatterns[] = null;
+
+	/**
+	 * Buffer used to match the user agent.
+	 */
+	protected CharChunk userAgentChars = new CharChunk();
+
 	/**
 	 * List of MIMES which could be gzipped
 	 */
@@ -490,7 +504,8 @@ public abstract class Http11AbstractProcessor implements ActionHook {
 	}
 
 	/**
-	 * Check for compression
+	 * Check for compression. The checks are done on the raw header bytes, so
+	 * that no garbage is produced for each response.
 	 */
 	protected boolean isCompressable() {
 
@@ -504,41 +519,99 @@ public abstract class Http11AbstractProcessor implements ActionHook {
 		// Check if browser support gzip encoding
 		MessageBytes acceptEncodingMB = request.getMimeHeaders().getValue("accept-encoding");
 
-		if ((acceptEncodingMB == null) || (acceptEncodingMB.indexOf("gzip") == -1))
+		if ((acceptEncodingMB == null) || !contains(acceptEncodingMB, "gzip"))
 			return false;
 
 		// Check if content is not allready gzipped
 		MessageBytes contentEncodingMB = response.getMimeHeaders().getValue("Content-Encoding");
 
-		if ((contentEncodingMB != null) && (contentEncodingMB.indexOf("gzip") != -1))
+		if ((contentEncodingMB != null) && contains(contentEncodingMB, "gzip"))
 			return false;
 
 		// If force mode, allways compress (test purposes only)
 		if (compressionLevel == 2)
 			return true;
 
+		// Check if suffisant len to trig the compression
+		long contentLength = response.getContentLengthLong();
+		if ((contentLength != -1) && (contentLength <= compressionMinSize))
+			return false;
+
+		// Check for compatible MIME-TYPE
+		if ((compressableMimeTypes == null)
+				|| !startsWithStringArray(compressableMimeTypes, response.getContentTypeWithoutCharset()))
+			return false;
+
 		// Check for incompatible Browser
 		if (noCompressionUserAgents != null) {
 			MessageBytes userAgentValueMB = request.getMimeHeaders().getValue("user-agent");
-			if (userAgentValueMB != null) {
-				String userAgentValue = userAgentValueMB.toString();
+			if ((userAgentValueMB != null) && matchesNoCompressionUserAgent(userAgentValueMB))
+				return false;
+		}
 
-				// If one Regexp rule match, disable compression
-				for (int i = 0; i < noCompressionUserAgents.length; i++)
-					if (noCompressionUserAgents[i].matcher(userAgentValue).matches())
-						return false;
-			}
+		return true;
+	}
+
+	/**
+	 * Check if the given header value contains the given string.
+	 * 
+	 * @param mb
+	 *            the header value
+	 * @param s
+	 *            the string
+	 */
+	protected static boolean contains(MessageBytes mb, String s) {
+		switch (mb.getType()) {
+		case MessageBytes.T_BYTES:
+			return (mb.getByteChunk().indexOf(s, 0, s.length(), 0) >= 0);
+		case MessageBytes.T_CHARS:
+			return (mb.getCharChunk().indexOf(s, 0, s.length(), 0) >= 0);
+		default:
+			return (mb.indexOf(s) >= 0);
 		}
+	}
 
-		// Check if suffisant len to trig the compression
-		long contentLength = response.getContentLengthLong();
-		if ((contentLength == -1) || (contentLength > compressionMinSize)) {
-			// Check for compatible MIME-TYPE
-			if (compressableMimeTypes != null) {
-				return (startsWithStringArray(compressableMimeTypes, response.getContentType()));
+	/**
+	 * Check if the user agent matches one of the no compression rules, using
+	 * matchers and a char buffer which are reused for all the requests.
+	 * 
+	 * @param userAgentValueMB
+	 *            the user-agent header value
+	 */
+	protected boolean matchesNoCompressionUserAgent(MessageBytes userAgentValueMB) {
+		Pattern[] patterns = noCompressionUserAgents;
+		if (noCompressionUserAgentMatchers == null || noCompressionUserAgentPatterns != patterns) {
+			noCompressionUserAgentMatchers = new Matcher[patterns.length];
+			for (int i = 0; i < patterns.length; i++) {
+				noCompressionUserAgentMatchers[i] = patterns[i].matcher("");
+			}
+			noCompressionUserAgentPatterns = patterns;
+		}
+		CharSequence userAgentValue;
+		if (userAgentValueMB.getType() == MessageBytes.T_BYTES) {
+			ByteChunk bc = userAgentValueMB.getByteChunk();
+			int length = bc.getLength();
+			userAgentChars.allocate(length, -1);
+			byte[] b = bc.getBuffer();
+			char[] c = userAgentChars.getBuffer();
+			int start = bc.getStart();
+			for (int i = 0; i < length; i++) {
+				c[i] = (char) (b[start + i] & 0xff);
+			}
+			userAgentChars.setOffset(0);
+			userAgentChars.setEnd(length);
+			userAgentValue = userAgentChars;
+		} else if (userAgentValueMB.getType() == MessageBytes.T_CHARS) {
+			userAgentValue = userAgentValueMB.getCharChunk();
+		} else {
+			userAgentValue = userAgentValueMB.toString();
+		}
+		// If one Regexp rule match, disable compression
+		for (int i = 0; i < noCompressionUserAgentMatchers.length; i++) {
+			if (noCompressionUserAgentMatchers[i].reset(userAgentValue).matches()) {
+				return true;
 			}
 		}
-
 		return false;
 	}
 
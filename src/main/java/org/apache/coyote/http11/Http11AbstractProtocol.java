@@ -23,6 +23,7 @@ package org.apache.coyote.http11;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.zip.Deflater;
 
 import javax.management.MBeanRegistration;
 import javax.management.MBeanServer;
@@ -31,6 +32,7 @@ import javax.net.ssl.SSLContext;
 
 import org.apache.coyote.Adapter;
 import org.apache.coyote.ProtocolHandler;
+import org.apache.coyote.http11.filters.DeflaterPool;
 import org.apache.tomcat.util.net.SSLImplementation;
 
 /**
@@ -88,6 +90,13 @@ public abstract class Http11AbstractProtocol implements ProtocolHandler, MBeanRe
 	protected String noCompressionUserAgents = null;
 	protected String compressableMimeTypes = "text/html,text/xml,text/plain";
 	protected int compressionMinSize = 2048;
+	/**
+	 * Deflate level and strategy of the compressed responses, and pool of the
+	 * deflaters shared by the processors.
+	 */
+	protected int deflateLevel = Deflater.DEFAULT_COMPRESSION;
+	protected String deflateStrategy = "default";
+	protected DeflaterPool deflaterPool = null;
 	protected String protocol = null;
 	/**
 	 * User agents regular expressions which should be restricted to HTTP/1.0
@@ -429,6 +438,45 @@ public abstract class Http11AbstractProtocol implements ProtocolHandler, MBeanRe
 		this.compression = compression;
 	}
 
+	/**
+	 * Getter for deflateLevel
+	 * 
+	 * @return the deflateLevel
+	 */
+	public int getDeflateLevel() {
+		return this.deflateLevel;
+	}
+
+	/**
+	 * Setter for the deflateLevel, from 1 (fastest) to 9 (best
+	 * compression), or -1 for the zlib default
+	 * 
+	 * @param deflateLevel
+	 *            the deflateLevel to set
+	 */
+	public void setDeflateLevel(int deflateLevel) {
+		this.deflateLevel = deflateLevel;
+	}
+
+	/**
+	 * Getter for deflateStrategy
+	 * 
+	 * @return the deflateStrategy
+	 */
+	public String getDeflateStrategy() {
+		return this.deflateStrategy;
+	}
+
+	/**
+	 * Setter for the deflateStrategy: "default", "filtered" or "huffman"
+	 * 
+	 * @param deflateStrategy
+	 *            the deflateStrategy to set
+	 */
+	public void setDeflateStrategy(String deflateStrategy) {
+		this.deflateStrategy = deflateStrategy;
+	}
+
 	/**
 	 * Getter for noCompressionUserAgents
 	 * 
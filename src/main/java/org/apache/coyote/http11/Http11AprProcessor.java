@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.util.Locale;
 import java.util.StringTokenizer;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 import java.security.cert.CertificateFactory;
@@ -35,6 +36,7 @@ import org.apache.coyote.RequestInfo;
 import org.apache.coyote.Response;
 import org.apache.coyote.http11.filters.ChunkedInputFilter;
 import org.apache.coyote.http11.filters.ChunkedOutputFilter;
+import org.apache.coyote.http11.filters.DeflaterPool;
 import org.apache.coyote.http11.filters.GzipOutputFilter;
 import org.apache.coyote.http11.filters.IdentityInputFilter;
 import org.apache.coyote.http11.filters.IdentityOutputFilter;
@@ -49,6 +51,7 @@ import org.apache.tomcat.jni.Sockaddr;
 import org.apache.tomcat.jni.Socket;
 import org.apache.tomcat.util.buf.Ascii;
 import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.CharChunk;
 import org.apache.tomcat.util.buf.HexUtils;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.http.FastHttpDateFormat;
@@ -289,6 +292,20 @@ public class Http11AprProcessor implements ActionHook {
      */
     protected Pattern noCompressionUserAgents[] = null;
 
+
+    /**
+     * Matchers of the user agents to not use gzip with, reused for all the
+     * requests.
+     */
+    protected Matcher noCompressionUserAgentMatchers[] = null;
+    protected Pattern noCompressionUserAgentPatterns[] = null;
+
+
+    /**
+     * Buffer used to match the user agent.
+     */
+    protected CharChunk userAgentChars = new CharChunk();
+
     /**
      * List of MIMES which could be gzipped
      */
@@ -466,6 +483,16 @@ public class Http11AprProcessor implements ActionHook {
     }
 
 
+    /**
+     * Set the pool of the deflaters used for compression, which is shared
+     * by all the processors of the connector.
+     */
+    public void setDeflaterPool(DeflaterPool deflaterPool) {
+        ((GzipOutputFilter) outputBuffer.getFilters()[Constants.GZIP_FILTER])
+            .setDeflaterPool(deflaterPool);
+    }
+
+
     /**
      * Set compressable mime-type list
      * List contains users agents separated by ',' :
@@ -1561,7 +1588,8 @@ public class Http11AprProcessor implements ActionHook {
 
 
     /**
-     * Check for compression
+     * Check for compression. The checks are done on the raw header bytes, so
+     * that no garbage is produced for each response.
      */
     private boolean isCompressable() {
 
@@ -1577,7 +1605,7 @@ public class Http11AprProcessor implements ActionHook {
             request.getMimeHeaders().getValue("accept-encoding");
 
         if ((acceptEncodingMB == null)
-            || (acceptEncodingMB.indexOf("gzip") == -1))
+            || !Http11AbstractProcessor.contains(acceptEncodingMB, "gzip"))
             return false;
 
         // Check if content is not allready gzipped
@@ -1585,38 +1613,77 @@ public class Http11AprProcessor implements ActionHook {
             response.getMimeHeaders().getValue("Content-Encoding");
 
         if ((contentEncodingMB != null)
-            && (contentEncodingMB.indexOf("gzip") != -1))
+            && Http11AbstractProcessor.contains(contentEncodingMB, "gzip"))
             return false;
 
         // If force mode, allways compress (test purposes only)
         if (compressionLevel == 2)
            return true;
 
+        // Check if suffisant len to trig the compression
+        long contentLength = response.getContentLengthLong();
+        if ((contentLength != -1)
+            && (contentLength <= compressionMinSize))
+            return false;
+
+        // Check for compatible MIME-TYPE
+        if ((compressableMimeTypes == null)
+            || !startsWithStringArray(compressableMimeTypes,
+                                      response.getContentTypeWithoutCharset()))
+            return false;
+
         // Check for incompatible Browser
         if (noCompressionUserAgents != null) {
             MessageBytes userAgentValueMB =
                 request.getMimeHeaders().getValue("user-agent");
-            if(userAgentValueMB != null) {
-                String userAgentValue = userAgentValueMB.toString();
+            if ((userAgentValueMB != null)
+                && matchesNoCompressionUserAgent(userAgentValueMB))
+                return false;
+        }
 
-                // If one Regexp rule match, disable compression
-                for (int i = 0; i < noCompressionUserAgents.length; i++)
-                    if (noCompressionUserAgents[i].matcher(userAgentValue).matches())
-                        return false;
+        return true;
+    }
+
+
+    /**
+     * Check if the user agent matches one of the no compression rules, using
+     * matchers and a char buffer which are reused for all the requests.
+     */
+    private boolean matchesNoCompressionUserAgent(MessageBytes userAgentValueMB) {
+        Pattern[] patterns = noCompressionUserAgents;
+        if (noCompressionUserAgentMatchers == null
+            || noCompressionUserAgentPatterns != patterns) {
+            noCompressionUserAgentMatchers = new Matcher[patterns.length];
+            for (int i = 0; i < patterns.length; i++) {
+                noCompressionUserAgentMatchers[i] = patterns[i].matcher("");
             }
+            noCompressionUserAgentPatterns = patterns;
         }
-
-        // Check if suffisant len to trig the compression
-        long contentLength = response.getContentLengthLong();
-        if ((contentLength == -1)
-            || (contentLength > compressionMinSize)) {
-            // Check for compatible MIME-TYPE
-            if (compressableMimeTypes != null) {
-                return (startsWithStringArray(compressableMimeTypes,
-                                              response.getContentType()));
+        CharSequence userAgentValue;
+        if (userAgentValueMB.getType() == MessageBytes.T_BYTES) {
+            ByteChunk bc = userAgentValueMB.getByteChunk();
+            int length = bc.getLength();
+            userAgentChars.allocate(length, -1);
+            byte[] b = bc.getBuffer();
+            char[] c = userAgentChars.getBuffer();
+            int start = bc.getStart();
+            for (int i = 0; i < length; i++) {
+                c[i] = (char) (b[start + i] & 0xff);
+            }
+            userAgentChars.setOffset(0);
+            userAgentChars.setEnd(length);
+            userAgentValue = userAgentChars;
+        } else if (userAgentValueMB.getType() == MessageBytes.T_CHARS) {
+            userAgentValue = userAgentValueMB.getCharChunk();
+        } else {
+            userAgentValue = userAgentValueMB.toString();
+        }
+        // If one Regexp rule match, disable compression
+        for (int i = 0; i < noCompressionUserAgentMatchers.length; i++) {
+            if (noCompressionUserAgentMatchers[i].reset(userAgentValue).matches()) {
+                return true;
             }
         }
-
         return false;
     }
 
@@ -1724,7 +1791,8 @@ public class Http11AprProcessor implements ActionHook {
         }
 
         // Add date header
-        headers.setValue("Date").setString(FastHttpDateFormat.getCurrentDate());
+        byte[] date = FastHttpDateFormat.getCurrentDateBytes();
+        headers.setValue("Date").setBytes(date, 0, date.length);
 
         // FIXME: Add transfer encoding header
 
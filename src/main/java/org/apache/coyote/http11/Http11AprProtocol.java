@@ -40,6 +40,7 @@ import org.apache.coyote.Adapter;
 import org.apache.coyote.ProtocolHandler;
 import org.apache.coyote.RequestGroupInfo;
 import org.apache.coyote.RequestInfo;
+import org.apache.coyote.http11.filters.DeflaterPool;
 import org.apache.tomcat.util.modeler.Registry;
 import org.apache.tomcat.util.net.AprEndpoint;
 import org.apache.tomcat.util.net.SocketStatus;
@@ -102,6 +103,9 @@ public class Http11AprProtocol implements ProtocolHandler, MBeanRegistration {
     public void init() throws Exception {
         endpoint.setName(getName());
         endpoint.setHandler(cHandler);
+        deflaterPool = new DeflaterPool(deflateLevel,
+                DeflaterPool.parseStrategy(deflateStrategy),
+                endpoint.getMaxThreads());
 
         try {
             endpoint.init();
@@ -189,6 +193,7 @@ public class Http11AprProtocol implements ProtocolHandler, MBeanRegistration {
         CoyoteLogger.HTTP_LOGGER.stopHttpConnector(getName());
         if (canDestroy) {
             endpoint.destroy();
+            deflaterPool.destroy();
         } else {
             CoyoteLogger.HTTP_LOGGER.cannotDestroyHttpProtocol(getName());
             try {
@@ -244,6 +249,9 @@ public class Http11AprProtocol implements ProtocolHandler, MBeanRegistration {
     public Executor getExecutor() { return endpoint.getExecutor(); }
     public void setExecutor(Executor executor) { endpoint.setExecutor(executor); }
     
+    public boolean getUseVirtualThreads() { return endpoint.getUseVirtualThreads(); }
+    public void setUseVirtualThreads(boolean useVirtualThreads) { endpoint.setUseVirtualThreads(useVirtualThreads); }
+    
     public int getMaxThreads() { return endpoint.getMaxThreads(); }
     public void setMaxThreads(int maxThreads) { endpoint.setMaxThreads(maxThreads); }
 
@@ -350,6 +358,25 @@ public class Http11AprProtocol implements ProtocolHandler, MBeanRegistration {
     public void setCompressionMinSize(int valueI) { compressionMinSize = valueI; }
 
 
+    // HTTP
+    /**
+     * Deflate level and strategy of the compressed responses.
+     */
+    protected int deflateLevel = Integer.valueOf(System.getProperty("org.apache.coyote.http11.Http11Protocol.DEFLATE_LEVEL", "-1")).intValue();
+    public int getDeflateLevel() { return deflateLevel; }
+    public void setDeflateLevel(int valueI) { deflateLevel = valueI; }
+
+    protected String deflateStrategy = System.getProperty("org.apache.coyote.http11.Http11Protocol.DEFLATE_STRATEGY", "default");
+    public String getDeflateStrategy() { return deflateStrategy; }
+    public void setDeflateStrategy(String valueS) { deflateStrategy = valueS; }
+
+
+    /**
+     * Pool of the deflaters shared by the processors.
+     */
+    protected DeflaterPool deflaterPool = null;
+
+
     // HTTP
     /**
      * User agents regular expressions which should be restricted to HTTP/1.0 support.
@@ -656,6 +683,7 @@ public class Http11AprProtocol implements ProtocolHandler, MBeanRegistration {
             processor.setCompression(proto.compression);
             processor.setNoCompressionUserAgents(proto.noCompressionUserAgents);
             processor.setCompressableMimeTypes(proto.compressableMimeTypes);
+            processor.setDeflaterPool(proto.deflaterPool);
             processor.setRestrictedUserAgents(proto.restrictedUserAgents);
             processor.setSocketBuffer(proto.socketBuffer);
             processor.setMaxSavePostSize(proto.maxSavePostSize);
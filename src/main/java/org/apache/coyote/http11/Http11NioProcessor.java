@@ -31,6 +31,7 @@ import org.apache.coyote.Response;
 import org.apache.coyote.http11.filters.BufferedInputFilter;
 import org.apache.coyote.http11.filters.ChunkedInputFilter;
 import org.apache.coyote.http11.filters.ChunkedOutputFilter;
+import org.apache.coyote.http11.filters.DeflaterPool;
 import org.apache.coyote.http11.filters.GzipOutputFilter;
 import org.apache.coyote.http11.filters.IdentityInputFilter;
 import org.apache.coyote.http11.filters.IdentityOutputFilter;
@@ -85,6 +86,18 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 	 */
 	protected NioEndpoint endpoint;
 
+	/**
+	 * Maximum number of responses to pipelined requests which are written
+	 * together. The default value of 1 writes each response on its own.
+	 */
+	protected int maxPipelineDepth = 1;
+
+	/**
+	 * Maximum time (in ms) a response to a pipelined request is held back
+	 * before servicing the next request.
+	 */
+	protected int maxPipelineDelay = 5;
+
 	/**
 	 * Create a new instance of {@code Http11NioProcessor}
 	 * 
@@ -99,6 +112,7 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 		request.setInputBuffer(inputBuffer);
 		if (endpoint.getUseSendfile()) {
 			request.setSendfile(true);
+			request.setSendfileRanges(true);
 		}
 
 		response = new Response();
@@ -116,6 +130,55 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 		FastHttpDateFormat.getCurrentDate();
 	}
 
+	/**
+	 * Set the pool of the deflaters used for compression, which is shared by
+	 * all the processors of the connector.
+	 * 
+	 * @param deflaterPool
+	 */
+	public void setDeflaterPool(DeflaterPool deflaterPool) {
+		((GzipOutputFilter) outputBuffer.getFilters()[Constants.GZIP_FILTER])
+				.setDeflaterPool(deflaterPool);
+	}
+
+	/**
+	 * Getter for maxPipelineDepth
+	 * 
+	 * @return the maxPipelineDepth
+	 */
+	public int getMaxPipelineDepth() {
+		return this.maxPipelineDepth;
+	}
+
+	/**
+	 * Setter for the maxPipelineDepth
+	 * 
+	 * @param maxPipelineDepth
+	 *            the maxPipelineDepth to set
+	 */
+	public void setMaxPipelineDepth(int maxPipelineDepth) {
+		this.maxPipelineDepth = maxPipelineDepth;
+	}
+
+	/**
+	 * Getter for maxPipelineDelay
+	 * 
+	 * @return the maxPipelineDelay
+	 */
+	public int getMaxPipelineDelay() {
+		return this.maxPipelineDelay;
+	}
+
+	/**
+	 * Setter for the maxPipelineDelay
+	 * 
+	 * @param maxPipelineDelay
+	 *            the maxPipelineDelay to set
+	 */
+	public void setMaxPipelineDelay(int maxPipelineDelay) {
+		this.maxPipelineDelay = maxPipelineDelay;
+	}
+
 	/**
 	 * Mark the start of processing
 	 */
@@ -275,6 +338,10 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 		int soTimeout = endpoint.getSoTimeout();
 		boolean keptAlive = false;
 		boolean openChannel = false;
+		// Number of responses waiting in the output buffer, and since when
+		int deferred = 0;
+		long deferredSince = 0;
+		long maxDeferredTime = TimeUnit.MILLISECONDS.toNanos(maxPipelineDelay);
 
 		while (!error && keepAlive && !event) {
 			// Parsing the request header
@@ -288,6 +355,12 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 					// (long keep-alive), so that the processor should be
 					// recycled and the method should return true
 					final NioChannel ch = channel;
+					final boolean idle = keptAlive;
+					if (idle) {
+						// Idle between two requests, so that the channel
+						// may be closed to admit a new connection
+						endpoint.addIdleChannel(ch);
+					}
 					// Perform an asynchronous read operation to wait for
 					// incoming data
 					ch.awaitRead(soTimeout, TimeUnit.MILLISECONDS, ch,
@@ -298,7 +371,7 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 									if (nBytes < 0) {
 										// Reach the end of the stream
 										failed(null, attachment);
-									} else {
+									} else if (!idle || endpoint.removeIdleChannel(ch)) {
 										endpoint.processChannel(ch, null);
 									}
 								}
@@ -342,6 +415,19 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 				keepAlive = false;
 			}
 
+			// Write the held back responses before a request which reads a
+			// body, as the client may wait for them before sending it, and
+			// before they are held back for too long
+			if (deferred > 0 && (hasBody()
+					|| System.nanoTime() - deferredSince > maxDeferredTime)) {
+				try {
+					outputBuffer.flushBuffer();
+				} catch (IOException e) {
+					error = true;
+				}
+				deferred = 0;
+			}
+
 			// Process the request in the adapter
 			if (!error) {
 				try {
@@ -373,7 +459,15 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 				inputBuffer.setSwallowInput(false);
 			}
 			if (!event) {
-				endRequest();
+				// The response is written along with the next ones if the next
+				// request is already buffered
+				boolean deferFlush = !error && keepAlive && sendfileData == null
+						&& deferred + 1 < maxPipelineDepth;
+				if (!endRequest(deferFlush)) {
+					deferred = 0;
+				} else if (deferred++ == 0) {
+					deferredSince = System.nanoTime();
+				}
 			}
 
 			// If there was an error, make sure the request is counted as
@@ -389,24 +483,34 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 				outputBuffer.nextRequest();
 			}
 
-			// Do sendfile as needed: add socket to sendfile and end
+			// Do sendfile as needed: add socket to sendfile and end. The
+			// sendfile thread writes the file asynchronously, and hands the
+			// channel back for the next request once it is done, so that the
+			// next response cannot be written while the file is
 			if (sendfileData != null && !error) {
 				sendfileData.setChannel(channel);
 				sendfileData.setKeepAlive(keepAlive && !pipelined);
-				if (!endpoint.addSendfileData(sendfileData)) {
-					if (sendfileData.getChannel() == null) {
-						error = true;
-					} else {
-						openChannel = true;
-					}
-					break;
+				if (endpoint.addSendfileData(sendfileData)) {
+					openChannel = true;
+				} else {
+					error = true;
 				}
+				break;
 			}
 
 			rp.setStage(org.apache.coyote.Constants.STAGE_KEEPALIVE);
 		}
 		rp.setStage(org.apache.coyote.Constants.STAGE_ENDED);
 
+		if (deferred > 0) {
+			// Write the pipelined responses which are still buffered
+			try {
+				outputBuffer.flushBuffer();
+			} catch (IOException e) {
+				error = true;
+			}
+		}
+
 		if (event) {
 			if (error) {
 				inputBuffer.nextRequest();
@@ -424,12 +528,32 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 
 	}
 
+	/**
+	 * @return <tt>true</tt> if the current request has a body
+	 */
+	private boolean hasBody() {
+		return request.getContentLengthLong() > 0
+				|| request.getMimeHeaders().getValue("transfer-encoding") != null;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
 	 * @see org.apache.coyote.http11.Http11AbstractProcessor#endRequest()
 	 */
 	public void endRequest() {
+		endRequest(false);
+	}
+
+	/**
+	 * Finish the handling of the request, leaving the response in the output
+	 * buffer if allowed and if the next pipelined request is already buffered.
+	 * 
+	 * @param deferFlush
+	 *            <tt>true</tt> if the response may be written later
+	 * @return <tt>true</tt> if the response was not written
+	 */
+	private boolean endRequest(boolean deferFlush) {
 
 		// Finish the handling of the request
 		try {
@@ -442,14 +566,22 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 			response.setStatus(500);
 			error = true;
 		}
+		deferFlush = deferFlush && !error && inputBuffer.hasPipelinedRequest();
+		if (deferFlush && !response.isCommitted()) {
+			// The file of a sendfile response is written by the sendfile
+			// thread, so its headers cannot wait for the next response
+			response.action(ActionCode.ACTION_COMMIT, null);
+			deferFlush = (sendfileData == null);
+		}
 		try {
-			outputBuffer.endRequest();
+			outputBuffer.endRequest(deferFlush);
 		} catch (IOException e) {
 			error = true;
 		} catch (Throwable t) {
             CoyoteLogger.HTTP_LOGGER.errorFinishingResponse(t);
 			error = true;
 		}
+		return deferFlush && !error;
 	}
 
 	/*
@@ -1141,6 +1273,10 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 			sendfileData.setFileName(response.getSendfilePath());
 			sendfileData.setStart(response.getSendfileStart());
 			sendfileData.setEnd(response.getSendfileEnd());
+			if (response.getSendfileRanges() != null) {
+				sendfileData.setRanges(response.getSendfileRanges(),
+						response.getSendfileHeaders(), response.getSendfileTrailer());
+			}
 			sendfileData.setKeepAlive(keepAlive);
 
 		}
@@ -1192,7 +1328,8 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 		}
 
 		// Add date header
-		headers.setValue("Date").setString(FastHttpDateFormat.getCurrentDate());
+		byte[] date = FastHttpDateFormat.getCurrentDateBytes();
+		headers.setValue("Date").setBytes(date, 0, date.length);
 
 		// FIXME: Add transfer encoding header
 
@@ -38,6 +38,7 @@ import javax.management.ObjectName;
 
 import org.apache.coyote.RequestGroupInfo;
 import org.apache.coyote.RequestInfo;
+import org.apache.coyote.http11.filters.DeflaterPool;
 import org.apache.tomcat.util.modeler.Registry;
 import org.apache.tomcat.util.net.NioChannel;
 import org.apache.tomcat.util.net.NioEndpoint;
@@ -60,6 +61,16 @@ public class Http11NioProtocol extends Http11AbstractProtocol {
 	private Http11ConnectionHandler cHandler = new Http11ConnectionHandler(this);
 	protected NioJSSESocketChannelFactory socketFactory = null;
 
+	/**
+	 * Maximum number of responses to pipelined requests written together.
+	 */
+	protected int maxPipelineDepth = 1;
+
+	/**
+	 * Maximum time (in ms) a response to a pipelined request is held back.
+	 */
+	protected int maxPipelineDelay = 5;
+
 	/**
 	 * Create a new instance of {@code Http11NioProtocol}
 	 */
@@ -88,6 +99,9 @@ public class Http11NioProtocol extends Http11AbstractProtocol {
 	public void init() throws Exception {
 		endpoint.setName(getName());
 		endpoint.setHandler(cHandler);
+		deflaterPool = new DeflaterPool(deflateLevel,
+				DeflaterPool.parseStrategy(deflateStrategy),
+				endpoint.getMaxThreads());
 
 		// Verify the validity of the configured socket factory
 		try {
@@ -215,6 +229,7 @@ public class Http11NioProtocol extends Http11AbstractProtocol {
 	    CoyoteLogger.HTTP_LOGGER.stopHttpConnector(getName());
 		if (canDestroy) {
 			endpoint.destroy();
+			deflaterPool.destroy();
 		} else {
 		    CoyoteLogger.HTTP_LOGGER.cannotDestroyHttpProtocol(getName());
 			try {
@@ -271,6 +286,23 @@ public class Http11NioProtocol extends Http11AbstractProtocol {
 		endpoint.setExecutor(executor);
 	}
 
+	/**
+	 * @return <tt>true</tt> if the processing runs on virtual threads
+	 */
+	public boolean getUseVirtualThreads() {
+		return endpoint.getUseVirtualThreads();
+	}
+
+	/**
+	 * Run the processing on virtual threads, when no executor is set and if
+	 * the JVM supports them
+	 * 
+	 * @param useVirtualThreads
+	 */
+	public void setUseVirtualThreads(boolean useVirtualThreads) {
+		endpoint.setUseVirtualThreads(useVirtualThreads);
+	}
+
 	/**
 	 * @return the maximum number of threads
 	 */
@@ -497,6 +529,108 @@ public class Http11NioProtocol extends Http11AbstractProtocol {
 		endpoint.setSendfileSize(sendfileSize);
 	}
 
+	/**
+	 * @return the number of channel groups
+	 */
+	public int getChannelGroupCount() {
+		return endpoint.getChannelGroupCount();
+	}
+
+	/**
+	 * Set the number of channel groups, each with its own listener and event
+	 * loop, or zero for one per available processor
+	 * 
+	 * @param channelGroupCount
+	 */
+	public void setChannelGroupCount(int channelGroupCount) {
+		endpoint.setChannelGroupCount(channelGroupCount);
+	}
+
+	/**
+	 * @return <tt>true</tt> if idle keep-alive connections are closed to admit
+	 *         new ones
+	 */
+	public boolean getShedIdleConnections() {
+		return endpoint.getShedIdleConnections();
+	}
+
+	/**
+	 * Close the oldest idle keep-alive connection when a new connection
+	 * arrives and the poller size is reached
+	 * 
+	 * @param shedIdleConnections
+	 */
+	public void setShedIdleConnections(boolean shedIdleConnections) {
+		endpoint.setShedIdleConnections(shedIdleConnections);
+	}
+
+	/**
+	 * @return the number of idle keep-alive connections
+	 */
+	public int getIdleConnectionCount() {
+		return endpoint.getIdleConnectionCount();
+	}
+
+	/**
+	 * @return the number of connections closed because they were over the
+	 *         limit
+	 */
+	public long getRejectedConnectionCount() {
+		return endpoint.getRejectedConnectionCount();
+	}
+
+	/**
+	 * @return the number of idle keep-alive connections closed to admit new
+	 *         ones
+	 */
+	public long getShedConnectionCount() {
+		return endpoint.getShedConnectionCount();
+	}
+
+	/**
+	 * @return the maximum number of idle network buffers per size class
+	 */
+	public int getBufferPoolSize() {
+		return endpoint.getBufferPoolSize();
+	}
+
+	/**
+	 * @param bufferPoolSize
+	 */
+	public void setBufferPoolSize(int bufferPoolSize) {
+		endpoint.setBufferPoolSize(bufferPoolSize);
+	}
+
+	/**
+	 * @return the maximum number of responses to pipelined requests which are
+	 *         written together
+	 */
+	public int getMaxPipelineDepth() {
+		return maxPipelineDepth;
+	}
+
+	/**
+	 * @param maxPipelineDepth
+	 */
+	public void setMaxPipelineDepth(int maxPipelineDepth) {
+		this.maxPipelineDepth = maxPipelineDepth;
+	}
+
+	/**
+	 * @return the maximum time (in ms) a response to a pipelined request is
+	 *         held back before servicing the next request
+	 */
+	public int getMaxPipelineDelay() {
+		return maxPipelineDelay;
+	}
+
+	/**
+	 * @param maxPipelineDelay
+	 */
+	public void setMaxPipelineDelay(int maxPipelineDelay) {
+		this.maxPipelineDelay = maxPipelineDelay;
+	}
+
 	/**
 	 * Return the Keep-Alive policy for the connection.
 	 * 
@@ -841,6 +975,7 @@ public class Http11NioProtocol extends Http11AbstractProtocol {
 						if (proto.endpoint.isRunning() && state == SocketState.OPEN) {
 							final NioChannel ch = channel;
 							proto.endpoint.removeEventChannel(ch);
+							proto.endpoint.addIdleChannel(ch);
 							try {
 								ch.awaitRead(proto.getKeepAliveTimeout(), TimeUnit.MILLISECONDS,
 										proto.endpoint,
@@ -851,7 +986,7 @@ public class Http11NioProtocol extends Http11AbstractProtocol {
 													NioEndpoint endpoint) {
 												if (nBytes < 0) {
 													failed(new ClosedChannelException(), endpoint);
-												} else {
+												} else if (endpoint.removeIdleChannel(ch)) {
 													endpoint.processChannel(ch, null);
 												}
 											}
@@ -952,12 +1087,15 @@ public class Http11NioProtocol extends Http11AbstractProtocol {
 					proto.endpoint);
 			processor.setAdapter(proto.adapter);
 			processor.setMaxKeepAliveRequests(proto.maxKeepAliveRequests);
+			processor.setMaxPipelineDepth(proto.maxPipelineDepth);
+			processor.setMaxPipelineDelay(proto.maxPipelineDelay);
 			processor.setTimeout(proto.timeout);
 			processor.setDisableUploadTimeout(proto.disableUploadTimeout);
 			processor.setCompressionMinSize(proto.compressionMinSize);
 			processor.setCompression(proto.compression);
 			processor.setNoCompressionUserAgents(proto.noCompressionUserAgents);
 			processor.setCompressableMimeTypes(proto.compressableMimeTypes);
+			processor.setDeflaterPool(proto.deflaterPool);
 			processor.setRestrictedUserAgents(proto.restrictedUserAgents);
 			processor.setMaxSavePostSize(proto.maxSavePostSize);
 			processor.setServer(proto.server);
@@ -0,0 +1,325 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.apache.coyote.http11;
+
+import org.apache.coyote.Request;
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.KnownHeaders;
+import org.apache.tomcat.util.http.MimeHeaders;
+
+/**
+ * {@code HttpParser}
+ * <p>
+ * Table driven parser for the HTTP request line and headers, shared by the
+ * NIO and APR input buffers. The input buffers first make sure the whole
+ * line, or the whole header block, is in the buffer, so that the parser
+ * works on a complete slice of bytes without checking for more input. Each
+ * byte is classified with a single lookup in a 256 entry table, and the
+ * header names are lower cased and hashed in the same pass so that the well
+ * known ones are identified without any further comparison.
+ * </p>
+ */
+public final class HttpParser {
+
+	/**
+	 * Space or horizontal tab.
+	 */
+	private static final byte LWS = 1;
+
+	/**
+	 * CR or LF.
+	 */
+	private static final byte EOL = 2;
+
+	/**
+	 * Question mark.
+	 */
+	private static final byte QUESTION = 4;
+
+	/**
+	 * Colon.
+	 */
+	private static final byte COLON = 8;
+
+	/**
+	 * Byte classes.
+	 */
+	private static final byte[] TYPES = new byte[256];
+
+	/**
+	 * Lower case bytes.
+	 */
+	private static final byte[] LOWER = new byte[256];
+
+	static {
+		TYPES[Constants.SP] = LWS;
+		TYPES[Constants.HT] = LWS;
+		TYPES[Constants.CR] = EOL;
+		TYPES[Constants.LF] = EOL;
+		TYPES[Constants.QUESTION] = QUESTION;
+		TYPES[Constants.COLON] = COLON;
+		for (int i = 0; i < 256; i++) {
+			LOWER[i] = (byte) ((i >= 'A' && i <= 'Z') ? i - Constants.LC_OFFSET : i);
+		}
+	}
+
+	private HttpParser() {
+	}
+
+	/**
+	 * Find the next LF.
+	 * 
+	 * @param buf
+	 *            the buffer
+	 * @param pos
+	 *            the position where the search starts
+	 * @param end
+	 *            the end of the valid bytes
+	 * @return the position of the LF, or -1 if there is none
+	 */
+	public static int findLF(byte[] buf, int pos, int end) {
+		// Unrolled, as this is where most of the bytes are scanned
+		int limit = end - 3;
+		while (pos < limit) {
+			if (buf[pos] == Constants.LF) {
+				return pos;
+			}
+			if (buf[pos + 1] == Constants.LF) {
+				return pos + 1;
+			}
+			if (buf[pos + 2] == Constants.LF) {
+				return pos + 2;
+			}
+			if (buf[pos + 3] == Constants.LF) {
+				return pos + 3;
+			}
+			pos += 4;
+		}
+		while (pos < end) {
+			if (buf[pos] == Constants.LF) {
+				return pos;
+			}
+			pos++;
+		}
+		return -1;
+	}
+
+	/**
+	 * Find the end of the header block, which is the byte following the LF of
+	 * the first blank line.
+	 * 
+	 * @param buf
+	 *            the buffer
+	 * @param lineStart
+	 *            the start of a line
+	 * @param end
+	 *            the end of the valid bytes
+	 * @return the end of the header block, or if there is no blank line yet,
+	 *         <code>-1 - start</code> where start is the start of the last
+	 *         line, from where the search should resume once more bytes are
+	 *         available
+	 */
+	public static int findHeadersEnd(byte[] buf, int lineStart, int end) {
+		int lf;
+		while ((lf = findLF(buf, lineStart, end)) >= 0) {
+			if (lf == lineStart || (lf == lineStart + 1 && buf[lineStart] == Constants.CR)) {
+				return lf + 1;
+			}
+			lineStart = lf + 1;
+		}
+		return -1 - lineStart;
+	}
+
+	/**
+	 * Parse the request line.
+	 * 
+	 * @param buf
+	 *            the buffer
+	 * @param pos
+	 *            the start of the request line
+	 * @param lf
+	 *            the position of the LF ending the request line
+	 * @param request
+	 *            the request
+	 */
+	public static void parseRequestLine(byte[] buf, int pos, int lf, Request request) {
+		// Method name is always US-ASCII
+		int start = pos;
+		while (pos < lf && (TYPES[buf[pos] & 0xff] & (LWS | EOL)) == 0) {
+			pos++;
+		}
+		request.method().setBytes(buf, start, pos - start);
+
+		// Spec says single SP but also says be tolerant of multiple and/or HT
+		while (pos < lf && TYPES[buf[pos] & 0xff] == LWS) {
+			pos++;
+		}
+
+		// Reading the URI
+		start = pos;
+		int questionPos = -1;
+		int type;
+		while (pos < lf && ((type = TYPES[buf[pos] & 0xff]) & (LWS | EOL)) == 0) {
+			if (type == QUESTION && questionPos == -1) {
+				questionPos = pos;
+			}
+			pos++;
+		}
+		int end = pos;
+		request.unparsedURI().setBytes(buf, start, end - start);
+		if (questionPos >= 0) {
+			request.queryString().setBytes(buf, questionPos + 1, end - questionPos - 1);
+			request.requestURI().setBytes(buf, start, questionPos - start);
+		} else {
+			request.requestURI().setBytes(buf, start, end - start);
+		}
+
+		while (pos < lf && TYPES[buf[pos] & 0xff] == LWS) {
+			pos++;
+		}
+
+		// Reading the protocol, which is always US-ASCII
+		start = pos;
+		end = lf;
+		for (int i = start; i < lf; i++) {
+			if (buf[i] == Constants.CR) {
+				end = i;
+				break;
+			}
+		}
+		if ((end - start) > 0) {
+			request.protocol().setBytes(buf, start, end - start);
+		} else {
+			request.protocol().setString("");
+		}
+	}
+
+	/**
+	 * Parse the headers. Header names are lower cased in place, and the
+	 * values of folded headers are joined in place.
+	 * 
+	 * @param buf
+	 *            the buffer
+	 * @param pos
+	 *            the start of the first header
+	 * @param end
+	 *            the end of the header block, as returned by
+	 *            {@link #findHeadersEnd(byte[], int, int)}
+	 * @param headers
+	 *            the headers
+	 * @return the position following the header block
+	 */
+	public static int parseHeaders(byte[] buf, int pos, int end, MimeHeaders headers) {
+		while (pos < end) {
+			// Check for blank line
+			while (buf[pos] == Constants.CR) {
+				pos++;
+			}
+			if (buf[pos] == Constants.LF) {
+				return pos + 1;
+			}
+
+			// Reading the header name, lower cased and hashed in one pass
+			int start = pos;
+			int hash = 0;
+			int type = 0;
+			while ((type = TYPES[buf[pos] & 0xff]) != COLON && type != EOL) {
+				byte b = LOWER[buf[pos] & 0xff];
+				buf[pos++] = b;
+				hash = KnownHeaders.hash(hash, b & 0xff);
+			}
+			if (type != COLON) {
+				// No colon, ignore the line
+				pos = findLF(buf, pos, end) + 1;
+				continue;
+			}
+			MessageBytes value = headers.addLowerCaseValue(buf, start, pos - start, hash);
+			pos++;
+
+			// Reading the header value, usually on a single line
+			start = pos;
+			while (TYPES[buf[pos] & 0xff] == LWS) {
+				pos++;
+			}
+			int valueStart = pos;
+			while (TYPES[buf[pos] & 0xff] != EOL) {
+				pos++;
+			}
+			int valueEnd = pos;
+			if (buf[pos] == Constants.CR) {
+				pos++;
+			}
+			if (buf[pos] == Constants.LF && TYPES[buf[pos + 1] & 0xff] != LWS) {
+				pos++;
+				while (valueEnd > valueStart && buf[valueEnd - 1] == Constants.SP) {
+					valueEnd--;
+				}
+				value.setBytes(buf, valueStart, valueEnd - valueStart);
+			} else {
+				// Folded header, or CR inside the value
+				pos = parseValue(buf, start, value);
+			}
+		}
+		return pos;
+	}
+
+	/**
+	 * Parse a header value which can be spanned over multiple lines, joining
+	 * the lines in place.
+	 * 
+	 * @return the position following the header value
+	 */
+	private static int parseValue(byte[] buf, int pos, MessageBytes value) {
+		int start = pos;
+		int realPos = pos;
+		while (true) {
+			// Skipping spaces
+			while (TYPES[buf[pos] & 0xff] == LWS) {
+				pos++;
+			}
+			int lastSignificantChar = realPos;
+			// Reading bytes until the end of the line
+			byte chr;
+			while ((chr = buf[pos++]) != Constants.LF) {
+				if (chr == Constants.CR) {
+					continue;
+				}
+				buf[realPos++] = chr;
+				if (chr != Constants.SP) {
+					lastSignificantChar = realPos;
+				}
+			}
+			realPos = lastSignificantChar;
+			// If the next line starts with LWS, then it's a multiline header
+			chr = buf[pos];
+			if (TYPES[chr & 0xff] != LWS) {
+				break;
+			}
+			// Copying one extra space in the buffer (since there must be at
+			// least one space inserted between the lines)
+			buf[realPos++] = chr;
+		}
+		value.setBytes(buf, start, realPos - start);
+		return pos;
+	}
+
+}
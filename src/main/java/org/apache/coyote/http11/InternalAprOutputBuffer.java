@@ -33,6 +33,7 @@ import org.apache.tomcat.util.net.AprEndpoint;
 import org.apache.coyote.ActionCode;
 import org.apache.coyote.OutputBuffer;
 import org.apache.coyote.Response;
+import org.apache.coyote.http11.filters.GzipOutputFilter;
 
 /**
  * Output buffer.
@@ -303,6 +304,12 @@ public class InternalAprOutputBuffer
 
         }
 
+        // Flush the data held by the compression filter
+        if ((lastActiveFilter >= 0)
+                && (activeFilters[lastActiveFilter] instanceof GzipOutputFilter)) {
+            ((GzipOutputFilter) activeFilters[lastActiveFilter]).flush();
+        }
+
         // Flush the current buffer
         flushBuffer();
 
@@ -407,12 +414,22 @@ public class InternalAprOutputBuffer
      */
     public void sendStatus() {
 
+        // Use the pre-encoded status line if there is no custom message
+        int status = response.getStatus();
+        if (!org.apache.coyote.Constants.USE_CUSTOM_STATUS_MSG_IN_HEADER
+                || response.getMessage() == null) {
+            byte[] statusLine = HeaderBytes.getStatusLine(status);
+            if (statusLine != null) {
+                write(statusLine);
+                return;
+            }
+        }
+
         // Write protocol name
         write(Constants.HTTP_11_BYTES);
         buf[pos++] = Constants.SP;
 
         // Write status code
-        int status = response.getStatus();
         switch (status) {
         case 200:
             write(Constants._200_BYTES);
@@ -456,10 +473,20 @@ public class InternalAprOutputBuffer
     public void sendHeader(MessageBytes name, MessageBytes value) {
 
         if (name.getLength() > 0 && !value.isNull()) {
-            write(name);
-            buf[pos++] = Constants.COLON;
-            buf[pos++] = Constants.SP;
-            write(value);
+            byte[] nameBytes = HeaderBytes.getName(name);
+            if (nameBytes != null) {
+                write(nameBytes);
+            } else {
+                write(name);
+                buf[pos++] = Constants.COLON;
+                buf[pos++] = Constants.SP;
+            }
+            byte[] valueBytes = HeaderBytes.getValue(value);
+            if (valueBytes != null) {
+                write(valueBytes);
+            } else {
+                write(value);
+            }
             buf[pos++] = Constants.CR;
             buf[pos++] = Constants.LF;
         }
@@ -493,10 +520,20 @@ public class InternalAprOutputBuffer
      */
     public void sendHeader(String name, String value) {
 
-        write(name);
-        buf[pos++] = Constants.COLON;
-        buf[pos++] = Constants.SP;
-        write(value);
+        byte[] nameBytes = HeaderBytes.getName(name);
+        if (nameBytes != null) {
+            write(nameBytes);
+        } else {
+            write(name);
+            buf[pos++] = Constants.COLON;
+            buf[pos++] = Constants.SP;
+        }
+        byte[] valueBytes = HeaderBytes.getValue(value);
+        if (valueBytes != null) {
+            write(valueBytes);
+        } else {
+            write(value);
+        }
         buf[pos++] = Constants.CR;
         buf[pos++] = Constants.LF;
 
@@ -200,7 +200,6 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
 	 */
 	public boolean parseRequestLine(boolean useAvailableData) throws IOException {
 
-		int start = 0;
 		// Skipping blank lines
 
 		byte chr = 0;
@@ -220,141 +219,18 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
 
 		pos--;
 
-		// Mark the current buffer position
-		start = pos;
-
-		if (pos >= lastValid) {
-			if (useAvailableData) {
-				return false;
-			}
-			if (!fill()) {
+		// Make sure the whole line is in the buffer
+		int lf;
+		int scan = pos;
+		while ((lf = HttpParser.findLF(buf, scan, lastValid)) < 0) {
+			scan = lastValid;
+			if (!fillHeader()) {
 				throw new EOFException(MESSAGES.eofError());
 			}
 		}
 
-		// Reading the method name
-		// Method name is always US-ASCII
-
-		boolean space = false;
-
-		while (!space) {
-
-			// Read new bytes if needed
-			if (pos >= lastValid) {
-				if (!fill()) {
-					throw new EOFException(MESSAGES.eofError());
-				}
-			}
-
-			// Spec says single SP but it also says be tolerant of HT
-			if (buf[pos] == Constants.SP || buf[pos] == Constants.HT) {
-				space = true;
-				request.method().setBytes(buf, start, pos - start);
-			}
-
-			pos++;
-		}
-
-		// Spec says single SP but also says be tolerant of multiple and/or HT
-		while (space) {
-			// Read new bytes if needed
-			if (pos >= lastValid) {
-				if (!fill()) {
-					throw new EOFException(MESSAGES.eofError());
-				}
-			}
-			if (buf[pos] == Constants.SP || buf[pos] == Constants.HT) {
-				pos++;
-			} else {
-				space = false;
-			}
-		}
-
-		// Mark the current buffer position
-		start = pos;
-		int end = 0;
-		int questionPos = -1;
-
-		// Reading the URI
-		boolean eol = false;
-
-		while (!space) {
-			// Read new bytes if needed
-			if (pos >= lastValid) {
-				if (!fill())
-					throw new EOFException(MESSAGES.eofError());
-			}
-
-			// Spec says single SP but it also says be tolerant of HT
-			if (buf[pos] == Constants.SP || buf[pos] == Constants.HT) {
-				space = true;
-				end = pos;
-			} else if ((buf[pos] == Constants.CR) || (buf[pos] == Constants.LF)) {
-				// HTTP/0.9 style request
-				eol = true;
-				space = true;
-				end = pos;
-			} else if ((buf[pos] == Constants.QUESTION) && (questionPos == -1)) {
-				questionPos = pos;
-			}
-
-			pos++;
-		}
-
-		request.unparsedURI().setBytes(buf, start, end - start);
-		if (questionPos >= 0) {
-			request.queryString().setBytes(buf, questionPos + 1, end - questionPos - 1);
-			request.requestURI().setBytes(buf, start, questionPos - start);
-		} else {
-			request.requestURI().setBytes(buf, start, end - start);
-		}
-
-		// Spec says single SP but also says be tolerant of multiple and/or HT
-		while (space) {
-			// Read new bytes if needed
-			if (pos >= lastValid) {
-				if (!fill())
-					throw new EOFException(MESSAGES.eofError());
-			}
-			if (buf[pos] == Constants.SP || buf[pos] == Constants.HT) {
-				pos++;
-			} else {
-				space = false;
-			}
-		}
-
-		// Mark the current buffer position
-		start = pos;
-		end = 0;
-
-		//
-		// Reading the protocol
-		// Protocol is always US-ASCII
-		//
-		while (!eol) {
-			// Read new bytes if needed
-			if (pos >= lastValid) {
-				if (!fill()) {
-					throw new EOFException(MESSAGES.eofError());
-				}
-			}
-
-			if (buf[pos] == Constants.CR) {
-				end = pos;
-			} else if (buf[pos] == Constants.LF) {
-				if (end == 0)
-					end = pos;
-				eol = true;
-			}
-
-			pos++;
-		}
-
-		if ((end - start) > 0) {
-			request.protocol().setBytes(buf, start, end - start);
-		} else {
-			request.protocol().setString("");
-		}
+		HttpParser.parseRequestLine(buf, pos, lf, request);
+		pos = lf + 1;
 
 		return true;
 	}
@@ -24,6 +24,7 @@ package org.apache.coyote.http11;
 import static org.jboss.web.CoyoteMessages.MESSAGES;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.CompletionHandler;
 import java.util.concurrent.TimeUnit;
@@ -59,6 +60,11 @@ public class InternalNioOutputBuffer extends AbstractInternalOutputBuffer {
 	 */
 	private CompletionHandler<Integer, NioChannel> completionHandler;
 
+	/**
+	 * Buffers used for gathering writes.
+	 */
+	private final ByteBuffer[] gatheringBuffers = new ByteBuffer[2];
+
 	/**
 	 * Create a new instance of {@code InternalNioOutputBuffer}
 	 * 
@@ -167,6 +173,8 @@ public class InternalNioOutputBuffer extends AbstractInternalOutputBuffer {
 			if (CoyoteLogger.HTTP_LOGGER.isDebugEnabled()) {
 	             CoyoteLogger.HTTP_LOGGER.errorWithBlockingWrite(t);
 			}
+			// Otherwise the buffered bytes would be silently dropped
+			nw = -1;
 		}
 
 		return nw;
@@ -193,6 +201,52 @@ public class InternalNioOutputBuffer extends AbstractInternalOutputBuffer {
 		}
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.apache.coyote.http11.AbstractInternalOutputBuffer#gatheringWrite(org
+	 * .apache.tomcat.util.buf.ByteChunk)
+	 */
+	@Override
+	protected boolean gatheringWrite(ByteChunk chunk) throws IOException {
+		// Non blocking writes keep using the leftover buffer, and secure
+		// channels have to encrypt the data anyway
+		if (nonBlocking || leftover.getLength() > 0 || channel.isSecure()) {
+			return false;
+		}
+
+		bbuf.flip();
+		ByteBuffer body = ByteBuffer.wrap(chunk.getBuffer(), chunk.getStart(), chunk.getLength());
+		gatheringBuffers[0] = bbuf;
+		gatheringBuffers[1] = body;
+		long res = 0;
+		try {
+			while (body.hasRemaining()) {
+				res = this.channel.writeBytes(gatheringBuffers, 0, 2, writeTimeout,
+						TimeUnit.MILLISECONDS);
+				if (res < 0) {
+					close(channel);
+					break;
+				}
+			}
+		} catch (Throwable t) {
+			if (CoyoteLogger.HTTP_LOGGER.isDebugEnabled()) {
+				CoyoteLogger.HTTP_LOGGER.errorWithBlockingWrite(t);
+			}
+			res = -1;
+		} finally {
+			gatheringBuffers[1] = null;
+			clearBuffer();
+		}
+		if (res < 0) {
+			throw new IOException(MESSAGES.failedWrite());
+		}
+		response.setLastWrite((int) res);
+
+		return true;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -218,9 +272,16 @@ public class InternalNioOutputBuffer extends AbstractInternalOutputBuffer {
 	public void sendAck() throws Exception {
 
 		if (!committed) {
+			// Write the previous pipelined responses first
+			flushBuffer();
 			this.bbuf.clear();
 			this.bbuf.put(Constants.ACK_BYTES).flip();
-			if (this.write(writeTimeout, TimeUnit.MILLISECONDS) < 0) {
+			int res = this.write(writeTimeout, TimeUnit.MILLISECONDS);
+			if (!nonBlocking) {
+				// Otherwise the completion handler clears it
+				this.bbuf.clear();
+			}
+			if (res < 0) {
 				throw new IOException(MESSAGES.failedWrite());
 			}
 		}
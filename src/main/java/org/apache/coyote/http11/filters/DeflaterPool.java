@@ -0,0 +1,223 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.coyote.http11.filters;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Pool of the deflaters used by the gzip output filters of a connector, so
+ * that the native zlib streams are reused across responses instead of being
+ * allocated and finalized for each compressed response.
+ */
+public class DeflaterPool {
+
+
+    // -------------------------------------------------------------- Constants
+
+
+    /**
+     * Default maximum number of idle deflaters.
+     */
+    public static final int DEFAULT_MAX_IDLE =
+        32 * Runtime.getRuntime().availableProcessors();
+
+
+    // ----------------------------------------------------------- Constructors
+
+
+    public DeflaterPool() {
+        this(Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+    }
+
+
+    public DeflaterPool(int level, int strategy) {
+        this(level, strategy, DEFAULT_MAX_IDLE);
+    }
+
+
+    /**
+     * @param maxIdle Maximum number of idle deflaters, or -1 for no limit
+     */
+    public DeflaterPool(int level, int strategy, int maxIdle) {
+        if ((level < Deflater.DEFAULT_COMPRESSION) || (level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        this.level = level;
+        this.strategy = strategy;
+        this.maxIdle = maxIdle;
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    /**
+     * Idle deflaters.
+     */
+    protected final ConcurrentLinkedQueue<Deflater> deflaters =
+        new ConcurrentLinkedQueue<Deflater>();
+
+
+    /**
+     * Number of idle deflaters.
+     */
+    protected final AtomicInteger size = new AtomicInteger(0);
+
+
+    /**
+     * Maximum number of idle deflaters, or -1 for no limit.
+     */
+    protected final int maxIdle;
+
+
+    /**
+     * Set once the pool is destroyed, after which released deflaters are
+     * freed instead of pooled.
+     */
+    protected volatile boolean destroyed = false;
+
+
+    /**
+     * Compression level.
+     */
+    protected final int level;
+
+
+    /**
+     * Compression strategy.
+     */
+    protected final int strategy;
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    public int getLevel() {
+        return level;
+    }
+
+
+    public int getStrategy() {
+        return strategy;
+    }
+
+
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+
+    /**
+     * Return the number of idle deflaters.
+     */
+    public int getSize() {
+        return size.get();
+    }
+
+
+    /**
+     * Parse a compression strategy name: "default", "filtered" or "huffman".
+     */
+    public static int parseStrategy(String strategy) {
+        if (strategy == null || strategy.equalsIgnoreCase("default")) {
+            return Deflater.DEFAULT_STRATEGY;
+        } else if (strategy.equalsIgnoreCase("filtered")) {
+            return Deflater.FILTERED;
+        } else if (strategy.equalsIgnoreCase("huffman")) {
+            return Deflater.HUFFMAN_ONLY;
+        } else {
+            throw new IllegalArgumentException("Invalid compression strategy " + strategy);
+        }
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Get a deflater producing raw deflate data, creating it if no idle
+     * one is available.
+     */
+    public Deflater get() {
+        Deflater deflater = poll();
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+            if (strategy != Deflater.DEFAULT_STRATEGY) {
+                deflater.setStrategy(strategy);
+            }
+        }
+        return deflater;
+    }
+
+
+    /**
+     * Return a deflater to the pool. Its native resources are freed instead
+     * if the pool is full or destroyed.
+     */
+    public void release(Deflater deflater) {
+        if (destroyed) {
+            deflater.end();
+            return;
+        }
+        if ((size.incrementAndGet() > maxIdle) && (maxIdle >= 0)) {
+            size.decrementAndGet();
+            deflater.end();
+            return;
+        }
+        deflater.reset();
+        deflaters.offer(deflater);
+        // Do not keep a deflater released while the pool was being destroyed
+        if (destroyed) {
+            clear();
+        }
+    }
+
+
+    /**
+     * Free the native resources of the idle deflaters, and of the deflaters
+     * which will be released from now on.
+     */
+    public void destroy() {
+        destroyed = true;
+        clear();
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    private Deflater poll() {
+        Deflater deflater = deflaters.poll();
+        if (deflater != null) {
+            size.decrementAndGet();
+        }
+        return deflater;
+    }
+
+
+    private void clear() {
+        Deflater deflater;
+        while ((deflater = poll()) != null) {
+            deflater.end();
+        }
+    }
+
+
+}
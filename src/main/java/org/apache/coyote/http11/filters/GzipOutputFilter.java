@@ -18,8 +18,8 @@
 package org.apache.coyote.http11.filters;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
 import org.apache.tomcat.util.buf.ByteChunk;
 
@@ -28,7 +28,9 @@ import org.apache.coyote.Response;
 import org.apache.coyote.http11.OutputFilter;
 
 /**
- * Gzip output filter.
+ * Gzip output filter. The gzip header and trailer are written by the filter,
+ * and the data is compressed using a deflater from the pool of the connector,
+ * which is returned to the pool at the end of the response.
  * 
  * @author Remy Maucherat
  */
@@ -42,6 +44,14 @@ public class GzipOutputFilter implements OutputFilter {
     protected static final ByteChunk ENCODING = new ByteChunk();
 
 
+    /**
+     * Gzip header: magic number, deflate method, no flags, no modification
+     * time, no extra flags and unknown OS.
+     */
+    protected static final byte[] HEADER =
+        { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+
     // ----------------------------------------------------- Static Initializer
 
 
@@ -50,6 +60,19 @@ public class GzipOutputFilter implements OutputFilter {
     }
 
 
+    // ----------------------------------------------------------- Constructors
+
+
+    public GzipOutputFilter() {
+        this(new DeflaterPool());
+    }
+
+
+    public GzipOutputFilter(DeflaterPool deflaterPool) {
+        this.deflaterPool = deflaterPool;
+    }
+
+
     // ----------------------------------------------------- Instance Variables
 
 
@@ -60,15 +83,52 @@ public class GzipOutputFilter implements OutputFilter {
 
 
     /**
-     * Compression output stream.
+     * Pool of deflaters.
+     */
+    protected DeflaterPool deflaterPool;
+
+
+    /**
+     * Deflater used for the current response.
      */
-    protected GZIPOutputStream compressionStream = null;
+    protected Deflater deflater = null;
 
 
     /**
-     * Fake internal output stream.
+     * Checksum of the uncompressed data.
      */
-    protected OutputStream fakeOutputStream = new FakeOutputStream();
+    protected CRC32 crc = new CRC32();
+
+
+    /**
+     * True if some data was written since the last flush.
+     */
+    protected boolean pending = false;
+
+
+    /**
+     * Compressed data buffer.
+     */
+    protected byte[] output = new byte[8192];
+
+
+    /**
+     * Chunk used to write the compressed data to the next buffer.
+     */
+    protected ByteChunk outputChunk = new ByteChunk();
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    public DeflaterPool getDeflaterPool() {
+        return deflaterPool;
+    }
+
+
+    public void setDeflaterPool(DeflaterPool deflaterPool) {
+        this.deflaterPool = deflaterPool;
+    }
 
 
     // --------------------------------------------------- OutputBuffer Methods
@@ -81,12 +141,19 @@ public class GzipOutputFilter implements OutputFilter {
      */
     public int doWrite(ByteChunk chunk, Response res)
         throws IOException {
-        if (compressionStream == null) {
-            compressionStream = new GZIPOutputStream(fakeOutputStream);
+        int length = chunk.getLength();
+        if (deflater == null) {
+            start();
         }
-        compressionStream.write(chunk.getBytes(), chunk.getStart(), 
-                                chunk.getLength());
-        return chunk.getLength();
+        if (length > 0) {
+            crc.update(chunk.getBytes(), chunk.getStart(), length);
+            deflater.setInput(chunk.getBytes(), chunk.getStart(), length);
+            while (!deflater.needsInput()) {
+                deflate(Deflater.NO_FLUSH);
+            }
+            pending = true;
+        }
+        return length;
     }
 
 
@@ -110,17 +177,42 @@ public class GzipOutputFilter implements OutputFilter {
     }
 
 
+    /**
+     * Write all the data compressed so far to the next buffer, so that it can
+     * be decompressed by the client without waiting for the end of the
+     * response.
+     */
+    public void flush()
+        throws IOException {
+        if (pending) {
+            int n;
+            do {
+                n = deflate(Deflater.SYNC_FLUSH);
+            } while (n == output.length);
+            pending = false;
+        }
+    }
+
+
     /**
      * End the current request. It is acceptable to write extra bytes using
      * buffer.doWrite during the execution of this method.
      */
     public long end()
         throws IOException {
-        if (compressionStream == null) {
-            compressionStream = new GZIPOutputStream(fakeOutputStream);
+        if (deflater == null) {
+            start();
         }
-        compressionStream.finish();
-        compressionStream.close();
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflate(Deflater.NO_FLUSH);
+        }
+        // Trailer: CRC and size of the uncompressed data, in little endian
+        writeInt(output, 0, (int) crc.getValue());
+        writeInt(output, 4, (int) deflater.getBytesRead());
+        outputChunk.setBytes(output, 0, 8);
+        buffer.doWrite(outputChunk, null);
+        release();
         return ((OutputFilter) buffer).end();
     }
 
@@ -129,42 +221,68 @@ public class GzipOutputFilter implements OutputFilter {
      * Make the filter ready to process the next request.
      */
     public void recycle() {
-        // Set compression stream to null
-        compressionStream = null;
+        release();
     }
 
 
     /**
      * Return the name of the associated encoding; Here, the value is 
-     * "identity".
+     * "gzip".
      */
     public ByteChunk getEncodingName() {
         return ENCODING;
     }
 
 
-    // ------------------------------------------- FakeOutputStream Inner Class
+    // ------------------------------------------------------ Protected Methods
+
+
+    /**
+     * Get a deflater and write the gzip header.
+     */
+    protected void start()
+        throws IOException {
+        deflater = deflaterPool.get();
+        crc.reset();
+        pending = false;
+        outputChunk.setBytes(HEADER, 0, HEADER.length);
+        buffer.doWrite(outputChunk, null);
+    }
 
 
-    protected class FakeOutputStream
-        extends OutputStream {
-        protected ByteChunk outputChunk = new ByteChunk();
-        protected byte[] singleByteBuffer = new byte[1];
-        public void write(int b)
-            throws IOException {
-            // Shouldn't get used for good performance, but is needed for 
-            // compatibility with Sun JDK 1.4.0
-            singleByteBuffer[0] = (byte) (b & 0xff);
-            outputChunk.setBytes(singleByteBuffer, 0, 1);
+    /**
+     * Compress some data and write it to the next buffer.
+     * 
+     * @return the number of compressed bytes written
+     */
+    protected int deflate(int flush)
+        throws IOException {
+        int n = deflater.deflate(output, 0, output.length, flush);
+        if (n > 0) {
+            outputChunk.setBytes(output, 0, n);
             buffer.doWrite(outputChunk, null);
         }
-        public void write(byte[] b, int off, int len)
-            throws IOException {
-            outputChunk.setBytes(b, off, len);
-            buffer.doWrite(outputChunk, null);
+        return n;
+    }
+
+
+    /**
+     * Return the deflater to the pool.
+     */
+    protected void release() {
+        if (deflater != null) {
+            deflaterPool.release(deflater);
+            deflater = null;
         }
-        public void flush() throws IOException {}
-        public void close() throws IOException {}
+        pending = false;
+    }
+
+
+    protected static void writeInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) value;
+        b[offset + 1] = (byte) (value >> 8);
+        b[offset + 2] = (byte) (value >> 16);
+        b[offset + 3] = (byte) (value >> 24);
     }
 
 
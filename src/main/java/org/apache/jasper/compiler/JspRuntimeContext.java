@@ -276,17 +276,18 @@ public final class JspRuntimeContext {
         for (int i = 0; i < wrappers.length; i++ ) {
             JspServletWrapper jsw = (JspServletWrapper)wrappers[i];
             JspCompilationContext ctxt = jsw.getJspEngineContext();
-            // JspServletWrapper also synchronizes on this when
+            // JspServletWrapper also holds this lock when
             // it detects it has to do a reload
-            synchronized(jsw) {
-                try {
-                    ctxt.compile();
-                } catch (FileNotFoundException ex) {
-                    ctxt.incrementRemoved();
-                } catch (Throwable t) {
-                    jsw.getServletContext().log("Background compile failed",
-						t);
-                }
+            jsw.getLock().lock();
+            try {
+                ctxt.compile();
+            } catch (FileNotFoundException ex) {
+                ctxt.incrementRemoved();
+            } catch (Throwable t) {
+                jsw.getServletContext().log("Background compile failed",
+					t);
+            } finally {
+                jsw.getLock().unlock();
             }
         }
 
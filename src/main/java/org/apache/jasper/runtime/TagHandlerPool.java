@@ -23,6 +23,7 @@ import javax.servlet.jsp.tagext.Tag;
 
 import org.apache.jasper.Constants;
 import org.apache.tomcat.InstanceManager;
+import org.apache.tomcat.util.net.VirtualThreads;
 import org.jboss.logging.Logger;
 
 /**
@@ -53,7 +54,17 @@ public class TagHandlerPool {
                 result = null;
             }
         }
-        if( result==null ) result=new PerThreadTagHandlerPool();
+        if( result==null ) {
+            // Virtual threads are not reused, so a thread-local pool would
+            // only grow: share the handlers between the threads instead as
+            // soon as virtual threads are configured, whatever the thread
+            // initializing the page
+            if (VirtualThreads.isEnabled()) {
+                result=new TagHandlerPool();
+            } else {
+                result=new PerThreadTagHandlerPool();
+            }
+        }
         result.init(config);
 
         return result;
@@ -22,6 +22,7 @@ import static org.jboss.web.JasperMessages.MESSAGES;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URL;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletConfig;
@@ -78,6 +79,9 @@ public class JspServletWrapper {
     private JasperException compileException;
     private long servletClassLastModifiedTime;
     private long lastModificationTest = 0L;
+    // Lock rather than monitor, so that a virtual thread blocking while
+    // holding it does not pin its carrier thread
+    private final ReentrantLock lock = new ReentrantLock();
 
     /*
      * JspServletWrapper for JSP pages.
@@ -120,6 +124,13 @@ public class JspServletWrapper {
         return ctxt;
     }
 
+    /**
+     * Return the lock held while compiling and reloading the page.
+     */
+    public ReentrantLock getLock() {
+        return lock;
+    }
+
     public void setReload(boolean reload) {
         this.reload = reload;
     }
@@ -128,8 +139,9 @@ public class JspServletWrapper {
         throws ServletException, IOException, FileNotFoundException
     {
         if (reload) {
-            synchronized (this) {
-                // Synchronizing on jsw enables simultaneous loading
+            lock.lock();
+            try {
+                // Locking jsw enables simultaneous loading
                 // of different pages, but not the same page.
                 if (reload) {
                     // This is to maintain the original protocol.
@@ -157,7 +169,9 @@ public class JspServletWrapper {
                     theServlet = servlet;
                     reload = false;
                 }
-            }    
+            } finally {
+                lock.unlock();
+            }
         }
         return theServlet;
     }
@@ -183,11 +197,14 @@ public class JspServletWrapper {
      */
     public void setServletClassLastModifiedTime(long lastModified) {
         if (this.servletClassLastModifiedTime < lastModified) {
-            synchronized (this) {
+            lock.lock();
+            try {
                 if (this.servletClassLastModifiedTime < lastModified) {
                     this.servletClassLastModifiedTime = lastModified;
                     reload = true;
                 }
+            } finally {
+                lock.unlock();
             }
         }
     }
@@ -202,9 +219,12 @@ public class JspServletWrapper {
                 throw new FileNotFoundException(jspUri);
             }
             if (options.getDevelopment() || firstTime ) {
-                synchronized (this) {
+                lock.lock();
+                try {
                     firstTime = false;
                     ctxt.compile();
+                } finally {
+                    lock.unlock();
                 }
             } else {
                 if (compileException != null) {
@@ -301,11 +321,14 @@ public class JspServletWrapper {
              * (1) Compile
              */
             if (options.getDevelopment() || firstTime ) {
-                synchronized (this) {
+                lock.lock();
+                try {
                     firstTime = false;
 
                     // The following sets reload to true, if necessary
                     ctxt.compile();
+                } finally {
+                    lock.unlock();
                 }
             } else {
                 if (compileException != null) {
@@ -356,11 +379,14 @@ public class JspServletWrapper {
              * (3) Service request
              */
             if (theServlet instanceof SingleThreadModel) {
-               // sync on the wrapper so that the freshness
+               // lock the wrapper so that the freshness
                // of the page is determined right before servicing
-               synchronized (this) {
+               lock.lock();
+               try {
                    theServlet.service(request, response);
-                }
+               } finally {
+                   lock.unlock();
+               }
             } else {
                 theServlet.service(request, response);
             }
@@ -116,6 +116,14 @@ public abstract class BaseDirContext implements DirContext {
     protected int cacheObjectMaxSize = 256; // 256 K
 
 
+    /**
+     * Class name of the cache, or null to use the default
+     * {@link ResourceCache}. {@link ConcurrentResourceCache} may be used
+     * for contexts with a large number of resources.
+     */
+    protected String cacheClassName = null;
+
+
     // ------------------------------------------------------------- Properties
 
 
@@ -214,6 +222,23 @@ public abstract class BaseDirContext implements DirContext {
     }
 
 
+    /**
+     * Return the class name of the cache.
+     */
+    public String getCacheClassName() {
+        return cacheClassName;
+    }
+
+
+    /**
+     * Set the class name of the cache, which must extend
+     * {@link ResourceCache}.
+     */
+    public void setCacheClassName(String cacheClassName) {
+        this.cacheClassName = cacheClassName;
+    }
+
+
     // --------------------------------------------------------- Public Methods
 
 
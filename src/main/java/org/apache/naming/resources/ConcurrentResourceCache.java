@@ -0,0 +1,515 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.apache.naming.resources;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Concurrent resource cache, for contexts with a large number of resources.
+ * Lookups do not take any lock. The entries are spread over segments, each
+ * having its own lock and an equal part of the maximum cache size, and
+ * evicted using the CLOCK algorithm. New entries are only admitted if they
+ * are used more often than the entries they would evict, according to a
+ * frequency sketch of all the lookups (TinyLFU), so that scans of rarely
+ * used resources do not flush the cache.
+ * <p>
+ * It can be enabled by setting the <code>cacheClassName</code> attribute of
+ * the resources to <code>org.apache.naming.resources.ConcurrentResourceCache</code>.
+ */
+public class ConcurrentResourceCache extends ResourceCache {
+
+
+    // -------------------------------------------------------------- Constants
+
+
+    /**
+     * Number of segments, must be a power of two.
+     */
+    protected static final int SEGMENTS = 16;
+
+
+    /**
+     * Number of statistics stripes, must be a power of two.
+     */
+    protected static final int STRIPES = 16;
+
+
+    // Statistics counters, each one on its own cache line
+    private static final int HITS = 0;
+    private static final int MISSES = 1;
+    private static final int EVICTIONS = 2;
+    private static final int REJECTIONS = 3;
+    private static final int PADDING = 8;
+
+
+    // ----------------------------------------------------------- Constructors
+
+
+    public ConcurrentResourceCache() {
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+        sketch = new FrequencySketch(cacheMaxSize);
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    /**
+     * Cache.
+     * Path -> Cache node.
+     */
+    protected final ConcurrentHashMap<String, Node> entries =
+        new ConcurrentHashMap<String, Node>();
+
+
+    /**
+     * Not found cache.
+     */
+    protected final ConcurrentHashMap<String, CacheEntry> notFoundEntries =
+        new ConcurrentHashMap<String, CacheEntry>();
+
+
+    /**
+     * Segments.
+     */
+    protected final Segment[] segments;
+
+
+    /**
+     * Access frequencies.
+     */
+    protected volatile FrequencySketch sketch;
+
+
+    /**
+     * Striped statistics.
+     */
+    protected final AtomicLongArray statistics =
+        new AtomicLongArray(STRIPES * PADDING);
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    /**
+     * Set the maximum size of the cache in KB.
+     */
+    public void setCacheMaxSize(int cacheMaxSize) {
+        super.setCacheMaxSize(cacheMaxSize);
+        sketch = new FrequencySketch(cacheMaxSize);
+    }
+
+
+    /**
+     * Return the access count.
+     */
+    public long getAccessCount() {
+        return getHitsCount() + getMissCount();
+    }
+
+
+    /**
+     * Return the number of cache hits.
+     */
+    public long getHitsCount() {
+        return sum(HITS);
+    }
+
+
+    /**
+     * Return the number of cache misses.
+     */
+    public long getMissCount() {
+        return sum(MISSES);
+    }
+
+
+    /**
+     * Return the number of entries evicted to make space for new ones.
+     */
+    public long getEvictionCount() {
+        return sum(EVICTIONS);
+    }
+
+
+    /**
+     * Return the number of entries which were not admitted in the cache.
+     */
+    public long getRejectionCount() {
+        return sum(REJECTIONS);
+    }
+
+
+    /**
+     * Return the number of entries.
+     */
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+
+    /**
+     * Return the current cache size in KB.
+     */
+    public int getCacheSize() {
+        int size = notFoundEntries.size();
+        for (int i = 0; i < SEGMENTS; i++) {
+            size += segments[i].size;
+        }
+        return size;
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    public CacheEntry lookup(String name) {
+        int hash = hash(name);
+        sketch.increment(hash);
+        Node node = entries.get(name);
+        if (node != null) {
+            node.referenced = true;
+            count(HITS);
+            return node.entry;
+        }
+        CacheEntry entry = notFoundEntries.get(name);
+        if (entry != null) {
+            count(HITS);
+            return entry;
+        }
+        count(MISSES);
+        return null;
+    }
+
+
+    public boolean insert(CacheEntry entry) {
+        String name = entry.name;
+        if (!entry.exists) {
+            if (notFoundEntries.size() >= spareNotFoundEntries) {
+                notFoundEntries.clear();
+            }
+            return (notFoundEntries.putIfAbsent(name, entry) == null);
+        }
+        int hash = hash(name);
+        int budget = cacheMaxSize / SEGMENTS;
+        if (entry.size > cacheObjectMaxSize + 1 || entry.size > budget) {
+            count(REJECTIONS);
+            return false;
+        }
+        Segment segment = segments[hash & (SEGMENTS - 1)];
+        synchronized (segment) {
+            if (entries.containsKey(name)) {
+                return false;
+            }
+            if (!segment.allocate(entry.size, budget, sketch.frequency(hash))) {
+                count(REJECTIONS);
+                return false;
+            }
+            Node node = new Node(entry, hash);
+            segment.add(node);
+            entries.put(name, node);
+        }
+        return true;
+    }
+
+
+    public boolean grow(CacheEntry entry, int space) {
+        Node node = entries.get(entry.name);
+        if ((node == null) || (node.entry != entry)) {
+            return false;
+        }
+        int budget = cacheMaxSize / SEGMENTS;
+        Segment segment = segments[node.hash & (SEGMENTS - 1)];
+        synchronized (segment) {
+            if (node.removed || (space > cacheObjectMaxSize + 1)
+                    || (entry.size + space > budget)) {
+                count(REJECTIONS);
+                return false;
+            }
+            // Keep the entry from being evicted to make space for itself
+            node.marked = true;
+            boolean admitted =
+                segment.allocate(space, budget, sketch.frequency(node.hash));
+            node.marked = false;
+            if (!admitted) {
+                count(REJECTIONS);
+                return false;
+            }
+            entry.size += space;
+            segment.size += space;
+        }
+        return true;
+    }
+
+
+    public boolean remove(String name) {
+        Node node = entries.remove(name);
+        if (node != null) {
+            Segment segment = segments[node.hash & (SEGMENTS - 1)];
+            synchronized (segment) {
+                segment.remove(node);
+            }
+            return true;
+        }
+        return (notFoundEntries.remove(name) != null);
+    }
+
+
+    public boolean allocate(int space) {
+        return (space <= cacheMaxSize / SEGMENTS);
+    }
+
+
+    public void load(CacheEntry entry) {
+        insert(entry);
+    }
+
+
+    public boolean unload(String name) {
+        return remove(name);
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    private static int hash(String name) {
+        int h = name.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+
+
+    private void count(int counter) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        statistics.incrementAndGet(stripe * PADDING + counter);
+    }
+
+
+    private long sum(int counter) {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += statistics.get(i * PADDING + counter);
+        }
+        return sum;
+    }
+
+
+    // --------------------------------------------------------- Inner Classes
+
+
+    /**
+     * Cache node, holding the CLOCK reference bit of an entry.
+     */
+    protected static final class Node {
+
+        protected final CacheEntry entry;
+        protected final int hash;
+        protected volatile boolean referenced = false;
+        // The following fields are guarded by the segment lock
+        protected boolean removed = false;
+        protected boolean marked = false;
+
+        protected Node(CacheEntry entry, int hash) {
+            this.entry = entry;
+            this.hash = hash;
+        }
+
+    }
+
+
+    /**
+     * Cache segment, evicting its nodes using the CLOCK algorithm. All
+     * methods must be called while holding the segment lock.
+     */
+    protected final class Segment {
+
+        protected Node[] clock = new Node[16];
+        protected int count = 0;
+        protected int removed = 0;
+        protected int hand = 0;
+        protected volatile int size = 0;
+
+        protected void add(Node node) {
+            if (count == clock.length) {
+                compact();
+                if (count > clock.length / 2) {
+                    Node[] newClock = new Node[clock.length * 2];
+                    System.arraycopy(clock, 0, newClock, 0, count);
+                    clock = newClock;
+                }
+            }
+            clock[count++] = node;
+            size += node.entry.size;
+        }
+
+        protected void remove(Node node) {
+            if (!node.removed) {
+                node.removed = true;
+                removed++;
+                size -= node.entry.size;
+            }
+        }
+
+        /**
+         * Evict enough nodes to fit an entry with the given size and
+         * frequency. Nothing is evicted if a victim is used more frequently
+         * than the new entry.
+         */
+        protected boolean allocate(int space, int budget, int frequency) {
+            int toFree = space - (budget - size);
+            if (toFree <= 0) {
+                return true;
+            }
+            ArrayList<Node> victims = new ArrayList<Node>();
+            boolean admitted = true;
+            // Two rounds at most, as the first one clears the reference bits
+            for (int i = 0; (i < 2 * count) && (toFree > 0); i++) {
+                if (hand >= count) {
+                    hand = 0;
+                }
+                Node node = clock[hand++];
+                if (node.removed || node.marked) {
+                    continue;
+                }
+                if (node.referenced) {
+                    node.referenced = false;
+                    continue;
+                }
+                if (sketch.frequency(node.hash) >= frequency) {
+                    admitted = false;
+                    break;
+                }
+                node.marked = true;
+                victims.add(node);
+                toFree -= node.entry.size;
+            }
+            admitted = admitted && (toFree <= 0);
+            for (int i = 0; i < victims.size(); i++) {
+                Node node = victims.get(i);
+                node.marked = false;
+                if (admitted) {
+                    entries.remove(node.entry.name, node);
+                    remove(node);
+                    count(EVICTIONS);
+                }
+            }
+            if (removed > count / 2) {
+                compact();
+            }
+            return admitted;
+        }
+
+        protected void compact() {
+            int n = 0;
+            int newHand = 0;
+            for (int i = 0; i < count; i++) {
+                if (!clock[i].removed) {
+                    if (i < hand) {
+                        newHand = n + 1;
+                    }
+                    clock[n++] = clock[i];
+                }
+            }
+            for (int i = n; i < count; i++) {
+                clock[i] = null;
+            }
+            hand = (newHand < n) ? newHand : 0;
+            count = n;
+            removed = 0;
+        }
+
+    }
+
+
+    /**
+     * Approximate access frequencies, using a count-min sketch of 4 bit
+     * counters which are halved periodically so that old accesses are
+     * forgotten. Updates are not synchronized, as losing some of them is
+     * harmless.
+     */
+    protected static final class FrequencySketch {
+
+        private static final int[] SEEDS =
+            { 0x97cb3127, 0xb3a1f0a7, 0x5e3c9ad3, 0x2f1e4b69 };
+
+        private final int[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions = 0;
+
+        protected FrequencySketch(int capacity) {
+            int size = Integer.highestOneBit(Math.max(capacity, 1024) - 1) << 1;
+            table = new int[size];
+            mask = size - 1;
+            sampleSize = size * 10;
+        }
+
+        protected int frequency(int hash) {
+            int frequency = 15;
+            for (int i = 0; i < 4; i++) {
+                int h = index(hash, i);
+                int counter = (table[h & mask] >>> ((h >>> 29) << 2)) & 0xF;
+                frequency = Math.min(frequency, counter);
+            }
+            return frequency;
+        }
+
+        protected void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int h = index(hash, i);
+                int index = h & mask;
+                int shift = (h >>> 29) << 2;
+                if (((table[index] >>> shift) & 0xF) < 15) {
+                    table[index] += (1 << shift);
+                    added = true;
+                }
+            }
+            if (added && (++additions >= sampleSize)) {
+                reset();
+            }
+        }
+
+        private void reset() {
+            additions = 0;
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & 0x77777777;
+            }
+        }
+
+        private static int index(int hash, int i) {
+            int h = (hash ^ SEEDS[i]) * 0x9e3779b9;
+            return h ^ (h >>> 15);
+        }
+
+    }
+
+
+}
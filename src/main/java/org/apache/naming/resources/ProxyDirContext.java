@@ -109,6 +109,9 @@ public class ProxyDirContext implements DirContext {
             // the caching policy.
             BaseDirContext baseDirContext = (BaseDirContext) dirContext;
             if (baseDirContext.isCached()) {
+                if (baseDirContext.getCacheClassName() != null) {
+                    cacheClassName = baseDirContext.getCacheClassName();
+                }
                 if (cacheClassName != null) {
                     try {
                         cache = (ResourceCache) 
@@ -128,6 +131,7 @@ public class ProxyDirContext implements DirContext {
                 if (cacheObjectMaxSize > baseDirContext.getCacheMaxSize()/32) {
                     cacheObjectMaxSize = baseDirContext.getCacheMaxSize()/32;
                 }
+                cache.setCacheObjectMaxSize(cacheObjectMaxSize);
             }
         }
         hostName = (String) env.get(HOST);
@@ -1618,6 +1622,22 @@ public class ProxyDirContext implements DirContext {
     }
 
 
+    /**
+     * Charge additional space to an entry of the cache, such as for a variant
+     * of the resource which is kept along with it, so that it is accounted
+     * for in the size of the cache.
+     * 
+     * @param entry the cache entry
+     * @param space the space in KB
+     * @return true if the entry is in the cache and the space was allocated
+     */
+    public boolean growCache(CacheEntry entry, int space) {
+        if (cache == null)
+            return false;
+        return cache.grow(entry, space);
+    }
+
+
     // ------------------------------------------------------ Protected Methods
 
 
@@ -1835,13 +1855,8 @@ public class ProxyDirContext implements DirContext {
             entry.timestamp = Long.MAX_VALUE;
         }
 
-        // Add new entry to cache
-        synchronized (cache) {
-            // Check cache size, and remove elements if too big
-            if ((cache.lookup(name) == null) && cache.allocate(entry.size)) {
-                cache.load(entry);
-            }
-        }
+        // Add new entry to cache, removing elements if too big
+        cache.insert(entry);
 
     }
 
@@ -1852,9 +1867,7 @@ public class ProxyDirContext implements DirContext {
     protected boolean cacheUnload(String name) {
         if (cache == null)
             return false;
-        synchronized (cache) {
-            return cache.unload(name);
-        }
+        return cache.remove(name);
     }
 
 
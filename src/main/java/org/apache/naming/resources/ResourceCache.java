@@ -65,6 +65,12 @@ public class ResourceCache {
     protected int cacheMaxSize = 10240; // 10 MB
 
 
+    /**
+     * Max size of a single entry in KB.
+     */
+    protected int cacheObjectMaxSize = 512; // 512 KB
+
+
     /**
      * Max amount of removals during a make space.
      */
@@ -131,6 +137,22 @@ public class ResourceCache {
     }
 
 
+    /**
+     * Return the maximum size of a single entry in KB.
+     */
+    public int getCacheObjectMaxSize() {
+        return cacheObjectMaxSize;
+    }
+
+
+    /**
+     * Set the maximum size of a single entry in KB.
+     */
+    public void setCacheObjectMaxSize(int cacheObjectMaxSize) {
+        this.cacheObjectMaxSize = cacheObjectMaxSize;
+    }
+
+
     /**
      * Return the current cache size in KB.
      */
@@ -287,6 +309,56 @@ public class ResourceCache {
     }
 
 
+    /**
+     * Add an entry to the cache if there is none with the same name, making
+     * space for it if needed.
+     * 
+     * @return true if the entry was added
+     */
+    public boolean insert(CacheEntry entry) {
+        synchronized (this) {
+            if ((lookup(entry.name) == null) && allocate(entry.size)) {
+                load(entry);
+                return true;
+            }
+            return false;
+        }
+    }
+
+
+    /**
+     * Grow an entry of the cache, such as when a variant of the resource is
+     * kept along with it, making space for it if needed.
+     * 
+     * @return true if the entry is in the cache and was grown
+     */
+    public boolean grow(CacheEntry entry, int space) {
+        if (space > cacheObjectMaxSize + 1) {
+            return false;
+        }
+        synchronized (this) {
+            if (!contains(entry) || !allocate(space) || !contains(entry)) {
+                return false;
+            }
+            entry.size += space;
+            cacheSize += space;
+            return true;
+        }
+    }
+
+
+    /**
+     * Remove an entry from the cache.
+     * 
+     * @return true if an entry was removed
+     */
+    public boolean remove(String name) {
+        synchronized (this) {
+            return unload(name);
+        }
+    }
+
+
     public CacheEntry lookup(String name) {
 
         CacheEntry cacheEntry = null;
@@ -337,6 +409,12 @@ public class ResourceCache {
     }
 
 
+    private boolean contains(CacheEntry entry) {
+        int pos = find(cache, entry.name);
+        return (pos != -1) && (cache[pos] == entry);
+    }
+
+
     /**
      * Find a map elemnt given its name in a sorted array of map elements.
      * This will return the index for the closest inferior or equal item in the
@@ -86,6 +86,12 @@ public final class FastHttpDateFormat {
     private static String currentDate = null;
 
 
+    /**
+     * Current formatted date, as bytes.
+     */
+    private static volatile DateBytes currentDateBytes = null;
+
+
     /**
      * Formatter cache.
      */
@@ -122,6 +128,23 @@ public final class FastHttpDateFormat {
     }
 
 
+    /**
+     * Get the current date in HTTP format, as ISO-8859-1 bytes. The returned
+     * array is shared and must not be modified.
+     */
+    public static final byte[] getCurrentDateBytes() {
+
+        String date = getCurrentDate();
+        DateBytes dateBytes = currentDateBytes;
+        if (dateBytes == null || dateBytes.date != date) {
+            dateBytes = new DateBytes(date);
+            currentDateBytes = dateBytes;
+        }
+        return dateBytes.bytes;
+
+    }
+
+
     /**
      * Get the HTTP format of the specified date.
      */
@@ -228,4 +251,23 @@ public final class FastHttpDateFormat {
     }
 
 
+    // ---------------------------------------------- DateBytes Inner Class
+
+
+    private static final class DateBytes {
+
+        private final String date;
+        private final byte[] bytes;
+
+        private DateBytes(String date) {
+            this.date = date;
+            this.bytes = new byte[date.length()];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) date.charAt(i);
+            }
+        }
+
+    }
+
+
 }
@@ -0,0 +1,292 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.tomcat.util.http;
+
+/**
+ * Well known HTTP header names, which are identified by a small integer so
+ * that they can be recognized while parsing and looked up without comparing
+ * the names. Lookups are case insensitive, and use an open addressed table
+ * of the names hashed with {@link #hash(int, int)}.
+ */
+public final class KnownHeaders {
+
+
+    /**
+     * Id of the names which are not well known headers.
+     */
+    public static final int UNKNOWN = -1;
+
+
+    /**
+     * Well known header names, in lower case. The id of a header is its index.
+     */
+    private static final String[] NAMES = {
+        "host", "user-agent", "accept", "accept-language", "accept-encoding",
+        "accept-charset", "connection", "keep-alive", "cookie", "referer",
+        "origin", "content-type", "content-length", "content-encoding",
+        "transfer-encoding", "cache-control", "pragma", "if-modified-since",
+        "if-unmodified-since", "if-none-match", "if-match", "if-range",
+        "range", "authorization", "proxy-authorization", "upgrade", "expect",
+        "te", "via", "date", "x-forwarded-for", "x-forwarded-proto",
+        "x-forwarded-host", "x-requested-with"
+    };
+
+
+    /**
+     * Number of well known headers.
+     */
+    public static final int COUNT = NAMES.length;
+
+
+    private static final byte[][] NAME_BYTES = new byte[COUNT][];
+    private static final int TABLE_SIZE = 128;
+    private static final int[] TABLE = new int[TABLE_SIZE];
+
+
+    static {
+        for (int id = 0; id < COUNT; id++) {
+            String name = NAMES[id];
+            NAME_BYTES[id] = new byte[name.length()];
+            int hash = 0;
+            for (int i = 0; i < name.length(); i++) {
+                NAME_BYTES[id][i] = (byte) name.charAt(i);
+                hash = hash(hash, name.charAt(i));
+            }
+            int slot = slot(hash);
+            while (TABLE[slot] != 0) {
+                slot = (slot + 1) & (TABLE_SIZE - 1);
+            }
+            TABLE[slot] = id + 1;
+        }
+    }
+
+
+    private KnownHeaders() {
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Add a lower case char to a header name hash.
+     */
+    public static int hash(int hash, int c) {
+        return 31 * hash + c;
+    }
+
+
+    /**
+     * Return the lower case name of the header with the given id.
+     */
+    public static String getName(int id) {
+        return NAMES[id];
+    }
+
+
+    /**
+     * Find the id of a lower case header name, given its hash.
+     *
+     * @return the id, or {@link #UNKNOWN}
+     */
+    public static int findLowerCase(byte[] b, int start, int len, int hash) {
+        int slot = slot(hash);
+        int id;
+        while ((id = TABLE[slot] - 1) >= 0) {
+            byte[] name = NAME_BYTES[id];
+            if (name.length == len) {
+                int i = 0;
+                while (i < len && name[i] == b[start + i]) {
+                    i++;
+                }
+                if (i == len) {
+                    return id;
+                }
+            }
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        return UNKNOWN;
+    }
+
+
+    /**
+     * Find the id of a header name, ignoring case.
+     *
+     * @return the id, or {@link #UNKNOWN}
+     */
+    public static int find(byte[] b, int start, int len) {
+        return find(b, start, len, hashIgnoreCase(b, start, len));
+    }
+
+
+    /**
+     * Find the id of a header name, ignoring case, given the hash returned
+     * by {@link #hashIgnoreCase(byte[], int, int)}.
+     *
+     * @return the id, or {@link #UNKNOWN}
+     */
+    public static int find(byte[] b, int start, int len, int hash) {
+        int slot = slot(hash);
+        int id;
+        while ((id = TABLE[slot] - 1) >= 0) {
+            byte[] name = NAME_BYTES[id];
+            if (name.length == len) {
+                int i = 0;
+                while (i < len && name[i] == toLower(b[start + i] & 0xff)) {
+                    i++;
+                }
+                if (i == len) {
+                    return id;
+                }
+            }
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        return UNKNOWN;
+    }
+
+
+    /**
+     * Find the id of a header name, ignoring case.
+     *
+     * @return the id, or {@link #UNKNOWN}
+     */
+    public static int find(char[] c, int start, int len) {
+        return find(c, start, len, hashIgnoreCase(c, start, len));
+    }
+
+
+    /**
+     * Find the id of a header name, ignoring case, given the hash returned
+     * by {@link #hashIgnoreCase(char[], int, int)}.
+     *
+     * @return the id, or {@link #UNKNOWN}
+     */
+    public static int find(char[] c, int start, int len, int hash) {
+        int slot = slot(hash);
+        int id;
+        while ((id = TABLE[slot] - 1) >= 0) {
+            byte[] name = NAME_BYTES[id];
+            if (name.length == len) {
+                int i = 0;
+                while (i < len && name[i] == toLower(c[start + i])) {
+                    i++;
+                }
+                if (i == len) {
+                    return id;
+                }
+            }
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        return UNKNOWN;
+    }
+
+
+    /**
+     * Find the id of a header name, ignoring case.
+     *
+     * @return the id, or {@link #UNKNOWN}
+     */
+    public static int find(String s) {
+        if (s == null) {
+            return UNKNOWN;
+        }
+        return find(s, hashIgnoreCase(s));
+    }
+
+
+    /**
+     * Find the id of a header name, ignoring case, given the hash returned
+     * by {@link #hashIgnoreCase(String)}.
+     *
+     * @return the id, or {@link #UNKNOWN}
+     */
+    public static int find(String s, int hash) {
+        int len = s.length();
+        int slot = slot(hash);
+        int id;
+        while ((id = TABLE[slot] - 1) >= 0) {
+            byte[] name = NAME_BYTES[id];
+            if (name.length == len) {
+                int i = 0;
+                while (i < len && name[i] == toLower(s.charAt(i))) {
+                    i++;
+                }
+                if (i == len) {
+                    return id;
+                }
+            }
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        return UNKNOWN;
+    }
+
+
+    /**
+     * Hash a header name, ignoring case.
+     */
+    public static int hashIgnoreCase(byte[] b, int start, int len) {
+        int hash = 0;
+        for (int i = start; i < start + len; i++) {
+            hash = hash(hash, toLower(b[i] & 0xff));
+        }
+        return hash;
+    }
+
+
+    /**
+     * Hash a header name, ignoring case.
+     */
+    public static int hashIgnoreCase(char[] c, int start, int len) {
+        int hash = 0;
+        for (int i = start; i < start + len; i++) {
+            hash = hash(hash, toLower(c[i]));
+        }
+        return hash;
+    }
+
+
+    /**
+     * Hash a header name, ignoring case.
+     */
+    public static int hashIgnoreCase(String s) {
+        int len = s.length();
+        int hash = 0;
+        for (int i = 0; i < len; i++) {
+            hash = hash(hash, toLower(s.charAt(i)));
+        }
+        return hash;
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    private static int toLower(int c) {
+        return (c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c;
+    }
+
+
+    private static int slot(int hash) {
+        hash ^= (hash >>> 16);
+        hash *= 0x85ebca6b;
+        hash ^= (hash >>> 13);
+        return hash & (TABLE_SIZE - 1);
+    }
+
+
+}
@@ -21,6 +21,7 @@ import static org.jboss.web.CoyoteMessages.MESSAGES;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Arrays;
 import java.util.Enumeration;
 
 import org.apache.tomcat.util.buf.MessageBytes;
@@ -56,11 +57,11 @@ import org.apache.tomcat.util.buf.MessageBytes;
  Apache seems to be using a similar method for storing and manipulating
  headers.
 
- Future enhancements:
- - hash the headers the first time a header is requested ( i.e. if the
- servlet needs direct access to headers).
- - scan "common" values ( length, cookies, etc ) during the parse
- ( addHeader hook )
+ The fields are indexed as they are added: the well known headers have
+ a direct slot, and the other ones are found using a small open addressed
+ table keyed by the case insensitive hash of the name. The fields with
+ the same name are linked in order, so that lookups do not depend on the
+ number of headers.
 
  */
 
@@ -86,10 +87,8 @@ public class MimeHeaders {
 
     /** 
      * Enumerate the distinct header names.
-     * Each nextElement() is O(n) ( a comparation is
-     * done with all previous elements ).
-     * This is less frequesnt than add() -
-     * we want to keep add O(1).
+     * A name is a duplicate if the index finds an earlier field
+     * with the same name.
      */
     protected class NamesEnumerator implements Enumeration {
         protected int pos;
@@ -106,14 +105,10 @@ public class MimeHeaders {
             next = null;
             for (; pos < size; pos++) {
                 next = getName(pos).toString();
-                for (int j = 0; j < pos; j++) {
-                    if (getName(j).equalsIgnoreCase(next)) {
-                        // duplicate.
-                        next = null;
-                        break;
-                    }
-                }
-                if (next != null) {
+                if (findHeader(next, 0) != pos) {
+                    // duplicate.
+                    next = null;
+                } else {
                     // it's not a duplicate
                     break;
                 }
@@ -142,9 +137,13 @@ public class MimeHeaders {
         protected int size;
         protected MessageBytes next;
         protected String name;
+        protected int hash;
+        protected int known;
 
         protected ValuesEnumerator(String name) {
             this.name = name;
+            hash = KnownHeaders.hashIgnoreCase(name);
+            known = KnownHeaders.find(name, hash);
             pos = 0;
             size = size();
             findNext();
@@ -152,14 +151,13 @@ public class MimeHeaders {
 
         private void findNext() {
             next = null;
-            for (; pos < size; pos++) {
-                MessageBytes n1 = getName(pos);
-                if (n1.equalsIgnoreCase(name)) {
-                    next = getValue(pos);
-                    break;
-                }
+            pos = find(name, hash, known, pos);
+            if (pos >= 0 && pos < size) {
+                next = getValue(pos);
+                pos++;
+            } else {
+                pos = size;
             }
-            pos++;
         }
 
         public boolean hasMoreElements() {
@@ -183,6 +181,21 @@ public class MimeHeaders {
         protected final MessageBytes nameB = MessageBytes.newInstance();
         protected final MessageBytes valueB = MessageBytes.newInstance();
 
+        /**
+         * Id of the name, if it is a well known header.
+         */
+        protected int known = KnownHeaders.UNKNOWN;
+
+        /**
+         * Hash of the name ignoring case, if it is not a well known header.
+         */
+        protected int hash;
+
+        /**
+         * Index of the next field with the same name hash, or -1.
+         */
+        protected int nextSame = -1;
+
         /**
          * Creates a new, uninitialized header field.
          */
@@ -192,6 +205,8 @@ public class MimeHeaders {
         public void recycle() {
             nameB.recycle();
             valueB.recycle();
+            known = KnownHeaders.UNKNOWN;
+            nextSame = -1;
             next = null;
         }
 
@@ -220,6 +235,22 @@ public class MimeHeaders {
      */
     private int count;
 
+    /**
+     * Index of the first field of each well known header, plus one.
+     */
+    private final int[] knownIndex = new int[KnownHeaders.COUNT];
+
+    /**
+     * Open addressed index of the other fields, by hash of their name. Each
+     * slot holds the index of the first field with that hash, plus one.
+     */
+    private int[] hashIndex = new int[DEFAULT_HEADER_SIZE * 2];
+
+    /**
+     * The number of used slots in the hash index.
+     */
+    private int hashed;
+
     /**
      * Creates a new MimeHeaders object using a default buffer size.
      */
@@ -242,6 +273,11 @@ public class MimeHeaders {
             headers[i].recycle();
         }
         count = 0;
+        Arrays.fill(knownIndex, 0);
+        if (hashed > 0) {
+            Arrays.fill(hashIndex, 0);
+            hashed = 0;
+        }
     }
 
     /**
@@ -287,19 +323,42 @@ public class MimeHeaders {
     /** Find the index of a header with the given name.
      */
     public int findHeader(String name, int starting) {
-        // We can use a hash - but it's not clear how much
-        // benefit you can get - there is an  overhead 
-        // and the number of headers is small (4-5 ?)
-        // Another problem is that we'll pay the overhead
-        // of constructing the hashtable
-
-        // A custom search tree may be better
-        for (int i = starting; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
-                return i;
+        int hash = KnownHeaders.hashIgnoreCase(name);
+        return find(name, hash, KnownHeaders.find(name, hash), starting);
+    }
+
+    /**
+     * Find the index of a header with the given name, hash and well known
+     * header id, using the index.
+     */
+    private int find(String name, int hash, int known, int starting) {
+        int i;
+        if (known != KnownHeaders.UNKNOWN) {
+            i = knownIndex[known] - 1;
+        } else {
+            int mask = hashIndex.length - 1;
+            int slot = slot(hash, mask);
+            while ((i = hashIndex[slot] - 1) >= 0 && headers[i].hash != hash) {
+                slot = (slot + 1) & mask;
             }
         }
-        return -1;
+        // Several names may have the same hash
+        while (i >= 0 && (i < starting || !matches(headers[i], name, known))) {
+            i = headers[i].nextSame;
+        }
+        return i;
+    }
+
+    /**
+     * Compare the name of a header field, using the id of the name if it is
+     * a well known header.
+     */
+    private static boolean matches(MimeHeaderField field, String name, int known) {
+        if (known != KnownHeaders.UNKNOWN) {
+            return (field.known == known);
+        }
+        return (field.known == KnownHeaders.UNKNOWN)
+            && field.getName().equalsIgnoreCase(name);
     }
 
     // -------------------- --------------------
@@ -317,6 +376,76 @@ public class MimeHeaders {
         return new ValuesEnumerator(name);
     }
 
+    // -------------------- Indexing headers --------------------
+
+    private static int slot(int hash, int mask) {
+        hash *= 0x9e3779b9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Add a new field to the index, once its name is set.
+     */
+    private void index(int i) {
+        if (link(i) && (++hashed * 2 > hashIndex.length)) {
+            rehash(hashIndex.length * 2);
+        }
+    }
+
+    /**
+     * Link a field after the last field with the same name hash.
+     * @return true if the field used a new slot of the hash index
+     */
+    private boolean link(int i) {
+        MimeHeaderField field = headers[i];
+        field.nextSame = -1;
+        int first;
+        int slot = -1;
+        if (field.known != KnownHeaders.UNKNOWN) {
+            first = knownIndex[field.known] - 1;
+        } else {
+            int mask = hashIndex.length - 1;
+            slot = slot(field.hash, mask);
+            while ((first = hashIndex[slot] - 1) >= 0
+                    && headers[first].hash != field.hash) {
+                slot = (slot + 1) & mask;
+            }
+        }
+        if (first < 0) {
+            if (slot < 0) {
+                knownIndex[field.known] = i + 1;
+                return false;
+            }
+            hashIndex[slot] = i + 1;
+            return true;
+        }
+        MimeHeaderField last = headers[first];
+        while (last.nextSame >= 0) {
+            last = headers[last.nextSame];
+        }
+        last.nextSame = i;
+        return false;
+    }
+
+    /**
+     * Rebuild the index, after fields have been removed or to grow the
+     * hash index.
+     */
+    private void rehash(int size) {
+        if (size != hashIndex.length) {
+            hashIndex = new int[size];
+        } else {
+            Arrays.fill(hashIndex, 0);
+        }
+        Arrays.fill(knownIndex, 0);
+        hashed = 0;
+        for (int i = 0; i < count; i++) {
+            if (link(i)) {
+                hashed++;
+            }
+        }
+    }
+
     // -------------------- Adding headers --------------------
 
     /**
@@ -348,6 +477,9 @@ public class MimeHeaders {
     public MessageBytes addValue(String name) {
         MimeHeaderField mh = createHeader();
         mh.getName().setString(name);
+        mh.hash = KnownHeaders.hashIgnoreCase(name);
+        mh.known = KnownHeaders.find(name, mh.hash);
+        index(count - 1);
         return mh.getValue();
     }
 
@@ -358,6 +490,22 @@ public class MimeHeaders {
     public MessageBytes addValue(byte b[], int startN, int len) {
         MimeHeaderField mhf = createHeader();
         mhf.getName().setBytes(b, startN, len);
+        mhf.hash = KnownHeaders.hashIgnoreCase(b, startN, len);
+        mhf.known = KnownHeaders.find(b, startN, len, mhf.hash);
+        index(count - 1);
+        return mhf.getValue();
+    }
+
+    /** Create a new named header using a lower case un-translated
+        byte[], when the parser already hashed the name.
+        @param hash the hash of the name, see {@link KnownHeaders#hash(int, int)}
+     */
+    public MessageBytes addLowerCaseValue(byte b[], int startN, int len, int hash) {
+        MimeHeaderField mhf = createHeader();
+        mhf.getName().setBytes(b, startN, len);
+        mhf.hash = hash;
+        mhf.known = KnownHeaders.findLowerCase(b, startN, len, hash);
+        index(count - 1);
         return mhf.getValue();
     }
 
@@ -366,6 +514,9 @@ public class MimeHeaders {
     public MessageBytes addValue(char c[], int startN, int len) {
         MimeHeaderField mhf = createHeader();
         mhf.getName().setChars(c, startN, len);
+        mhf.hash = KnownHeaders.hashIgnoreCase(c, startN, len);
+        mhf.known = KnownHeaders.find(c, startN, len, mhf.hash);
+        index(count - 1);
         return mhf.getValue();
     }
 
@@ -375,18 +526,25 @@ public class MimeHeaders {
         if this .
      */
     public MessageBytes setValue(String name) {
-        for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
-                for (int j = i + 1; j < count; j++) {
-                    if (headers[j].getName().equalsIgnoreCase(name)) {
-                        removeHeader(j--);
+        int hash = KnownHeaders.hashIgnoreCase(name);
+        int known = KnownHeaders.find(name, hash);
+        int i = find(name, hash, known, 0);
+        if (i >= 0) {
+            if (find(name, hash, known, i + 1) >= 0) {
+                for (int j = count - 1; j > i; j--) {
+                    if (matches(headers[j], name, known)) {
+                        removeHeader(j);
                     }
                 }
-                return headers[i].getValue();
+                rehash(hashIndex.length);
             }
+            return headers[i].getValue();
         }
         MimeHeaderField mh = createHeader();
         mh.getName().setString(name);
+        mh.hash = hash;
+        mh.known = known;
+        index(count - 1);
         return mh.getValue();
     }
 
@@ -397,12 +555,8 @@ public class MimeHeaders {
      * in the header, an arbitrary one is returned.
      */
     public MessageBytes getValue(String name) {
-        for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
-                return headers[i].getValue();
-            }
-        }
-        return null;
+        int i = findHeader(name, 0);
+        return (i >= 0) ? headers[i].getValue() : null;
     }
 
     /**
@@ -411,17 +565,16 @@ public class MimeHeaders {
      * unique then an {@link IllegalArgumentException} is thrown. 
      */
     public MessageBytes getUniqueValue(String name) {
-        MessageBytes result = null;
-        for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
-                if (result == null) {
-                    result = headers[i].getValue();
-                } else {
-                    throw new IllegalArgumentException();
-                }
-            }
+        int hash = KnownHeaders.hashIgnoreCase(name);
+        int known = KnownHeaders.find(name, hash);
+        int i = find(name, hash, known, 0);
+        if (i < 0) {
+            return null;
+        }
+        if (find(name, hash, known, i + 1) >= 0) {
+            throw new IllegalArgumentException();
         }
-        return result;
+        return headers[i].getValue();
     }
 
     // bad shortcut - it'll convert to string ( too early probably,
@@ -439,15 +592,23 @@ public class MimeHeaders {
      */
     public void removeHeader(String name) {
         // warning: rather sticky code; heavily tuned
-        for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
-                removeHeader(i--);
+        int hash = KnownHeaders.hashIgnoreCase(name);
+        int known = KnownHeaders.find(name, hash);
+        if (find(name, hash, known, 0) < 0) {
+            return;
+        }
+        // Going backwards, the swapped headers were already checked
+        for (int i = count - 1; i >= 0; i--) {
+            if (matches(headers[i], name, known)) {
+                removeHeader(i);
             }
         }
+        rehash(hashIndex.length);
     }
 
     /**
-     * reset and swap with last header
+     * reset and swap with last header, the index must be rebuilt
+     * afterwards.
      * @param idx the index of the header to remove.
      */
     private void removeHeader(int idx) {
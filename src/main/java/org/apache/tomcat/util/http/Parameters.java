@@ -21,18 +21,22 @@ import static org.jboss.web.CoyoteMessages.MESSAGES;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.Map;
 
 import org.apache.tomcat.util.buf.ByteChunk;
-import org.apache.tomcat.util.buf.CharChunk;
+import org.apache.tomcat.util.buf.HexUtils;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.buf.UDecoder;
 import org.jboss.web.CoyoteLogger;
 
 /**
+ * Request parameters. The parameters are stored in flat arrays, holding the
+ * position of their name and value in the parsed bytes, and the Strings are
+ * only created when needed. In lazy mode, the names and values are only
+ * decoded when a parameter is requested, and decoding failures are only
+ * detected at that time.
  *
  * @author Costin Manolache
  */
@@ -40,9 +44,54 @@ public final class Parameters {
 
     protected static final int MAX_COUNT = 
         Integer.valueOf(System.getProperty("org.apache.tomcat.util.http.Parameters.MAX_COUNT", "512")).intValue();
+    protected static final boolean LAZY =
+        Boolean.valueOf(System.getProperty("org.apache.tomcat.util.http.Parameters.LAZY", "false")).booleanValue();
 
-    private final HashMap<String,ArrayList<String>> paramHashValues =
-        new HashMap<String,ArrayList<String>>();
+    // Parameter flags
+    private static final int DECODE_NAME = 1;
+    private static final int DECODE_VALUE = 2;
+    private static final int PLAIN_NAME = 4;
+    private static final int FAILED = 8;
+
+    private static final int DEFAULT_SIZE = 16;
+
+    /**
+     * Above this number of parameters, the names are indexed in a hash
+     * table rather than compared one by one.
+     */
+    private static final int LINEAR_MAX = 8;
+
+    /**
+     * Chars which have the same single byte representation in the usual
+     * encodings, so that plain names can be compared and hashed without
+     * creating a String, even if they are URL encoded.
+     */
+    private static final boolean[] PLAIN = new boolean[256];
+
+    static {
+        for (int i = 0x20; i < 0x7f; i++) {
+            PLAIN[i] = (i != '\\' && i != '~');
+        }
+    }
+
+    // The parameters, the names and values are decoded on demand
+    private int count = 0;
+    private byte[][] sources = new byte[DEFAULT_SIZE][];
+    private String[] encodings = new String[DEFAULT_SIZE];
+    // Name start, name end, value start (-1 if no value), value end
+    private int[] ranges = new int[DEFAULT_SIZE * 4];
+    private int[] flags = new int[DEFAULT_SIZE];
+    private String[] names = new String[DEFAULT_SIZE];
+    private String[] values = new String[DEFAULT_SIZE];
+
+    // Open addressed index of the names, with the name hashes and links to
+    // the next parameter with the same name hash
+    private int[] index = null;
+    private int[] hashes = null;
+    private int[] nextSame = null;
+    private int indexed = 0;
+
+    private boolean lazy = LAZY;
     private boolean didQueryParameters=false;
 
     MessageBytes queryMB;
@@ -54,7 +103,6 @@ public final class Parameters {
     String queryStringEncoding=null;
 
     private int limit = MAX_COUNT;
-    private int parameterCount = 0;
 
     /**
      * Is set to <code>true</code> if there were failures during parameter
@@ -74,6 +122,14 @@ public final class Parameters {
         this.limit = limit;
     }
 
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
     public String getEncoding() {
         return encoding;
     }
@@ -95,8 +151,15 @@ public final class Parameters {
     }
 
     public void recycle() {
-        parameterCount = 0;
-        paramHashValues.clear();
+        Arrays.fill(sources, 0, count, null);
+        Arrays.fill(encodings, 0, count, null);
+        Arrays.fill(names, 0, count, null);
+        Arrays.fill(values, 0, count, null);
+        count = 0;
+        if (indexed > 0) {
+            Arrays.fill(index, 0);
+            indexed = 0;
+        }
         didQueryParameters=false;
         encoding=null;
         decodedQuery.recycle();
@@ -121,29 +184,57 @@ public final class Parameters {
     public String[] getParameterValues(String name) {
         handleQueryParameters();
         // no "facade"
-        ArrayList<String> values = paramHashValues.get(name);
-        if (values == null) {
-            return null;
+        String first = null;
+        ArrayList<String> result = null;
+        for (int i = find(name, 0); i >= 0; i = find(name, i + 1)) {
+            String value = getValue(i);
+            if (value == null) {
+                continue;
+            }
+            if (first == null) {
+                first = value;
+            } else {
+                if (result == null) {
+                    result = new ArrayList<String>();
+                    result.add(first);
+                }
+                result.add(value);
+            }
         }
-        return values.toArray(new String[values.size()]);
+        if (result != null) {
+            return result.toArray(new String[result.size()]);
+        }
+        return (first == null) ? null : new String[] { first };
     }
 
     public Enumeration<String> getParameterNames() {
         handleQueryParameters();
-        return Collections.enumeration(paramHashValues.keySet());
+        ArrayList<String> result = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            String name = getName(i);
+            if (name == null || find(name, 0) != i) {
+                continue;
+            }
+            // Skip the names with no value which could be decoded
+            for (int j = i; j >= 0; j = find(name, j + 1)) {
+                if (getValue(j) != null) {
+                    result.add(name);
+                    break;
+                }
+            }
+        }
+        return Collections.enumeration(result);
     }
 
     public String getParameter(String name ) {
         handleQueryParameters();
-        ArrayList<String> values = paramHashValues.get(name);
-        if (values != null) {
-            if(values.size() == 0) {
-                return "";
+        for (int i = find(name, 0); i >= 0; i = find(name, i + 1)) {
+            String value = getValue(i);
+            if (value != null) {
+                return value;
             }
-            return values.get(0);
-        } else {
-            return null;
         }
+        return null;
     }
     // -------------------- Processing --------------------
     /** Process the query string into parameters
@@ -176,20 +267,236 @@ public final class Parameters {
             return;
         }
 
-        parameterCount ++;
-        if (limit > -1 && parameterCount > limit) {
+        int i = add(null, null, 0, 0, -1, 0, 0);
+        names[i] = key;
+        values[i] = value;
+    }
+
+    /**
+     * Add a parameter, which will be decoded from the given bytes when
+     * needed.
+     * @return the index of the parameter
+     */
+    private int add(byte[] bytes, String enc, int nameStart, int nameEnd,
+            int valueStart, int valueEnd, int flag) {
+        if (limit > -1 && count >= limit) {
             // Processing this parameter will push us over the limit. ISE is
             // what Request.parseParts() uses for requests that are too big
             parseFailed = true;
             throw MESSAGES.maxParametersFail(limit);
         }
+        if (count == flags.length) {
+            int size = count * 2;
+            sources = Arrays.copyOf(sources, size);
+            encodings = Arrays.copyOf(encodings, size);
+            ranges = Arrays.copyOf(ranges, size * 4);
+            flags = Arrays.copyOf(flags, size);
+            names = Arrays.copyOf(names, size);
+            values = Arrays.copyOf(values, size);
+        }
+        int i = count++;
+        sources[i] = bytes;
+        encodings[i] = enc;
+        ranges[4 * i] = nameStart;
+        ranges[4 * i + 1] = nameEnd;
+        ranges[4 * i + 2] = valueStart;
+        ranges[4 * i + 3] = valueEnd;
+        flags[i] = flag;
+        return i;
+    }
+
+    /**
+     * Find the index of the next parameter with the given name.
+     */
+    private int find(String name, int starting) {
+        if (count <= LINEAR_MAX) {
+            for (int i = starting; i < count; i++) {
+                if (nameEquals(i, name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        updateIndex();
+        int hash = name.hashCode();
+        int mask = index.length - 1;
+        int slot = slot(hash, mask);
+        int i;
+        while ((i = index[slot] - 1) >= 0 && hashes[i] != hash) {
+            slot = (slot + 1) & mask;
+        }
+        // Several names may have the same hash
+        while (i >= 0 && (i < starting || !nameEquals(i, name))) {
+            i = nextSame[i];
+        }
+        return i;
+    }
+
+    private boolean nameEquals(int i, String name) {
+        if (names[i] == null && (flags[i] & PLAIN_NAME) != 0) {
+            byte[] bytes = sources[i];
+            int end = ranges[4 * i + 1];
+            int len = name.length();
+            int k = 0;
+            for (int j = ranges[4 * i]; j < end; k++) {
+                int c = bytes[j];
+                if (c == '%') {
+                    c = (HexUtils.DEC[bytes[j + 1]] << 4) + HexUtils.DEC[bytes[j + 2]];
+                    j += 3;
+                } else {
+                    if (c == '+') {
+                        c = ' ';
+                    }
+                    j++;
+                }
+                if (k == len || c != name.charAt(k)) {
+                    return false;
+                }
+            }
+            return (k == len);
+        }
+        return name.equals(getName(i));
+    }
+
+    /**
+     * Check that an escaped char of a name is plain.
+     */
+    private static boolean isPlainEscape(byte[] bytes, int pos, int end) {
+        if (pos + 2 >= end) {
+            return false;
+        }
+        int b1 = HexUtils.DEC[bytes[pos + 1] & 0xff];
+        int b2 = HexUtils.DEC[bytes[pos + 2] & 0xff];
+        return (b1 >= 0) && (b2 >= 0) && PLAIN[(b1 << 4) + b2];
+    }
+
+    private static int slot(int hash, int mask) {
+        hash *= 0x9e3779b9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Hash of the name of a parameter, the same as the hash of the String.
+     */
+    private int hash(int i) {
+        if (names[i] == null && (flags[i] & PLAIN_NAME) != 0) {
+            int hash = 0;
+            byte[] bytes = sources[i];
+            int end = ranges[4 * i + 1];
+            for (int j = ranges[4 * i]; j < end;) {
+                int c = bytes[j];
+                if (c == '%') {
+                    c = (HexUtils.DEC[bytes[j + 1]] << 4) + HexUtils.DEC[bytes[j + 2]];
+                    j += 3;
+                } else {
+                    if (c == '+') {
+                        c = ' ';
+                    }
+                    j++;
+                }
+                hash = 31 * hash + c;
+            }
+            return hash;
+        }
+        String name = getName(i);
+        return (name == null) ? 0 : name.hashCode();
+    }
+
+    /**
+     * Add the new parameters to the index.
+     */
+    private void updateIndex() {
+        if (index == null || count * 2 > index.length) {
+            int size = 4 * DEFAULT_SIZE;
+            while (count * 2 > size) {
+                size *= 2;
+            }
+            index = new int[size];
+            hashes = new int[size / 2];
+            nextSame = new int[size / 2];
+            indexed = 0;
+        }
+        int mask = index.length - 1;
+        for (; indexed < count; indexed++) {
+            int i = indexed;
+            nextSame[i] = -1;
+            int hash = hash(i);
+            hashes[i] = hash;
+            int slot = slot(hash, mask);
+            int first;
+            while ((first = index[slot] - 1) >= 0 && hashes[first] != hash) {
+                slot = (slot + 1) & mask;
+            }
+            if (first < 0) {
+                index[slot] = i + 1;
+            } else {
+                while (nextSame[first] >= 0) {
+                    first = nextSame[first];
+                }
+                nextSame[first] = i;
+            }
+        }
+    }
+
+    /**
+     * Return the decoded name of a parameter, or null if it could not be
+     * decoded.
+     */
+    private String getName(int i) {
+        if (names[i] == null && (flags[i] & FAILED) == 0) {
+            names[i] = decode(i, ranges[4 * i], ranges[4 * i + 1],
+                    (flags[i] & DECODE_NAME) != 0, tmpName);
+        }
+        return names[i];
+    }
 
-        ArrayList<String> values = paramHashValues.get(key);
-        if (values == null) {
-            values = new ArrayList<String>(1);
-            paramHashValues.put(key, values);
+    /**
+     * Return the decoded value of a parameter, or null if it could not be
+     * decoded.
+     */
+    private String getValue(int i) {
+        if (values[i] == null && (flags[i] & FAILED) == 0) {
+            if (ranges[4 * i + 2] < 0) {
+                values[i] = "";
+            } else {
+                values[i] = decode(i, ranges[4 * i + 2], ranges[4 * i + 3],
+                        (flags[i] & DECODE_VALUE) != 0, tmpValue);
+            }
+        }
+        return ((flags[i] & FAILED) == 0) ? values[i] : null;
+    }
+
+    private String decode(int i, int start, int end, boolean decode,
+            ByteChunk tmp) {
+        byte[] bytes = sources[i];
+        // Take copies as if anything goes wrong originals will be
+        // corrupted. This means original values can be logged.
+        // For performance - only done for debug
+        String orig = null;
+        if (CoyoteLogger.HTTP_LOGGER.isDebugEnabled()) {
+            orig = new String(bytes, start, end - start, DEFAULT_CHARSET);
+        }
+        tmp.setBytes(bytes, start, end - start);
+        try {
+            if (decode) {
+                urlDecode(tmp);
+            }
+            tmp.setEncoding(encodings[i]);
+            return tmp.toString();
+        } catch (IOException e) {
+            flags[i] |= FAILED;
+            parseFailed = true;
+            if (CoyoteLogger.HTTP_LOGGER.isDebugEnabled()) {
+                if (tmp == tmpName) {
+                    CoyoteLogger.HTTP_LOGGER.parameterDecodingFailed(orig, "");
+                } else {
+                    CoyoteLogger.HTTP_LOGGER.parameterDecodingFailed(names[i], orig);
+                }
+            }
+            return null;
+        } finally {
+            tmp.recycle();
         }
-        values.add(value);
     }
 
     public void setURLDecoder( UDecoder u ) {
@@ -201,9 +508,6 @@ public final class Parameters {
     // if needed
     ByteChunk tmpName=new ByteChunk();
     ByteChunk tmpValue=new ByteChunk();
-    private final ByteChunk origName=new ByteChunk();
-    private final ByteChunk origValue=new ByteChunk();
-    CharChunk tmpNameC=new CharChunk(1024);
     public static final String DEFAULT_ENCODING = "ISO-8859-1";
     private static final Charset DEFAULT_CHARSET =
         Charset.forName(DEFAULT_ENCODING);
@@ -233,6 +537,7 @@ public final class Parameters {
             boolean parsingName = true;
             boolean decodeName = false;
             boolean decodeValue = false;
+            boolean plainName = true;
             boolean parameterComplete = false;
 
             do {
@@ -264,12 +569,18 @@ public final class Parameters {
                         // Decoding required
                         if (parsingName) {
                             decodeName = true;
+                            if (plainName && bytes[pos] == '%') {
+                                plainName = isPlainEscape(bytes, pos, end);
+                            }
                         } else {
                             decodeValue = true;
                         }
                         pos ++;
                         break;
                     default:
+                        if (parsingName && !PLAIN[bytes[pos] & 0xff]) {
+                            plainName = false;
+                        }
                         pos ++;
                         break;
                 }
@@ -312,66 +623,11 @@ public final class Parameters {
                 // invalid chunk - it's better to ignore
             }
 
-            tmpName.setBytes(bytes, nameStart, nameEnd - nameStart);
-            if (valueStart >= 0) {
-                tmpValue.setBytes(bytes, valueStart, valueEnd - valueStart);
-            } else {
-                tmpValue.setBytes(bytes, 0, 0);
-            }
-
-            // Take copies as if anything goes wrong originals will be
-            // corrupted. This means original values can be logged.
-            // For performance - only done for debug
-            if (CoyoteLogger.HTTP_LOGGER.isDebugEnabled()) {
-                try {
-                    origName.append(bytes, nameStart, nameEnd - nameStart);
-                    if (valueStart >= 0) {
-                        origValue.append(bytes, valueStart, valueEnd - valueStart);
-                    } else {
-                        origValue.append(bytes, 0, 0);
-                    }
-                } catch (IOException ioe) {
-                    // Should never happen...
-                    parseFailed = true;
-                    CoyoteLogger.HTTP_LOGGER.parametersCopyFailed();
-                }
-            }
-
-            try {
-                String name;
-                String value;
-
-                if (decodeName) {
-                    urlDecode(tmpName);
-                }
-                tmpName.setEncoding(enc);
-                name = tmpName.toString();
-
-                if (valueStart >= 0) {
-                    if (decodeValue) {
-                        urlDecode(tmpValue);
-                    }
-                    tmpValue.setEncoding(enc);
-                    value = tmpValue.toString();
-                } else {
-                    value = "";
-                }
-
-                addParameter(name, value);
-            } catch (IOException e) {
-                parseFailed = true;
+            int flag = (decodeName ? DECODE_NAME : 0)
+                | (plainName ? PLAIN_NAME : 0) | (decodeValue ? DECODE_VALUE : 0);
+            int i = add(bytes, enc, nameStart, nameEnd, valueStart, valueEnd, flag);
+            if (!lazy && (getName(i) == null || getValue(i) == null)) {
                 decodeFailCount++;
-                if (CoyoteLogger.HTTP_LOGGER.isDebugEnabled()) {
-                    CoyoteLogger.HTTP_LOGGER.parameterDecodingFailed(origName.toString(), origValue.toString());
-                }
-            }
-
-            tmpName.recycle();
-            tmpValue.recycle();
-            // Only recycle copies if we used them
-            if (CoyoteLogger.HTTP_LOGGER.isDebugEnabled()) {
-                origName.recycle();
-                origValue.recycle();
             }
         }
 
@@ -409,13 +665,8 @@ public final class Parameters {
      */
     public String paramsAsString() {
         StringBuilder sb = new StringBuilder();
-        for (Map.Entry<String, ArrayList<String>> e : paramHashValues.entrySet()) {
-            sb.append(e.getKey()).append('=');
-            ArrayList<String> values = e.getValue();
-            for (String value : values) {
-                sb.append(value).append(',');
-            }
-            sb.append('\n');
+        for (int i = 0; i < count; i++) {
+            sb.append(getName(i)).append('=').append(getValue(i)).append('\n');
         }
         return sb.toString();
     }
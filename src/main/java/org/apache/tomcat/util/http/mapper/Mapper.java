@@ -23,7 +23,6 @@ import java.util.List;
 import javax.naming.NamingException;
 import javax.naming.directory.DirContext;
 
-import org.apache.tomcat.util.buf.Ascii;
 import org.apache.tomcat.util.buf.CharChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
 
@@ -45,6 +44,12 @@ public final class Mapper {
     protected Host[] hosts = new Host[0];
 
 
+    /**
+     * Lower case host names, used for host mapping.
+     */
+    protected volatile PathTrie<Host> hostTrie = PathTrie.empty();
+
+
     /**
      * Default host name.
      */
@@ -113,6 +118,7 @@ public final class Mapper {
                 hosts = newHosts;
             }
         }
+        updateHostTrie();
     }
 
 
@@ -141,6 +147,7 @@ public final class Mapper {
                 }
             }
         }
+        updateHostTrie();
     }
 
     public String[] getHosts() {
@@ -173,6 +180,7 @@ public final class Mapper {
         newHost.object = realHost;
         if (insertMap(hosts, newHosts, newHost)) {
             hosts = newHosts;
+            updateHostTrie();
         }
     }
 
@@ -189,6 +197,7 @@ public final class Mapper {
         Host[] newHosts = new Host[hosts.length - 1];
         if (removeMap(hosts, newHosts, alias)) {
             hosts = newHosts;
+            updateHostTrie();
         }
 
     }
@@ -227,18 +236,12 @@ public final class Mapper {
         }
         Host host = hosts[pos];
         if (host.name.equals(hostName)) {
-            int slashCount = slashCount(path);
             synchronized (host) {
-                Context[] contexts = host.contextList.contexts;
-                // Update nesting
-                if (slashCount > host.contextList.nesting) {
-                    host.contextList.nesting = slashCount;
-                }
-                Context[] newContexts = new Context[contexts.length + 1];
-                Context newContext = new Context();
-                newContext.name = path;
-                if (insertMap(contexts, newContexts, newContext)) {
-                    host.contextList.contexts = newContexts;
+                PathTrie<Context> contexts = host.contextList.trie;
+                if (contexts.get(path) == null) {
+                    Context newContext = new Context();
+                    newContext.name = path;
+                    host.contextList.trie = contexts.put(path, newContext);
                 }
             }
         }
@@ -271,27 +274,24 @@ public final class Mapper {
         }
         Host host = hosts[pos];
         if (host.name.equals(hostName)) {
-            int slashCount = slashCount(path);
             synchronized (host) {
-                Context[] contexts = host.contextList.contexts;
-                // Update nesting
-                if (slashCount > host.contextList.nesting) {
-                    host.contextList.nesting = slashCount;
+                PathTrie<Context> contexts = host.contextList.trie;
+                Context oldContext = contexts.get(path);
+                if (oldContext != null) {
+                    if (oldContext.object != null || context == null) {
+                        return;
+                    }
+                    // We're going to replace the lazy loaded context, but mark
+                    // it as replaced so anyone with a ref to it knows to look
+                    // again
+                    oldContext.replaced = true;
                 }
-                Context[] newContexts = new Context[contexts.length + 1];
                 Context newContext = new Context();
                 newContext.name = path;
                 newContext.object = context;
                 newContext.welcomeResources = welcomeResources;
                 newContext.resources = resources;
-                if (insertMap(contexts, newContexts, newContext)) {
-                    host.contextList.contexts = newContexts;
-                } else {
-                    newContexts = new Context[contexts.length];
-                    if (insertLazyLoadedContext(contexts, newContexts, newContext)) {
-                        host.contextList.contexts = newContexts;
-                    }
-                }
+                host.contextList.trie = contexts.put(path, newContext);
             }
         }
 
@@ -313,22 +313,7 @@ public final class Mapper {
         Host host = hosts[pos];
         if (host.name.equals(hostName)) {
             synchronized (host) {
-                Context[] contexts = host.contextList.contexts;
-                if( contexts.length == 0 ){
-                    return;
-                }
-                Context[] newContexts = new Context[contexts.length - 1];
-                if (removeMap(contexts, newContexts, path)) {
-                    host.contextList.contexts = newContexts;
-                    // Recalculate nesting
-                    host.contextList.nesting = 0;
-                    for (int i = 0; i < newContexts.length; i++) {
-                        int slashCount = slashCount(newContexts[i].name);
-                        if (slashCount > host.contextList.nesting) {
-                            host.contextList.nesting = slashCount;
-                        }
-                    }
-                }
+                host.contextList.trie = host.contextList.trie.remove(path);
             }
         }
     }
@@ -342,8 +327,9 @@ public final class Mapper {
     public String[] getContextNames() {
         List<String> list = new ArrayList<String>();
         for (int i = 0; i < hosts.length; i++) {
-            for (int j = 0; j < hosts[i].contextList.contexts.length; j++) {
-                String cname = hosts[i].contextList.contexts[j].name;
+            List<Context> contexts = hosts[i].contextList.trie.values();
+            for (int j = 0; j < contexts.size(); j++) {
+                String cname = contexts.get(j).name;
                 list.add("//" + hosts[i].name
                         + (cname.startsWith("/") ? cname : "/"));
             }
@@ -374,15 +360,11 @@ public final class Mapper {
         }
         Host host = hosts[pos];
         if (host.name.equals(hostName)) {
-            Context[] contexts = host.contextList.contexts;
-            int pos2 = find(contexts, contextPath);
-            if( pos2<0 ) {
+            Context context = host.contextList.trie.get(contextPath);
+            if (context == null) {
                 throw new IllegalStateException("No context found: " + contextPath );
             }
-            Context context = contexts[pos2];
-            if (context.name.equals(contextPath)) {
-                addWrapper(context, path, wrapper, jspWildCard);
-            }
+            addWrapper(context, path, wrapper, jspWildCard);
         }
     }
 
@@ -426,25 +408,13 @@ public final class Mapper {
             if (path.endsWith("/*")) {
                 // Wildcard wrapper
                 newWrapper.name = path.substring(0, path.length() - 2);
-                Wrapper[] oldWrappers = context.wildcardWrappers;
-                Wrapper[] newWrappers =
-                    new Wrapper[oldWrappers.length + 1];
-                if (insertMap(oldWrappers, newWrappers, newWrapper)) {
-                    context.wildcardWrappers = newWrappers;
-                    int slashCount = slashCount(newWrapper.name);
-                    if (slashCount > context.nesting) {
-                        context.nesting = slashCount;
-                    }
-                }
+                context.wildcardTrie =
+                    putIfAbsent(context.wildcardTrie, newWrapper);
             } else if (path.startsWith("*.")) {
                 // Extension wrapper
                 newWrapper.name = path.substring(2);
-                Wrapper[] oldWrappers = context.extensionWrappers;
-                Wrapper[] newWrappers =
-                    new Wrapper[oldWrappers.length + 1];
-                if (insertMap(oldWrappers, newWrappers, newWrapper)) {
-                    context.extensionWrappers = newWrappers;
-                }
+                context.extensionTrie =
+                    putIfAbsent(context.extensionTrie, newWrapper);
             } else if (path.equals("/")) {
                 // Default wrapper
                 newWrapper.name = "";
@@ -456,12 +426,8 @@ public final class Mapper {
             } else {
                 // Exact wrapper
                 newWrapper.name = path;
-                Wrapper[] oldWrappers = context.exactWrappers;
-                Wrapper[] newWrappers =
-                    new Wrapper[oldWrappers.length + 1];
-                if (insertMap(oldWrappers, newWrappers, newWrapper)) {
-                    context.exactWrappers = newWrappers;
-                }
+                context.exactTrie =
+                    putIfAbsent(context.exactTrie, newWrapper);
             }
         }
     }
@@ -493,13 +459,8 @@ public final class Mapper {
         }
         Host host = hosts[pos];
         if (host.name.equals(hostName)) {
-            Context[] contexts = host.contextList.contexts;
-            int pos2 = find(contexts, contextPath);
-            if (pos2 < 0) {
-                return;
-            }
-            Context context = contexts[pos2];
-            if (context.name.equals(contextPath)) {
+            Context context = host.contextList.trie.get(contextPath);
+            if (context != null) {
                 removeWrapper(context, path);
             }
         }
@@ -510,29 +471,11 @@ public final class Mapper {
             if (path.endsWith("/*")) {
                 // Wildcard wrapper
                 String name = path.substring(0, path.length() - 2);
-                Wrapper[] oldWrappers = context.wildcardWrappers;
-                Wrapper[] newWrappers =
-                    new Wrapper[oldWrappers.length - 1];
-                if (removeMap(oldWrappers, newWrappers, name)) {
-                    // Recalculate nesting
-                    context.nesting = 0;
-                    for (int i = 0; i < newWrappers.length; i++) {
-                        int slashCount = slashCount(newWrappers[i].name);
-                        if (slashCount > context.nesting) {
-                            context.nesting = slashCount;
-                        }
-                    }
-                    context.wildcardWrappers = newWrappers;
-                }
+                context.wildcardTrie = context.wildcardTrie.remove(name);
             } else if (path.startsWith("*.")) {
                 // Extension wrapper
                 String name = path.substring(2);
-                Wrapper[] oldWrappers = context.extensionWrappers;
-                Wrapper[] newWrappers =
-                    new Wrapper[oldWrappers.length - 1];
-                if (removeMap(oldWrappers, newWrappers, name)) {
-                    context.extensionWrappers = newWrappers;
-                }
+                context.extensionTrie = context.extensionTrie.remove(name);
             } else if (path.equals("/")) {
                 // Default wrapper
                 context.defaultWrapper = null;
@@ -541,13 +484,7 @@ public final class Mapper {
                 context.rootWrapper = null;
             } else {
                 // Exact wrapper
-                String name = path;
-                Wrapper[] oldWrappers = context.exactWrappers;
-                Wrapper[] newWrappers =
-                    new Wrapper[oldWrappers.length - 1];
-                if (removeMap(oldWrappers, newWrappers, name)) {
-                    context.exactWrappers = newWrappers;
-                }
+                context.exactTrie = context.exactTrie.remove(path);
             }
         }
     }
@@ -570,21 +507,22 @@ public final class Mapper {
         for (int i = 0; i < hosts.length; i++) {
             if (!host.equals(hosts[i].name))
                 continue;
-            for (int j = 0; j < hosts[i].contextList.contexts.length; j++) {
-                if (!context.equals(hosts[i].contextList.contexts[j].name))
-                    continue;
-                // found the context
-                Context ctx = hosts[i].contextList.contexts[j];
-                list.add(ctx.defaultWrapper.name);
-                for (int k = 0; k < ctx.exactWrappers.length; k++) {
-                    list.add(ctx.exactWrappers[k].name);
-                }
-                for (int k = 0; k < ctx.wildcardWrappers.length; k++) {
-                    list.add(ctx.wildcardWrappers[k].name + "*");
-                }
-                for (int k = 0; k < ctx.extensionWrappers.length; k++) {
-                    list.add("*." + ctx.extensionWrappers[k].name);
-                }
+            Context ctx = hosts[i].contextList.trie.get(context);
+            if (ctx == null)
+                continue;
+            // found the context
+            list.add(ctx.defaultWrapper.name);
+            List<Wrapper> wrappers = ctx.exactTrie.values();
+            for (int k = 0; k < wrappers.size(); k++) {
+                list.add(wrappers.get(k).name);
+            }
+            wrappers = ctx.wildcardTrie.values();
+            for (int k = 0; k < wrappers.size(); k++) {
+                list.add(wrappers.get(k).name + "*");
+            }
+            wrappers = ctx.extensionTrie.values();
+            for (int k = 0; k < wrappers.size(); k++) {
+                list.add("*." + wrappers.get(k).name);
             }
         }
         return list.toArray(new String[list.size()]);
@@ -652,6 +590,19 @@ public final class Mapper {
     // -------------------------------------------------------- Private Methods
 
 
+    /**
+     * Rebuild the host trie after a change of the hosts array.
+     */
+    private void updateHostTrie() {
+        PathTrie<Host> trie = PathTrie.empty();
+        Host[] hosts = this.hosts;
+        for (int i = hosts.length - 1; i >= 0; i--) {
+            trie = trie.put(PathTrie.toLowerCase(hosts[i].name), hosts[i]);
+        }
+        hostTrie = trie;
+    }
+
+
     /**
      * Map the specified URI.
      */
@@ -661,48 +612,41 @@ public final class Mapper {
 
         uri.setLimit(-1);
 
-        Context[] contexts = null;
+        PathTrie<Context> contexts = null;
         Host mappedHost = null;
         Context context = null;
-        int nesting = 0;
 
         // Virtual host mapping
         if (mappingData.host == null) {
-            Host[] hosts = this.hosts;
-            int pos = findIgnoreCase(hosts, host);
-            if ((pos != -1) && (host.equalsIgnoreCase(hosts[pos].name))) {
-                mappedHost = hosts[pos];
-                mappingData.host = mappedHost.object;
-                contexts = mappedHost.contextList.contexts;
-                nesting = mappedHost.contextList.nesting;
-            } else {
+            mappedHost = hostTrie.getIgnoreCase(host.getBuffer(),
+                    host.getStart(), host.getEnd());
+            if (mappedHost == null) {
                 if (defaultHostName == null) {
                     return;
                 }
-                pos = find(hosts, defaultHostName);
+                Host[] hosts = this.hosts;
+                int pos = find(hosts, defaultHostName);
                 if ((pos != -1) && (defaultHostName.equals(hosts[pos].name))) {
                     mappedHost = hosts[pos];
-                    mappingData.host = mappedHost.object;
-                    contexts = mappedHost.contextList.contexts;
-                    nesting = mappedHost.contextList.nesting;
                 } else {
                     return;
                 }
             }
+            mappingData.host = mappedHost.object;
+            contexts = mappedHost.contextList.trie;
         }
 
         // Context mapping
         if (mappingData.context == null) {
-            context = findContext(uri, contexts, nesting);
+            context = findContext(uri, contexts);
             if (context != null) {
                 if (context.object == null) {
                     notifyLazyLoadContextMappingListeners(mappedHost, context);
                     // See if the notification resulted in deploying the context
                     // First reestablish refs to the host fields as adding
                     // the real context will have changed them
-                    contexts = mappedHost.contextList.contexts;
-                    nesting = mappedHost.contextList.nesting;
-                    context = findContext(uri, contexts, nesting);
+                    contexts = mappedHost.contextList.trie;
+                    context = findContext(uri, contexts);
                     if (context != null && context.object == null) {
                         // notification did not result in deployment 
                         // don't map to the unloaded context
@@ -737,47 +681,11 @@ public final class Mapper {
     }
 
 
-    private Context findContext(CharChunk uri, Context[] contexts, int nesting) {
-        int pos = find(contexts, uri);
-        if (pos == -1) {
+    private Context findContext(CharChunk uri, PathTrie<Context> contexts) {
+        if (contexts == null) {
             return null;
         }
-
-        Context foundContext = null;
-
-        int lastSlash = -1;
-        int uriEnd = uri.getEnd();
-        int length = -1;
-        boolean found = false;
-        while (pos >= 0) {
-            if (uri.startsWith(contexts[pos].name)) {
-                length = contexts[pos].name.length();
-                if (uri.getLength() == length) {
-                    found = true;
-                    break;
-                } else if (uri.startsWithIgnoreCase("/", length)) {
-                    found = true;
-                    break;
-                }
-            }
-            if (lastSlash == -1) {
-                lastSlash = nthSlash(uri, nesting + 1);
-            } else {
-                lastSlash = lastSlash(uri);
-            }
-            uri.setEnd(lastSlash);
-            pos = find(contexts, uri);
-        }
-        uri.setEnd(uriEnd);
-
-        if (!found) {
-            if (contexts[0].name.equals("")) {
-                foundContext = contexts[0];
-            }
-        } else {
-            foundContext = contexts[pos];
-        }
-        return foundContext;
+        return contexts.match(uri.getBuffer(), uri.getStart(), uri.getEnd());
     }
 
 
@@ -807,7 +715,7 @@ public final class Mapper {
         path.setOffset(servletPath);
 
         // Rule 1 -- Exact Match
-        Wrapper[] exactWrappers = context.exactWrappers;
+        PathTrie<Wrapper> exactWrappers = context.exactTrie;
         if (!noServletPath && (pathEnd - servletPath) == 1 && context.rootWrapper != null) {
             mappingData.requestPath.setString("/");
             mappingData.wrapperPath.setString("");
@@ -819,10 +727,9 @@ public final class Mapper {
 
         // Rule 2 -- Prefix Match
         boolean checkJspWelcomeFiles = false;
-        Wrapper[] wildcardWrappers = context.wildcardWrappers;
+        PathTrie<Wrapper> wildcardWrappers = context.wildcardTrie;
         if (mappingData.wrapper == null) {
-            internalMapWildcardWrapper(wildcardWrappers, context.nesting, 
-                                       path, mappingData);
+            internalMapWildcardWrapper(wildcardWrappers, path, mappingData);
             if (mappingData.wrapper != null && mappingData.jspWildCard) {
                 char[] buf = path.getBuffer();
                 if (buf[pathEnd - 1] == '/') {
@@ -854,7 +761,7 @@ public final class Mapper {
         }
 
         // Rule 3 -- Extension Match
-        Wrapper[] extensionWrappers = context.extensionWrappers;
+        PathTrie<Wrapper> extensionWrappers = context.extensionTrie;
         if (mappingData.wrapper == null && !checkJspWelcomeFiles) {
             internalMapExtensionWrapper(extensionWrappers, path, mappingData);
         }
@@ -881,8 +788,7 @@ public final class Mapper {
                     // Rule 4b -- Welcome resources processing for prefix match
                     if (mappingData.wrapper == null) {
                         internalMapWildcardWrapper
-                            (wildcardWrappers, context.nesting, 
-                             path, mappingData);
+                            (wildcardWrappers, path, mappingData);
                     }
 
                     // Rule 4c -- Welcome resources processing
@@ -966,12 +872,13 @@ public final class Mapper {
      * Exact mapping.
      */
     private final void internalMapExactWrapper
-        (Wrapper[] wrappers, CharChunk path, MappingData mappingData) {
-        int pos = find(wrappers, path);
-        if ((pos != -1) && (path.equals(wrappers[pos].name))) {
-            mappingData.requestPath.setString(wrappers[pos].name);
-            mappingData.wrapperPath.setString(wrappers[pos].name);
-            mappingData.wrapper = wrappers[pos].object;
+        (PathTrie<Wrapper> wrappers, CharChunk path, MappingData mappingData) {
+        Wrapper wrapper =
+            wrappers.get(path.getBuffer(), path.getStart(), path.getEnd());
+        if (wrapper != null) {
+            mappingData.requestPath.setString(wrapper.name);
+            mappingData.wrapperPath.setString(wrapper.name);
+            mappingData.wrapper = wrapper.object;
         }
     }
 
@@ -980,49 +887,23 @@ public final class Mapper {
      * Wildcard mapping.
      */
     private final void internalMapWildcardWrapper
-        (Wrapper[] wrappers, int nesting, CharChunk path, 
-         MappingData mappingData) {
-
-        int pathEnd = path.getEnd();
-
-        int lastSlash = -1;
-        int length = -1;
-        int pos = find(wrappers, path);
-        if (pos != -1) {
-            boolean found = false;
-            while (pos >= 0) {
-                if (path.startsWith(wrappers[pos].name)) {
-                    length = wrappers[pos].name.length();
-                    if (path.getLength() == length) {
-                        found = true;
-                        break;
-                    } else if (path.startsWithIgnoreCase("/", length)) {
-                        found = true;
-                        break;
-                    }
-                }
-                if (lastSlash == -1) {
-                    lastSlash = nthSlash(path, nesting + 1);
-                } else {
-                    lastSlash = lastSlash(path);
-                }
-                path.setEnd(lastSlash);
-                pos = find(wrappers, path);
-            }
-            path.setEnd(pathEnd);
-            if (found) {
-                mappingData.wrapperPath.setString(wrappers[pos].name);
-                if (path.getLength() > length) {
-                    mappingData.pathInfo.setChars
-                        (path.getBuffer(),
-                         path.getOffset() + length,
-                         path.getLength() - length);
-                }
-                mappingData.requestPath.setChars
-                    (path.getBuffer(), path.getOffset(), path.getLength());
-                mappingData.wrapper = wrappers[pos].object;
-                mappingData.jspWildCard = wrappers[pos].jspWildCard;
+        (PathTrie<Wrapper> wrappers, CharChunk path, MappingData mappingData) {
+
+        Wrapper wrapper =
+            wrappers.match(path.getBuffer(), path.getStart(), path.getEnd());
+        if (wrapper != null) {
+            int length = wrapper.name.length();
+            mappingData.wrapperPath.setString(wrapper.name);
+            if (path.getLength() > length) {
+                mappingData.pathInfo.setChars
+                    (path.getBuffer(),
+                     path.getOffset() + length,
+                     path.getLength() - length);
             }
+            mappingData.requestPath.setChars
+                (path.getBuffer(), path.getOffset(), path.getLength());
+            mappingData.wrapper = wrapper.object;
+            mappingData.jspWildCard = wrapper.jspWildCard;
         }
     }
 
@@ -1031,7 +912,7 @@ public final class Mapper {
      * Extension mappings.
      */
     private final void internalMapExtensionWrapper
-        (Wrapper[] wrappers, CharChunk path, MappingData mappingData) {
+        (PathTrie<Wrapper> wrappers, CharChunk path, MappingData mappingData) {
         char[] buf = path.getBuffer();
         int pathEnd = path.getEnd();
         int servletPath = path.getOffset();
@@ -1051,133 +932,16 @@ public final class Mapper {
                 }
             }
             if (period >= 0) {
-                path.setOffset(period + 1);
-                path.setEnd(pathEnd);
-                int pos = find(wrappers, path);
-                if ((pos != -1)
-                    && (path.equals(wrappers[pos].name))) {
+                Wrapper wrapper = wrappers.get(buf, period + 1, pathEnd);
+                if (wrapper != null) {
                     mappingData.wrapperPath.setChars
                         (buf, servletPath, pathEnd - servletPath);
                     mappingData.requestPath.setChars
                         (buf, servletPath, pathEnd - servletPath);
-                    mappingData.wrapper = wrappers[pos].object;
-                }
-                path.setOffset(servletPath);
-                path.setEnd(pathEnd);
-            }
-        }
-    }
-
-
-    /**
-     * Find a map elemnt given its name in a sorted array of map elements.
-     * This will return the index for the closest inferior or equal item in the
-     * given array.
-     */
-    private static final int find(MapElement[] map, CharChunk name) {
-        return find(map, name, name.getStart(), name.getEnd());
-    }
-
-
-    /**
-     * Find a map element given its name in a sorted array of map elements.
-     * This will return the index for the closest inferior or equal item in the
-     * given array.
-     */
-    private static final int find(MapElement[] map, CharChunk name,
-                                  int start, int end) {
-
-        int a = 0;
-        int b = map.length - 1;
-
-        // Special cases: -1 and 0
-        if (b == -1) {
-            return -1;
-        }
-        
-        if (compare(name, start, end, map[0].name) < 0 ) {
-            return -1;
-        }         
-        if (b == 0) {
-            return 0;
-        }
-
-        int i = 0;
-        while (true) {
-            i = (b + a) / 2;
-            int result = compare(name, start, end, map[i].name);
-            if (result == 1) {
-                a = i;
-            } else if (result == 0) {
-                return i;
-            } else {
-                b = i;
-            }
-            if ((b - a) == 1) {
-                int result2 = compare(name, start, end, map[b].name);
-                if (result2 < 0) {
-                    return a;
-                } else {
-                    return b;
+                    mappingData.wrapper = wrapper.object;
                 }
             }
         }
-
-    }
-
-    /**
-     * Find a map elemnt given its name in a sorted array of map elements.
-     * This will return the index for the closest inferior or equal item in the
-     * given array.
-     */
-    private static final int findIgnoreCase(MapElement[] map, CharChunk name) {
-        return findIgnoreCase(map, name, name.getStart(), name.getEnd());
-    }
-
-
-    /**
-     * Find a map elemnt given its name in a sorted array of map elements.
-     * This will return the index for the closest inferior or equal item in the
-     * given array.
-     */
-    private static final int findIgnoreCase(MapElement[] map, CharChunk name,
-                                  int start, int end) {
-
-        int a = 0;
-        int b = map.length - 1;
-
-        // Special cases: -1 and 0
-        if (b == -1) {
-            return -1;
-        }
-        if (compareIgnoreCase(name, start, end, map[0].name) < 0 ) {
-            return -1;
-        }         
-        if (b == 0) {
-            return 0;
-        }
-
-        int i = 0;
-        while (true) {
-            i = (b + a) / 2;
-            int result = compareIgnoreCase(name, start, end, map[i].name);
-            if (result == 1) {
-                a = i;
-            } else if (result == 0) {
-                return i;
-            } else {
-                b = i;
-            }
-            if ((b - a) == 1) {
-                int result2 = compareIgnoreCase(name, start, end, map[b].name);
-                if (result2 < 0) {
-                    return a;
-                } else {
-                    return b;
-                }
-            }
-        }
-
     }
 
 
@@ -1227,123 +991,6 @@ public final class Mapper {
     }
 
 
-    /**
-     * Compare given char chunk with String.
-     * Return -1, 0 or +1 if inferior, equal, or superior to the String.
-     */
-    private static final int compare(CharChunk name, int start, int end,
-                                     String compareTo) {
-        int result = 0;
-        char[] c = name.getBuffer();
-        int len = compareTo.length();
-        if ((end - start) < len) {
-            len = end - start;
-        }
-        for (int i = 0; (i < len) && (result == 0); i++) {
-            if (c[i + start] > compareTo.charAt(i)) {
-                result = 1;
-            } else if (c[i + start] < compareTo.charAt(i)) {
-                result = -1;
-            }
-        }
-        if (result == 0) {
-            if (compareTo.length() > (end - start)) {
-                result = -1;
-            } else if (compareTo.length() < (end - start)) {
-                result = 1;
-            }
-        }
-        return result;
-    }
-
-
-    /**
-     * Compare given char chunk with String ignoring case.
-     * Return -1, 0 or +1 if inferior, equal, or superior to the String.
-     */
-    private static final int compareIgnoreCase(CharChunk name, int start, int end,
-                                     String compareTo) {
-        int result = 0;
-        char[] c = name.getBuffer();
-        int len = compareTo.length();
-        if ((end - start) < len) {
-            len = end - start;
-        }
-        for (int i = 0; (i < len) && (result == 0); i++) {
-            if (Ascii.toLower(c[i + start]) > Ascii.toLower(compareTo.charAt(i))) {
-                result = 1;
-            } else if (Ascii.toLower(c[i + start]) < Ascii.toLower(compareTo.charAt(i))) {
-                result = -1;
-            }
-        }
-        if (result == 0) {
-            if (compareTo.length() > (end - start)) {
-                result = -1;
-            } else if (compareTo.length() < (end - start)) {
-                result = 1;
-            }
-        }
-        return result;
-    }
-
-
-    /**
-     * Find the position of the last slash in the given char chunk.
-     */
-    private static final int lastSlash(CharChunk name) {
-
-        char[] c = name.getBuffer();
-        int end = name.getEnd();
-        int start = name.getStart();
-        int pos = end;
-
-        while (pos > start) {
-            if (c[--pos] == '/') {
-                break;
-            }
-        }
-
-        return (pos);
-
-    }
-
-
-    /**
-     * Find the position of the nth slash, in the given char chunk.
-     */
-    private static final int nthSlash(CharChunk name, int n) {
-
-        char[] c = name.getBuffer();
-        int end = name.getEnd();
-        int start = name.getStart();
-        int pos = start;
-        int count = 0;
-
-        while (pos < end) {
-            if ((c[pos++] == '/') && ((++count) == n)) {
-                pos--;
-                break;
-            }
-        }
-
-        return (pos);
-
-    }
-
-
-    /**
-     * Return the slash count in a given string.
-     */
-    private static final int slashCount(String name) {
-        int pos = -1;
-        int count = 0;
-        while ((pos = name.indexOf('/', pos + 1)) != -1) {
-            count++;
-        }
-        return count;
-    }
-
-
     /**
      * Insert into the right place in a sorted MapElement array, and prevent
      * duplicates.
@@ -1378,23 +1025,15 @@ public final class Mapper {
     }
 
 
-    private static final boolean insertLazyLoadedContext(Context[] oldMap, Context[] newMap, Context newElement) {
-        int pos = find(oldMap, newElement.name);
-        if ((pos != -1) && (newElement.name.equals(oldMap[pos].name))) {
-            if (oldMap[pos].object != null || newElement.object == null) {
-                return false;
-            } else {
-                // We're going to replace the old context in the map, but mark
-                // it as replaced so anyone with a ref to it knows to look again
-                oldMap[pos].replaced = true;
-                System.arraycopy(oldMap, 0, newMap, 0, oldMap.length);
-                newMap[pos] = newElement;
-                return true;
-            }
+    /**
+     * Add a wrapper to a wrapper trie, and prevent duplicates.
+     */
+    private static final PathTrie<Wrapper> putIfAbsent
+        (PathTrie<Wrapper> wrappers, Wrapper newWrapper) {
+        if (wrappers.get(newWrapper.name) != null) {
+            return wrappers;
         }
-
-        return false;
-
+        return wrappers.put(newWrapper.name, newWrapper);
     }
 
 
@@ -1425,8 +1064,7 @@ public final class Mapper {
 
     protected static final class ContextList {
 
-        public Context[] contexts = new Context[0];
-        public int nesting = 0;
+        public volatile PathTrie<Context> trie = PathTrie.empty();
 
     }
 
@@ -1441,10 +1079,9 @@ public final class Mapper {
         public javax.naming.Context resources = null;
         public Wrapper defaultWrapper = null;
         public Wrapper rootWrapper = null;
-        public Wrapper[] exactWrappers = new Wrapper[0];
-        public Wrapper[] wildcardWrappers = new Wrapper[0];
-        public Wrapper[] extensionWrappers = new Wrapper[0];
-        public int nesting = 0;
+        public volatile PathTrie<Wrapper> exactTrie = PathTrie.empty();
+        public volatile PathTrie<Wrapper> wildcardTrie = PathTrie.empty();
+        public volatile PathTrie<Wrapper> extensionTrie = PathTrie.empty();
         private volatile boolean replaced = false;
 
     }
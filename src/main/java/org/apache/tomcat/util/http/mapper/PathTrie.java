@@ -0,0 +1,299 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.tomcat.util.http.mapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable character trie used by the mapper. Updates return a new trie
+ * which shares all the nodes which are not on the path of the modified key,
+ * so that a writer can publish a new version with a single reference
+ * assignment while readers keep using the previous one without locking.
+ * Lookups are done directly on the char buffer of the request URI and
+ * take a time proportional to the length of the path.
+ */
+public final class PathTrie<T> {
+
+
+    private static final char[] NO_KEYS = new char[0];
+    @SuppressWarnings("rawtypes")
+    private static final PathTrie[] NO_CHILDREN = new PathTrie[0];
+    @SuppressWarnings("rawtypes")
+    private static final PathTrie EMPTY = new PathTrie();
+
+
+    private final char[] keys;
+    private final PathTrie<T>[] children;
+    private final T value;
+
+
+    @SuppressWarnings("unchecked")
+    private PathTrie() {
+        this(NO_KEYS, NO_CHILDREN, null);
+    }
+
+
+    private PathTrie(char[] keys, PathTrie<T>[] children, T value) {
+        this.keys = keys;
+        this.children = children;
+        this.value = value;
+    }
+
+
+    /**
+     * Return the empty trie.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> PathTrie<T> empty() {
+        return EMPTY;
+    }
+
+
+    /**
+     * Return a lower case copy of the given key, suitable for
+     * {@link #getIgnoreCase(char[], int, int)}.
+     */
+    public static String toLowerCase(String key) {
+        char[] c = key.toCharArray();
+        for (int i = 0; i < c.length; i++) {
+            c[i] = toLower(c[i]);
+        }
+        return new String(c);
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Return a trie containing the mappings of this trie and the given one,
+     * replacing the previous value of the key if any.
+     *
+     * @param key The key
+     * @param value The value, which cannot be null
+     */
+    public PathTrie<T> put(String key, T value) {
+        return put(key, 0, value);
+    }
+
+
+    /**
+     * Return a trie containing the mappings of this trie except the given
+     * key.
+     *
+     * @param key The key
+     */
+    public PathTrie<T> remove(String key) {
+        PathTrie<T> trie = remove(key, 0);
+        if (trie == null) {
+            return empty();
+        }
+        return trie;
+    }
+
+
+    /**
+     * Exact match.
+     *
+     * @return the value associated with the given key, or null
+     */
+    public T get(String key) {
+        PathTrie<T> node = this;
+        for (int i = 0; i < key.length(); i++) {
+            node = node.child(key.charAt(i));
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.value;
+    }
+
+
+    /**
+     * Exact match.
+     *
+     * @return the value associated with the given chars, or null
+     */
+    public T get(char[] buf, int start, int end) {
+        PathTrie<T> node = this;
+        for (int i = start; i < end; i++) {
+            node = node.child(buf[i]);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.value;
+    }
+
+
+    /**
+     * Exact match, ignoring case. The keys must have been added using
+     * {@link #toLowerCase(String)}.
+     *
+     * @return the value associated with the given chars, or null
+     */
+    public T getIgnoreCase(char[] buf, int start, int end) {
+        PathTrie<T> node = this;
+        for (int i = start; i < end; i++) {
+            node = node.child(toLower(buf[i]));
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.value;
+    }
+
+
+    /**
+     * Longest prefix match: find the longest key which is a prefix of the
+     * given chars, and is either equal to them or followed by a '/'.
+     *
+     * @return the value associated with the matched key, or null
+     */
+    public T match(char[] buf, int start, int end) {
+        T result = null;
+        PathTrie<T> node = this;
+        int i = start;
+        while (true) {
+            if (node.value != null && (i == end || buf[i] == '/')) {
+                result = node.value;
+            }
+            if (i == end) {
+                break;
+            }
+            node = node.child(buf[i++]);
+            if (node == null) {
+                break;
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Return the values of this trie, sorted by key.
+     */
+    public List<T> values() {
+        List<T> values = new ArrayList<T>();
+        collect(values);
+        return values;
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    private void collect(List<T> values) {
+        if (value != null) {
+            values.add(value);
+        }
+        for (int i = 0; i < children.length; i++) {
+            children[i].collect(values);
+        }
+    }
+
+
+    private static char toLower(char c) {
+        return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+    }
+
+
+    private PathTrie<T> child(char c) {
+        char[] keys = this.keys;
+        // Most nodes only have a few children
+        if (keys.length < 8) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+        int pos = Arrays.binarySearch(keys, c);
+        return (pos >= 0) ? children[pos] : null;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private PathTrie<T> put(String key, int i, T value) {
+        if (i == key.length()) {
+            return new PathTrie<T>(keys, children, value);
+        }
+        char c = key.charAt(i);
+        int pos = Arrays.binarySearch(keys, c);
+        if (pos >= 0) {
+            PathTrie<T>[] newChildren = children.clone();
+            newChildren[pos] = children[pos].put(key, i + 1, value);
+            return new PathTrie<T>(keys, newChildren, this.value);
+        }
+        pos = -pos - 1;
+        char[] newKeys = new char[keys.length + 1];
+        PathTrie<T>[] newChildren = new PathTrie[children.length + 1];
+        System.arraycopy(keys, 0, newKeys, 0, pos);
+        System.arraycopy(children, 0, newChildren, 0, pos);
+        newKeys[pos] = c;
+        newChildren[pos] = PathTrie.<T>empty().put(key, i + 1, value);
+        System.arraycopy(keys, pos, newKeys, pos + 1, keys.length - pos);
+        System.arraycopy(children, pos, newChildren, pos + 1,
+                         children.length - pos);
+        return new PathTrie<T>(newKeys, newChildren, this.value);
+    }
+
+
+    /**
+     * @return the new node, or null if the node became empty
+     */
+    @SuppressWarnings("unchecked")
+    private PathTrie<T> remove(String key, int i) {
+        if (i == key.length()) {
+            if (value == null) {
+                return this;
+            }
+            return (keys.length == 0) ? null
+                    : new PathTrie<T>(keys, children, null);
+        }
+        int pos = Arrays.binarySearch(keys, key.charAt(i));
+        if (pos < 0) {
+            return this;
+        }
+        PathTrie<T> child = children[pos].remove(key, i + 1);
+        if (child == children[pos]) {
+            return this;
+        }
+        if (child != null) {
+            PathTrie<T>[] newChildren = children.clone();
+            newChildren[pos] = child;
+            return new PathTrie<T>(keys, newChildren, value);
+        }
+        if (keys.length == 1 && value == null) {
+            return null;
+        }
+        char[] newKeys = new char[keys.length - 1];
+        PathTrie<T>[] newChildren = new PathTrie[children.length - 1];
+        System.arraycopy(keys, 0, newKeys, 0, pos);
+        System.arraycopy(children, 0, newChildren, 0, pos);
+        System.arraycopy(keys, pos + 1, newKeys, pos, keys.length - pos - 1);
+        System.arraycopy(children, pos + 1, newChildren, pos,
+                         children.length - pos - 1);
+        return new PathTrie<T>(newKeys, newChildren, value);
+    }
+
+
+}
@@ -89,6 +89,13 @@ public abstract class AbstractEndpoint {
 	 * External Executor based thread pool.
 	 */
 	protected Executor executor = null;
+
+	/**
+	 * Run the processing on virtual threads, when no executor is set and if
+	 * the JVM supports them.
+	 */
+	protected boolean useVirtualThreads = false;
+
 	/**
 	 * Maximum amount of worker threads.
 	 */
@@ -471,6 +478,28 @@ public abstract class AbstractEndpoint {
 		this.executor = executor;
 	}
 
+	/**
+	 * Getter for useVirtualThreads
+	 * 
+	 * @return the useVirtualThreads
+	 */
+	public boolean getUseVirtualThreads() {
+		return this.useVirtualThreads;
+	}
+
+	/**
+	 * Setter for the useVirtualThreads
+	 * 
+	 * @param useVirtualThreads
+	 *            the useVirtualThreads to set
+	 */
+	public void setUseVirtualThreads(boolean useVirtualThreads) {
+		this.useVirtualThreads = useVirtualThreads;
+		if (useVirtualThreads) {
+			VirtualThreads.enable();
+		}
+	}
+
 	/**
 	 * Getter for maxThreads
 	 * 
@@ -28,6 +28,7 @@ import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.tomcat.jni.Address;
 import org.apache.tomcat.jni.Error;
@@ -138,6 +139,21 @@ public class AprEndpoint {
     public Executor getExecutor() { return executor; }
 
 
+    /**
+     * Run the processing on virtual threads, when no executor is set and if
+     * the JVM supports them.
+     */
+    protected boolean useVirtualThreads = false;
+    protected boolean internalExecutor = false;
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        this.useVirtualThreads = useVirtualThreads;
+        if (useVirtualThreads) {
+            VirtualThreads.enable();
+        }
+    }
+    public boolean getUseVirtualThreads() { return useVirtualThreads; }
+
+
     /**
      * Maximum amount of worker threads.
      */
@@ -674,6 +690,10 @@ public class AprEndpoint {
             paused = false;
 
             // Create worker collection
+            if (executor == null && useVirtualThreads) {
+                executor = VirtualThreads.newExecutor(getName() + "-exec-");
+                internalExecutor = (executor != null);
+            }
             if (executor == null) {
                 workers = new WorkerStack(maxThreads);
             }
@@ -751,6 +771,11 @@ public class AprEndpoint {
                 sendfile.destroy();
                 sendfile = null;
             }
+            if (internalExecutor) {
+                ((ExecutorService) executor).shutdown();
+                executor = null;
+                internalExecutor = false;
+            }
         }
     }
 
@@ -0,0 +1,246 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.apache.tomcat.util.net;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@code ByteBufferPool}
+ *
+ * <p>
+ * Bounded pool of direct byte buffers, organized in size classes. There are
+ * four classes for each power of two between the minimum and the maximum
+ * size, so that a buffer never wastes more than a quarter of its capacity.
+ * Channels borrow buffers only while an operation is in flight, and give them
+ * back once it completes. Requests larger than the maximum size, and buffers
+ * released while their class is full, are left to the garbage collector.
+ * </p>
+ */
+public class ByteBufferPool {
+
+	/**
+	 * Default smallest size class.
+	 */
+	public static final int DEFAULT_MIN_SIZE = 1024;
+
+	/**
+	 * Default largest size class.
+	 */
+	public static final int DEFAULT_MAX_SIZE = 128 * 1024;
+
+	/**
+	 * Default maximum number of idle buffers per size class.
+	 */
+	public static final int DEFAULT_MAX_POOLED = 256;
+
+	private final int[] sizes;
+	private final List<ConcurrentLinkedQueue<ByteBuffer>> queues;
+	private final AtomicInteger[] counts;
+	private final int maxPooled;
+
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+	private final AtomicInteger outstanding = new AtomicInteger(0);
+
+	/**
+	 * Create a new instance of {@code ByteBufferPool} with the default size
+	 * classes.
+	 *
+	 * @param maxPooled
+	 *            the maximum number of idle buffers kept for each size class
+	 */
+	public ByteBufferPool(int maxPooled) {
+		this(DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE, maxPooled);
+	}
+
+	/**
+	 * Create a new instance of {@code ByteBufferPool}
+	 *
+	 * @param minSize
+	 *            the smallest size class
+	 * @param maxSize
+	 *            the largest size class
+	 * @param maxPooled
+	 *            the maximum number of idle buffers kept for each size class
+	 */
+	public ByteBufferPool(int minSize, int maxSize, int maxPooled) {
+		if (minSize <= 0 || maxSize < minSize) {
+			throw new IllegalArgumentException("Invalid size classes " + minSize + "-" + maxSize);
+		}
+		this.maxPooled = maxPooled;
+
+		int[] classes = new int[64];
+		int n = 0;
+		int base = Integer.highestOneBit(minSize);
+		classes[n++] = minSize;
+		while (classes[n - 1] < maxSize && n < classes.length) {
+			int step = Math.max(base / 4, 1);
+			int size = classes[n - 1] + step;
+			// Round to the step of the power of two
+			size = (size / step) * step;
+			if (size >= base * 2) {
+				base *= 2;
+			}
+			classes[n++] = Math.min(size, maxSize);
+		}
+		this.sizes = Arrays.copyOf(classes, n);
+		this.queues = new ArrayList<ConcurrentLinkedQueue<ByteBuffer>>(n);
+		this.counts = new AtomicInteger[n];
+		for (int i = 0; i < n; i++) {
+			this.queues.add(new ConcurrentLinkedQueue<ByteBuffer>());
+			this.counts[i] = new AtomicInteger(0);
+		}
+	}
+
+	/**
+	 * Borrow a cleared direct buffer with at least the given capacity. The
+	 * buffer should be given back using {@link #release(ByteBuffer)}.
+	 *
+	 * @param size
+	 *            the minimum capacity
+	 * @return a direct buffer
+	 */
+	public ByteBuffer acquire(int size) {
+		outstanding.incrementAndGet();
+		int index = index(size);
+		if (index < 0) {
+			misses.incrementAndGet();
+			return ByteBuffer.allocateDirect(size);
+		}
+		ByteBuffer buffer = queues.get(index).poll();
+		if (buffer != null) {
+			counts[index].decrementAndGet();
+			hits.incrementAndGet();
+			buffer.clear();
+			return buffer;
+		}
+		misses.incrementAndGet();
+		return ByteBuffer.allocateDirect(sizes[index]);
+	}
+
+	/**
+	 * Give back a buffer obtained from {@link #acquire(int)}. The buffer must
+	 * not be used by the caller after this call.
+	 *
+	 * @param buffer
+	 *            the buffer, may be <tt>null</tt>
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer == null) {
+			return;
+		}
+		outstanding.decrementAndGet();
+		if (!buffer.isDirect()) {
+			return;
+		}
+		int index = Arrays.binarySearch(sizes, buffer.capacity());
+		if (index >= 0 && counts[index].incrementAndGet() <= maxPooled) {
+			queues.get(index).offer(buffer);
+		} else if (index >= 0) {
+			counts[index].decrementAndGet();
+		}
+	}
+
+	/**
+	 * Forget about a buffer obtained from {@link #acquire(int)} which cannot
+	 * be reused safely, for example because an I/O operation using it may
+	 * still be pending.
+	 *
+	 * @param buffer
+	 *            the buffer, may be <tt>null</tt>
+	 */
+	public void discard(ByteBuffer buffer) {
+		if (buffer != null) {
+			outstanding.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Drop all the idle buffers.
+	 */
+	public void clear() {
+		for (int i = 0; i < queues.size(); i++) {
+			while (queues.get(i).poll() != null) {
+				counts[i].decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * @param size
+	 * @return the index of the smallest size class which can hold the given
+	 *         size, or -1 if it is larger than the largest class
+	 */
+	private int index(int size) {
+		int index = Arrays.binarySearch(sizes, size);
+		if (index < 0) {
+			index = -index - 1;
+		}
+		return (index < sizes.length) ? index : -1;
+	}
+
+	/**
+	 * @return the number of requests served with a pooled buffer
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of requests which needed a new allocation
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of buffers currently borrowed
+	 */
+	public int getOutstanding() {
+		return outstanding.get();
+	}
+
+	/**
+	 * @return the number of idle buffers in the pool
+	 */
+	public int getPooled() {
+		int pooled = 0;
+		for (int i = 0; i < counts.length; i++) {
+			pooled += counts[i].get();
+		}
+		return pooled;
+	}
+
+	/**
+	 * @return the maximum number of idle buffers per size class
+	 */
+	public int getMaxPooled() {
+		return maxPooled;
+	}
+
+}
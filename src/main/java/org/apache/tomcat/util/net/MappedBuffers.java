@@ -0,0 +1,118 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.apache.tomcat.util.net;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * {@code MappedBuffers}
+ *
+ * <p>
+ * Unmaps the file regions mapped in memory as soon as they are no longer
+ * used, instead of waiting for the garbage collector to release them. The
+ * JDK methods are looked up by reflection: <tt>Unsafe.invokeCleaner</tt> on
+ * Java 9 and later, and the cleaner of the buffer before. If neither is
+ * available, the regions are left to the garbage collector.
+ * </p>
+ * <p>
+ * A buffer must not be accessed after it was unmapped, including by a
+ * pending asynchronous write.
+ * </p>
+ */
+public final class MappedBuffers {
+
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+	private static final Method CLEANER;
+	private static final Method CLEAN;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		Method cleaner = null;
+		Method clean = null;
+		ByteBuffer buffer = ByteBuffer.allocateDirect(1);
+		try {
+			Class<?> clazz = Class.forName("sun.misc.Unsafe");
+			Field theUnsafe = clazz.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			unsafe = theUnsafe.get(null);
+			invokeCleaner = clazz.getMethod("invokeCleaner", ByteBuffer.class);
+			invokeCleaner.invoke(unsafe, buffer);
+		} catch (Throwable t) {
+			unsafe = null;
+			invokeCleaner = null;
+			try {
+				cleaner = buffer.getClass().getMethod("cleaner");
+				cleaner.setAccessible(true);
+				clean = cleaner.getReturnType().getMethod("clean");
+				clean.setAccessible(true);
+				clean.invoke(cleaner.invoke(buffer));
+			} catch (Throwable t2) {
+				cleaner = null;
+				clean = null;
+			}
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+		CLEANER = cleaner;
+		CLEAN = clean;
+	}
+
+	private MappedBuffers() {
+	}
+
+	/**
+	 * @return <tt>true</tt> if the mapped buffers can be unmapped explicitly
+	 */
+	public static boolean isSupported() {
+		return INVOKE_CLEANER != null || CLEAN != null;
+	}
+
+	/**
+	 * Unmap the specified buffer, if it is a mapped file region.
+	 *
+	 * @param buffer
+	 *            the buffer, which is no longer used
+	 */
+	public static void unmap(ByteBuffer buffer) {
+		if (!(buffer instanceof MappedByteBuffer)) {
+			return;
+		}
+		try {
+			if (INVOKE_CLEANER != null) {
+				INVOKE_CLEANER.invoke(UNSAFE, buffer);
+			} else if (CLEAN != null) {
+				Object cleaner = CLEANER.invoke(buffer);
+				if (cleaner != null) {
+					CLEAN.invoke(cleaner);
+				}
+			}
+		} catch (Throwable t) {
+			// The region is released by the garbage collector
+		}
+	}
+
+}
@@ -191,6 +191,7 @@ public class NioChannel implements AsynchronousByteChannel, NetworkChannel {
 	protected AsynchronousSocketChannel channel;
 	private long id;
 	private ByteBuffer buffer;
+	protected ByteBufferPool bufferPool;
 
 	/**
 	 * Create a new instance of {@code NioChannel}
@@ -452,6 +453,62 @@ public class NioChannel implements AsynchronousByteChannel, NetworkChannel {
 		return this.buffer;
 	}
 
+	/**
+	 * Setter for the buffer pool used for the transient buffers of this
+	 * channel.
+	 * 
+	 * @param bufferPool
+	 *            the buffer pool, or <tt>null</tt> to allocate the buffers
+	 */
+	public void setBufferPool(ByteBufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * @return the buffer pool used for the transient buffers of this channel
+	 */
+	public ByteBufferPool getBufferPool() {
+		return this.bufferPool;
+	}
+
+	/**
+	 * Borrow a direct buffer with at least the given capacity from the buffer
+	 * pool, if any.
+	 * 
+	 * @param size
+	 *            the minimum capacity
+	 * @return a cleared direct buffer
+	 */
+	protected ByteBuffer acquireBuffer(int size) {
+		return (this.bufferPool != null) ? this.bufferPool.acquire(size) : ByteBuffer
+				.allocateDirect(size);
+	}
+
+	/**
+	 * Give back a buffer obtained from {@link #acquireBuffer(int)}.
+	 * 
+	 * @param buffer
+	 *            the buffer, may be <tt>null</tt>
+	 */
+	protected void releaseBuffer(ByteBuffer buffer) {
+		if (this.bufferPool != null) {
+			this.bufferPool.release(buffer);
+		}
+	}
+
+	/**
+	 * Forget about a buffer obtained from {@link #acquireBuffer(int)} which
+	 * may still be in use by a pending operation.
+	 * 
+	 * @param buffer
+	 *            the buffer, may be <tt>null</tt>
+	 */
+	protected void discardBuffer(ByteBuffer buffer) {
+		if (this.bufferPool != null) {
+			this.bufferPool.discard(buffer);
+		}
+	}
+
 	/**
 	 * @return the channel id
 	 */
@@ -1056,6 +1113,33 @@ public class NioChannel implements AsynchronousByteChannel, NetworkChannel {
 		this.channel.write(srcs, offset, length, timeout, unit, attachment, handler);
 	}
 
+	/**
+	 * Write a sequence of bytes from a subsequence of the given buffers in
+	 * blocking mode, using a single gathering write.
+	 * 
+	 * @param srcs
+	 *            The buffers from which bytes are to be retrieved
+	 * @param offset
+	 *            The offset within the buffer array of the first buffer
+	 * @param length
+	 *            The maximum number of buffers to be accessed
+	 * @param timeout
+	 *            the write timeout
+	 * @param unit
+	 *            the timeout unit
+	 * @return the number of bytes written, or a negative value if the
+	 *         channel is closed
+	 * @throws Exception
+	 * @see #write(ByteBuffer[], int, int, long, TimeUnit, Object,
+	 *      CompletionHandler)
+	 */
+	public long writeBytes(ByteBuffer[] srcs, int offset, int length, long timeout,
+			TimeUnit unit) throws Exception {
+		BlockingWriteHandler handler = new BlockingWriteHandler();
+		write(srcs, offset, length, timeout, unit, null, handler);
+		return handler.get();
+	}
+
 	/**
 	 * @return the local address
 	 * @throws IOException
@@ -1188,4 +1272,51 @@ public class NioChannel implements AsynchronousByteChannel, NetworkChannel {
 	public String toString() {
 		return getName();
 	}
+
+	/**
+	 * {@code BlockingWriteHandler}
+	 * <p>
+	 * Completion handler waiting for the end of a gathering write.
+	 * </p>
+	 */
+	private static class BlockingWriteHandler implements CompletionHandler<Long, Object> {
+		private boolean done;
+		private long result;
+		private Throwable error;
+
+		@Override
+		public synchronized void completed(Long nBytes, Object attachment) {
+			this.result = nBytes;
+			this.done = true;
+			notifyAll();
+		}
+
+		@Override
+		public synchronized void failed(Throwable exc, Object attachment) {
+			this.error = exc;
+			this.done = true;
+			notifyAll();
+		}
+
+		/**
+		 * Wait for the end of the write operation, which is bounded by the
+		 * timeout of the write.
+		 * 
+		 * @return the number of bytes written
+		 * @throws Exception
+		 */
+		public synchronized long get() throws Exception {
+			while (!this.done) {
+				wait();
+			}
+			if (this.error != null) {
+				if (this.error instanceof Exception) {
+					throw (Exception) this.error;
+				}
+				throw new ExecutionException(this.error);
+			}
+			return this.result;
+		}
+	}
+
 }
@@ -24,6 +24,7 @@ package org.apache.tomcat.util.net;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousChannelGroup;
@@ -32,6 +33,9 @@ import java.nio.channels.ClosedChannelException;
 import java.nio.channels.CompletionHandler;
 import java.nio.channels.WritePendingException;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
@@ -39,6 +43,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLHandshakeException;
@@ -61,6 +66,8 @@ import org.jboss.web.CoyoteLogger;
 public class NioEndpoint extends AbstractEndpoint {
 
 	private AsynchronousServerSocketChannel listener;
+	private AsynchronousServerSocketChannel[] listeners;
+	private AsynchronousChannelGroup[] channelGroups;
 	private ConcurrentHashMap<Long, NioChannel> connections;
 	private ConcurrentLinkedQueue<ChannelProcessor> recycledChannelProcessors;
 	private ConcurrentLinkedQueue<HandshakeHandler> recycledHandshakeProcessors;
@@ -90,6 +97,53 @@ public class NioEndpoint extends AbstractEndpoint {
 	 */
 	protected Sendfile sendfile;
 
+	/**
+	 * Pool of the transient direct buffers used by the channels.
+	 */
+	protected ByteBufferPool bufferPool;
+
+	/**
+	 * Maximum number of idle buffers kept in the pool for each size class.
+	 */
+	protected int bufferPoolSize = ByteBufferPool.DEFAULT_MAX_POOLED;
+
+	/**
+	 * Number of channel groups, each with its own listener and event loop
+	 * thread. With more than one, the listeners share the port with
+	 * <code>SO_REUSEPORT</code>, and the completions of a connection are
+	 * always handled by the event loop of the group which accepted it. Zero
+	 * or less means one group per available processor. With one group, the
+	 * completions are handled by the worker threads.
+	 */
+	protected int channelGroupCount = 1;
+
+	/**
+	 * Close the oldest idle keep-alive connection to admit a new one when
+	 * <code>maxConnections</code> is reached.
+	 */
+	protected boolean shedIdleConnections = true;
+
+	/**
+	 * Idle keep-alive channels, oldest first. This is also the monitor on
+	 * which the acceptors wait for a connection slot.
+	 */
+	private final LinkedHashMap<Long, NioChannel> idleChannels = new LinkedHashMap<>();
+
+	/**
+	 * Number of acceptors waiting for a connection slot.
+	 */
+	private volatile int acceptorsWaiting = 0;
+
+	/**
+	 * Number of connections closed because they were over the limit.
+	 */
+	private final AtomicLong rejectedConnectionCount = new AtomicLong();
+
+	/**
+	 * Number of idle keep-alive connections closed to admit new ones.
+	 */
+	private final AtomicLong shedConnectionCount = new AtomicLong();
+
 	/**
 	 * Create a new instance of {@code NioEndpoint}
 	 */
@@ -138,6 +192,133 @@ public class NioEndpoint extends AbstractEndpoint {
 		return curThreadsBusy;
 	}
 
+	/**
+	 * Getter for bufferPoolSize
+	 * 
+	 * @return the maximum number of idle buffers per size class
+	 */
+	public int getBufferPoolSize() {
+		return this.bufferPoolSize;
+	}
+
+	/**
+	 * Setter for the bufferPoolSize
+	 * 
+	 * @param bufferPoolSize
+	 *            the maximum number of idle buffers per size class
+	 */
+	public void setBufferPoolSize(int bufferPoolSize) {
+		this.bufferPoolSize = bufferPoolSize;
+	}
+
+	/**
+	 * Getter for channelGroupCount
+	 * 
+	 * @return the number of channel groups
+	 */
+	public int getChannelGroupCount() {
+		return this.channelGroupCount;
+	}
+
+	/**
+	 * Setter for the channelGroupCount
+	 * 
+	 * @param channelGroupCount
+	 *            the number of channel groups, or zero for one per available
+	 *            processor
+	 */
+	public void setChannelGroupCount(int channelGroupCount) {
+		this.channelGroupCount = channelGroupCount;
+	}
+
+	/**
+	 * Getter for shedIdleConnections
+	 * 
+	 * @return <tt>true</tt> if idle keep-alive connections are closed to admit
+	 *         new ones
+	 */
+	public boolean getShedIdleConnections() {
+		return this.shedIdleConnections;
+	}
+
+	/**
+	 * Setter for the shedIdleConnections
+	 * 
+	 * @param shedIdleConnections
+	 *            <tt>true</tt> to close the oldest idle keep-alive connection
+	 *            when a new connection arrives over the limit
+	 */
+	public void setShedIdleConnections(boolean shedIdleConnections) {
+		this.shedIdleConnections = shedIdleConnections;
+	}
+
+	/**
+	 * @return the number of open connections
+	 */
+	public int getConnectionCount() {
+		return this.counter.get();
+	}
+
+	/**
+	 * @return the number of idle keep-alive connections
+	 */
+	public int getIdleConnectionCount() {
+		synchronized (this.idleChannels) {
+			return this.idleChannels.size();
+		}
+	}
+
+	/**
+	 * @return the number of connections closed because they were over the
+	 *         limit
+	 */
+	public long getRejectedConnectionCount() {
+		return this.rejectedConnectionCount.get();
+	}
+
+	/**
+	 * @return the number of idle keep-alive connections closed to admit new
+	 *         ones
+	 */
+	public long getShedConnectionCount() {
+		return this.shedConnectionCount.get();
+	}
+
+	/**
+	 * @return the number of listeners, each with its own channel group
+	 */
+	public int getListenerCount() {
+		return (this.listeners != null) ? this.listeners.length : 1;
+	}
+
+	/**
+	 * @return the buffer pool used by the channels
+	 */
+	public ByteBufferPool getBufferPool() {
+		return this.bufferPool;
+	}
+
+	/**
+	 * @return the number of buffer requests served from the pool
+	 */
+	public long getBufferPoolHits() {
+		return (this.bufferPool != null) ? this.bufferPool.getHits() : 0;
+	}
+
+	/**
+	 * @return the number of buffer requests which needed an allocation
+	 */
+	public long getBufferPoolMisses() {
+		return (this.bufferPool != null) ? this.bufferPool.getMisses() : 0;
+	}
+
+	/**
+	 * @return the number of buffers currently borrowed by the channels
+	 */
+	public int getBufferPoolOutstanding() {
+		return (this.bufferPool != null) ? this.bufferPool.getOutstanding() : 0;
+	}
+
 	/**
 	 * Getter for sslContext
 	 * 
@@ -198,14 +379,37 @@ public class NioEndpoint extends AbstractEndpoint {
 			this.recycledHandshakeProcessors = new ConcurrentLinkedQueue<>();
 		}
 
-		// If the executor is not set, create it with a fixed thread pool
+		if (this.bufferPool == null) {
+			this.bufferPool = new ByteBufferPool(this.bufferPoolSize);
+		}
+
+		// If the executor is not set, create it with virtual threads if
+		// requested, or else with a fixed thread pool
+		if (this.executor == null && this.useVirtualThreads) {
+			this.executor = VirtualThreads.newExecutor(getName() + "-exec-");
+		}
 		if (this.executor == null) {
 			this.executor = Executors.newFixedThreadPool(this.maxThreads, this.threadFactory);
 		}
 
-		ExecutorService executorService = (ExecutorService) this.executor;
-		AsynchronousChannelGroup threadGroup = AsynchronousChannelGroup
-				.withThreadPool(executorService);
+		int groupCount = (this.channelGroupCount > 0) ? this.channelGroupCount : Runtime
+				.getRuntime().availableProcessors();
+		if (groupCount > 1 && this.channelGroups == null) {
+			this.channelGroups = new AsynchronousChannelGroup[groupCount];
+			for (int i = 0; i < groupCount; i++) {
+				this.channelGroups[i] = AsynchronousChannelGroup.withFixedThreadPool(1,
+						new DefaultThreadFactory(getName() + "-EventLoop-" + i + "-",
+								threadPriority));
+			}
+		}
+
+		AsynchronousChannelGroup threadGroup;
+		if (this.channelGroups != null) {
+			threadGroup = this.channelGroups[0];
+		} else {
+			ExecutorService executorService = (ExecutorService) this.executor;
+			threadGroup = AsynchronousChannelGroup.withThreadPool(executorService);
+		}
 
 		if (this.serverSocketChannelFactory == null) {
 			this.serverSocketChannelFactory = NioServerSocketChannelFactory
@@ -223,6 +427,9 @@ public class NioEndpoint extends AbstractEndpoint {
 		// Initialize the channel factory
 		this.serverSocketChannelFactory.init();
 
+		if (listener == null && this.channelGroups != null) {
+			createListeners();
+		}
 		if (listener == null) {
 		    listener = this.serverSocketChannelFactory.createServerChannel(port, backlog,
 		            address, reuseAddress);
@@ -231,6 +438,70 @@ public class NioEndpoint extends AbstractEndpoint {
 		initialized = true;
 	}
 
+	/**
+	 * Create one listener per channel group, all bound to the same port. If the
+	 * platform does not support <code>SO_REUSEPORT</code>, the groups are
+	 * dropped, and a single listener is created by the caller.
+	 */
+	private void createListeners() throws IOException {
+		AsynchronousServerSocketChannel[] channels = new AsynchronousServerSocketChannel[this.channelGroups.length];
+		int listenerPort = port;
+		try {
+			for (int i = 0; i < channels.length; i++) {
+				channels[i] = this.serverSocketChannelFactory.createServerChannel(
+						this.channelGroups[i], listenerPort, backlog, address, reuseAddress);
+				if (channels[i] == null) {
+					CoyoteLogger.UTIL_LOGGER.reusePortNotSupported();
+					closeListeners(channels);
+					shutdownChannelGroups();
+					this.serverSocketChannelFactory.threadGroup = AsynchronousChannelGroup
+							.withThreadPool((ExecutorService) this.executor);
+					return;
+				}
+				if (listenerPort == 0) {
+					// Bind the next listeners to the port chosen for the first
+					listenerPort = ((InetSocketAddress) channels[i].getLocalAddress()).getPort();
+				}
+			}
+		} catch (IOException e) {
+			closeListeners(channels);
+			throw e;
+		}
+		this.listeners = channels;
+		this.listener = channels[0];
+	}
+
+	/**
+	 * Close the specified listeners
+	 */
+	private static void closeListeners(AsynchronousServerSocketChannel[] channels) {
+		for (int i = 0; i < channels.length; i++) {
+			if (channels[i] != null) {
+				try {
+					channels[i].close();
+				} catch (IOException e) {
+					CoyoteLogger.UTIL_LOGGER.errorClosingSocket(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Shut down the channel groups and their event loop threads
+	 */
+	private void shutdownChannelGroups() {
+		if (this.channelGroups != null) {
+			for (int i = 0; i < this.channelGroups.length; i++) {
+				try {
+					this.channelGroups[i].shutdownNow();
+				} catch (IOException e) {
+					// Ignore
+				}
+			}
+			this.channelGroups = null;
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -246,10 +517,15 @@ public class NioEndpoint extends AbstractEndpoint {
 			running = true;
 			paused = false;
 
-			// Start acceptor threads
-			for (int i = 0; i < acceptorThreadCount; i++) {
-				Thread acceptorThread = newThread(new Acceptor(), "Acceptor", daemon);
-				acceptorThread.start();
+			// Start acceptor threads, for each listener
+			AsynchronousServerSocketChannel[] channels = (this.listeners != null) ? this.listeners
+					: new AsynchronousServerSocketChannel[] { this.listener };
+			for (int j = 0; j < channels.length; j++) {
+				for (int i = 0; i < acceptorThreadCount; i++) {
+					Thread acceptorThread = newThread(new Acceptor(channels[j]), "Acceptor",
+							daemon);
+					acceptorThread.start();
+				}
 			}
 
 			// Start sendfile thread
@@ -291,6 +567,11 @@ public class NioEndpoint extends AbstractEndpoint {
 		if (running) {
 			stop();
 		}
+		if (listeners != null) {
+			closeListeners(listeners);
+			listeners = null;
+			listener = null;
+		}
 		if (listener != null) {
 			try {
 				listener.close();
@@ -321,6 +602,9 @@ public class NioEndpoint extends AbstractEndpoint {
 		}
 		// Remove all connections
 		this.connections.clear();
+		synchronized (this.idleChannels) {
+			this.idleChannels.clear();
+		}
 		// Destroy the server socket channel factory
 		this.serverSocketChannelFactory.destroy();
 		this.serverSocketChannelFactory = null;
@@ -330,9 +614,12 @@ public class NioEndpoint extends AbstractEndpoint {
 		// Destroy all recycled handshake processors
 		this.recycledHandshakeProcessors.clear();
 		this.recycledHandshakeProcessors = null;
+		// Drop the pooled buffers
+		this.bufferPool.clear();
 
-		// Shut down the executor
+		// Shut down the executor and the event loops
 		((ExecutorService) this.executor).shutdown();
+		shutdownChannelGroups();
 
 		initialized = false;
 	}
@@ -353,6 +640,7 @@ public class NioEndpoint extends AbstractEndpoint {
 			if (tcpNoDelay) {
 				channel.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
 			}
+			channel.setBufferPool(bufferPool);
 
 			// Initialize the channel
 			serverSocketChannelFactory.initChannel(channel);
@@ -535,7 +823,9 @@ public class NioEndpoint extends AbstractEndpoint {
 	}
 
 	/**
-	 * Try to add the specified channel to the list of connections.
+	 * Try to add the specified channel to the list of connections. If the
+	 * maximum number of connections is reached, the oldest idle keep-alive
+	 * connection is closed to make room, or else the channel is rejected.
 	 * 
 	 * @param channel
 	 *            the channel to be added
@@ -543,16 +833,134 @@ public class NioEndpoint extends AbstractEndpoint {
 	 *         <tt>false</tt>
 	 */
 	private boolean addChannel(NioChannel channel) {
-		if (this.counter.get() < this.maxConnections && channel.isOpen()) {
-			if (this.connections.get(channel.getId()) == null
-					|| this.connections.get(channel.getId()).isClosed()) {
-				this.connections.put(channel.getId(), channel);
-				this.counter.incrementAndGet();
+		if (!channel.isOpen()) {
+			return false;
+		}
+		while (!reserveConnection()) {
+			if (!shedIdleChannel()) {
+				this.rejectedConnectionCount.incrementAndGet();
+				return false;
+			}
+		}
+		if (this.connections.get(channel.getId()) == null
+				|| this.connections.get(channel.getId()).isClosed()) {
+			this.connections.put(channel.getId(), channel);
+			return true;
+		}
+		releaseConnection();
+		return false;
+	}
+
+	/**
+	 * Count a new connection, unless the maximum number of connections is
+	 * reached. A maximum of zero or less means no limit.
+	 * 
+	 * @return <tt>true</tt> if the connection is counted
+	 */
+	private boolean reserveConnection() {
+		for (;;) {
+			int count = this.counter.get();
+			if (this.maxConnections > 0 && count >= this.maxConnections) {
+				return false;
+			}
+			if (this.counter.compareAndSet(count, count + 1)) {
 				return true;
 			}
 		}
+	}
 
-		return false;
+	/**
+	 * Uncount a connection, and wake up the acceptors waiting for a slot.
+	 */
+	private void releaseConnection() {
+		this.counter.decrementAndGet();
+		if (this.acceptorsWaiting > 0) {
+			synchronized (this.idleChannels) {
+				this.idleChannels.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Wait until a connection can be admitted, either because the number of
+	 * connections is below the limit, or because an idle keep-alive
+	 * connection can be closed. Meanwhile the new connections stay in the
+	 * listen backlog.
+	 */
+	private void awaitConnectionSlot() {
+		if (this.maxConnections <= 0 || this.counter.get() < this.maxConnections) {
+			return;
+		}
+		synchronized (this.idleChannels) {
+			this.acceptorsWaiting++;
+			try {
+				while (running && this.counter.get() >= this.maxConnections
+						&& (!this.shedIdleConnections || this.idleChannels.isEmpty())) {
+					try {
+						this.idleChannels.wait(1000);
+					} catch (InterruptedException e) {
+						// Ignore
+					}
+				}
+			} finally {
+				this.acceptorsWaiting--;
+			}
+		}
+	}
+
+	/**
+	 * Close the oldest idle keep-alive connection.
+	 * 
+	 * @return <tt>true</tt> if a connection was closed
+	 */
+	private boolean shedIdleChannel() {
+		if (!this.shedIdleConnections) {
+			return false;
+		}
+		NioChannel channel = null;
+		synchronized (this.idleChannels) {
+			Iterator<NioChannel> it = this.idleChannels.values().iterator();
+			if (it.hasNext()) {
+				channel = it.next();
+				it.remove();
+			}
+		}
+		if (channel == null) {
+			return false;
+		}
+		this.shedConnectionCount.incrementAndGet();
+		closeChannel(channel);
+		return true;
+	}
+
+	/**
+	 * Record that the specified channel is kept alive, waiting for its next
+	 * request, so that it may be closed to admit a new connection.
+	 * 
+	 * @param channel
+	 *            the idle channel
+	 */
+	public void addIdleChannel(NioChannel channel) {
+		synchronized (this.idleChannels) {
+			this.idleChannels.put(channel.getId(), channel);
+			if (this.acceptorsWaiting > 0) {
+				this.idleChannels.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Record that the specified channel is no longer idle.
+	 * 
+	 * @param channel
+	 *            the channel
+	 * @return <tt>false</tt> if the channel was not idle, which includes
+	 *         having been closed to admit a new connection
+	 */
+	public boolean removeIdleChannel(NioChannel channel) {
+		synchronized (this.idleChannels) {
+			return this.idleChannels.remove(channel.getId()) != null;
+		}
 	}
 
 	/**
@@ -589,8 +997,9 @@ public class NioEndpoint extends AbstractEndpoint {
 			} catch (IOException e) {
 	            CoyoteLogger.UTIL_LOGGER.errorClosingSocket(e);
 			} finally {
+				removeIdleChannel(channel);
 				if (this.connections.remove(channel.getId()) != null) {
-					this.counter.decrementAndGet();
+					releaseConnection();
 				}
 			}
 		}
@@ -616,6 +1025,18 @@ public class NioEndpoint extends AbstractEndpoint {
 	 */
 	protected class Acceptor implements Runnable {
 
+		private final AsynchronousServerSocketChannel listener;
+
+		/**
+		 * Create a new instance of {@code Acceptor}
+		 * 
+		 * @param listener
+		 *            the server channel accepting the connections
+		 */
+		public Acceptor(AsynchronousServerSocketChannel listener) {
+			this.listener = listener;
+		}
+
 		/**
 		 * The background thread that listens for incoming TCP/IP connections
 		 * and hands them off to an appropriate processor.
@@ -634,11 +1055,21 @@ public class NioEndpoint extends AbstractEndpoint {
 				}
 
 				try {
+					// Leave the new connections in the backlog while the
+					// maximum number of connections is reached
+					awaitConnectionSlot();
+					if (!running) {
+						break;
+					}
 					// Accept the next incoming connection from the server
 					// channel
 					final NioChannel channel = serverSocketChannelFactory.acceptChannel(listener);
+					if (!addChannel(channel)) {
+						closeChannel(channel);
+						continue;
+					}
 					boolean ok = false;
-					if (addChannel(channel) && setChannelOptions(channel) && channel.isOpen()) {
+					if (setChannelOptions(channel) && channel.isOpen()) {
 						if (channel.isSecure()) {
 							handshake(channel);
 							ok = true;
@@ -742,7 +1173,7 @@ public class NioEndpoint extends AbstractEndpoint {
 	 * 
 	 * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
 	 */
-	public static class ChannelInfo {
+	public static class ChannelInfo extends TimerWheel.Timeout {
 		/**
 		 * 
 		 */
@@ -1085,15 +1516,18 @@ public class NioEndpoint extends AbstractEndpoint {
 	public class EventPoller implements Runnable {
 
 		/**
-		 * Last run of maintain. Maintain will run usually every 5s.
+		 * Resolution of the timeouts in milliseconds.
 		 */
-		protected long lastMaintain = System.currentTimeMillis();
+		protected static final long TICK_TIME = 10;
 
 		protected ConcurrentHashMap<Long, ChannelInfo> channelList;
 		protected ConcurrentLinkedQueue<ChannelInfo> recycledChannelList;
 		private ConcurrentLinkedQueue<CompletionHandler<Integer, NioChannel>> recycledCompletionHandlers;
 		private Object mutex;
 		private int size;
+		private TimerWheel wheel;
+		private ArrayList<TimerWheel.Timeout> expired;
+		private volatile boolean idle;
 
 		/**
 		 * Create a new instance of {@code EventPoller}
@@ -1121,51 +1555,50 @@ public class NioEndpoint extends AbstractEndpoint {
 					}
 				}
 
-				while (this.channelList.size() < 1 && running) {
-					synchronized (this.mutex) {
-						try {
-							this.mutex.wait(10000);
-						} catch (InterruptedException e) {
-							// NOPE
-						}
-					}
-				}
+				maintain();
 
-				while (this.channelList.size() > 0 && running) {
-					maintain();
+				synchronized (this.mutex) {
 					try {
-						Thread.sleep(5000);
+						if (this.wheel.isEmpty()) {
+							// Sleep until a channel is added
+							this.idle = true;
+							if (this.wheel.isEmpty() && running) {
+								this.mutex.wait(10000);
+							}
+							this.idle = false;
+						} else {
+							this.mutex.wait(TICK_TIME);
+						}
 					} catch (InterruptedException e) {
 						// NOPE
 					}
 				}
-
 			}
 		}
 
 		/**
-		 * Check timeouts and raise timeout event
+		 * Advance the timer wheel and raise the timeout event for the expired
+		 * channels. This method is called by the event poller thread only.
 		 */
 		public void maintain() {
 			long date = System.currentTimeMillis();
-			// Maintain runs at most once every 5s, although it will likely get
-			// called more
-			if ((date - lastMaintain) < 5000L) {
+			this.wheel.expire(date, this.expired);
+			if (this.expired.isEmpty()) {
 				return;
 			}
 
-			// Update the last maintain time
-			lastMaintain = date;
-
-			for (ChannelInfo info : this.channelList.values()) {
-				if (date >= info.timeout) {
-					NioChannel ch = info.channel;
-					remove(info);
+			for (int i = 0; i < this.expired.size(); i++) {
+				ChannelInfo info = (ChannelInfo) this.expired.get(i);
+				NioChannel ch = info.channel;
+				// The channel may have been removed concurrently
+				if (ch != null && this.channelList.remove(ch.getId(), info)) {
+					offer(info);
 					if (!processChannel(ch, SocketStatus.TIMEOUT)) {
 						closeChannel(ch);
 					}
 				}
 			}
+			this.expired.clear();
 		}
 
 		/**
@@ -1175,6 +1608,9 @@ public class NioEndpoint extends AbstractEndpoint {
 		 */
 		protected boolean remove(long id) {
 			ChannelInfo info = this.channelList.remove(id);
+			if (info != null) {
+				this.wheel.cancel(info);
+			}
 			return offer(info);
 		}
 
@@ -1202,6 +1638,8 @@ public class NioEndpoint extends AbstractEndpoint {
 			this.channelList = new ConcurrentHashMap<>(this.size);
 			this.recycledChannelList = new ConcurrentLinkedQueue<>();
 			this.recycledCompletionHandlers = new ConcurrentLinkedQueue<>();
+			this.wheel = new TimerWheel(TICK_TIME);
+			this.expired = new ArrayList<>();
 		}
 
 		/**
@@ -1324,6 +1762,7 @@ public class NioEndpoint extends AbstractEndpoint {
 					closeChannel(ch);
 				}
 			} else if (info.read()) {
+				this.wheel.schedule(info, date);
 				try {
 					// Trying awaiting for read event
 					ch.awaitRead(ch, getCompletionHandler());
@@ -1347,9 +1786,11 @@ public class NioEndpoint extends AbstractEndpoint {
 				}
 			}
 
-			// Wake up all waiting threads
-			synchronized (this.mutex) {
-				this.mutex.notifyAll();
+			// Wake up the poller if it is waiting for channels
+			if (this.idle) {
+				synchronized (this.mutex) {
+					this.mutex.notifyAll();
+				}
 			}
 			return true;
 		}
@@ -1412,11 +1853,25 @@ public class NioEndpoint extends AbstractEndpoint {
 	 * SendfileData class.
 	 */
 	public static class SendfileData {
+		/**
+		 * Size of the file regions which are mapped in memory at once.
+		 */
+		protected static final long MAP_SIZE = 4 * 1024 * 1024;
+
 		// File
 		protected String fileName;
 		// Range information
 		protected long start;
 		protected long end;
+		// Multiple ranges, as start/end pairs, with the bytes sent before each
+		// range and after the last one
+		protected long[] ranges;
+		protected byte[][] headers;
+		protected byte[] trailer;
+		// Current range, and the buffer being written
+		protected int index;
+		protected boolean headerSent;
+		protected ByteBuffer buffer;
 		// The channel
 		protected NioChannel channel;
 		// The file channel
@@ -1434,12 +1889,63 @@ public class NioEndpoint extends AbstractEndpoint {
 		 * @throws Exception
 		 */
 		protected void setup() throws IOException {
-			this.pos = this.start;
+			this.pos = (this.ranges == null) ? this.start : this.ranges[0];
+			this.index = 0;
+			this.headerSent = false;
+			MappedBuffers.unmap(this.buffer);
+			this.buffer = null;
 			if (this.fileChannel == null || !this.fileChannel.isOpen()) {
 				java.nio.file.Path path = new File(this.fileName).toPath();
 				this.fileChannel = java.nio.channels.FileChannel
-						.open(path, StandardOpenOption.READ).position(this.pos);
+						.open(path, StandardOpenOption.READ);
+			}
+		}
+
+		/**
+		 * Return the next buffer to write, mapping the next region of the
+		 * file when needed, so that the file content is sent straight from
+		 * the page cache without being copied to the Java heap. The region
+		 * previously written is unmapped, so this must only be called once
+		 * the previous write completed.
+		 * 
+		 * @return the buffer, or <tt>null</tt> if all the data was sent
+		 * @throws IOException
+		 */
+		protected ByteBuffer nextBuffer() throws IOException {
+			if (this.buffer != null && this.buffer.hasRemaining()) {
+				return this.buffer;
+			}
+			MappedBuffers.unmap(this.buffer);
+			this.buffer = null;
+			int count = (this.ranges == null) ? 1 : this.ranges.length / 2;
+			while (this.index < count) {
+				if (!this.headerSent) {
+					this.headerSent = true;
+					if (this.headers != null && this.headers[this.index] != null) {
+						return (this.buffer = ByteBuffer.wrap(this.headers[this.index]));
+					}
+				}
+				long rangeEnd = (this.ranges == null) ? this.end : this.ranges[2 * this.index + 1];
+				rangeEnd = Math.min(rangeEnd, this.fileChannel.size());
+				if (this.pos < rangeEnd) {
+					long length = Math.min(rangeEnd - this.pos, MAP_SIZE);
+					this.buffer = this.fileChannel.map(java.nio.channels.FileChannel.MapMode.READ_ONLY,
+							this.pos, length);
+					this.pos += length;
+					return this.buffer;
+				}
+				this.index++;
+				this.headerSent = false;
+				if (this.index < count) {
+					this.pos = this.ranges[2 * this.index];
+				}
+			}
+			if (this.trailer != null && this.index == count) {
+				this.index++;
+				return (this.buffer = ByteBuffer.wrap(this.trailer));
 			}
+			this.buffer = null;
+			return null;
 		}
 
 		/**
@@ -1449,6 +1955,12 @@ public class NioEndpoint extends AbstractEndpoint {
 			this.start = 0;
 			this.end = 0;
 			this.pos = 0;
+			this.ranges = null;
+			this.headers = null;
+			this.trailer = null;
+			this.index = 0;
+			MappedBuffers.unmap(this.buffer);
+			this.buffer = null;
 			this.channel = null;
 			this.keepAlive = false;
 			if (this.fileChannel != null && this.fileChannel.isOpen()) {
@@ -1518,6 +2030,35 @@ public class NioEndpoint extends AbstractEndpoint {
 			this.end = end;
 		}
 
+		/**
+		 * Set multiple ranges to send, and the bytes to send before each
+		 * range and after the last one.
+		 * 
+		 * @param ranges
+		 *            the ranges, as start (inclusive) and end (exclusive)
+		 *            pairs
+		 * @param headers
+		 *            the bytes to send before each range, may be
+		 *            <tt>null</tt>
+		 * @param trailer
+		 *            the bytes to send after the last range, may be
+		 *            <tt>null</tt>
+		 */
+		public void setRanges(long[] ranges, byte[][] headers, byte[] trailer) {
+			this.ranges = ranges;
+			this.headers = headers;
+			this.trailer = trailer;
+		}
+
+		/**
+		 * Getter for ranges
+		 * 
+		 * @return the ranges
+		 */
+		public long[] getRanges() {
+			return this.ranges;
+		}
+
 		/**
 		 * Getter for channel
 		 * 
@@ -1694,82 +2235,87 @@ public class NioEndpoint extends AbstractEndpoint {
 			data.setup();
 
 			final NioChannel channel = data.channel;
-			final int BUFFER_SIZE = channel.getOption(StandardSocketOptions.SO_SNDBUF);
-			final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
-			int nr = data.fileChannel.read(buffer);
-
-			if (nr >= 0) {
-				buffer.flip();
-				try {
-					channel.write(buffer, data, new CompletionHandler<Integer, SendfileData>() {
-
-						@Override
-						public void completed(Integer nw, SendfileData attachment) {
-							if (nw < 0) { // Reach the end of stream
-								closeChannel(channel);
-								closeFile(attachment.fileChannel);
-								return;
-							}
+			ByteBuffer buffer = data.nextBuffer();
+			if (buffer == null) {
+				recycleSendfileData(data);
+				return;
+			}
 
-							attachment.pos += nw;
+			try {
+				channel.write(buffer, data, new CompletionHandler<Integer, SendfileData>() {
 
-							if (attachment.pos >= attachment.end) {
-								// All requested bytes were sent, recycle it
-								recycleSendfileData(attachment);
-								return;
-							}
+					@Override
+					public void completed(Integer nw, SendfileData attachment) {
+						if (nw < 0) { // Reach the end of stream
+							closeChannel(channel);
+							recycleSendfileData(attachment);
+							return;
+						}
 
-							boolean ok = true;
-
-							if (!buffer.hasRemaining()) {
-								// This means that all data in the buffer has
-								// been
-								// written => Empty the buffer and read again
-								buffer.clear();
-								try {
-									if (attachment.fileChannel.read(buffer) >= 0) {
-										buffer.flip();
-									} else {
-										// Reach the EOF
-										ok = false;
-									}
-								} catch (Throwable th) {
-									ok = false;
-								}
-							}
+						ByteBuffer next = null;
+						try {
+							next = attachment.nextBuffer();
+						} catch (Throwable th) {
+							failed(th, attachment);
+							return;
+						}
 
-							if (ok) {
-								channel.write(buffer, attachment, this);
+						if (next == null) {
+							// All requested bytes were sent, recycle it
+							boolean keepAlive = attachment.keepAlive;
+							recycleSendfileData(attachment);
+							if (keepAlive) {
+								awaitNextRequest(channel);
 							} else {
-								closeFile(attachment.fileChannel);
+								closeChannel(channel);
 							}
+						} else {
+							channel.write(next, attachment, this);
 						}
+					}
 
-						@Override
-						public void failed(Throwable exc, SendfileData attachment) {
-							// Closing channels
-							closeChannel(channel);
-							closeFile(data.fileChannel);
-						}
+					@Override
+					public void failed(Throwable exc, SendfileData attachment) {
+						// Closing channels
+						closeChannel(channel);
+						recycleSendfileData(attachment);
+					}
+				});
+			} catch (WritePendingException exp) {
+				data.fileChannel.close();
+				add(data);
+			}
+		}
 
-						/**
-						 * 
-						 * @param closeable
-						 */
-						private void closeFile(java.io.Closeable closeable) {
-							try {
-								closeable.close();
-							} catch (IOException e) {
-								// NOPE
+		/**
+		 * Wait for the next request on a kept alive channel, as an idle
+		 * channel.
+		 * 
+		 * @param channel
+		 */
+		private void awaitNextRequest(final NioChannel channel) {
+			addIdleChannel(channel);
+			try {
+				channel.awaitRead(keepAliveTimeout, TimeUnit.MILLISECONDS, channel,
+						new CompletionHandler<Integer, NioChannel>() {
+
+							@Override
+							public void completed(Integer nBytes, NioChannel attachment) {
+								if (nBytes < 0) {
+									failed(new ClosedChannelException(), attachment);
+								} else if (removeIdleChannel(attachment)
+										&& !processChannel(attachment, null)) {
+									closeChannel(attachment);
+								}
 							}
-						}
-					});
-				} catch (WritePendingException exp) {
-					data.fileChannel.close();
-					add(data);
-				}
-			} else {
-				recycleSendfileData(data);
+
+							@Override
+							public void failed(Throwable exc, NioChannel attachment) {
+								closeChannel(attachment);
+							}
+						});
+			} catch (Exception e) {
+				closeChannel(channel);
 			}
 		}
 
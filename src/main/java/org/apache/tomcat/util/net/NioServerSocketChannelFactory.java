@@ -23,6 +23,9 @@ package org.apache.tomcat.util.net;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
 import java.nio.channels.AsynchronousChannelGroup;
 import java.nio.channels.AsynchronousServerSocketChannel;
 import java.util.Hashtable;
@@ -41,6 +44,25 @@ public abstract class NioServerSocketChannelFactory implements Cloneable {
 	protected static org.jboss.logging.Logger log = org.jboss.logging.Logger
 			.getLogger(NioServerSocketChannelFactory.class);
 
+	/**
+	 * The <code>SO_REUSEPORT</code> option, which is only available from Java
+	 * 9, or <tt>null</tt>.
+	 */
+	private static final SocketOption<Boolean> SO_REUSEPORT;
+
+	static {
+		SocketOption<Boolean> reusePort = null;
+		try {
+			@SuppressWarnings("unchecked")
+			SocketOption<Boolean> option = (SocketOption<Boolean>) StandardSocketOptions.class
+					.getField("SO_REUSEPORT").get(null);
+			reusePort = option;
+		} catch (Throwable t) {
+			// Not available
+		}
+		SO_REUSEPORT = reusePort;
+	}
+
 	private static NioServerSocketChannelFactory theFactory;
 	protected Hashtable<String, Object> attributes = new Hashtable<String, Object>();
 
@@ -215,6 +237,46 @@ public abstract class NioServerSocketChannelFactory implements Cloneable {
 	public abstract AsynchronousServerSocketChannel createServerChannel(int port, int backlog,
 			InetAddress ifAddress, boolean reuseAddress) throws IOException;
 
+	/**
+	 * Returns a server socket channel opened in the specified group, and bound
+	 * with the <code>SO_REUSEPORT</code> option, so that several channels can
+	 * listen to the same port, and the kernel spreads the incoming connections
+	 * among them. The accepted channels belong to the same group as their
+	 * server channel.
+	 * 
+	 * @param group
+	 *            the channel group of the server channel
+	 * @param port
+	 *            the port to listen to
+	 * @param backlog
+	 *            how many connections are queued
+	 * @param ifAddress
+	 *            the network interface address to use
+	 * @param reuseAddress
+	 * @return an instance of
+	 *         {@link java.nio.channels.AsynchronousServerSocketChannel}, or
+	 *         <tt>null</tt> if <code>SO_REUSEPORT</code> is not supported
+	 * @exception IOException
+	 *                for networking errors
+	 */
+	public AsynchronousServerSocketChannel createServerChannel(AsynchronousChannelGroup group,
+			int port, int backlog, InetAddress ifAddress, boolean reuseAddress)
+			throws IOException {
+		AsynchronousServerSocketChannel channel = AsynchronousServerSocketChannel.open(group);
+		if (SO_REUSEPORT == null || !channel.supportedOptions().contains(SO_REUSEPORT)) {
+			channel.close();
+			return null;
+		}
+		try {
+			channel.setOption(StandardSocketOptions.SO_REUSEADDR, reuseAddress);
+			channel.setOption(SO_REUSEPORT, Boolean.TRUE);
+			return channel.bind(new InetSocketAddress(ifAddress, port), backlog);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
 	/**
 	 * Initialize the specified {@code NioChannel}
 	 * 
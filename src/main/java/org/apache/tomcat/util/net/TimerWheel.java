@@ -0,0 +1,293 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.apache.tomcat.util.net;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * {@code TimerWheel}
+ *
+ * <p>
+ * Hierarchical hashed timer wheel. The first level has 256 slots of one tick,
+ * and each of the three upper levels has 64 slots covering a whole turn of the
+ * level below, so that timeouts up to 2^26 ticks are tracked without any
+ * sweep. Longer timeouts are parked in the last slot and placed again when
+ * they are cascaded.
+ * </p>
+ * <p>
+ * Scheduling and cancelling are O(1) and may be done by any thread: they only
+ * record the new state of the timeout and queue it. The wheel itself is owned
+ * by the thread calling {@link #expire(long, List)}, which applies the queued
+ * changes before advancing.
+ * </p>
+ */
+public class TimerWheel {
+
+	private static final int ROOT_BITS = 8;
+	private static final int ROOT_SIZE = 1 << ROOT_BITS;
+	private static final int ROOT_MASK = ROOT_SIZE - 1;
+	private static final int LEVEL_BITS = 6;
+	private static final int LEVEL_SIZE = 1 << LEVEL_BITS;
+	private static final int LEVEL_MASK = LEVEL_SIZE - 1;
+	private static final int LEVELS = 3;
+	private static final long MAX_TICKS = (1L << (ROOT_BITS + LEVELS * LEVEL_BITS)) - 1;
+
+	/**
+	 * {@code Timeout}
+	 * <p>
+	 * An entry of the wheel. The links are only used by the thread owning the
+	 * wheel.
+	 * </p>
+	 */
+	public static class Timeout {
+		protected volatile long deadline;
+		protected volatile boolean scheduled;
+		private Timeout prev;
+		private Timeout next;
+
+		/**
+		 * @return the date when this timeout expires, in milliseconds
+		 */
+		public long getDeadline() {
+			return this.deadline;
+		}
+
+		/**
+		 * @return <tt>true</tt> if this timeout is scheduled
+		 */
+		public boolean isScheduled() {
+			return this.scheduled;
+		}
+
+		private boolean linked() {
+			return this.next != null;
+		}
+
+		private void unlink() {
+			this.prev.next = this.next;
+			this.next.prev = this.prev;
+			this.prev = null;
+			this.next = null;
+		}
+	}
+
+	private final long tickTime;
+	private final long startTime;
+	private final Timeout[] root;
+	private final Timeout[][] levels;
+	private final ConcurrentLinkedQueue<Timeout> changes = new ConcurrentLinkedQueue<Timeout>();
+	private long base;
+	private int count;
+
+	/**
+	 * Create a new instance of {@code TimerWheel}
+	 *
+	 * @param tickTime
+	 *            the duration of a tick in milliseconds
+	 */
+	public TimerWheel(long tickTime) {
+		if (tickTime <= 0) {
+			throw new IllegalArgumentException("Invalid tick time " + tickTime);
+		}
+		this.tickTime = tickTime;
+		this.startTime = System.currentTimeMillis();
+		this.root = newSlots(ROOT_SIZE);
+		this.levels = new Timeout[LEVELS][];
+		for (int i = 0; i < LEVELS; i++) {
+			this.levels[i] = newSlots(LEVEL_SIZE);
+		}
+	}
+
+	private static Timeout[] newSlots(int size) {
+		Timeout[] slots = new Timeout[size];
+		for (int i = 0; i < size; i++) {
+			Timeout head = new Timeout();
+			head.prev = head;
+			head.next = head;
+			slots[i] = head;
+		}
+		return slots;
+	}
+
+	/**
+	 * @return the duration of a tick in milliseconds
+	 */
+	public long getTickTime() {
+		return this.tickTime;
+	}
+
+	/**
+	 * Schedule, or reschedule, the given timeout. This method is thread safe.
+	 *
+	 * @param timeout
+	 *            the timeout
+	 * @param deadline
+	 *            the date when the timeout expires, in milliseconds
+	 */
+	public void schedule(Timeout timeout, long deadline) {
+		timeout.deadline = deadline;
+		timeout.scheduled = true;
+		this.changes.offer(timeout);
+	}
+
+	/**
+	 * Cancel the given timeout. This method is thread safe.
+	 *
+	 * @param timeout
+	 *            the timeout
+	 */
+	public void cancel(Timeout timeout) {
+		if (timeout.scheduled) {
+			timeout.scheduled = false;
+			this.changes.offer(timeout);
+		}
+	}
+
+	/**
+	 * @return <tt>true</tt> if there is no timeout in the wheel. This method
+	 *         may only be called by the thread owning the wheel.
+	 */
+	public boolean isEmpty() {
+		return this.count == 0 && this.changes.isEmpty();
+	}
+
+	/**
+	 * Apply the pending changes, and advance the wheel up to the given date.
+	 * This method may only be called by the thread owning the wheel.
+	 *
+	 * @param now
+	 *            the current date in milliseconds
+	 * @param expired
+	 *            the list where the expired timeouts are added
+	 */
+	public void expire(long now, List<Timeout> expired) {
+		Timeout timeout;
+		while ((timeout = this.changes.poll()) != null) {
+			if (timeout.linked()) {
+				timeout.unlink();
+				this.count--;
+			}
+			if (timeout.scheduled) {
+				add(timeout);
+			}
+		}
+
+		long target = (now - this.startTime) / this.tickTime;
+		while (this.base <= target) {
+			int index = (int) (this.base & ROOT_MASK);
+			if (index == 0) {
+				// Cascade the upper levels into the lower ones
+				for (int i = 0; i < LEVELS; i++) {
+					int slot = (int) ((this.base >>> (ROOT_BITS + i * LEVEL_BITS)) & LEVEL_MASK);
+					cascade(this.levels[i][slot]);
+					if (slot != 0) {
+						break;
+					}
+				}
+			}
+			this.base++;
+			// The timeouts pushed out concurrently may go back to the same
+			// slot, so the slot is detached before it is drained
+			Timeout next = detach(this.root[index]);
+			while ((timeout = next) != null) {
+				next = timeout.next;
+				timeout.prev = null;
+				timeout.next = null;
+				this.count--;
+				if (!timeout.scheduled) {
+					continue;
+				}
+				if (timeout.deadline > now) {
+					// Rescheduled concurrently
+					add(timeout);
+				} else {
+					timeout.scheduled = false;
+					expired.add(timeout);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Move all the timeouts of the given slot to the lower levels.
+	 */
+	private void cascade(Timeout head) {
+		Timeout next = detach(head);
+		Timeout timeout;
+		while ((timeout = next) != null) {
+			next = timeout.next;
+			timeout.prev = null;
+			timeout.next = null;
+			this.count--;
+			add(timeout);
+		}
+	}
+
+	/**
+	 * Detach all the timeouts of the given slot, which is left empty.
+	 *
+	 * @return the first timeout, the following ones being chained by their
+	 *         next link up to <tt>null</tt>
+	 */
+	private static Timeout detach(Timeout head) {
+		if (head.next == head) {
+			return null;
+		}
+		Timeout first = head.next;
+		head.prev.next = null;
+		head.next = head;
+		head.prev = head;
+		return first;
+	}
+
+	/**
+	 * Link the timeout in the slot matching its deadline.
+	 */
+	private void add(Timeout timeout) {
+		long expires = (timeout.deadline - this.startTime + this.tickTime - 1) / this.tickTime;
+		long delta = expires - this.base;
+		Timeout head;
+		if (delta < 0) {
+			head = this.root[(int) (this.base & ROOT_MASK)];
+		} else if (delta < ROOT_SIZE) {
+			head = this.root[(int) (expires & ROOT_MASK)];
+		} else {
+			if (delta > MAX_TICKS) {
+				expires = this.base + MAX_TICKS;
+				delta = MAX_TICKS;
+			}
+			int level = 0;
+			while (delta >= (1L << (ROOT_BITS + (level + 1) * LEVEL_BITS))) {
+				level++;
+			}
+			int slot = (int) ((expires >>> (ROOT_BITS + level * LEVEL_BITS)) & LEVEL_MASK);
+			head = this.levels[level][slot];
+		}
+		timeout.prev = head.prev;
+		timeout.next = head;
+		head.prev.next = timeout;
+		head.prev = timeout;
+		this.count++;
+	}
+
+}
@@ -0,0 +1,146 @@
+/**
+ * JBoss, Home of Professional Open Source. Copyright 2012, Red Hat, Inc., and
+ * individual contributors as indicated by the @author tags. See the
+ * copyright.txt file in the distribution for a full listing of individual
+ * contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.apache.tomcat.util.net;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.jboss.web.CoyoteLogger;
+
+/**
+ * {@code VirtualThreads}
+ *
+ * <p>
+ * Creates executors running each task on a new virtual thread, when the JVM
+ * supports them (Java 21 and later). The JDK methods are looked up by
+ * reflection, so that this class compiles and runs on older JVMs, where no
+ * executor is created.
+ * </p>
+ */
+public final class VirtualThreads {
+
+	private static final Method OF_VIRTUAL;
+	private static final Method NAME;
+	private static final Method FACTORY;
+	private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+	private static final Method IS_VIRTUAL;
+
+	private static volatile boolean enabled = false;
+
+	static {
+		Method ofVirtual = null;
+		Method name = null;
+		Method factory = null;
+		Method newThreadPerTaskExecutor = null;
+		Method isVirtual = null;
+		try {
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			Class<?> builder = ofVirtual.getReturnType();
+			name = builder.getMethod("name", String.class, long.class);
+			factory = builder.getMethod("factory");
+			newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor",
+					ThreadFactory.class);
+			isVirtual = Thread.class.getMethod("isVirtual");
+		} catch (Throwable t) {
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		NAME = name;
+		FACTORY = factory;
+		NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+		IS_VIRTUAL = (ofVirtual != null) ? isVirtual : null;
+	}
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * @return <tt>true</tt> if the JVM supports virtual threads
+	 */
+	public static boolean isSupported() {
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * Record that an endpoint or an executor is configured to use virtual
+	 * threads, so that the components keeping per thread state can share it
+	 * between the threads instead, including when they are initialized on a
+	 * platform thread.
+	 */
+	public static void enable() {
+		if (OF_VIRTUAL != null) {
+			enabled = true;
+		}
+	}
+
+	/**
+	 * @return <tt>true</tt> if an endpoint or an executor is configured to
+	 *         use virtual threads and the JVM supports them
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param thread
+	 *            the thread
+	 * @return <tt>true</tt> if the thread is a virtual thread
+	 */
+	public static boolean isVirtual(Thread thread) {
+		if (IS_VIRTUAL != null) {
+			try {
+				return ((Boolean) IS_VIRTUAL.invoke(thread)).booleanValue();
+			} catch (Throwable t) {
+				// Fall through
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Create an executor running each task on a new virtual thread.
+	 * 
+	 * @param namePrefix
+	 *            the prefix of the thread names, which are numbered
+	 * @return the executor, or <tt>null</tt> if the JVM does not support
+	 *         virtual threads
+	 */
+	public static ExecutorService newExecutor(String namePrefix) {
+		if (OF_VIRTUAL != null) {
+			try {
+				Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), namePrefix, 0L);
+				ThreadFactory factory = (ThreadFactory) FACTORY.invoke(builder);
+				ExecutorService executor = (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(
+						null, factory);
+				enabled = true;
+				return executor;
+			} catch (Throwable t) {
+				// Fall through
+			}
+		}
+		CoyoteLogger.UTIL_LOGGER.virtualThreadsNotSupported();
+		return null;
+	}
+
+}
@@ -124,15 +124,28 @@ public class SecureNioChannel extends NioChannel {
 		// The handshake is completed
 		checkHandshake();
 
-		if (this.netInBuffer.position() == 0) {
-			this.reset(this.netInBuffer);
-			int x = this.channel.read(this.netInBuffer).get(timeout, unit);
+		ByteBuffer netIn = acquireNetInBuffer();
+		if (netIn.position() == 0) {
+			this.reset(netIn);
+			int x = 0;
+			try {
+				x = this.channel.read(netIn).get(timeout, unit);
+			} catch (Exception e) {
+				// The read may still be pending
+				discardNetInBuffer();
+				throw e;
+			}
 			if (x < 0) {
+				releaseNetInBuffer();
 				throw new ClosedChannelException();
 			}
 		}
-		// Unwrap the data read, and return the number of unwrapped bytes
-		return this.unwrap(this.netInBuffer, dst);
+		try {
+			// Unwrap the data read, and return the number of unwrapped bytes
+			return this.unwrap(netIn, dst);
+		} finally {
+			releaseNetInBuffer();
+		}
 	}
 
 	/*
@@ -160,35 +173,47 @@ public class SecureNioChannel extends NioChannel {
 
 		// The handshake is completed
 		checkHandshake();
+		final ByteBuffer netIn = acquireNetInBuffer();
 		// Retrieve bytes in the internal buffer
-		this.reset(this.netInBuffer);
+		this.reset(netIn);
 		// perform read operation
-		this.channel.read(this.netInBuffer, timeout, unit, attachment,
-				new CompletionHandler<Integer, A>() {
-
-					@Override
-					public void completed(Integer nBytes, A attach) {
-						if (nBytes < 0) {
-							handler.failed(new ClosedChannelException(), attach);
-							return;
-						}
+		try {
+			this.channel.read(netIn, timeout, unit, attachment,
+					new CompletionHandler<Integer, A>() {
 
-						try {
-							// Unwrap the data
-							int read = unwrap(netInBuffer, dst);
+						@Override
+						public void completed(Integer nBytes, A attach) {
+							if (nBytes < 0) {
+								releaseNetInBuffer();
+								handler.failed(new ClosedChannelException(), attach);
+								return;
+							}
+
+							int read = 0;
+							try {
+								// Unwrap the data
+								read = unwrap(netIn, dst);
+							} catch (Exception e) {
+								// The operation must fails
+								releaseNetInBuffer();
+								handler.failed(e, attach);
+								return;
+							}
+							releaseNetInBuffer();
 							// If everything is OK, so complete
 							handler.completed(read, attach);
-						} catch (Exception e) {
-							// The operation must fails
-							handler.failed(e, attach);
 						}
-					}
 
-					@Override
-					public void failed(Throwable exc, A attach) {
-						handler.failed(exc, attach);
-					}
-				});
+						@Override
+						public void failed(Throwable exc, A attach) {
+							discardNetInBuffer();
+							handler.failed(exc, attach);
+						}
+					});
+		} catch (RuntimeException e) {
+			releaseNetInBuffer();
+			throw e;
+		}
 	}
 
 	/*
@@ -213,40 +238,50 @@ public class SecureNioChannel extends NioChannel {
 		}
 
 		final ByteBuffer netInBuffers[] = new ByteBuffer[length];
+		int size = getSSLSession().getPacketBufferSize();
 		for (int i = 0; i < length; i++) {
-			netInBuffers[i] = ByteBuffer.allocateDirect(getSSLSession().getPacketBufferSize());
+			netInBuffers[i] = acquireBuffer(size);
 		}
 
 		this.reset(netInBuffers[0]);
 
-		this.channel.read(netInBuffers, 0, length, timeout, unit, attachment,
-				new CompletionHandler<Long, A>() {
-
-					@Override
-					public void completed(Long nBytes, A attach) {
-						if (nBytes < 0) {
-							failed(new ClosedChannelException(), attach);
-							return;
-						}
+		try {
+			this.channel.read(netInBuffers, 0, length, timeout, unit, attachment,
+					new CompletionHandler<Long, A>() {
 
-						long read = 0;
-						for (int i = 0; i < length; i++) {
-							try {
-								read += unwrap(netInBuffers[i], dsts[offset + i]);
-							} catch (Exception e) {
-								handler.failed(e, attach);
+						@Override
+						public void completed(Long nBytes, A attach) {
+							if (nBytes < 0) {
+								releaseBuffers(netInBuffers);
+								handler.failed(new ClosedChannelException(), attach);
 								return;
 							}
-						}
 
-						handler.completed(read, attach);
-					}
+							long read = 0;
+							for (int i = 0; i < length; i++) {
+								try {
+									read += unwrap(netInBuffers[i], dsts[offset + i]);
+								} catch (Exception e) {
+									releaseBuffers(netInBuffers);
+									handler.failed(e, attach);
+									return;
+								}
+							}
 
-					@Override
-					public void failed(Throwable exc, A attach) {
-						handler.failed(exc, attach);
-					}
-				});
+							releaseBuffers(netInBuffers);
+							handler.completed(read, attach);
+						}
+
+						@Override
+						public void failed(Throwable exc, A attach) {
+							discardBuffers(netInBuffers);
+							handler.failed(exc, attach);
+						}
+					});
+		} catch (RuntimeException e) {
+			releaseBuffers(netInBuffers);
+			throw e;
+		}
 
 	}
 
@@ -286,19 +321,26 @@ public class SecureNioChannel extends NioChannel {
 		// The handshake is completed
 		checkHandshake();
 
-		// Clear the output buffer
-		this.netOutBuffer.compact();
-		// the number of bytes written
-		int written = wrap(src, this.netOutBuffer);
-		this.netOutBuffer.flip();
-
-		// write bytes to the channel
-		while (this.netOutBuffer.hasRemaining()) {
-			int x = this.channel.write(netOutBuffer).get(timeout, unit);
-			if (x < 0) {
-				throw new ClosedChannelException();
+		ByteBuffer netOut = acquireBuffer(getPacketBufferSize());
+		int written = 0;
+		try {
+			// the number of bytes written
+			written = wrap(src, netOut);
+			netOut.flip();
+
+			// write bytes to the channel
+			while (netOut.hasRemaining()) {
+				int x = this.channel.write(netOut).get(timeout, unit);
+				if (x < 0) {
+					throw new ClosedChannelException();
+				}
 			}
+		} catch (Exception e) {
+			// The write may still be pending
+			discardBuffer(netOut);
+			throw e;
 		}
+		releaseBuffer(netOut);
 
 		return written;
 	}
@@ -323,28 +365,33 @@ public class SecureNioChannel extends NioChannel {
 	 * java.nio.channels.CompletionHandler)
 	 */
 	@Override
-	public <A> void write(final ByteBuffer src, long timeout, TimeUnit unit, final A attachment,
-			final CompletionHandler<Integer, ? super A> handler) {
+	public <A> void write(final ByteBuffer src, final long timeout, final TimeUnit unit,
+			final A attachment, final CompletionHandler<Integer, ? super A> handler) {
 
 		// The handshake is completed
 		checkHandshake();
 
+		// Prepare the output buffer
+		final ByteBuffer netOut = acquireBuffer(getPacketBufferSize());
 		try {
-			// Prepare the output buffer
-			this.netOutBuffer.clear();
 			// Wrap the source data into the internal buffer
-			final int written = wrap(src, this.netOutBuffer);
-			this.netOutBuffer.flip();
+			final int written = wrap(src, netOut);
+			netOut.flip();
 
 			// Write data to the channel
-			this.channel.write(this.netOutBuffer, timeout, unit, attachment,
+			this.channel.write(netOut, timeout, unit, attachment,
 					new CompletionHandler<Integer, A>() {
 
 						@Override
 						public void completed(Integer nBytes, A attach) {
 							if (nBytes < 0) {
+								releaseBuffer(netOut);
 								handler.failed(new ClosedChannelException(), attach);
+							} else if (netOut.hasRemaining()) {
+								// Write the rest of the network data
+								channel.write(netOut, timeout, unit, attach, this);
 							} else {
+								releaseBuffer(netOut);
 								// Call the handler completed method with the
 								// consumed bytes number
 								handler.completed(written, attach);
@@ -353,11 +400,13 @@ public class SecureNioChannel extends NioChannel {
 
 						@Override
 						public void failed(Throwable exc, A attach) {
+							discardBuffer(netOut);
 							handler.failed(exc, attach);
 						}
 					});
 
 		} catch (Throwable exp) {
+			releaseBuffer(netOut);
 			handler.failed(exp, attachment);
 		}
 	}
@@ -370,8 +419,8 @@ public class SecureNioChannel extends NioChannel {
 	 * java.nio.channels.CompletionHandler)
 	 */
 	@Override
-	public <A> void write(final ByteBuffer[] srcs, int offset, int length, long timeout,
-			TimeUnit unit, A attachment, final CompletionHandler<Long, ? super A> handler) {
+	public <A> void write(final ByteBuffer[] srcs, int offset, int length, final long timeout,
+			final TimeUnit unit, A attachment, final CompletionHandler<Long, ? super A> handler) {
 
 		// The handshake is completed
 		checkHandshake();
@@ -383,17 +432,18 @@ public class SecureNioChannel extends NioChannel {
 			throw new IndexOutOfBoundsException();
 		}
 
-		ByteBuffer[] netOutBuffers = new ByteBuffer[length];
+		final ByteBuffer[] netOutBuffers = new ByteBuffer[length];
 		int size = getSSLSession().getPacketBufferSize();
 		long written = 0;
 		for (int i = 0; i < length; i++) {
 			try {
 				// Prepare the output buffer
-				netOutBuffers[i] = ByteBuffer.allocateDirect(size);
+				netOutBuffers[i] = acquireBuffer(size);
 				// Wrap the source data into the internal buffer
 				written += wrap(srcs[offset + i], netOutBuffers[i]);
 				netOutBuffers[i].flip();
 			} catch (Throwable exp) {
+				releaseBuffers(netOutBuffers);
 				handler.failed(exp, attachment);
 				return;
 			}
@@ -401,24 +451,36 @@ public class SecureNioChannel extends NioChannel {
 
 		final long res = written;
 
-		this.channel.write(netOutBuffers, 0, length, timeout, unit, attachment,
-				new CompletionHandler<Long, A>() {
+		try {
+			this.channel.write(netOutBuffers, 0, length, timeout, unit, attachment,
+					new CompletionHandler<Long, A>() {
 
-					@Override
-					public void completed(Long nBytes, A attach) {
-						if (nBytes < 0) {
-							handler.failed(new ClosedChannelException(), attach);
-						} else {
-							// If everything is OK, so complete
-							handler.completed(res, attach);
+						@Override
+						public void completed(Long nBytes, A attach) {
+							if (nBytes < 0) {
+								releaseBuffers(netOutBuffers);
+								handler.failed(new ClosedChannelException(), attach);
+							} else if (netOutBuffers[netOutBuffers.length - 1].hasRemaining()) {
+								// Write the rest of the network data
+								channel.write(netOutBuffers, 0, netOutBuffers.length, timeout,
+										unit, attach, this);
+							} else {
+								releaseBuffers(netOutBuffers);
+								// If everything is OK, so complete
+								handler.completed(res, attach);
+							}
 						}
-					}
 
-					@Override
-					public void failed(Throwable exc, A attach) {
-						handler.failed(exc, attach);
-					}
-				});
+						@Override
+						public void failed(Throwable exc, A attach) {
+							discardBuffers(netOutBuffers);
+							handler.failed(exc, attach);
+						}
+					});
+		} catch (RuntimeException e) {
+			releaseBuffers(netOutBuffers);
+			throw e;
+		}
 	}
 
 	/*
@@ -437,6 +499,9 @@ public class SecureNioChannel extends NioChannel {
 			this.channel.close();
 		} catch (Exception e) {
 			throw new IOException(e);
+		} finally {
+			// A pending read may still use the buffer
+			discardNetInBuffer();
 		}
 	}
 
@@ -451,43 +516,52 @@ public class SecureNioChannel extends NioChannel {
 		}
 		sslEngine.closeOutbound();
 
-		SSLSession session = getSSLSession();
-		int packetBufferSize = Math.max(session.getPacketBufferSize(), MIN_BUFFER_SIZE);
+		int packetBufferSize = getPacketBufferSize();
 
-		this.netOutBuffer = (this.netOutBuffer == null) ? ByteBuffer
-				.allocateDirect(packetBufferSize) : this.netOutBuffer.compact();
-		this.netInBuffer = (this.netInBuffer == null) ? ByteBuffer.allocateDirect(packetBufferSize)
-				: this.netInBuffer.compact();
+		ByteBuffer empty = acquireBuffer(packetBufferSize);
+		empty.flip();
+		this.netOutBuffer = acquireBuffer(packetBufferSize);
 
-		while (!sslEngine.isOutboundDone()) {
-			// Get close message
-			SSLEngineResult res = sslEngine.wrap(this.netInBuffer, this.netOutBuffer);
+		try {
+			while (!sslEngine.isOutboundDone()) {
+				// Get close message
+				SSLEngineResult res = sslEngine.wrap(empty, this.netOutBuffer);
 
-			switch (res.getStatus()) {
-			case OK:
-				// Execute tasks if we need to
-				tryTasks();
-				while (this.netOutBuffer.hasRemaining()) {
-					if (this.channel.write(this.netOutBuffer).get() < 0) {
-						break;
+				switch (res.getStatus()) {
+				case OK:
+					// Execute tasks if we need to
+					tryTasks();
+					this.netOutBuffer.flip();
+					while (this.netOutBuffer.hasRemaining()) {
+						if (this.channel.write(this.netOutBuffer).get() < 0) {
+							break;
+						}
 					}
-					this.netOutBuffer.compact();
-				}
-				break;
-			case BUFFER_OVERFLOW:
-				ByteBuffer tmp = ByteBuffer.allocateDirect(packetBufferSize
-						+ this.netOutBuffer.capacity());
-				this.netOutBuffer.flip();
-				tmp.put(this.netOutBuffer);
-				this.netOutBuffer = tmp;
+					this.netOutBuffer.clear();
+					break;
+				case BUFFER_OVERFLOW:
+					ByteBuffer tmp = acquireBuffer(packetBufferSize
+							+ this.netOutBuffer.capacity());
+					this.netOutBuffer.flip();
+					tmp.put(this.netOutBuffer);
+					releaseBuffer(this.netOutBuffer);
+					this.netOutBuffer = tmp;
 
-				break;
-			case BUFFER_UNDERFLOW:
-				// Cannot happens in case of wrap
-			case CLOSED:
-				// Already closed, so return
-				break;
+					break;
+				case BUFFER_UNDERFLOW:
+					// Cannot happens in case of wrap
+				case CLOSED:
+					// Already closed, so return
+					break;
+				}
+				if (res.getStatus() == Status.CLOSED) {
+					break;
+				}
 			}
+		} finally {
+			releaseBuffer(empty);
+			releaseBuffer(this.netOutBuffer);
+			this.netOutBuffer = null;
 		}
 	}
 
@@ -673,105 +747,114 @@ public class SecureNioChannel extends NioChannel {
 	 */
 	private void doHandshake() throws Exception {
 
-		SSLSession session = getSSLSession();
-		int packetBufferSize = Math.max(session.getPacketBufferSize(), MIN_BUFFER_SIZE);
+		int packetBufferSize = getPacketBufferSize();
 		// Create byte buffers to use for holding application data
 		initBuffers(packetBufferSize);
 
-		ByteBuffer clientNetData = ByteBuffer.allocateDirect(packetBufferSize);
-		ByteBuffer clientAppData = ByteBuffer.allocateDirect(packetBufferSize);
+		ByteBuffer clientNetData = acquireBuffer(packetBufferSize);
+		ByteBuffer clientAppData = acquireBuffer(packetBufferSize);
+		// No application data is sent during the handshake
+		clientNetData.flip();
 
-		// Begin handshake
-		sslEngine.beginHandshake();
-		handshakeStatus = sslEngine.getHandshakeStatus();
-		int i = 1;
-		boolean read = true;
-		// Process handshaking message
-		while (!handshakeComplete) {
-
-			switch (handshakeStatus) {
-			case NEED_UNWRAP:
-				int nBytes = 0;
-				if (read) {
-					clientAppData.clear();
-					nBytes = this.channel.read(this.netInBuffer).get();
-				}
-				if (nBytes < 0) {
-					throw new IOException(this + " : EOF encountered during handshake UNWRAP.");
-				} else {
-					boolean cont = false;
-					// Loop while we can perform pure SSLEngine data
-					do {
-						// Prepare the buffer with the incoming data
-						this.netInBuffer.flip();
-						// Call unwrap
-						SSLEngineResult res = sslEngine.unwrap(this.netInBuffer, clientAppData);
-						// Compact the buffer, this is an optional method,
-						// wonder what would happen if we didn't
-						this.netInBuffer.compact();
-						// Read in the status
-						handshakeStatus = res.getHandshakeStatus();
-						if (res.getStatus() == SSLEngineResult.Status.OK) {
-							// Execute tasks if we need to
-							tryTasks();
-							read = true;
-						} else if (res.getStatus() == Status.BUFFER_UNDERFLOW) {
-							read = true;
-						} else if (res.getStatus() == Status.BUFFER_OVERFLOW) {
-							ByteBuffer tmp = ByteBuffer.allocateDirect(packetBufferSize * (++i));
-
-							if (clientAppData.position() > 0) {
-								clientAppData.flip();
+		try {
+			// Begin handshake
+			sslEngine.beginHandshake();
+			handshakeStatus = sslEngine.getHandshakeStatus();
+			int i = 1;
+			boolean read = true;
+			// Process handshaking message
+			while (!handshakeComplete) {
+
+				switch (handshakeStatus) {
+				case NEED_UNWRAP:
+					int nBytes = 0;
+					if (read) {
+						clientAppData.clear();
+						nBytes = this.channel.read(this.netInBuffer).get();
+					}
+					if (nBytes < 0) {
+						throw new IOException(this + " : EOF encountered during handshake UNWRAP.");
+					} else {
+						boolean cont = false;
+						// Loop while we can perform pure SSLEngine data
+						do {
+							// Prepare the buffer with the incoming data
+							this.netInBuffer.flip();
+							// Call unwrap
+							SSLEngineResult res = sslEngine.unwrap(this.netInBuffer, clientAppData);
+							// Compact the buffer, this is an optional method,
+							// wonder what would happen if we didn't
+							this.netInBuffer.compact();
+							// Read in the status
+							handshakeStatus = res.getHandshakeStatus();
+							if (res.getStatus() == SSLEngineResult.Status.OK) {
+								// Execute tasks if we need to
+								tryTasks();
+								read = true;
+							} else if (res.getStatus() == Status.BUFFER_UNDERFLOW) {
+								read = true;
+							} else if (res.getStatus() == Status.BUFFER_OVERFLOW) {
+								ByteBuffer tmp = acquireBuffer(packetBufferSize * (++i));
+
+								if (clientAppData.position() > 0) {
+									clientAppData.flip();
+								}
+								tmp.put(clientAppData);
+								releaseBuffer(clientAppData);
+								clientAppData = tmp;
+								read = false;
 							}
-							tmp.put(clientAppData);
-							clientAppData = tmp;
-							read = false;
-						}
-						// Perform another unwrap?
-						cont = res.getStatus() == SSLEngineResult.Status.OK
-								&& handshakeStatus == HandshakeStatus.NEED_UNWRAP;
-					} while (cont);
-				}
+							// Perform another unwrap?
+							cont = res.getStatus() == SSLEngineResult.Status.OK
+									&& handshakeStatus == HandshakeStatus.NEED_UNWRAP;
+						} while (cont);
+					}
 
-				break;
-			case NEED_WRAP:
-				clientNetData.compact();
-				this.netOutBuffer.clear();
-				SSLEngineResult res = sslEngine.wrap(clientNetData, this.netOutBuffer);
-				handshakeStatus = res.getHandshakeStatus();
-				this.netOutBuffer.flip();
-
-				if (res.getStatus() == Status.OK) {
-					// Execute tasks if we need to
-					tryTasks();
-					// Send the handshaking data to client
-					while (this.netOutBuffer.hasRemaining()) {
-						if (this.channel.write(this.netOutBuffer).get() < 0) {
-							// Handle closed channel
-							throw new IOException(this
-									+ " : EOF encountered during handshake WRAP.");
+					break;
+				case NEED_WRAP:
+					this.netOutBuffer.clear();
+					SSLEngineResult res = sslEngine.wrap(clientNetData, this.netOutBuffer);
+					handshakeStatus = res.getHandshakeStatus();
+					this.netOutBuffer.flip();
+
+					if (res.getStatus() == Status.OK) {
+						// Execute tasks if we need to
+						tryTasks();
+						// Send the handshaking data to client
+						while (this.netOutBuffer.hasRemaining()) {
+							if (this.channel.write(this.netOutBuffer).get() < 0) {
+								// Handle closed channel
+								throw new IOException(this
+										+ " : EOF encountered during handshake WRAP.");
+							}
 						}
+					} else {
+						// Wrap should always work with our buffers
+						throw new IOException("Unexpected status:" + res.getStatus()
+								+ " during handshake WRAP.");
 					}
-				} else {
-					// Wrap should always work with our buffers
-					throw new IOException("Unexpected status:" + res.getStatus()
-							+ " during handshake WRAP.");
-				}
 
-				break;
-			case NEED_TASK:
-				handshakeStatus = tasks();
+					break;
+				case NEED_TASK:
+					handshakeStatus = tasks();
 
-				break;
-			case NOT_HANDSHAKING:
-				throw new SSLHandshakeException("NOT_HANDSHAKING during handshake");
-			case FINISHED:
-				handshakeComplete = true;
-				break;
+					break;
+				case NOT_HANDSHAKING:
+					throw new SSLHandshakeException("NOT_HANDSHAKING during handshake");
+				case FINISHED:
+					handshakeComplete = true;
+					break;
+				}
 			}
-		}
 
-		this.handshakeComplete = (handshakeStatus == HandshakeStatus.FINISHED);
+			this.handshakeComplete = (handshakeStatus == HandshakeStatus.FINISHED);
+		} finally {
+			releaseBuffer(clientNetData);
+			releaseBuffer(clientAppData);
+			releaseBuffer(this.netOutBuffer);
+			this.netOutBuffer = null;
+			releaseNetInBuffer();
+		}
 	}
 
 	/**
@@ -805,17 +888,78 @@ public class SecureNioChannel extends NioChannel {
 	 */
 	private void initBuffers(int capacity) {
 		if (this.netInBuffer == null) {
-			this.netInBuffer = ByteBuffer.allocateDirect(capacity);
+			this.netInBuffer = acquireBuffer(capacity);
 		} else {
 			this.netInBuffer.clear();
 		}
 		if (this.netOutBuffer == null) {
-			this.netOutBuffer = ByteBuffer.allocateDirect(capacity);
+			this.netOutBuffer = acquireBuffer(capacity);
 		} else {
 			this.netOutBuffer.clear();
 		}
 	}
 
+	/**
+	 * @return the size of the network buffers
+	 */
+	private int getPacketBufferSize() {
+		return Math.max(getSSLSession().getPacketBufferSize(), MIN_BUFFER_SIZE);
+	}
+
+	/**
+	 * Borrow the network input buffer, unless it is already held because it
+	 * contains some data which has not been unwrapped yet.
+	 * 
+	 * @return the network input buffer
+	 */
+	private synchronized ByteBuffer acquireNetInBuffer() {
+		if (this.netInBuffer == null) {
+			this.netInBuffer = acquireBuffer(getPacketBufferSize());
+		}
+		return this.netInBuffer;
+	}
+
+	/**
+	 * Give back the network input buffer if it does not contain any pending
+	 * data. The completion handlers may call it while the channel is closed,
+	 * hence the lock.
+	 */
+	private synchronized void releaseNetInBuffer() {
+		if (this.netInBuffer != null && this.netInBuffer.position() == 0) {
+			releaseBuffer(this.netInBuffer);
+			this.netInBuffer = null;
+		}
+	}
+
+	/**
+	 * Forget about the network input buffer after a failed read, or when the
+	 * channel is closed while a read may be pending.
+	 */
+	private synchronized void discardNetInBuffer() {
+		discardBuffer(this.netInBuffer);
+		this.netInBuffer = null;
+	}
+
+	/**
+	 * @param buffers
+	 */
+	private void releaseBuffers(ByteBuffer[] buffers) {
+		for (int i = 0; i < buffers.length; i++) {
+			releaseBuffer(buffers[i]);
+			buffers[i] = null;
+		}
+	}
+
+	/**
+	 * @param buffers
+	 */
+	private void discardBuffers(ByteBuffer[] buffers) {
+		for (int i = 0; i < buffers.length; i++) {
+			discardBuffer(buffers[i]);
+			buffers[i] = null;
+		}
+	}
+
 	/**
 	 * Check if the handshake was done or not yet
 	 * 
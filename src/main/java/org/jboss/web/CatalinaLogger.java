@@ -653,4 +653,12 @@ public interface CatalinaLogger extends BasicLogger {
     @Message(id = 1140, value = "Failed protocol handler [%s] JMX registration.")
     void failedProtocolJmxRegistration(Object objectName, @Cause Throwable t);
 
+    @LogMessage(level = ERROR)
+    @Message(id = 1141, value = "Error starting child container %s")
+    void errorStartingChildContainer(String name, @Cause Throwable t);
+
+    @LogMessage(level = ERROR)
+    @Message(id = 1142, value = "Servlet.destroy() for an instance in excess of servlet %s threw exception")
+    void errorDestroyingExcessServletInstance(String name, @Cause Throwable t);
+
 }
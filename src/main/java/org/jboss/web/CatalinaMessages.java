@@ -826,4 +826,7 @@ public interface CatalinaMessages {
     @Message(id = 309, value = "type")
     String statusType();
 
+    @Message(id = 310, value = "Timeout waiting for an instance of servlet %s")
+    String servletInstanceAllocationTimeout(String name);
+
 }
@@ -387,4 +387,12 @@ public interface CoyoteLogger extends BasicLogger {
     @Message(id = 3080, value = "Error initializing socket factory")
     void errorInitializingSocketFactory(@Cause Throwable t);
 
+    @LogMessage(level = WARN)
+    @Message(id = 3081, value = "Virtual threads are not supported by this JVM, using platform threads")
+    void virtualThreadsNotSupported();
+
+    @LogMessage(level = WARN)
+    @Message(id = 3082, value = "SO_REUSEPORT is not supported, using a single channel group")
+    void reusePortNotSupported();
+
 }
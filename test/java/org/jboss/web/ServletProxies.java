@@ -0,0 +1,115 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.web;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+
+/**
+ * Dynamic proxies standing for the servlet API objects in the tests which
+ * run a component without a container.
+ */
+public final class ServletProxies {
+
+    private ServletProxies() {
+    }
+
+    /**
+     * Return a proxy implementing the given interface.
+     *
+     * @param type The interface
+     * @param handler The handler of the calls
+     */
+    public static Object newProxy(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(ServletProxies.class.getClassLoader(),
+                new Class<?>[] { type }, handler);
+    }
+
+    /**
+     * Return the default value of the return type of the given method:
+     * false, -1 or <code>null</code>.
+     */
+    public static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+            return Boolean.FALSE;
+        } else if (type == int.class) {
+            return Integer.valueOf(-1);
+        } else if (type == long.class) {
+            return Long.valueOf(-1L);
+        }
+        return null;
+    }
+
+    /**
+     * Return a servlet configuration.
+     *
+     * @param servletName The name of the servlet
+     * @param initParameters The init parameters of the servlet
+     * @param attributes The attributes of the servlet context
+     * @param mimeType The MIME type of all the resources, or
+     *        <code>null</code>
+     */
+    public static ServletConfig newServletConfig(final String servletName,
+            final Map<String, String> initParameters, final Map<String, Object> attributes,
+            final String mimeType) {
+        final ServletContext context = (ServletContext) newProxy(ServletContext.class,
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                            throws Throwable {
+                        String name = method.getName();
+                        if (name.equals("getAttribute")) {
+                            return attributes.get(args[0]);
+                        } else if (name.equals("getAttributeNames")) {
+                            return Collections.enumeration(attributes.keySet());
+                        } else if (name.equals("getMimeType")) {
+                            return mimeType;
+                        }
+                        return defaultValue(method);
+                    }
+                });
+        return (ServletConfig) newProxy(ServletConfig.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("getServletContext")) {
+                    return context;
+                } else if (name.equals("getInitParameter")) {
+                    return initParameters.get(args[0]);
+                } else if (name.equals("getInitParameterNames")) {
+                    return Collections.enumeration(initParameters.keySet());
+                } else if (name.equals("getServletName")) {
+                    return servletName;
+                }
+                return defaultValue(method);
+            }
+        });
+    }
+
+}
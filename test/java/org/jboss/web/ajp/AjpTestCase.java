@@ -0,0 +1,261 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat, Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.web.ajp;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.apache.coyote.Adapter;
+import org.apache.coyote.Request;
+import org.apache.coyote.Response;
+import org.apache.coyote.ajp.AjpNioProtocol;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.net.SocketStatus;
+
+/**
+ * CPING and forwarded requests sent to a NIO.2 AJP connector started on a
+ * free port, on a single kept alive connection. The number of round trips is
+ * given by the <code>ajp.iterations</code> system property (default 1000).
+ */
+public class AjpTestCase extends TestCase {
+
+    protected static final int ITERATIONS = Integer.getInteger("ajp.iterations", 1000).intValue();
+
+    /**
+     * Construct a new instance of this test case.
+     *
+     * @param name Name of the test case
+     */
+    public AjpTestCase(String name) {
+        super(name);
+    }
+
+    /**
+     * Set up instance variables required by this test case.
+     */
+    public void setUp() throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        port = socket.getLocalPort();
+        socket.close();
+        protocol = new AjpNioProtocol();
+        protocol.setPort(port);
+        protocol.setAdapter(new EchoAdapter());
+        protocol.init();
+        protocol.start();
+    }
+
+    /**
+     * Return the tests included in this test suite.
+     */
+    public static Test suite() {
+        return (new TestSuite(AjpTestCase.class));
+    }
+
+    /**
+     * Tear down instance variables required by this test case.
+     */
+    public void tearDown() throws Exception {
+        if (protocol != null) {
+            protocol.destroy();
+            protocol = null;
+        }
+    }
+
+    private int port;
+    private AjpNioProtocol protocol;
+
+    /**
+     * CPING/CPONG round trips on a single kept alive connection.
+     */
+    public void testPing() throws Exception {
+        Socket socket = connect();
+        try {
+            OutputStream os = socket.getOutputStream();
+            DataInputStream is = new DataInputStream(socket.getInputStream());
+            byte[] cping = new byte[] { 0x12, 0x34, 0x00, 0x01, 0x0A };
+            long time = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                os.write(cping);
+                assertEquals(9, readPacket(is)[0]);
+            }
+            report("cping", time);
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Forwarded GET requests on a single kept alive connection.
+     */
+    public void testRequests() throws Exception {
+        Socket socket = connect();
+        try {
+            OutputStream os = socket.getOutputStream();
+            DataInputStream is = new DataInputStream(socket.getInputStream());
+            long time = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                String uri = "/r" + i;
+                os.write(forwardRequest(uri, port));
+                assertEquals(uri, readResponse(is));
+            }
+            report("requests", time);
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * A CPING between two forwarded requests is answered in order.
+     */
+    public void testPingBetweenRequests() throws Exception {
+        Socket socket = connect();
+        try {
+            OutputStream os = socket.getOutputStream();
+            DataInputStream is = new DataInputStream(socket.getInputStream());
+            os.write(forwardRequest("/first", port));
+            assertEquals("/first", readResponse(is));
+            os.write(new byte[] { 0x12, 0x34, 0x00, 0x01, 0x0A });
+            assertEquals(9, readPacket(is)[0]);
+            os.write(forwardRequest("/second", port));
+            assertEquals("/second", readResponse(is));
+        } finally {
+            socket.close();
+        }
+    }
+
+    protected Socket connect() throws IOException {
+        Socket socket = new Socket("localhost", port);
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(10000);
+        return socket;
+    }
+
+    protected void report(String name, long start) {
+        long elapsed = System.nanoTime() - start;
+        System.out.println(name + ": " + ITERATIONS + " in " + (elapsed / 1000000) + "ms, "
+                + (ITERATIONS * 1000000000L / Math.max(elapsed, 1)) + "/s");
+    }
+
+    /**
+     * Read a container to server packet, and return its body, starting with
+     * its type.
+     */
+    protected static byte[] readPacket(DataInputStream is)
+        throws IOException {
+        assertEquals('A', is.readUnsignedByte());
+        assertEquals('B', is.readUnsignedByte());
+        int len = is.readUnsignedShort();
+        byte[] body = new byte[len];
+        is.readFully(body);
+        return body;
+    }
+
+    /**
+     * Read all the packets of a response, up to the end response packet,
+     * check its status, and return its body.
+     */
+    protected static String readResponse(DataInputStream is)
+        throws IOException {
+        byte[] packet = readPacket(is);
+        assertEquals(4, packet[0]);
+        assertEquals(200, ((packet[1] & 0xFF) << 8) | (packet[2] & 0xFF));
+        StringBuilder body = new StringBuilder();
+        while ((packet = readPacket(is))[0] != 5) {
+            assertEquals(3, packet[0]);
+            int length = ((packet[1] & 0xFF) << 8) | (packet[2] & 0xFF);
+            body.append(new String(packet, 3, length, "ISO-8859-1"));
+        }
+        return body.toString();
+    }
+
+    /**
+     * Build a JK_AJP13_FORWARD_REQUEST for a GET to the given URI.
+     */
+    protected static byte[] forwardRequest(String uri, int port)
+        throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(0x02);
+        body.write(0x02); // GET
+        appendString(body, "HTTP/1.1");
+        appendString(body, uri);
+        appendString(body, "127.0.0.1");
+        appendString(body, "localhost");
+        appendString(body, "localhost");
+        appendInt(body, port);
+        body.write(0x00); // is_ssl
+        appendInt(body, 1);
+        appendInt(body, 0xA00B); // Host
+        appendString(body, "localhost");
+        body.write(0xFF);
+        byte[] b = body.toByteArray();
+        ByteArrayOutputStream packet = new ByteArrayOutputStream();
+        packet.write(0x12);
+        packet.write(0x34);
+        appendInt(packet, b.length);
+        packet.write(b);
+        return packet.toByteArray();
+    }
+
+    protected static void appendInt(ByteArrayOutputStream os, int value) {
+        os.write((value >>> 8) & 0xFF);
+        os.write(value & 0xFF);
+    }
+
+    protected static void appendString(ByteArrayOutputStream os, String value)
+        throws IOException {
+        byte[] b = value.getBytes("ISO-8859-1");
+        appendInt(os, b.length);
+        os.write(b);
+        os.write(0x00);
+    }
+
+    /**
+     * Adapter writing the request URI as the response body.
+     */
+    private static class EchoAdapter implements Adapter {
+
+        public void service(Request req, Response res) throws Exception {
+            byte[] b = req.requestURI().toString().getBytes("ISO-8859-1");
+            res.setContentLength(b.length);
+            res.setContentType("text/plain");
+            ByteChunk chunk = new ByteChunk();
+            chunk.setBytes(b, 0, b.length);
+            res.doWrite(chunk);
+        }
+
+        public boolean event(Request req, Response res, SocketStatus status) throws Exception {
+            return false;
+        }
+
+    }
+
+}
@@ -0,0 +1,257 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.web.compression;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import org.apache.coyote.OutputBuffer;
+import org.apache.coyote.Response;
+import org.apache.coyote.http11.OutputFilter;
+import org.apache.coyote.http11.filters.DeflaterPool;
+import org.apache.coyote.http11.filters.GzipOutputFilter;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+public class GzipOutputFilterTestCase extends TestCase {
+
+    /**
+     * Construct a new instance of this test case.
+     *
+     * @param name Name of the test case
+     */
+    public GzipOutputFilterTestCase(String name) {
+        super(name);
+    }
+
+    /**
+     * Set up instance variables required by this test case.
+     */
+    public void setUp() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 256 * 1024; i++) {
+            text.append("<tr><td class=\"name\">Item ").append(i)
+                .append("</td><td>").append(i * 31 % 977).append("</td></tr>\n");
+        }
+        content = text.toString().getBytes();
+    }
+
+    /**
+     * Return the tests included in this test suite.
+     */
+    public static Test suite() {
+        return (new TestSuite(GzipOutputFilterTestCase.class));
+    }
+
+    /**
+     * Tear down instance variables required by this test case.
+     */
+    public void tearDown() {
+        content = null;
+    }
+
+    protected static final int RESPONSE_SIZE = 32 * 1024;
+    protected static final int WRITE_SIZE = 8 * 1024;
+    protected static final int RESPONSES = 5000;
+
+    protected byte[] content;
+
+    /**
+     * The pool keeps a bounded number of idle deflaters, and frees the
+     * native resources of the others, as well as those of the deflaters
+     * released after it was destroyed.
+     */
+    public void testDeflaterPool() throws Exception {
+        DeflaterPool pool = new DeflaterPool(Deflater.DEFAULT_COMPRESSION,
+                Deflater.DEFAULT_STRATEGY, 2);
+        Deflater[] deflaters = new Deflater[4];
+        for (int i = 0; i < deflaters.length; i++) {
+            deflaters[i] = pool.get();
+        }
+        for (int i = 0; i < deflaters.length; i++) {
+            pool.release(deflaters[i]);
+        }
+        assertEquals(2, pool.getSize());
+        assertFalse(isEnded(deflaters[0]));
+        assertFalse(isEnded(deflaters[1]));
+        assertTrue(isEnded(deflaters[2]));
+        assertTrue(isEnded(deflaters[3]));
+        Deflater deflater = pool.get();
+        assertTrue(deflater == deflaters[0] || deflater == deflaters[1]);
+        assertEquals(1, pool.getSize());
+
+        pool.destroy();
+        assertEquals(0, pool.getSize());
+        assertTrue(isEnded(deflaters[0]) != isEnded(deflaters[1]));
+        pool.release(deflater);
+        assertTrue(isEnded(deflater));
+        assertEquals(0, pool.getSize());
+    }
+
+    private static boolean isEnded(Deflater deflater) {
+        try {
+            deflater.getTotalIn();
+            return false;
+        } catch (NullPointerException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Compress several responses with the same filter and pooled deflater,
+     * and check they are valid gzip streams.
+     */
+    public void testCompression() throws Exception {
+        DeflaterPool pool = new DeflaterPool(Deflater.BEST_SPEED, Deflater.DEFAULT_STRATEGY);
+        GzipOutputFilter filter = new GzipOutputFilter(pool);
+        Sink sink = new Sink();
+        filter.setBuffer(sink);
+        for (int i = 0; i < 3; i++) {
+            write(filter, content, 0, content.length);
+            filter.end();
+            filter.recycle();
+            assertTrue(Arrays.equals(content, gunzip(sink.reset())));
+        }
+        // Empty response
+        filter.end();
+        filter.recycle();
+        assertEquals(0, gunzip(sink.reset()).length);
+        pool.destroy();
+    }
+
+    /**
+     * Check that everything written before a flush can be decompressed
+     * before the end of the response.
+     */
+    public void testFlush() throws Exception {
+        GzipOutputFilter filter = new GzipOutputFilter();
+        Sink sink = new Sink();
+        filter.setBuffer(sink);
+        byte[] message = "data: event 1\n\n".getBytes();
+        write(filter, message, 0, message.length);
+        filter.flush();
+        byte[] partial = sink.reset();
+        Inflater inflater = new Inflater(true);
+        inflater.setInput(partial, 10, partial.length - 10);
+        byte[] result = new byte[message.length];
+        assertEquals(message.length, inflater.inflate(result));
+        assertTrue(Arrays.equals(message, result));
+        inflater.end();
+        filter.end();
+        filter.recycle();
+    }
+
+    /**
+     * Compressed throughput, with a deflater pool shared by all responses
+     * compared to a new deflater for each response.
+     */
+    public void testThroughput() throws Exception {
+        int[] levels = { Deflater.BEST_SPEED, 6 };
+        for (int i = 0; i < levels.length; i++) {
+            int level = levels[i];
+            DeflaterPool pool = new DeflaterPool(level, Deflater.DEFAULT_STRATEGY);
+            throughput(pool, false);
+            double pooled = throughput(pool, false);
+            double unpooled = throughput(pool, true);
+            System.out.println("Level " + level + ": pooled " + (int) pooled
+                    + " MB/s, new deflater per response " + (int) unpooled + " MB/s");
+            pool.destroy();
+        }
+    }
+
+    protected double throughput(DeflaterPool pool, boolean unpooled) throws Exception {
+        GzipOutputFilter filter = new GzipOutputFilter(pool);
+        Sink sink = new Sink();
+        sink.discard = true;
+        filter.setBuffer(sink);
+        long time = System.nanoTime();
+        for (int i = 0; i < RESPONSES; i++) {
+            if (unpooled) {
+                filter.setDeflaterPool(new DeflaterPool(pool.getLevel(), pool.getStrategy()));
+            }
+            int offset = (i * WRITE_SIZE) % (content.length - RESPONSE_SIZE);
+            write(filter, content, offset, RESPONSE_SIZE);
+            filter.end();
+            filter.recycle();
+            if (unpooled) {
+                filter.getDeflaterPool().destroy();
+            }
+        }
+        time = System.nanoTime() - time;
+        return ((double) RESPONSES * RESPONSE_SIZE / (1024 * 1024)) / (time / 1000000000.0);
+    }
+
+    protected static void write(GzipOutputFilter filter, byte[] b, int offset, int length)
+        throws IOException {
+        ByteChunk chunk = new ByteChunk();
+        for (int pos = offset; pos < offset + length; pos += WRITE_SIZE) {
+            chunk.setBytes(b, pos, Math.min(WRITE_SIZE, offset + length - pos));
+            filter.doWrite(chunk, null);
+        }
+    }
+
+    protected static byte[] gunzip(byte[] b) throws IOException {
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(b));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Last buffer of the pipeline, keeping the compressed bytes.
+     */
+    protected static class Sink implements OutputFilter {
+        protected ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        protected boolean discard = false;
+        public int doWrite(ByteChunk chunk, Response res) {
+            if (!discard) {
+                bytes.write(chunk.getBytes(), chunk.getStart(), chunk.getLength());
+            }
+            return chunk.getLength();
+        }
+        public byte[] reset() {
+            byte[] result = bytes.toByteArray();
+            bytes.reset();
+            return result;
+        }
+        public void setResponse(Response response) {}
+        public void recycle() {}
+        public ByteChunk getEncodingName() { return null; }
+        public void setBuffer(OutputBuffer buffer) {}
+        public long end() { return 0; }
+    }
+
+}
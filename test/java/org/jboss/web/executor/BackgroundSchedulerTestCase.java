@@ -0,0 +1,121 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.web.executor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.catalina.core.BackgroundScheduler;
+
+public class BackgroundSchedulerTestCase extends TestCase {
+
+    /**
+     * Construct a new instance of this test case.
+     *
+     * @param name Name of the test case
+     */
+    public BackgroundSchedulerTestCase(String name) {
+        super(name);
+    }
+
+    /**
+     * Set up instance variables required by this test case.
+     */
+    public void setUp() {
+    }
+
+    /**
+     * Return the tests included in this test suite.
+     */
+    public static Test suite() {
+        return (new TestSuite(BackgroundSchedulerTestCase.class));
+    }
+
+    /**
+     * Tear down instance variables required by this test case.
+     */
+    public void tearDown() {
+    }
+
+    /**
+     * A task runs periodically until it is cancelled, and its runs are
+     * counted.
+     */
+    public void testPeriodicTask() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(3);
+        final AtomicInteger runs = new AtomicInteger();
+        BackgroundScheduler.Task task = BackgroundScheduler.schedule(new Runnable() {
+            public void run() {
+                runs.incrementAndGet();
+                latch.countDown();
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        task.cancel();
+        // Let a run in progress complete
+        Thread.sleep(100);
+        int count = runs.get();
+        Thread.sleep(200);
+        assertEquals(count, runs.get());
+        assertEquals(count, task.getCount());
+        assertEquals(0, task.getOverrunCount());
+    }
+
+    /**
+     * A slow task is counted as an overrun, does not prevent another task
+     * from running, and is still scheduled when it fails.
+     */
+    public void testSlowTask() throws Exception {
+        final CountDownLatch slowLatch = new CountDownLatch(2);
+        BackgroundScheduler.Task slow = BackgroundScheduler.schedule(new Runnable() {
+            public void run() {
+                slowLatch.countDown();
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    // Ignore
+                }
+                throw new IllegalStateException();
+            }
+        }, 20, TimeUnit.MILLISECONDS);
+        final CountDownLatch fastLatch = new CountDownLatch(5);
+        BackgroundScheduler.Task fast = BackgroundScheduler.schedule(new Runnable() {
+            public void run() {
+                fastLatch.countDown();
+            }
+        }, 20, TimeUnit.MILLISECONDS);
+        assertTrue(slowLatch.await(5, TimeUnit.SECONDS));
+        assertTrue(fastLatch.await(5, TimeUnit.SECONDS));
+        slow.cancel();
+        fast.cancel();
+        assertTrue(slow.getOverrunCount() >= 1);
+        assertTrue(slow.getMaxTime() >= 100);
+    }
+
+}
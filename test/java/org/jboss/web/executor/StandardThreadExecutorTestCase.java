@@ -0,0 +1,229 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.web.executor;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.catalina.core.StandardThreadExecutor;
+
+public class StandardThreadExecutorTestCase extends TestCase {
+
+    /**
+     * Construct a new instance of this test case.
+     *
+     * @param name Name of the test case
+     */
+    public StandardThreadExecutorTestCase(String name) {
+        super(name);
+    }
+
+    /**
+     * Set up instance variables required by this test case.
+     */
+    public void setUp() {
+        executor = new StandardThreadExecutor();
+        executor.setNamePrefix("test-exec-");
+    }
+
+    /**
+     * Return the tests included in this test suite.
+     */
+    public static Test suite() {
+        return (new TestSuite(StandardThreadExecutorTestCase.class));
+    }
+
+    /**
+     * Tear down instance variables required by this test case.
+     */
+    public void tearDown() throws Exception {
+        executor.stop();
+        executor = null;
+    }
+
+    private StandardThreadExecutor executor;
+
+    /**
+     * Check that the tasks which do not fit in the queue are rejected.
+     */
+    public void testBoundedQueue() throws Exception {
+        executor.setMinSpareThreads(1);
+        executor.setMaxThreads(1);
+        executor.setMaxQueueSize(2);
+        executor.start();
+        CountDownLatch latch = new CountDownLatch(1);
+        for (int i = 0; i < 3; i++) {
+            executor.execute(new Sleeper(latch, 0));
+        }
+        try {
+            executor.execute(new Sleeper(latch, 0));
+            fail("Task not rejected");
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+        assertEquals(1, executor.getRejectedCount());
+        latch.countDown();
+    }
+
+    /**
+     * Check that the queue times are only recorded with statistics enabled
+     * outside of the adaptive mode.
+     */
+    public void testStatistics() throws Exception {
+        executor.setMinSpareThreads(1);
+        executor.setMaxThreads(1);
+        executor.start();
+        CountDownLatch done = new CountDownLatch(2);
+        executor.execute(new Sleeper(null, 5, done));
+        executor.execute(new Sleeper(null, 0, done));
+        done.await();
+        assertEquals(0, executor.getQueueTimeP99());
+        executor.setStatistics(true);
+        done = new CountDownLatch(2);
+        executor.execute(new Sleeper(null, 5, done));
+        executor.execute(new Sleeper(null, 0, done));
+        done.await();
+        assertTrue(executor.getQueueTimeP99() > 0);
+    }
+
+    /**
+     * Check that the adaptive pool grows when the tasks are queued, and
+     * shrinks back when the load drops.
+     */
+    public void testAdaptiveSizing() throws Exception {
+        executor.setAdaptive(true);
+        executor.setMinSpareThreads(2);
+        executor.setMaxThreads(64);
+        executor.setTargetQueueTime(2);
+        executor.setAdaptiveInterval(50);
+        executor.start();
+        assertEquals(2, executor.getMaximumPoolSize());
+        // About 16 threads busy
+        load(2000, 5, 3000);
+        int size = executor.getMaximumPoolSize();
+        assertTrue("Pool did not grow: " + size, size > 8);
+        assertTrue(executor.getQueueTimeP99() > 0);
+        // About 1 thread busy
+        load(500, 5, 2000);
+        int newSize = executor.getMaximumPoolSize();
+        assertTrue("Pool did not shrink: " + newSize, newSize < size);
+        assertTrue(newSize >= 2);
+    }
+
+    /**
+     * Compare the threads created by the static and the adaptive pools, and
+     * their queue times, under a bursty load.
+     */
+    public void testBurstyLoad() throws Exception {
+        for (int n = 0; n < 2; n++) {
+            StandardThreadExecutor executor = new StandardThreadExecutor();
+            executor.setAdaptive(n == 1);
+            executor.setStatistics(true);
+            executor.setMinSpareThreads(4);
+            executor.setMaxThreads(200);
+            executor.setAdaptiveInterval(50);
+            executor.start();
+            this.executor = executor;
+            long start = System.nanoTime();
+            for (int i = 0; i < 10; i++) {
+                // Burst of 200 short tasks, then a quiet period
+                CountDownLatch done = new CountDownLatch(200);
+                for (int j = 0; j < 200; j++) {
+                    executor.execute(new Sleeper(null, 1, done));
+                }
+                done.await();
+                Thread.sleep(100);
+            }
+            long time = (System.nanoTime() - start) / 1000000;
+            System.out.println((n == 1 ? "Adaptive" : "Static") + " pool: "
+                    + executor.getLargestPoolSize() + " threads created, "
+                    + executor.getQueueTimeP99() + "us p99 queue time, "
+                    + time + "ms for 10 bursts");
+            executor.stop();
+        }
+    }
+
+    /**
+     * Submit tasks at a fixed rate.
+     *
+     * @param rate Tasks per second
+     * @param taskTime Duration of each task in ms
+     * @param time Duration of the load in ms
+     */
+    private void load(int rate, long taskTime, long time) throws Exception {
+        long start = System.nanoTime();
+        long count = 0;
+        long elapsed;
+        while ((elapsed = (System.nanoTime() - start) / 1000000) < time) {
+            while (count < elapsed * rate / 1000) {
+                executor.execute(new Sleeper(null, taskTime));
+                count++;
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Task waiting for a latch, then sleeping.
+     */
+    private static class Sleeper implements Runnable {
+
+        private final CountDownLatch latch;
+        private final long time;
+        private final CountDownLatch done;
+
+        public Sleeper(CountDownLatch latch, long time) {
+            this(latch, time, null);
+        }
+
+        public Sleeper(CountDownLatch latch, long time, CountDownLatch done) {
+            this.latch = latch;
+            this.time = time;
+            this.done = done;
+        }
+
+        public void run() {
+            try {
+                if (latch != null) {
+                    latch.await();
+                }
+                if (time > 0) {
+                    Thread.sleep(time);
+                }
+            } catch (InterruptedException e) {
+                // Ignore
+            } finally {
+                if (done != null) {
+                    done.countDown();
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.web.http11;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * Connections over the limit of a NIO.2 HTTP connector started on a free
+ * port, with and without closing the idle keep-alive connections.
+ */
+public class AdmissionControlTestCase extends Http11ConnectorTestBase {
+
+    protected static final int MAX_CONNECTIONS = 4;
+
+    /**
+     * Construct a new instance of this test case.
+     *
+     * @param name Name of the test case
+     */
+    public AdmissionControlTestCase(String name) {
+        super(name);
+    }
+
+    /**
+     * Set up instance variables required by this test case.
+     */
+    public void setUp() {
+    }
+
+    /**
+     * Return the tests included in this test suite.
+     */
+    public static Test suite() {
+        return (new TestSuite(AdmissionControlTestCase.class));
+    }
+
+    /**
+     * Each new connection over the limit closes the oldest idle keep-alive
+     * connection.
+     */
+    public void testShedIdleConnections() throws Exception {
+        start(true);
+        Socket[] sockets = new Socket[MAX_CONNECTIONS + 2];
+        try {
+            for (int i = 0; i < sockets.length; i++) {
+                sockets[i] = new Socket("localhost", port);
+                sockets[i].setSoTimeout(5000);
+                assertEquals(200, exchange(sockets[i]));
+                // The response may be read before the connection is idle
+                awaitIdleConnections(Math.min(i + 1, MAX_CONNECTIONS));
+            }
+            assertEquals(2, protocol.getShedConnectionCount());
+            assertEquals(0, protocol.getRejectedConnectionCount());
+            // The two oldest connections were closed
+            assertEquals(-1, sockets[0].getInputStream().read());
+            assertEquals(-1, sockets[1].getInputStream().read());
+            for (int i = 2; i < sockets.length; i++) {
+                assertEquals(200, exchange(sockets[i]));
+            }
+        } finally {
+            close(sockets);
+        }
+    }
+
+    /**
+     * Without shedding, a new connection over the limit waits in the backlog
+     * until a connection is closed.
+     */
+    public void testPauseAccept() throws Exception {
+        start(false);
+        Socket[] sockets = new Socket[MAX_CONNECTIONS + 1];
+        try {
+            for (int i = 0; i < MAX_CONNECTIONS; i++) {
+                sockets[i] = new Socket("localhost", port);
+                sockets[i].setSoTimeout(5000);
+                assertEquals(200, exchange(sockets[i]));
+            }
+            Socket socket = new Socket("localhost", port);
+            sockets[MAX_CONNECTIONS] = socket;
+            socket.setSoTimeout(500);
+            send(socket);
+            try {
+                socket.getInputStream().read();
+                fail("Connection over the limit was served");
+            } catch (SocketTimeoutException e) {
+                // Expected
+            }
+            sockets[0].close();
+            socket.setSoTimeout(5000);
+            assertEquals(200, receive(socket));
+            assertEquals(0, protocol.getShedConnectionCount());
+        } finally {
+            close(sockets);
+        }
+    }
+
+    private void start(boolean shed) throws Exception {
+        createProtocol(new OkAdapter());
+        protocol.setPollerSize(MAX_CONNECTIONS);
+        protocol.setShedIdleConnections(shed);
+        protocol.setMaxKeepAliveRequests(-1);
+        startProtocol();
+    }
+
+    /**
+     * Wait until the specified number of connections are idle.
+     */
+    private void awaitIdleConnections(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (protocol.getIdleConnectionCount() < count) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+}
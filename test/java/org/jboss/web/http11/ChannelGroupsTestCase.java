@@ -0,0 +1,104 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.web.http11;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import java.net.Socket;
+
+/**
+ * Connections to a NIO.2 HTTP connector started on a free port, with one
+ * channel group and with several channel groups sharing the port.
+ */
+public class ChannelGroupsTestCase extends Http11ConnectorTestBase {
+
+    protected static final int CONNECTIONS = 200;
+    protected static final int REQUESTS = 20;
+
+    /**
+     * Construct a new instance of this test case.
+     *
+     * @param name Name of the test case
+     */
+    public ChannelGroupsTestCase(String name) {
+        super(name);
+    }
+
+    /**
+     * Set up instance variables required by this test case.
+     */
+    public void setUp() {
+    }
+
+    /**
+     * Return the tests included in this test suite.
+     */
+    public static Test suite() {
+        return (new TestSuite(ChannelGroupsTestCase.class));
+    }
+
+    /**
+     * Check the requests with the default single channel group.
+     */
+    public void testSingleGroup() throws Exception {
+        check(1);
+    }
+
+    /**
+     * Check the requests with four channel groups, which all accept
+     * connections if SO_REUSEPORT is supported.
+     */
+    public void testSeveralGroups() throws Exception {
+        check(4);
+    }
+
+    /**
+     * Check the requests with one channel group per processor.
+     */
+    public void testGroupPerProcessor() throws Exception {
+        check(0);
+    }
+
+    private void check(int groups) throws Exception {
+        createProtocol(new OkAdapter());
+        protocol.setChannelGroupCount(groups);
+        protocol.setMaxKeepAliveRequests(-1);
+        startProtocol();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < CONNECTIONS; i++) {
+            Socket s = new Socket("localhost", port);
+            try {
+                for (int j = 0; j < REQUESTS; j++) {
+                    assertEquals(200, exchange(s));
+                }
+            } finally {
+                s.close();
+            }
+        }
+        long time = (System.nanoTime() - start) / 1000000;
+        System.out.println(groups + " channel groups: " + (CONNECTIONS * REQUESTS)
+                + " requests in " + time + "ms");
+    }
+
+}
@@ -0,0 +1,250 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.web.http11;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.apache.coyote.Adapter;
+import org.apache.coyote.Request;
+import org.apache.coyote.Response;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.net.SocketStatus;
+
+/**
+ * Chunked responses whose chunks do not fit in the output buffer of the
+ * NIO.2 connector, which writes them along with the buffered bytes in a
+ * single gathering write.
+ */
+public class GatheringWriteTestCase extends Http11ConnectorTestBase {
+
+    /**
+     * Construct a new instance of this test case.
+     *
+     * @param name Name of the test case
+     */
+    public GatheringWriteTestCase(String name) {
+        super(name);
+    }
+
+    /**
+     * Set up instance variables required by this test case.
+     */
+    public void setUp() throws Exception {
+        int length = 0;
+        for (int i = 0; i < CHUNKS.length; i++) {
+            length += CHUNKS[i];
+        }
+        content = new byte[length];
+        new Random(0).nextBytes(content);
+        maxWrite = 0;
+        partialWrite = false;
+        createProtocol(new ChunkedAdapter());
+        startProtocol();
+    }
+
+    /**
+     * Return the tests included in this test suite.
+     */
+    public static Test suite() {
+        return (new TestSuite(GatheringWriteTestCase.class));
+    }
+
+    /**
+     * The size of the output buffer of the connector, with the default
+     * header buffer size.
+     */
+    private static final int BUFFER = 6 * 1500;
+
+    /**
+     * The sizes of the chunks written by the adapter: small ones which are
+     * buffered, and large ones written while some bytes are buffered.
+     */
+    private static final int[] CHUNKS = { 100, 200000, 3, 65536, BUFFER,
+            BUFFER + 1, 10, 4 * 1024 * 1024 };
+
+    private byte[] content;
+
+    /**
+     * The largest number of bytes written by the connector at once.
+     */
+    private volatile int maxWrite;
+
+    /**
+     * Whether a large chunk took more than one write.
+     */
+    private volatile boolean partialWrite;
+
+    /**
+     * The chunks arrive intact, and the responses which follow on the same
+     * connection are delimited correctly.
+     */
+    public void testLargeChunks() throws Exception {
+        Socket socket = new Socket("localhost", port);
+        socket.setSoTimeout(30000);
+        try {
+            for (int i = 0; i < 3; i++) {
+                send(socket, "/");
+                assertTrue(Arrays.equals(content, readChunkedResponse(socket.getInputStream())));
+            }
+        } finally {
+            socket.close();
+        }
+        // More than the buffer holds, so the chunks were not copied in it
+        assertTrue(maxWrite > BUFFER);
+    }
+
+    /**
+     * A client which does not keep up makes the writes partial, and the
+     * connector blocks until the rest of the chunk is written.
+     */
+    public void testSlowClient() throws Exception {
+        Socket socket = new Socket();
+        socket.setReceiveBufferSize(8192);
+        socket.setSoTimeout(30000);
+        socket.connect(new InetSocketAddress("localhost", port));
+        try {
+            send(socket, "/");
+            InputStream is = new SlowInputStream(socket.getInputStream());
+            Thread.sleep(500);
+            assertTrue(Arrays.equals(content, readChunkedResponse(is)));
+            send(socket, "/");
+            assertTrue(Arrays.equals(content, readChunkedResponse(socket.getInputStream())));
+        } finally {
+            socket.close();
+        }
+        assertTrue(maxWrite > BUFFER);
+        assertTrue(partialWrite);
+    }
+
+    private static void send(Socket socket, String uri) throws IOException {
+        OutputStream os = socket.getOutputStream();
+        os.write(("GET " + uri + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes("ISO-8859-1"));
+        os.flush();
+    }
+
+    /**
+     * Read a chunked response, and return its decoded body.
+     */
+    private static byte[] readChunkedResponse(InputStream is) throws IOException {
+        String status = readLine(is);
+        assertEquals("HTTP/1.1 200 OK", status);
+        boolean chunked = false;
+        String line;
+        while ((line = readLine(is)).length() > 0) {
+            if (line.equalsIgnoreCase("Transfer-Encoding: chunked")) {
+                chunked = true;
+            }
+        }
+        assertTrue(chunked);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int length;
+        while ((length = Integer.parseInt(readLine(is), 16)) > 0) {
+            byte[] b = new byte[length];
+            int pos = 0;
+            while (pos < length) {
+                int n = is.read(b, pos, length - pos);
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                pos += n;
+            }
+            body.write(b);
+            assertEquals("", readLine(is));
+        }
+        assertEquals("", readLine(is));
+        return body.toByteArray();
+    }
+
+    /**
+     * Stream pausing every now and then while reading.
+     */
+    private static class SlowInputStream extends InputStream {
+
+        private final InputStream is;
+
+        private int count = 0;
+
+        SlowInputStream(InputStream is) {
+            this.is = is;
+        }
+
+        public int read() throws IOException {
+            return is.read();
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if ((++count % 64) == 0) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            return is.read(b, off, Math.min(len, 8192));
+        }
+
+    }
+
+    /**
+     * Adapter writing the content in chunks of various sizes, without a
+     * content length.
+     */
+    private class ChunkedAdapter implements Adapter {
+
+        public void service(Request req, Response res) throws Exception {
+            res.setContentType("application/octet-stream");
+            int pos = 0;
+            for (int i = 0; i < CHUNKS.length; i++) {
+                ByteChunk chunk = new ByteChunk();
+                chunk.setBytes(content, pos, CHUNKS[i]);
+                res.doWrite(chunk);
+                pos += CHUNKS[i];
+                int lastWrite = res.getLastWrite();
+                if (lastWrite > maxWrite) {
+                    maxWrite = lastWrite;
+                }
+                if (CHUNKS[i] > BUFFER && lastWrite < CHUNKS[i]) {
+                    partialWrite = true;
+                }
+            }
+        }
+
+        public boolean event(Request req, Response res, SocketStatus status) throws Exception {
+            return false;
+        }
+
+    }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.web.http11;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.coyote.Response;
+import org.apache.coyote.http11.AbstractInternalOutputBuffer;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.http.FastHttpDateFormat;
+import org.apache.tomcat.util.http.HttpMessages;
+import org.apache.tomcat.util.http.MimeHeaders;
+
+public class HeaderBytesTestCase extends TestCase {
+
+    /**
+     * Construct a new instance of this test case.
+     *
+     * @param name Name of the test case
+     */
+    public HeaderBytesTestCase(String name) {
+        super(name);
+    }
+
+    /**
+     * Set up instance variables required by this test case.
+     */
+    public void setUp() {
+        response = new Response();
+        buffer = new HeaderBuffer(response);
+    }
+
+    /**
+     * Return the tests included in this test suite.
+     */
+    public static Test suite() {
+        return (new TestSuite(HeaderBytesTestCase.class));
+    }
+
+    /**
+     * Tear down instance variables required by this test case.
+     */
+    public void tearDown() {
+        response = null;
+        buffer = null;
+    }
+
+    private Response response;
+    private HeaderBuffer buffer;
+
+    /**
+     * Check the status lines.
+     */
+    public void testStatusLine() {
+        response.setStatus(200);
+        buffer.sendStatus();
+        assertEquals("HTTP/1.1 200 OK\r\n", buffer.getHeaders());
+        buffer.reset();
+        response.setStatus(503);
+        buffer.sendStatus();
+        assertEquals("HTTP/1.1 503 " + HttpMessages.getMessage(503) + "\r\n", buffer.getHeaders());
+        buffer.reset();
+        response.setStatus(299);
+        buffer.sendStatus();
+        assertEquals("HTTP/1.1 299 \r\n", buffer.getHeaders());
+    }
+
+    /**
+     * Check the common and uncommon headers.
+     */
+    public void testHeaders() {
+        MimeHeaders headers = response.getMimeHeaders();
+        headers.setValue("Transfer-Encoding").setString("chunked");
+        headers.setValue("X-Custom").setString("value");
+        headers.setValue("Connection").setString("close");
+        for (int i = 0; i < headers.size(); i++) {
+            buffer.sendHeader(headers.getName(i), headers.getValue(i));
+        }
+        buffer.sendHeader("Content-Type", "text/plain");
+        buffer.endHeaders();
+        assertEquals("Transfer-Encoding: chunked\r\nX-Custom: value\r\nConnection: close\r\n"
+                + "Content-Type: text/plain\r\n\r\n", buffer.getHeaders());
+    }
+
+    /**
+     * Check the cached date.
+     */
+    public void testDate() {
+        byte[] date = FastHttpDateFormat.getCurrentDateBytes();
+        assertEquals(FastHttpDateFormat.getCurrentDate(), new String(date));
+        assertSame(date, FastHttpDateFormat.getCurrentDateBytes());
+    }
+
+    /**
+     * Measure the serialization of a typical response header, compared to
+     * encoding it char by char.
+     */
+    public void testSerialization() {
+        int count = 1000000;
+        response.setStatus(200);
+        MimeHeaders headers = response.getMimeHeaders();
+        headers.setValue("Content-Type").setString("application/json;charset=UTF-8");
+        headers.addValue("Transfer-Encoding").setString("chunked");
+        headers.addValue("Connection").setString("close");
+        byte[] date = FastHttpDateFormat.getCurrentDateBytes();
+        headers.setValue("Date").setBytes(date, 0, date.length);
+        String[] strings = new String[headers.size() * 2];
+        for (int i = 0; i < headers.size(); i++) {
+            strings[i * 2] = headers.getName(i).toString();
+            strings[i * 2 + 1] = headers.getValue(i).toString();
+        }
+        for (int i = 0; i < 2; i++) {
+            // Warm up, then measure
+            long start = System.nanoTime();
+            for (int j = 0; j < count; j++) {
+                buffer.reset();
+                buffer.sendStatus();
+                for (int k = 0; k < headers.size(); k++) {
+                    buffer.sendHeader(headers.getName(k), headers.getValue(k));
+                }
+                buffer.endHeaders();
+            }
+            long time = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int j = 0; j < count; j++) {
+                buffer.reset();
+                buffer.encode("HTTP/1.1");
+                buffer.encode(" ");
+                buffer.encode(String.valueOf(200));
+                buffer.encode(" ");
+                buffer.encode(HttpMessages.getMessage(200));
+                buffer.encode("\r\n");
+                for (int k = 0; k < strings.length; k += 2) {
+                    buffer.encode(strings[k]);
+                    buffer.encode(": ");
+                    buffer.encode(strings[k + 1]);
+                    buffer.encode("\r\n");
+                }
+                buffer.encode("\r\n");
+            }
+            long baseline = System.nanoTime() - start;
+            if (i == 1) {
+                System.out.println("Header serialization: " + (time / count)
+                        + "ns per response, " + (baseline / count)
+                        + "ns when encoding char by char");
+            }
+        }
+        buffer.reset();
+        buffer.sendStatus();
+        assertTrue(buffer.getHeaders().startsWith("HTTP/1.1 200 OK\r\n"));
+    }
+
+    /**
+     * Output buffer only keeping the header bytes.
+     */
+    private static class HeaderBuffer extends AbstractInternalOutputBuffer {
+
+        public HeaderBuffer(Response response) {
+            super(response, 8192);
+        }
+
+        public String getHeaders() {
+            return new String(buf, 0, pos);
+        }
+
+        public void reset() {
+            pos = 0;
+        }
+
+        public void encode(String s) {
+            write(s);
+        }
+
+        protected void init() {
+        }
+
+        protected int write(long timeout, TimeUnit unit) {
+            return 0;
+        }
+
+        public void sendAck() throws Exception {
+        }
+
+        public int doWrite(ByteChunk chunk, Response res) throws IOException {
+            return chunk.getLength();
+        }
+
+        protected void flushBuffer() throws IOException {
+        }
+
+        public boolean flushLeftover() throws IOException {
+            return true;
+        }
+
+    }
+
+}
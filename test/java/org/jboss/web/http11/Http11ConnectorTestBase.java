@@ -0,0 +1,195 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.web.http11;
+
+import junit.framework.TestCase;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.apache.coyote.Adapter;
+import org.apache.coyote.Request;
+import org.apache.coyote.Response;
+import org.apache.coyote.http11.Http11NioProtocol;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.net.SocketStatus;
+
+/**
+ * Base of the test cases which run a NIO.2 HTTP connector on a free port,
+ * and talk to it over plain sockets.
+ */
+public abstract class Http11ConnectorTestBase extends TestCase {
+
+    /**
+     * Construct a new instance of this test case.
+     *
+     * @param name Name of the test case
+     */
+    public Http11ConnectorTestBase(String name) {
+        super(name);
+    }
+
+    /**
+     * Tear down instance variables required by this test case.
+     */
+    public void tearDown() throws Exception {
+        stopProtocol();
+    }
+
+    /**
+     * The port of the connector.
+     */
+    protected int port;
+
+    /**
+     * The connector, which is destroyed after each test.
+     */
+    protected Http11NioProtocol protocol;
+
+    /**
+     * Create a connector on a free port, to be configured and then started
+     * with {@link #startProtocol()}.
+     *
+     * @param adapter The adapter servicing the requests
+     */
+    protected Http11NioProtocol createProtocol(Adapter adapter) throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        port = socket.getLocalPort();
+        socket.close();
+        protocol = new Http11NioProtocol();
+        protocol.setPort(port);
+        protocol.setAdapter(adapter);
+        return protocol;
+    }
+
+    protected void startProtocol() throws Exception {
+        protocol.init();
+        protocol.start();
+    }
+
+    protected void stopProtocol() throws Exception {
+        if (protocol != null) {
+            protocol.destroy();
+            protocol = null;
+        }
+    }
+
+    protected static void close(Socket[] sockets) throws IOException {
+        for (int i = 0; i < sockets.length; i++) {
+            if (sockets[i] != null) {
+                sockets[i].close();
+            }
+        }
+    }
+
+    /**
+     * Send a request, and read its response.
+     *
+     * @return the status code
+     */
+    protected static int exchange(Socket socket) throws IOException {
+        send(socket);
+        return receive(socket);
+    }
+
+    protected static void send(Socket socket) throws IOException {
+        OutputStream os = socket.getOutputStream();
+        os.write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes("ISO-8859-1"));
+        os.flush();
+    }
+
+    protected static int receive(Socket socket) throws IOException {
+        return readResponse(socket.getInputStream(), null);
+    }
+
+    /**
+     * Read a response, delimited by its content length.
+     *
+     * @param is The stream the response is read from
+     * @param body The buffer the body is appended to, or <code>null</code>
+     * @return the status code
+     */
+    protected static int readResponse(InputStream is, StringBuilder body) throws IOException {
+        String status = readLine(is);
+        int length = 0;
+        String line;
+        while ((line = readLine(is)).length() > 0) {
+            if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                length = Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        byte[] b = new byte[length];
+        int pos = 0;
+        while (pos < length) {
+            int n = is.read(b, pos, length - pos);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            pos += n;
+        }
+        if (body != null) {
+            body.append(new String(b, "ISO-8859-1"));
+        }
+        return Integer.parseInt(status.substring(9, 12));
+    }
+
+    protected static String readLine(InputStream is) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = is.read()) != '\n') {
+            if (c < 0) {
+                throw new EOFException();
+            }
+            if (c != '\r') {
+                sb.append((char) c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Adapter writing a short response body.
+     */
+    protected static class OkAdapter implements Adapter {
+
+        public void service(Request req, Response res) throws Exception {
+            byte[] b = "ok".getBytes("ISO-8859-1");
+            res.setContentLength(b.length);
+            res.setContentType("text/plain");
+            ByteChunk chunk = new ByteChunk();
+            chunk.setBytes(b, 0, b.length);
+            res.doWrite(chunk);
+        }
+
+        public boolean event(Request req, Response res, SocketStatus status) throws Exception {
+            return false;
+        }
+
+    }
+
+}
@@ -0,0 +1,202 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.web.http11;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Enumeration;
+
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.MimeHeaders;
+
+public class MimeHeadersTestCase extends TestCase {
+
+    /**
+     * Construct a new instance of this test case.
+     *
+     * @param name Name of the test case
+     */
+    public MimeHeadersTestCase(String name) {
+        super(name);
+    }
+
+    /**
+     * Set up instance variables required by this test case.
+     */
+    public void setUp() {
+    }
+
+    /**
+     * Return the tests included in this test suite.
+     */
+    public static Test suite() {
+        return (new TestSuite(MimeHeadersTestCase.class));
+    }
+
+    /**
+     * Tear down instance variables required by this test case.
+     */
+    public void tearDown() {
+    }
+
+    protected static void add(MimeHeaders headers, String name, String value) {
+        byte[] b = name.getBytes();
+        headers.addValue(b, 0, b.length).setString(value);
+    }
+
+    public void testLookups() {
+        MimeHeaders headers = new MimeHeaders();
+        add(headers, "Host", "www.example.com");
+        add(headers, "X-Custom", "one");
+        add(headers, "Accept", "text/html");
+        add(headers, "x-custom", "two");
+        headers.addValue("X-CUSTOM").setString("three");
+        headers.addValue("Accept").setString("*/*");
+
+        assertEquals("www.example.com", headers.getHeader("HOST"));
+        assertEquals("one", headers.getHeader("x-Custom"));
+        assertEquals("text/html", headers.getHeader("accept"));
+        assertNull(headers.getHeader("X-Custom2"));
+        assertNull(headers.getHeader("Cookie"));
+        assertEquals(1, headers.findHeader("x-custom", 0));
+        assertEquals(3, headers.findHeader("x-custom", 2));
+        assertEquals(4, headers.findHeader("x-custom", 4));
+        assertEquals(-1, headers.findHeader("x-custom", 5));
+        assertEquals("www.example.com", headers.getUniqueValue("host").toString());
+        try {
+            headers.getUniqueValue("accept");
+            fail("Accept is not unique");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        Enumeration values = headers.values("X-Custom");
+        assertEquals("one", values.nextElement());
+        assertEquals("two", values.nextElement());
+        assertEquals("three", values.nextElement());
+        assertFalse(values.hasMoreElements());
+
+        Enumeration names = headers.names();
+        assertEquals("Host", names.nextElement());
+        assertEquals("X-Custom", names.nextElement());
+        assertEquals("Accept", names.nextElement());
+        assertFalse(names.hasMoreElements());
+    }
+
+    public void testRemove() {
+        MimeHeaders headers = new MimeHeaders();
+        for (int i = 0; i < 40; i++) {
+            add(headers, "X-Header-" + (i % 10), String.valueOf(i));
+            add(headers, "Via", String.valueOf(i));
+        }
+        headers.setValue("x-header-3").setString("single");
+        assertEquals(77, headers.size());
+        assertEquals("single", headers.getUniqueValue("X-Header-3").toString());
+        headers.removeHeader("VIA");
+        assertEquals(37, headers.size());
+        assertNull(headers.getValue("Via"));
+        assertEquals("4", headers.getHeader("X-Header-4"));
+        Enumeration values = headers.values("X-Header-4");
+        int n = 0;
+        while (values.hasMoreElements()) {
+            // Removals do not keep the order of the headers
+            String value = (String) values.nextElement();
+            assertEquals(4, Integer.parseInt(value) % 10);
+            n++;
+        }
+        assertEquals(4, n);
+        headers.setValue("Via").setString("1.1 proxy");
+        assertEquals("1.1 proxy", headers.getHeader("via"));
+
+        headers.recycle();
+        assertEquals(0, headers.size());
+        assertNull(headers.getValue("x-header-1"));
+        add(headers, "X-Header-1", "again");
+        assertEquals("again", headers.getHeader("x-header-1"));
+    }
+
+    /**
+     * Lookups in a request which went through several proxies.
+     */
+    public void testLookupThroughput() {
+        MimeHeaders headers = new MimeHeaders();
+        String[] names = new String[] { "Host", "User-Agent", "Accept",
+                "Accept-Language", "Accept-Encoding", "Cookie",
+                "Authorization", "Content-Type", "Content-Length" };
+        for (int i = 0; i < names.length; i++) {
+            add(headers, names[i], "value" + i);
+        }
+        for (int i = 0; i < 30; i++) {
+            add(headers, "X-Forwarded-For", "10.0.0." + i);
+            add(headers, "X-Proxy-Hop-" + i, "hop" + i);
+        }
+        String[] lookups = new String[] { "content-length", "content-type",
+                "Authorization", "X-Proxy-Hop-29", "If-None-Match",
+                "X-Request-Id", "Accept-Encoding", "Cookie" };
+        int count = 200000;
+        for (int i = 0; i < 2; i++) {
+            long start = System.nanoTime();
+            int found = 0;
+            for (int j = 0; j < count; j++) {
+                for (int k = 0; k < lookups.length; k++) {
+                    if (headers.getValue(lookups[k]) != null) {
+                        found++;
+                    }
+                }
+            }
+            long time = System.nanoTime() - start;
+            start = System.nanoTime();
+            int scanned = 0;
+            for (int j = 0; j < count; j++) {
+                for (int k = 0; k < lookups.length; k++) {
+                    if (scan(headers, lookups[k]) != null) {
+                        scanned++;
+                    }
+                }
+            }
+            long baseline = System.nanoTime() - start;
+            assertEquals(scanned, found);
+            if (i == 1) {
+                System.out.println("Header lookups: " + (time / count)
+                        + "ns per request, " + (baseline / count)
+                        + "ns when scanning all the headers");
+            }
+        }
+    }
+
+    /**
+     * Lookup without the index.
+     */
+    protected static MessageBytes scan(MimeHeaders headers, String name) {
+        for (int i = 0; i < headers.size(); i++) {
+            if (headers.getName(i).equalsIgnoreCase(name)) {
+                return headers.getValue(i);
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.web.http11;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.apache.tomcat.util.http.Parameters;
+
+public class ParametersTestCase extends TestCase {
+
+    /**
+     * Construct a new instance of this test case.
+     *
+     * @param name Name of the test case
+     */
+    public ParametersTestCase(String name) {
+        super(name);
+    }
+
+    /**
+     * Set up instance variables required by this test case.
+     */
+    public void setUp() {
+    }
+
+    /**
+     * Return the tests included in this test suite.
+     */
+    public static Test suite() {
+        return (new TestSuite(ParametersTestCase.class));
+    }
+
+    /**
+     * Tear down instance variables required by this test case.
+     */
+    public void tearDown() {
+    }
+
+    protected static Parameters parse(String form, boolean lazy) throws Exception {
+        Parameters parameters = new Parameters();
+        parameters.setLazy(lazy);
+        parameters.setLimit(-1);
+        parameters.setEncoding("UTF-8");
+        byte[] bytes = form.getBytes("ISO-8859-1");
+        parameters.processParameters(bytes, 0, bytes.length);
+        return parameters;
+    }
+
+    public void testEager() throws Exception {
+        checkParameters(false);
+    }
+
+    public void testLazy() throws Exception {
+        checkParameters(true);
+    }
+
+    protected void checkParameters(boolean lazy) throws Exception {
+        Parameters parameters = parse("a=1&b=two+words&%41=encoded&c=&d&a=2"
+                + "&e=%C3%A9t%C3%A9&f=%zz&g=x=y&x%5B1%5D+y=bracket&%7Et=tilde", lazy);
+        assertEquals("1", parameters.getParameter("a"));
+        assertEquals("two words", parameters.getParameter("b"));
+        assertEquals("encoded", parameters.getParameter("A"));
+        assertEquals("", parameters.getParameter("c"));
+        assertEquals("", parameters.getParameter("d"));
+        assertEquals("été", parameters.getParameter("e"));
+        assertNull(parameters.getParameter("f"));
+        assertEquals("x=y", parameters.getParameter("g"));
+        assertEquals("bracket", parameters.getParameter("x[1] y"));
+        assertNull(parameters.getParameter("x[1]"));
+        assertEquals("tilde", parameters.getParameter("~t"));
+        assertNull(parameters.getParameter("%41"));
+        assertNull(parameters.getParameter("missing"));
+        String[] values = parameters.getParameterValues("a");
+        assertEquals(2, values.length);
+        assertEquals("1", values[0]);
+        assertEquals("2", values[1]);
+        assertNull(parameters.getParameterValues("f"));
+        ArrayList<String> names = Collections.list(parameters.getParameterNames());
+        assertEquals(9, names.size());
+        assertTrue(names.contains("x[1] y"));
+        assertFalse(names.contains("f"));
+        assertTrue(parameters.isParseFailed());
+
+        parameters.addParameter("a", "3");
+        assertEquals(3, parameters.getParameterValues("a").length);
+        parameters.recycle();
+        assertNull(parameters.getParameter("a"));
+        assertFalse(parameters.isParseFailed());
+    }
+
+    public void testLargeForm() throws Exception {
+        StringBuilder form = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            form.append("field").append(i).append('=').append("value+").append(i).append('&');
+            form.append("list=").append(i).append('&');
+        }
+        form.append("%66ield1=encoded&%66ield2+b=space");
+        for (int k = 0; k < 2; k++) {
+            Parameters parameters = parse(form.toString(), k == 1);
+            assertEquals("value 299", parameters.getParameter("field299"));
+            assertEquals("value 0", parameters.getParameter("field0"));
+            String[] values = parameters.getParameterValues("field1");
+            assertEquals(2, values.length);
+            assertEquals("encoded", values[1]);
+            assertEquals("space", parameters.getParameter("field2 b"));
+            assertEquals(300, parameters.getParameterValues("list").length);
+            assertEquals("150", parameters.getParameterValues("list")[150]);
+            assertEquals(302, Collections.list(parameters.getParameterNames()).size());
+        }
+    }
+
+    /**
+     * A large form of which only a few fields are read.
+     */
+    public void testThroughput() throws Exception {
+        StringBuilder form = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            form.append("item%5B").append(i).append("%5D.description=Some+text+for+item+")
+                .append(i).append("&item%5B").append(i).append("%5D.quantity=").append(i).append('&');
+        }
+        form.append("action=save&token=4f9a2c");
+        byte[] bytes = form.toString().getBytes("ISO-8859-1");
+        byte[] buffer = new byte[bytes.length];
+        Parameters parameters = new Parameters();
+        parameters.setEncoding("UTF-8");
+        parameters.setLimit(-1);
+        int count = 5000;
+        for (int i = 0; i < 2; i++) {
+            long[] times = new long[2];
+            for (int k = 0; k < 2; k++) {
+                parameters.setLazy(k == 1);
+                long start = System.nanoTime();
+                for (int j = 0; j < count; j++) {
+                    // Decoding is done in place
+                    System.arraycopy(bytes, 0, buffer, 0, bytes.length);
+                    parameters.processParameters(buffer, 0, buffer.length);
+                    assertEquals("save", parameters.getParameter("action"));
+                    assertEquals("4f9a2c", parameters.getParameter("token"));
+                    parameters.recycle();
+                }
+                times[k] = System.nanoTime() - start;
+            }
+            if (i == 1) {
+                System.out.println("Form with 402 fields, 2 read: " + (times[1] / count / 1000)
+                        + "us per request when lazy, " + (times[0] / count / 1000)
+                        + "us when decoding all the fields");
+            }
+        }
+    }
+
+}
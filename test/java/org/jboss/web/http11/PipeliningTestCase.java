@@ -0,0 +1,220 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.web.http11;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import org.apache.coyote.Adapter;
+import org.apache.coyote.Request;
+import org.apache.coyote.Response;
+import org.apache.coyote.http11.Http11NioProtocol;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.net.SocketStatus;
+
+/**
+ * Pipelined requests sent to a NIO.2 HTTP connector started on a free port,
+ * with and without batching the responses.
+ */
+public class PipeliningTestCase extends Http11ConnectorTestBase {
+
+    protected static final int REQUESTS = 100;
+    protected static final int ROUNDS = 200;
+
+    /**
+     * Construct a new instance of this test case.
+     *
+     * @param name Name of the test case
+     */
+    public PipeliningTestCase(String name) {
+        super(name);
+    }
+
+    /**
+     * Set up instance variables required by this test case.
+     */
+    public void setUp() {
+    }
+
+    /**
+     * Return the tests included in this test suite.
+     */
+    public static Test suite() {
+        return (new TestSuite(PipeliningTestCase.class));
+    }
+
+    /**
+     * Check the responses to a few pipelined requests, written separately.
+     */
+    public void testUnbatched() throws Exception {
+        check(1, 3);
+    }
+
+    /**
+     * Check the responses to a few pipelined requests, written together.
+     */
+    public void testBatched() throws Exception {
+        check(16, 3);
+    }
+
+    /**
+     * Check the responses when more requests are pipelined than the
+     * maximum depth.
+     */
+    public void testDeepPipeline() throws Exception {
+        check(4, 50);
+    }
+
+    /**
+     * Responses are written on their own unless batching is enabled.
+     */
+    public void testDefaultDepth() throws Exception {
+        assertEquals(1, new Http11NioProtocol().getMaxPipelineDepth());
+    }
+
+    /**
+     * The held back responses are written before servicing a request with a
+     * body, which the client may only send after reading them.
+     */
+    public void testRequestBody() throws Exception {
+        start(16);
+        Socket socket = new Socket("localhost", port);
+        try {
+            socket.setSoTimeout(5000);
+            OutputStream os = socket.getOutputStream();
+            os.write(("GET /r0 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "POST /r1 HTTP/1.1\r\nHost: localhost\r\nContent-Length: 4\r\n\r\n")
+                    .getBytes("ISO-8859-1"));
+            os.flush();
+            InputStream is = new BufferedInputStream(socket.getInputStream());
+            assertEquals("/r0", readResponse(is));
+            os.write("body".getBytes("ISO-8859-1"));
+            os.flush();
+            assertEquals("/r1", readResponse(is));
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Measure the pipelined requests with and without batching.
+     */
+    public void testThroughput() throws Exception {
+        int[] depths = { 1, 16 };
+        for (int n = 0; n < depths.length; n++) {
+            start(depths[n]);
+            Socket socket = new Socket("localhost", port);
+            try {
+                long time = 0;
+                for (int i = 0; i < ROUNDS; i++) {
+                    // The first half warms up
+                    long start = System.nanoTime();
+                    exchange(socket, REQUESTS);
+                    if (i >= ROUNDS / 2) {
+                        time += System.nanoTime() - start;
+                    }
+                }
+                System.out.println("Pipeline depth " + depths[n] + ": "
+                        + (time / (ROUNDS / 2) / 1000) + "us per " + REQUESTS
+                        + " pipelined requests");
+            } finally {
+                socket.close();
+                stopProtocol();
+            }
+        }
+    }
+
+    private void check(int depth, int requests) throws Exception {
+        start(depth);
+        Socket socket = new Socket("localhost", port);
+        try {
+            exchange(socket, requests);
+            exchange(socket, 1);
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void start(int depth) throws Exception {
+        createProtocol(new EchoAdapter());
+        protocol.setMaxPipelineDepth(depth);
+        protocol.setMaxKeepAliveRequests(-1);
+        startProtocol();
+    }
+
+    /**
+     * Send the requests in one write, and check that the responses come back
+     * in order.
+     */
+    private static void exchange(Socket socket, int requests) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < requests; i++) {
+            sb.append("GET /r").append(i).append(" HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        }
+        OutputStream os = socket.getOutputStream();
+        os.write(sb.toString().getBytes("ISO-8859-1"));
+        os.flush();
+        InputStream is = new BufferedInputStream(socket.getInputStream());
+        for (int i = 0; i < requests; i++) {
+            assertEquals("/r" + i, readResponse(is));
+        }
+        assertEquals(0, is.available());
+    }
+
+    /**
+     * Read a response, and return its body.
+     */
+    private static String readResponse(InputStream is) throws IOException {
+        StringBuilder body = new StringBuilder();
+        assertEquals(200, readResponse(is, body));
+        return body.toString();
+    }
+
+    /**
+     * Adapter writing the request URI as the response body.
+     */
+    private static class EchoAdapter implements Adapter {
+
+        public void service(Request req, Response res) throws Exception {
+            byte[] b = req.requestURI().toString().getBytes("ISO-8859-1");
+            res.setContentLength(b.length);
+            res.setContentType("text/plain");
+            ByteChunk chunk = new ByteChunk();
+            chunk.setBytes(b, 0, b.length);
+            res.doWrite(chunk);
+        }
+
+        public boolean event(Request req, Response res, SocketStatus status) throws Exception {
+            return false;
+        }
+
+    }
+
+}
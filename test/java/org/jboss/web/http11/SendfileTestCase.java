@@ -0,0 +1,475 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.web.http11;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.apache.coyote.Adapter;
+import org.apache.coyote.Request;
+import org.apache.coyote.Response;
+import org.apache.tomcat.util.net.MappedBuffers;
+import org.apache.tomcat.util.net.NioEndpoint;
+import org.apache.tomcat.util.net.SocketStatus;
+
+/**
+ * Files sent with sendfile by the NIO.2 connector, which maps them in memory
+ * one region at a time.
+ */
+public class SendfileTestCase extends Http11ConnectorTestBase {
+
+    /**
+     * Construct a new instance of this test case.
+     *
+     * @param name Name of the test case
+     */
+    public SendfileTestCase(String name) {
+        super(name);
+    }
+
+    /**
+     * Set up instance variables required by this test case. The file spans
+     * three mapped regions.
+     */
+    public void setUp() throws Exception {
+        content = new byte[2 * REGION + 12345];
+        new Random(0).nextBytes(content);
+        file = File.createTempFile("sendfile", ".bin");
+        FileOutputStream os = new FileOutputStream(file);
+        try {
+            os.write(content);
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * Return the tests included in this test suite.
+     */
+    public static Test suite() {
+        return (new TestSuite(SendfileTestCase.class));
+    }
+
+    /**
+     * Tear down instance variables required by this test case.
+     */
+    public void tearDown() throws Exception {
+        super.tearDown();
+        file.delete();
+    }
+
+    /**
+     * The size of the regions mapped at once.
+     */
+    private static final int REGION = 4 * 1024 * 1024;
+
+    private static final long[] RANGES = { 10, 1000, REGION - 100, REGION + 100,
+            2 * REGION + 12000, 2 * REGION + 12345 };
+
+    private static final byte[][] HEADERS = { bytes("\r\n--A\r\n\r\n"), null,
+            bytes("\r\n--C\r\n\r\n") };
+
+    private static final byte[] TRAILER = bytes("\r\n--END--");
+
+    private byte[] content;
+
+    private File file;
+
+    /**
+     * The regions of the file are mapped one after the other, and each one
+     * is unmapped once the next one is requested.
+     */
+    public void testNextBuffer() throws Exception {
+        TestSendfileData data = new TestSendfileData();
+        data.setFileName(file.getAbsolutePath());
+        data.setStart(0);
+        data.setEnd(content.length);
+        data.setup();
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        int buffers = 0;
+        ByteBuffer buffer;
+        while ((buffer = data.nextBuffer()) != null) {
+            assertTrue(buffer.remaining() <= REGION);
+            assertMapped(1);
+            // Short writes return the same buffer
+            write(buffer, 1000, sent);
+            assertSame(buffer, data.nextBuffer());
+            write(buffer, buffer.remaining(), sent);
+            buffers++;
+        }
+        assertEquals(3, buffers);
+        assertMapped(0);
+        assertTrue(Arrays.equals(content, sent.toByteArray()));
+        data.recycle();
+
+        // Multiple ranges, with the bytes around them
+        data.setFileName(file.getAbsolutePath());
+        data.setRanges(RANGES, HEADERS, TRAILER);
+        data.setup();
+        sent.reset();
+        while ((buffer = data.nextBuffer()) != null) {
+            write(buffer, buffer.remaining(), sent);
+        }
+        assertTrue(Arrays.equals(expectedRanges(), sent.toByteArray()));
+        assertMapped(0);
+
+        // A transfer which fails midway unmaps its region when recycled
+        data.recycle();
+        data.setFileName(file.getAbsolutePath());
+        data.setStart(REGION / 2);
+        data.setEnd(content.length);
+        data.setup();
+        buffer = data.nextBuffer();
+        write(buffer, 1000, sent);
+        assertMapped(1);
+        data.recycle();
+        assertMapped(0);
+    }
+
+    /**
+     * A whole file larger than a mapped region arrives intact, and the
+     * connection can be used again.
+     */
+    public void testFile() throws Exception {
+        startSendfileProtocol();
+        Socket socket = new Socket("localhost", port);
+        try {
+            for (int i = 0; i < 2; i++) {
+                assertTrue(Arrays.equals(content, get(socket, "/file")));
+            }
+        } finally {
+            socket.close();
+        }
+        assertUnmapped();
+    }
+
+    /**
+     * The ranges are sent with their headers, and the trailer after the
+     * last one.
+     */
+    public void testRanges() throws Exception {
+        startSendfileProtocol();
+        Socket socket = new Socket("localhost", port);
+        try {
+            assertTrue(Arrays.equals(expectedRanges(), get(socket, "/ranges")));
+            assertTrue(Arrays.equals(content, get(socket, "/file")));
+        } finally {
+            socket.close();
+        }
+        assertUnmapped();
+    }
+
+    /**
+     * A client which reads slowly gets short writes, which continue where
+     * they stopped.
+     */
+    public void testSlowClient() throws Exception {
+        startSendfileProtocol();
+        Socket socket = new Socket();
+        socket.setReceiveBufferSize(8192);
+        socket.connect(new InetSocketAddress("localhost", port));
+        try {
+            send(socket, "/file");
+            InputStream is = socket.getInputStream();
+            int length = readHeaders(is);
+            assertEquals(content.length, length);
+            byte[] b = new byte[length];
+            int pos = 0;
+            while (pos < length) {
+                int n = is.read(b, pos, Math.min(length - pos, 64 * 1024));
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                pos += n;
+                if ((pos / (64 * 1024)) % 16 == 0) {
+                    Thread.sleep(1);
+                }
+            }
+            assertTrue(Arrays.equals(content, b));
+        } finally {
+            socket.close();
+        }
+        assertUnmapped();
+    }
+
+    /**
+     * A client which goes away midway makes the write fail, after which the
+     * region is unmapped and the connector keeps working.
+     */
+    public void testClosedClient() throws Exception {
+        startSendfileProtocol();
+        for (int i = 0; i < 5; i++) {
+            Socket socket = new Socket("localhost", port);
+            try {
+                send(socket, "/file");
+                InputStream is = socket.getInputStream();
+                readHeaders(is);
+                byte[] b = new byte[64 * 1024];
+                int n = 0;
+                while (n < 1024 * 1024) {
+                    n += is.read(b);
+                }
+            } finally {
+                socket.setSoLinger(true, 0);
+                socket.close();
+            }
+        }
+        assertUnmapped();
+        Socket socket = new Socket("localhost", port);
+        try {
+            assertTrue(Arrays.equals(content, get(socket, "/file")));
+        } finally {
+            socket.close();
+        }
+        assertUnmapped();
+    }
+
+    /**
+     * With the responses to pipelined requests written together, the
+     * headers of a sendfile response are still written before its file.
+     */
+    public void testPipelined() throws Exception {
+        createProtocol(new SendfileAdapter(file.getAbsolutePath()));
+        protocol.setUseSendfile(true);
+        protocol.setMaxPipelineDepth(4);
+        startProtocol();
+        for (int i = 0; i < 5; i++) {
+            Socket socket = new Socket("localhost", port);
+            try {
+                socket.getOutputStream().write(bytes("GET /ranges HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                        + "GET /file HTTP/1.1\r\nHost: localhost\r\n\r\n"));
+                InputStream is = socket.getInputStream();
+                byte[] b = new byte[readHeaders(is)];
+                int pos = 0;
+                while (pos < b.length) {
+                    int n = is.read(b, pos, b.length - pos);
+                    if (n < 0) {
+                        throw new EOFException();
+                    }
+                    pos += n;
+                }
+                assertTrue(Arrays.equals(expectedRanges(), b));
+            } finally {
+                socket.close();
+            }
+        }
+        assertUnmapped();
+    }
+
+    private void startSendfileProtocol() throws Exception {
+        createProtocol(new SendfileAdapter(file.getAbsolutePath()));
+        protocol.setUseSendfile(true);
+        startProtocol();
+    }
+
+    private static byte[] get(Socket socket, String uri) throws IOException {
+        send(socket, uri);
+        InputStream is = socket.getInputStream();
+        int length = readHeaders(is);
+        byte[] b = new byte[length];
+        int pos = 0;
+        while (pos < length) {
+            int n = is.read(b, pos, length - pos);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            pos += n;
+        }
+        return b;
+    }
+
+    private static void send(Socket socket, String uri) throws IOException {
+        socket.getOutputStream().write(
+                bytes("GET " + uri + " HTTP/1.1\r\nHost: localhost\r\n\r\n"));
+        socket.getOutputStream().flush();
+    }
+
+    /**
+     * Read the headers of a response, and check its status.
+     *
+     * @return the content length
+     */
+    private static int readHeaders(InputStream is) throws IOException {
+        String status = readLine(is);
+        assertEquals("HTTP/1.1 200 OK", status);
+        int length = -1;
+        String line;
+        while ((line = readLine(is)).length() > 0) {
+            if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                length = Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Consume some bytes of the given buffer, as a write would.
+     */
+    private static void write(ByteBuffer buffer, int n, ByteArrayOutputStream sent) {
+        byte[] b = new byte[Math.min(n, buffer.remaining())];
+        buffer.get(b);
+        sent.write(b, 0, b.length);
+    }
+
+    private byte[] expectedRanges() {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < HEADERS.length; i++) {
+            if (HEADERS[i] != null) {
+                expected.write(HEADERS[i], 0, HEADERS[i].length);
+            }
+            int start = (int) RANGES[2 * i];
+            expected.write(content, start, (int) RANGES[2 * i + 1] - start);
+        }
+        expected.write(TRAILER, 0, TRAILER.length);
+        return expected.toByteArray();
+    }
+
+    /**
+     * Wait for the sendfile thread to be done with the file, which is
+     * unmapped once written.
+     */
+    private void assertUnmapped() throws Exception {
+        for (int i = 0; i < 100 && mappedRegions() > 0; i++) {
+            Thread.sleep(50);
+        }
+        assertMapped(0);
+    }
+
+    private void assertMapped(int regions) throws IOException {
+        int mapped = mappedRegions();
+        if (mapped >= 0 && MappedBuffers.isSupported()) {
+            assertEquals(regions, mapped);
+        }
+    }
+
+    /**
+     * @return the number of regions of the file mapped in memory, or -1 if
+     *         this cannot be known on this platform
+     */
+    private int mappedRegions() throws IOException {
+        File maps = new File("/proc/self/maps");
+        if (!maps.canRead()) {
+            return -1;
+        }
+        String path = file.getCanonicalPath();
+        int regions = 0;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(maps), "ISO-8859-1"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.endsWith(path)) {
+                    regions++;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return regions;
+    }
+
+    private static byte[] bytes(String s) {
+        try {
+            return s.getBytes("ISO-8859-1");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Sendfile data whose buffers can be obtained directly.
+     */
+    protected static class TestSendfileData extends NioEndpoint.SendfileData {
+
+        protected void setup() throws IOException {
+            super.setup();
+        }
+
+        protected ByteBuffer nextBuffer() throws IOException {
+            return super.nextBuffer();
+        }
+
+        protected void recycle() {
+            super.recycle();
+        }
+
+    }
+
+    /**
+     * Adapter sending the whole file for <code>/file</code>, and some
+     * ranges of it otherwise.
+     */
+    protected static class SendfileAdapter implements Adapter {
+
+        private final String path;
+
+        public SendfileAdapter(String path) {
+            this.path = path;
+        }
+
+        public void service(Request req, Response res) throws Exception {
+            res.setContentType("application/octet-stream");
+            res.setSendfilePath(path);
+            if (req.requestURI().toString().equals("/file")) {
+                long length = new File(path).length();
+                res.setContentLength(length);
+                res.setSendfileStart(0);
+                res.setSendfileEnd(length);
+            } else {
+                long length = TRAILER.length;
+                for (int i = 0; i < HEADERS.length; i++) {
+                    length += RANGES[2 * i + 1] - RANGES[2 * i];
+                    if (HEADERS[i] != null) {
+                        length += HEADERS[i].length;
+                    }
+                }
+                res.setContentLength(length);
+                res.setSendfileStart(RANGES[0]);
+                res.setSendfileEnd(RANGES[RANGES.length - 1]);
+                res.setSendfileRanges(RANGES, HEADERS, TRAILER);
+            }
+        }
+
+        public boolean event(Request req, Response res, SocketStatus status) throws Exception {
+            return false;
+        }
+
+    }
+
+}
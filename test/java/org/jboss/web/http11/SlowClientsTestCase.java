@@ -0,0 +1,252 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.web.http11;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+import org.apache.coyote.Adapter;
+import org.apache.coyote.Request;
+import org.apache.coyote.Response;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.net.SocketStatus;
+import org.apache.tomcat.util.net.VirtualThreads;
+
+/**
+ * Benchmark of a NIO.2 HTTP connector with many concurrent slow clients,
+ * with request processing on platform threads and on virtual threads. Each
+ * client sends a POST with <code>Expect: 100-continue</code>, and trickles
+ * its body one byte at a time after the server acknowledged it, so that
+ * the processing thread blocks in the body read. The number of clients is
+ * given by the <code>slow.clients</code> system property (default 10000),
+ * and the virtual threads benchmark is skipped if the JVM does not support
+ * them. With platform threads, the clients waiting for a thread longer than
+ * the connection timeout are not served.
+ */
+public class SlowClientsTestCase extends Http11ConnectorTestBase {
+
+    protected static final int CLIENTS = Integer.getInteger("slow.clients", 10000).intValue();
+    protected static final int PLATFORM_THREADS = Integer.getInteger("slow.threads", 200).intValue();
+    protected static final int BODY = 4;
+    protected static final long DELAY = 250;
+
+    private static final int HEADERS = 0;
+    private static final int BODY_SENT = 1;
+    private static final int RESPONSE = 2;
+    private static final int DONE = 3;
+
+    /**
+     * Construct a new instance of this test case.
+     *
+     * @param name Name of the test case
+     */
+    public SlowClientsTestCase(String name) {
+        super(name);
+    }
+
+    /**
+     * Set up instance variables required by this test case.
+     */
+    public void setUp() {
+    }
+
+    /**
+     * Return the tests included in this test suite.
+     */
+    public static Test suite() {
+        return (new TestSuite(SlowClientsTestCase.class));
+    }
+
+    public void testPlatformThreads() throws Exception {
+        run("Platform threads", false);
+    }
+
+    public void testVirtualThreads() throws Exception {
+        if (!VirtualThreads.isSupported()) {
+            System.out.println("Virtual threads are not supported, skipped");
+            return;
+        }
+        run("Virtual threads", true);
+    }
+
+    private void run(String name, boolean virtual) throws Exception {
+        createProtocol(new SlowBodyAdapter());
+        protocol.setMaxThreads(PLATFORM_THREADS);
+        protocol.setPollerSize(CLIENTS + 16);
+        protocol.setUseVirtualThreads(virtual);
+        startProtocol();
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        long start = System.nanoTime();
+        int completed = drive(port);
+        long time = (System.nanoTime() - start) / 1000000;
+        System.out.println(name + ": " + completed + " of " + CLIENTS
+                + " slow clients served in " + time + "ms, "
+                + threads.getPeakThreadCount() + " platform threads at most");
+        if (virtual) {
+            assertEquals(CLIENTS, completed);
+        }
+    }
+
+    /**
+     * Run all the clients from a single thread.
+     *
+     * @return the number of clients which received a successful response
+     */
+    private static int drive(int port) throws IOException {
+        Selector selector = Selector.open();
+        Client[] clients = new Client[CLIENTS];
+        byte[] headers = ("POST /slow HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + BODY
+                + "\r\nExpect: 100-continue\r\nConnection: close\r\n\r\n").getBytes("ISO-8859-1");
+        try {
+            for (int i = 0; i < CLIENTS; i++) {
+                SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", port));
+                channel.configureBlocking(false);
+                channel.write(ByteBuffer.wrap(headers));
+                clients[i] = new Client(channel);
+                channel.register(selector, SelectionKey.OP_READ, clients[i]);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(1024);
+            int remaining = CLIENTS;
+            int completed = 0;
+            long deadline = System.currentTimeMillis() + 600000;
+            while (remaining > 0 && System.currentTimeMillis() < deadline) {
+                selector.select(10);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Client client = (Client) key.attachment();
+                    buffer.clear();
+                    int n;
+                    try {
+                        n = client.channel.read(buffer);
+                    } catch (IOException e) {
+                        // Reset by the server
+                        n = -1;
+                    }
+                    if (n > 0) {
+                        client.received.append(new String(buffer.array(), 0, n, "ISO-8859-1"));
+                    }
+                    if (client.state == HEADERS && client.received.indexOf("\r\n\r\n") >= 0) {
+                        // 100 Continue, start sending the body
+                        client.received.setLength(0);
+                        client.state = BODY_SENT;
+                        client.next = System.currentTimeMillis() + DELAY;
+                    } else if (n < 0) {
+                        if (client.received.indexOf("HTTP/1.1 200") == 0) {
+                            completed++;
+                        }
+                        client.state = DONE;
+                        key.cancel();
+                        client.channel.close();
+                        remaining--;
+                    }
+                }
+                long now = System.currentTimeMillis();
+                for (int i = 0; i < CLIENTS; i++) {
+                    Client client = clients[i];
+                    if (client.state == BODY_SENT && client.next <= now) {
+                        try {
+                            client.channel.write(ByteBuffer.wrap(new byte[] { 'x' }));
+                        } catch (IOException e) {
+                            // Reset by the server, which is seen by the read
+                            client.state = RESPONSE;
+                            continue;
+                        }
+                        if (++client.sent == BODY) {
+                            client.state = RESPONSE;
+                        } else {
+                            client.next = now + DELAY;
+                        }
+                    }
+                }
+            }
+            return completed;
+        } finally {
+            for (int i = 0; i < CLIENTS; i++) {
+                if (clients[i] != null) {
+                    clients[i].channel.close();
+                }
+            }
+            selector.close();
+        }
+    }
+
+    /**
+     * State of a client connection.
+     */
+    private static class Client {
+
+        final SocketChannel channel;
+        final StringBuilder received = new StringBuilder();
+        int state = HEADERS;
+        int sent = 0;
+        long next = 0;
+
+        public Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+    }
+
+    /**
+     * Adapter acknowledging the request, then reading its body with
+     * blocking reads.
+     */
+    private static class SlowBodyAdapter implements Adapter {
+
+        public void service(Request req, Response res) throws Exception {
+            res.acknowledge();
+            ByteChunk chunk = new ByteChunk();
+            int length = 0;
+            int n;
+            while ((n = req.doRead(chunk)) > 0) {
+                length += n;
+            }
+            byte[] b = String.valueOf(length).getBytes("ISO-8859-1");
+            res.setContentLength(b.length);
+            res.setContentType("text/plain");
+            chunk.setBytes(b, 0, b.length);
+            res.doWrite(chunk);
+        }
+
+        public boolean event(Request req, Response res, SocketStatus status) throws Exception {
+            return false;
+        }
+
+    }
+
+}
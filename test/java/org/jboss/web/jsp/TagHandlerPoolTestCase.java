@@ -0,0 +1,142 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.web.jsp;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.jsp.tagext.Tag;
+import javax.servlet.jsp.tagext.TagSupport;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.catalina.core.StandardThreadExecutor;
+import org.apache.jasper.runtime.PerThreadTagHandlerPool;
+import org.apache.jasper.runtime.TagHandlerPool;
+import org.apache.tomcat.InstanceManager;
+import org.apache.tomcat.util.net.VirtualThreads;
+import org.jboss.web.ServletProxies;
+
+public class TagHandlerPoolTestCase extends TestCase {
+
+    /**
+     * Construct a new instance of this test case.
+     *
+     * @param name Name of the test case
+     */
+    public TagHandlerPoolTestCase(String name) {
+        super(name);
+    }
+
+    /**
+     * Set up instance variables required by this test case.
+     */
+    public void setUp() {
+        TestTag.created.set(0);
+    }
+
+    /**
+     * Return the tests included in this test suite.
+     */
+    public static Test suite() {
+        return (new TestSuite(TagHandlerPoolTestCase.class));
+    }
+
+    /**
+     * Tear down instance variables required by this test case.
+     */
+    public void tearDown() {
+    }
+
+    /**
+     * A page initialized on a platform thread, such as a page loaded on
+     * startup, shares its tag handlers between the virtual threads serving
+     * it once virtual threads are configured.
+     */
+    public void testVirtualThreads() throws Exception {
+        new StandardThreadExecutor().setVirtualThreads(true);
+        assertFalse(VirtualThreads.isVirtual(Thread.currentThread()));
+        final TagHandlerPool pool = TagHandlerPool.getTagHandlerPool(newServletConfig());
+        if (!VirtualThreads.isSupported()) {
+            // No virtual threads to serve the page
+            assertTrue(pool instanceof PerThreadTagHandlerPool);
+            return;
+        }
+        assertSame(TagHandlerPool.class, pool.getClass());
+        ExecutorService executor = VirtualThreads.newExecutor("jsp-");
+        try {
+            for (int i = 0; i < 100; i++) {
+                final Exception[] error = new Exception[1];
+                executor.submit(new Runnable() {
+                    public void run() {
+                        try {
+                            assertTrue(VirtualThreads.isVirtual(Thread.currentThread()));
+                            Tag tag = pool.get(TestTag.class);
+                            pool.reuse(tag);
+                        } catch (Exception e) {
+                            error[0] = e;
+                        }
+                    }
+                }).get(5, TimeUnit.SECONDS);
+                assertNull(error[0]);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // Each request reused the handler of the previous one
+        assertEquals(1, TestTag.created.get());
+        pool.release();
+    }
+
+    private static ServletConfig newServletConfig() {
+        InstanceManager instanceManager = (InstanceManager) ServletProxies.newProxy(InstanceManager.class,
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                            throws Throwable {
+                        if (method.getName().equals("newInstance") && args[0] instanceof Class) {
+                            return ((Class<?>) args[0]).newInstance();
+                        }
+                        return null;
+                    }
+                });
+        return ServletProxies.newServletConfig("jsp", Collections.<String, String>emptyMap(),
+                Collections.<String, Object>singletonMap(InstanceManager.class.getName(), instanceManager),
+                null);
+    }
+
+    public static class TestTag extends TagSupport {
+        static final AtomicInteger created = new AtomicInteger();
+        public TestTag() {
+            created.incrementAndGet();
+        }
+    }
+
+}
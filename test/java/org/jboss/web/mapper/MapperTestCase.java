@@ -35,6 +35,10 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.net.Socket;
 
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.mapper.Mapper;
+import org.apache.tomcat.util.http.mapper.MappingData;
+
 public class MapperTestCase extends TestCase {
 
     /**
@@ -65,6 +69,168 @@ public class MapperTestCase extends TestCase {
     public void tearDown() {
     }
 
+    protected static final int HOSTS = 10;
+    protected static final int CONTEXTS = 300;
+    protected static final int WRAPPERS = 50;
+    protected static final int ITERATIONS = 1000000;
+
+    /**
+     * Large scale benchmark: several hosts, each with hundreds of contexts
+     * and thousands of servlet mappings. The mappings are checked, then
+     * timed while another thread keeps deploying and undeploying contexts.
+     */
+    public void testLargeScale() throws Exception {
+        final Mapper mapper = new Mapper();
+        long time = System.currentTimeMillis();
+        for (int h = 0; h < HOSTS; h++) {
+            String hostName = "host" + h + ".example.com";
+            mapper.addHost(hostName, new String[] { "alias" + h }, hostName);
+            mapper.addContext(hostName, "", "ROOT", new String[0], null);
+            for (int c = 0; c < CONTEXTS; c++) {
+                String contextPath = "/app" + c + ((c % 3 == 0) ? "/sub" : "");
+                mapper.addContext(hostName, contextPath, contextPath,
+                        new String[0], null);
+                mapper.addWrapper(hostName, contextPath, "/", "default");
+                mapper.addWrapper(hostName, contextPath, "*.jsp", "jsp");
+                for (int w = 0; w < WRAPPERS; w++) {
+                    mapper.addWrapper(hostName, contextPath,
+                            "/servlet" + w, "exact" + w);
+                    mapper.addWrapper(hostName, contextPath,
+                            "/path" + w + "/*", "prefix" + w);
+                }
+            }
+        }
+        mapper.setDefaultHostName("host0.example.com");
+        System.out.println("Deployed " + HOSTS * CONTEXTS + " contexts and "
+                + HOSTS * CONTEXTS * WRAPPERS * 2 + " mappings in "
+                + (System.currentTimeMillis() - time) + "ms");
+
+        check(mapper, "host3.example.com", "/app13/servlet7", "/app13", "exact7");
+        check(mapper, "ALIAS3", "/app13/path7/info", "/app13", "prefix7");
+        check(mapper, "host3.example.com", "/app13/a/b.jsp", "/app13", "jsp");
+        check(mapper, "host3.example.com", "/app13/other", "/app13", "default");
+        check(mapper, "host3.example.com", "/app15/sub/servlet1", "/app15/sub", "exact1");
+        check(mapper, "host3.example.com", "/app15/servlet1", "", null);
+        check(mapper, "unknown", "/app299/path49", "/app299", "prefix49");
+
+        final String[] uris = new String[] { "/app13/servlet7",
+                "/app151/path20/some/path/info", "/app299/index.jsp",
+                "/app3/sub/static/image.png" };
+        final MessageBytes host = MessageBytes.newInstance();
+        host.setString("host7.example.com");
+        MessageBytes[] uriMBs = new MessageBytes[uris.length];
+        for (int i = 0; i < uris.length; i++) {
+            uriMBs[i] = MessageBytes.newInstance();
+            uriMBs[i].setString(uris[i]);
+            uriMBs[i].toChars();
+        }
+        MappingData mappingData = new MappingData();
+
+        // Concurrent deployments must not block or disturb the mapping
+        Thread deployer = new Thread() {
+            public void run() {
+                int i = 0;
+                while (!isInterrupted()) {
+                    String path = "/redeployed" + (i++ % 10);
+                    mapper.addContext("host7.example.com", path, path,
+                            new String[0], null);
+                    mapper.addWrapper("host7.example.com", path, "/", "default");
+                    mapper.removeContext("host7.example.com", path);
+                }
+            }
+        };
+        deployer.start();
+        try {
+            for (int i = 0; i < ITERATIONS; i++) {
+                mappingData.recycle();
+                mapper.map(host, uriMBs[i % uriMBs.length], mappingData);
+            }
+            time = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                mappingData.recycle();
+                mapper.map(host, uriMBs[i % uriMBs.length], mappingData);
+                assertNotNull(mappingData.wrapper);
+            }
+            long elapsed = System.nanoTime() - time;
+            System.out.println("Mapped " + ITERATIONS + " requests in "
+                    + (elapsed / 1000000) + "ms, "
+                    + (elapsed / ITERATIONS) + "ns per request");
+        } finally {
+            deployer.interrupt();
+            deployer.join();
+        }
+    }
+
+    /**
+     * The names of the contexts and wrappers are listed from the mapping
+     * tries, sorted, and follow their removal.
+     */
+    public void testNames() throws Exception {
+        Mapper mapper = new Mapper();
+        mapper.addHost("localhost", new String[0], "localhost");
+        mapper.addContext("localhost", "/foo/bar", "context2", new String[0], null);
+        mapper.addContext("localhost", "", "context0", new String[0], null);
+        mapper.addContext("localhost", "/foo", "context1", new String[0], null);
+        // Duplicates are ignored
+        mapper.addContext("localhost", "/foo", "other", new String[0], null);
+        mapper.addWrapper("localhost", "/foo", "/", "default");
+        mapper.addWrapper("localhost", "/foo", "/b", "exact1");
+        mapper.addWrapper("localhost", "/foo", "/a", "exact0");
+        mapper.addWrapper("localhost", "/foo", "/a", "other");
+        mapper.addWrapper("localhost", "/foo", "/c/*", "prefix");
+        mapper.addWrapper("localhost", "/foo", "*.jsp", "jsp");
+        assertEquals("//localhost/,//localhost/foo,//localhost/foo/bar,",
+                join(mapper.getContextNames()));
+        assertEquals(":/a:/b:/c*:*.jsp:", mapper.getWrappersString("localhost", "/foo"));
+        check(mapper, "localhost", "/foo/a", "/foo", "exact0");
+        check(mapper, "localhost", "/foo/bar/a", "/foo/bar", null);
+
+        mapper.removeWrapper("localhost", "/foo", "/a");
+        mapper.removeWrapper("localhost", "/foo", "/c/*");
+        assertEquals(":/b:*.jsp:", mapper.getWrappersString("localhost", "/foo"));
+        check(mapper, "localhost", "/foo/a", "/foo", "default");
+        mapper.removeContext("localhost", "/foo/bar");
+        assertEquals("//localhost/,//localhost/foo,", join(mapper.getContextNames()));
+        check(mapper, "localhost", "/foo/bar/a", "/foo", "default");
+        try {
+            mapper.addWrapper("localhost", "/foo/bar", "/", "default");
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+
+        // An on demand context is replaced once deployed
+        mapper.addOnDemandContext("localhost", "/lazy");
+        assertEquals("//localhost/,//localhost/foo,//localhost/lazy,",
+                join(mapper.getContextNames()));
+        // Not mapped until deployed
+        check(mapper, "localhost", "/lazy/a", null, null);
+        mapper.addContext("localhost", "/lazy", "lazy", new String[0], null);
+        mapper.addWrapper("localhost", "/lazy", "/", "default");
+        check(mapper, "localhost", "/lazy/a", "/lazy", "default");
+    }
+
+    private static String join(String[] names) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            sb.append(names[i]).append(',');
+        }
+        return sb.toString();
+    }
+
+    protected void check(Mapper mapper, String hostName, String uri,
+            String contextPath, String wrapper) throws Exception {
+        MappingData mappingData = new MappingData();
+        MessageBytes host = MessageBytes.newInstance();
+        host.setString(hostName);
+        MessageBytes uriMB = MessageBytes.newInstance();
+        uriMB.setString(uri);
+        uriMB.toChars();
+        mapper.map(host, uriMB, mappingData);
+        assertEquals(contextPath, mappingData.contextPath.toString());
+        assertEquals(wrapper, mappingData.wrapper);
+    }
+
     /*
     public static void main(String args[]) {
 
@@ -0,0 +1,387 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.web.net;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.tomcat.util.net.ByteBufferPool;
+import org.apache.tomcat.util.net.jsse.SecureNioChannel;
+
+public class ByteBufferPoolTestCase extends TestCase {
+
+    /**
+     * Construct a new instance of this test case.
+     *
+     * @param name Name of the test case
+     */
+    public ByteBufferPoolTestCase(String name) {
+        super(name);
+    }
+
+    /**
+     * Set up instance variables required by this test case.
+     */
+    public void setUp() {
+        pool = new ByteBufferPool(4);
+    }
+
+    /**
+     * Return the tests included in this test suite.
+     */
+    public static Test suite() {
+        return (new TestSuite(ByteBufferPoolTestCase.class));
+    }
+
+    /**
+     * Tear down instance variables required by this test case.
+     */
+    public void tearDown() {
+        pool = null;
+    }
+
+    private ByteBufferPool pool;
+
+    /**
+     * There are four size classes per power of two, and the sizes beyond the
+     * largest class are allocated as requested.
+     */
+    public void testSizeClasses() {
+        assertCapacity(1024, 1);
+        assertCapacity(1024, 1024);
+        assertCapacity(1280, 1025);
+        assertCapacity(1536, 1500);
+        assertCapacity(1792, 1537);
+        assertCapacity(2048, 2048);
+        assertCapacity(2560, 2049);
+        assertCapacity(3072, 3000);
+        assertCapacity(20480, 17000);
+        assertCapacity(16 * 1024 + 4096, 16 * 1024 + 1);
+        assertCapacity(98304, 90000);
+        assertCapacity(ByteBufferPool.DEFAULT_MAX_SIZE, ByteBufferPool.DEFAULT_MAX_SIZE);
+        assertCapacity(ByteBufferPool.DEFAULT_MAX_SIZE + 1, ByteBufferPool.DEFAULT_MAX_SIZE + 1);
+
+        // A smallest class which is not a power of two
+        pool = new ByteBufferPool(1000, 5000, 4);
+        assertCapacity(1000, 1);
+        assertCapacity(1024, 1001);
+        assertCapacity(1280, 1025);
+        assertCapacity(4096, 4000);
+        assertCapacity(5000, 4097);
+        assertCapacity(5001, 5001);
+
+        try {
+            new ByteBufferPool(2048, 1024, 4);
+            fail("Invalid size classes accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Each size class keeps at most the configured number of idle buffers,
+     * and only the buffers of the pool sizes are kept.
+     */
+    public void testBounds() {
+        ByteBuffer[] small = acquire(6, 1024);
+        ByteBuffer[] large = acquire(6, 4096);
+        release(small);
+        release(large);
+        assertEquals(8, pool.getPooled());
+        assertEquals(0, pool.getOutstanding());
+
+        // Neither heap buffers nor buffers of another size are kept
+        pool.acquire(1000);
+        pool.release(ByteBuffer.allocate(1024));
+        pool.acquire(1000);
+        pool.release(ByteBuffer.allocateDirect(1000));
+        assertEquals(6, pool.getPooled());
+        assertEquals(0, pool.getOutstanding());
+
+        // Nor those beyond the largest class
+        ByteBuffer huge = pool.acquire(ByteBufferPool.DEFAULT_MAX_SIZE + 1);
+        pool.release(huge);
+        assertEquals(6, pool.getPooled());
+
+        pool.clear();
+        assertEquals(0, pool.getPooled());
+        release(acquire(6, 1024));
+        assertEquals(4, pool.getPooled());
+    }
+
+    /**
+     * The idle buffers are reused, cleared, for the requests of their class.
+     */
+    public void testCounters() {
+        ByteBuffer first = pool.acquire(1000);
+        ByteBuffer second = pool.acquire(1000);
+        assertEquals(0, pool.getHits());
+        assertEquals(2, pool.getMisses());
+        assertEquals(2, pool.getOutstanding());
+
+        first.put((byte) 1).limit(10);
+        pool.release(first);
+        assertEquals(1, pool.getOutstanding());
+        assertEquals(1, pool.getPooled());
+
+        ByteBuffer again = pool.acquire(1);
+        assertSame(first, again);
+        assertEquals(0, again.position());
+        assertEquals(again.capacity(), again.limit());
+        assertEquals(1, pool.getHits());
+        assertEquals(2, pool.getMisses());
+        assertEquals(2, pool.getOutstanding());
+        assertEquals(0, pool.getPooled());
+
+        // Another class misses
+        pool.release(pool.acquire(2000));
+        assertEquals(3, pool.getMisses());
+
+        // A discarded buffer is no longer outstanding, but is not reused
+        pool.discard(second);
+        pool.release(again);
+        assertEquals(0, pool.getOutstanding());
+        assertNotSame(second, pool.acquire(1000));
+        assertNotSame(second, pool.acquire(1000));
+        assertEquals(2, pool.getHits());
+        assertEquals(4, pool.getMisses());
+
+        // Nothing is counted for a null buffer
+        pool.release(null);
+        pool.discard(null);
+        assertEquals(2, pool.getOutstanding());
+    }
+
+    /**
+     * The buffers acquired and released concurrently are all accounted for.
+     */
+    public void testConcurrency() throws Exception {
+        final int threads = 8;
+        final CountDownLatch done = new CountDownLatch(threads);
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        for (int i = 0; i < threads; i++) {
+            final int size = 1024 * (1 + (i % 3));
+            new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 10000; j++) {
+                            ByteBuffer[] buffers = acquire(1 + j % 7, size);
+                            for (int k = 0; k < buffers.length; k++) {
+                                buffers[k].putInt(0, k);
+                            }
+                            for (int k = 0; k < buffers.length; k++) {
+                                if (buffers[k].getInt(0) != k) {
+                                    throw new IllegalStateException("Buffer shared");
+                                }
+                            }
+                            release(buffers);
+                        }
+                    } catch (Throwable t) {
+                        synchronized (errors) {
+                            errors.add(t);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(0, pool.getOutstanding());
+        assertTrue(pool.getPooled() <= 3 * pool.getMaxPooled());
+        long requests = 0;
+        for (int j = 0; j < 10000; j++) {
+            requests += 1 + j % 7;
+        }
+        assertEquals(threads * requests, pool.getHits() + pool.getMisses());
+    }
+
+    /**
+     * A TLS channel closed while a read is pending forgets about its network
+     * input buffer instead of giving it back, as the read may still fill it.
+     */
+    public void testCloseWithPendingRead() throws Exception {
+        AsynchronousServerSocketChannel server = AsynchronousServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        Socket client = new Socket(InetAddress.getLoopbackAddress(),
+                ((InetSocketAddress) server.getLocalAddress()).getPort());
+        try {
+            TestChannel channel = new TestChannel(server.accept().get(), pool);
+            final CountDownLatch failed = new CountDownLatch(1);
+            channel.read(ByteBuffer.allocate(1024), null, new CompletionHandler<Integer, Object>() {
+                public void completed(Integer nBytes, Object attachment) {
+                }
+
+                public void failed(Throwable exc, Object attachment) {
+                    failed.countDown();
+                }
+            });
+            assertEquals(1, channel.acquired.size());
+            ByteBuffer netIn = channel.acquired.get(0);
+
+            channel.close();
+            assertTrue(failed.await(10, TimeUnit.SECONDS));
+            assertTrue(containsSame(channel.discarded, netIn));
+            assertFalse(containsSame(channel.released, netIn));
+            assertEquals(0, pool.getOutstanding());
+            // Whatever was released while closing can be borrowed, except
+            // the input buffer
+            for (int i = pool.getPooled(); i >= 0; i--) {
+                assertNotSame(netIn, pool.acquire(netIn.capacity()));
+            }
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+
+    /**
+     * A TLS channel whose read fails, here because it times out, forgets
+     * about its network input buffer.
+     */
+    public void testFailedRead() throws Exception {
+        AsynchronousServerSocketChannel server = AsynchronousServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        Socket client = new Socket(InetAddress.getLoopbackAddress(),
+                ((InetSocketAddress) server.getLocalAddress()).getPort());
+        try {
+            TestChannel channel = new TestChannel(server.accept().get(), pool);
+            final CountDownLatch failed = new CountDownLatch(1);
+            channel.read(ByteBuffer.allocate(1024), 100, TimeUnit.MILLISECONDS, null,
+                    new CompletionHandler<Integer, Object>() {
+                public void completed(Integer nBytes, Object attachment) {
+                }
+
+                public void failed(Throwable exc, Object attachment) {
+                    failed.countDown();
+                }
+            });
+            assertTrue(failed.await(10, TimeUnit.SECONDS));
+            assertEquals(1, channel.discarded.size());
+            assertSame(channel.acquired.get(0), channel.discarded.get(0));
+            assertEquals(0, pool.getOutstanding());
+            assertEquals(0, pool.getPooled());
+            channel.close();
+            assertEquals(0, pool.getOutstanding());
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+
+    /**
+     * As the buffers are compared by content, look for the given instance.
+     */
+    private static boolean containsSame(List<ByteBuffer> buffers, ByteBuffer buffer) {
+        for (int i = 0; i < buffers.size(); i++) {
+            if (buffers.get(i) == buffer) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void assertCapacity(int capacity, int size) {
+        ByteBuffer buffer = pool.acquire(size);
+        assertEquals(capacity, buffer.capacity());
+        assertTrue(buffer.isDirect());
+        pool.release(buffer);
+    }
+
+    private ByteBuffer[] acquire(int n, int size) {
+        ByteBuffer[] buffers = new ByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            buffers[i] = pool.acquire(size);
+        }
+        return buffers;
+    }
+
+    private void release(ByteBuffer[] buffers) {
+        for (int i = 0; i < buffers.length; i++) {
+            pool.release(buffers[i]);
+        }
+    }
+
+    /**
+     * A TLS channel, as if its handshake was complete, which records what it
+     * does with the pooled buffers.
+     */
+    protected static class TestChannel extends SecureNioChannel {
+
+        final List<ByteBuffer> acquired = new ArrayList<ByteBuffer>();
+        final List<ByteBuffer> released = new ArrayList<ByteBuffer>();
+        final List<ByteBuffer> discarded = new ArrayList<ByteBuffer>();
+
+        TestChannel(AsynchronousSocketChannel channel, ByteBufferPool pool) throws Exception {
+            super(channel, newEngine());
+            setBufferPool(pool);
+            handshakeComplete = true;
+        }
+
+        private static SSLEngine newEngine() throws Exception {
+            SSLEngine engine = SSLContext.getDefault().createSSLEngine();
+            engine.setUseClientMode(false);
+            return engine;
+        }
+
+        protected synchronized ByteBuffer acquireBuffer(int size) {
+            ByteBuffer buffer = super.acquireBuffer(size);
+            acquired.add(buffer);
+            return buffer;
+        }
+
+        protected synchronized void releaseBuffer(ByteBuffer buffer) {
+            if (buffer != null) {
+                released.add(buffer);
+            }
+            super.releaseBuffer(buffer);
+        }
+
+        protected synchronized void discardBuffer(ByteBuffer buffer) {
+            if (buffer != null) {
+                discarded.add(buffer);
+            }
+            super.discardBuffer(buffer);
+        }
+
+    }
+
+}
@@ -0,0 +1,253 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.web.net;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.tomcat.util.net.TimerWheel;
+
+public class TimerWheelTestCase extends TestCase {
+
+    /**
+     * Construct a new instance of this test case.
+     *
+     * @param name Name of the test case
+     */
+    public TimerWheelTestCase(String name) {
+        super(name);
+    }
+
+    /**
+     * Set up instance variables required by this test case. With a tick of
+     * one millisecond, a timeout expires exactly at its deadline.
+     */
+    public void setUp() {
+        wheel = new TimerWheel(1);
+        start = System.currentTimeMillis();
+        expired = new ArrayList<TimerWheel.Timeout>();
+    }
+
+    /**
+     * Return the tests included in this test suite.
+     */
+    public static Test suite() {
+        return (new TestSuite(TimerWheelTestCase.class));
+    }
+
+    /**
+     * Tear down instance variables required by this test case.
+     */
+    public void tearDown() {
+        wheel = null;
+        expired = null;
+    }
+
+    private TimerWheel wheel;
+
+    private long start;
+
+    private List<TimerWheel.Timeout> expired;
+
+    private volatile boolean running;
+
+    private volatile long now;
+
+    public void testAdd() {
+        TestTimeout first = new TestTimeout();
+        TestTimeout second = new TestTimeout();
+        wheel.schedule(first, start + 100);
+        wheel.schedule(second, start + 200);
+        assertFalse(wheel.isEmpty());
+
+        assertExpired(start + 99);
+        assertExpired(start + 100, first);
+        assertFalse(first.isScheduled());
+        assertTrue(second.isScheduled());
+        assertExpired(start + 150);
+        assertExpired(start + 250, second);
+        assertTrue(wheel.isEmpty());
+    }
+
+    public void testCancel() {
+        TestTimeout timeout = new TestTimeout();
+        TestTimeout other = new TestTimeout();
+        // Cancelled before it is linked in the wheel
+        wheel.schedule(timeout, start + 100);
+        wheel.cancel(timeout);
+        assertFalse(timeout.isScheduled());
+        assertExpired(start + 200);
+        assertTrue(wheel.isEmpty());
+
+        // Cancelled once linked in the wheel
+        wheel.schedule(timeout, start + 300);
+        wheel.schedule(other, start + 300);
+        assertExpired(start + 250);
+        wheel.cancel(timeout);
+        assertExpired(start + 300, other);
+        assertTrue(wheel.isEmpty());
+    }
+
+    public void testReschedule() {
+        TestTimeout timeout = new TestTimeout();
+        wheel.schedule(timeout, start + 100);
+        assertExpired(start + 50);
+        wheel.schedule(timeout, start + 300);
+        assertExpired(start + 200);
+        // Rescheduled before an expiry
+        wheel.schedule(timeout, start + 250);
+        assertExpired(start + 249);
+        assertExpired(start + 250, timeout);
+        assertTrue(wheel.isEmpty());
+
+        // Several times before the changes are applied, which happens once
+        wheel.schedule(timeout, start + 400);
+        wheel.schedule(timeout, start + 500);
+        wheel.schedule(timeout, start + 450);
+        assertExpired(start + 449);
+        assertExpired(start + 1000, timeout);
+        assertTrue(wheel.isEmpty());
+    }
+
+    /**
+     * The timeouts beyond the root slots go to the upper levels, and move
+     * down as the wheel advances, up to the parked timeouts beyond the last
+     * level.
+     */
+    public void testCascade() {
+        long[] deadlines = { 255, 256, 1000, 16383, 16384, 100000, 1048575,
+                1048576, 5000000, 67108863, 67108864, 70000000 };
+        TestTimeout[] timeouts = new TestTimeout[deadlines.length];
+        for (int i = 0; i < deadlines.length; i++) {
+            timeouts[i] = new TestTimeout();
+            wheel.schedule(timeouts[i], start + deadlines[i]);
+        }
+        assertExpired(start);
+        for (int i = 0; i < deadlines.length; i++) {
+            assertExpired(start + deadlines[i] - 1);
+            assertExpired(start + deadlines[i], timeouts[i]);
+        }
+        assertTrue(wheel.isEmpty());
+
+        // In a single step
+        setUp();
+        for (int i = 0; i < deadlines.length; i++) {
+            wheel.schedule(timeouts[i], start + deadlines[i]);
+        }
+        assertExpired(start + deadlines[deadlines.length - 1], timeouts);
+        assertTrue(wheel.isEmpty());
+    }
+
+    /**
+     * A timeout pushed out while the wheel drains its slot is linked again
+     * in the very same slot, which must not be drained again.
+     */
+    public void testRescheduleDuringExpiry() throws Exception {
+        final TestTimeout timeout = new TestTimeout();
+        wheel.schedule(timeout, start + 10);
+        assertExpired(start + 5);
+        // As if the deadline was changed after the pending changes were
+        // applied, by exactly one turn of the root slots
+        timeout.setDeadline(start + 10 + 256);
+        Thread thread = new Thread() {
+            public void run() {
+                wheel.expire(start + 10, expired);
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+        thread.join(10000);
+        assertFalse("Expiry does not complete", thread.isAlive());
+        assertTrue(expired.isEmpty());
+        assertTrue(timeout.isScheduled());
+        assertExpired(start + 10 + 255);
+        assertExpired(start + 10 + 256, timeout);
+        assertTrue(wheel.isEmpty());
+    }
+
+    /**
+     * A timeout which is kept being pushed out by another thread while the
+     * wheel advances is neither lost nor duplicated.
+     */
+    public void testConcurrentReschedule() throws Exception {
+        final TestTimeout timeout = new TestTimeout();
+        final long end = start + 100000;
+        wheel.schedule(timeout, start + 10);
+        now = start;
+        running = true;
+        Thread thread = new Thread() {
+            public void run() {
+                while (running) {
+                    wheel.schedule(timeout, now + 255);
+                    Thread.yield();
+                }
+            }
+        };
+        thread.start();
+        try {
+            for (long date = start + 1; date < end; date += 7) {
+                now = date;
+                expired.clear();
+                wheel.expire(date, expired);
+                assertTrue(expired.size() <= 1);
+            }
+        } finally {
+            running = false;
+            thread.join();
+        }
+        wheel.schedule(timeout, end + 1000);
+        assertExpired(end + 999);
+        assertExpired(end + 1000, timeout);
+        assertTrue(wheel.isEmpty());
+    }
+
+    /**
+     * Advance the wheel, and check the timeouts which expire.
+     */
+    private void assertExpired(long now, TimerWheel.Timeout... timeouts) {
+        expired.clear();
+        wheel.expire(now, expired);
+        assertEquals(timeouts.length, expired.size());
+        for (int i = 0; i < timeouts.length; i++) {
+            assertTrue(expired.contains(timeouts[i]));
+        }
+        expired.clear();
+    }
+
+    /**
+     * A timeout whose deadline may be changed without scheduling it.
+     */
+    protected static class TestTimeout extends TimerWheel.Timeout {
+
+        void setDeadline(long deadline) {
+            this.deadline = deadline;
+        }
+
+    }
+
+}
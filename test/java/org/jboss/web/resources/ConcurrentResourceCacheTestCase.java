@@ -0,0 +1,350 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.web.resources;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.naming.resources.CacheEntry;
+import org.apache.naming.resources.ConcurrentResourceCache;
+
+public class ConcurrentResourceCacheTestCase extends TestCase {
+
+    /**
+     * Construct a new instance of this test case.
+     *
+     * @param name Name of the test case
+     */
+    public ConcurrentResourceCacheTestCase(String name) {
+        super(name);
+    }
+
+    /**
+     * Set up instance variables required by this test case. Each segment
+     * has room for ten entries of the default size.
+     */
+    public void setUp() {
+        cache = new TestCache();
+        cache.setCacheMaxSize(10 * SEGMENTS);
+        names = namesInSegment(0, 20);
+    }
+
+    /**
+     * Return the tests included in this test suite.
+     */
+    public static Test suite() {
+        return (new TestSuite(ConcurrentResourceCacheTestCase.class));
+    }
+
+    /**
+     * Tear down instance variables required by this test case.
+     */
+    public void tearDown() {
+        cache = null;
+        names = null;
+    }
+
+    private static final int SEGMENTS = 16;
+
+    private TestCache cache;
+
+    /**
+     * Names of resources which all go to the first segment.
+     */
+    private List<String> names;
+
+    public void testInsertLookupRemove() {
+        assertNull(cache.lookup("/a"));
+        assertEquals(1, cache.getMissCount());
+        CacheEntry entry = newEntry("/a", 3);
+        assertTrue(cache.insert(entry));
+        assertFalse(cache.insert(newEntry("/a", 3)));
+        assertSame(entry, cache.lookup("/a"));
+        assertEquals(1, cache.getHitsCount());
+
+        CacheEntry notFound = newEntry("/b", 1);
+        notFound.exists = false;
+        assertTrue(cache.insert(notFound));
+        assertSame(notFound, cache.lookup("/b"));
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(4, cache.getCacheSize());
+
+        assertTrue(cache.remove("/a"));
+        assertFalse(cache.remove("/a"));
+        assertNull(cache.lookup("/a"));
+        assertTrue(cache.remove("/b"));
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getCacheSize());
+        assertEquals(2, cache.getHitsCount());
+        assertEquals(2, cache.getMissCount());
+
+        // Larger than the part of a segment
+        assertFalse(cache.insert(newEntry("/c", 11)));
+        assertEquals(1, cache.getRejectionCount());
+    }
+
+    /**
+     * A new entry only evicts an entry which is used less often.
+     */
+    public void testAdmission() {
+        fill(10);
+        for (int i = 0; i < 10; i++) {
+            lookup(names.get(i), 3);
+        }
+        String candidate = names.get(10);
+        lookup(candidate, 1);
+        assertFalse(cache.insert(newEntry(candidate, 1)));
+        assertEquals(1, cache.getRejectionCount());
+        assertEquals(0, cache.getEvictionCount());
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(cache.lookup(names.get(i)));
+        }
+        assertEquals(10, cache.getCacheSize());
+
+        // As often as the residents is not enough either
+        lookup(candidate, 2);
+        assertFalse(cache.insert(newEntry(candidate, 1)));
+        assertEquals(2, cache.getRejectionCount());
+
+        lookup(candidate, 4);
+        assertTrue(cache.insert(newEntry(candidate, 1)));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(10, cache.getEntryCount());
+        assertEquals(10, cache.getCacheSize());
+        assertNotNull(cache.lookup(candidate));
+    }
+
+    /**
+     * The hand evicts the unreferenced entries in order, and gives the
+     * referenced ones a second chance.
+     */
+    public void testClockOrder() {
+        fill(10);
+        lookup(names.get(1), 1);
+        lookup(names.get(2), 1);
+        for (int i = 10; i < 13; i++) {
+            lookup(names.get(i), 5);
+            assertTrue(cache.insert(newEntry(names.get(i), 1)));
+        }
+        assertEquals(3, cache.getEvictionCount());
+        assertFalse(cache.contains(names.get(0)));
+        assertTrue(cache.contains(names.get(1)));
+        assertTrue(cache.contains(names.get(2)));
+        assertFalse(cache.contains(names.get(3)));
+        assertFalse(cache.contains(names.get(4)));
+        assertTrue(cache.contains(names.get(5)));
+
+        // The second chance is only given once
+        for (int i = 13; i < 17; i++) {
+            lookup(names.get(i), 5);
+            assertTrue(cache.insert(newEntry(names.get(i), 1)));
+        }
+        assertFalse(cache.contains(names.get(5)));
+        assertFalse(cache.contains(names.get(8)));
+        assertTrue(cache.contains(names.get(9)));
+        assertTrue(cache.contains(names.get(1)));
+        lookup(names.get(17), 5);
+        assertTrue(cache.insert(newEntry(names.get(17), 1)));
+        assertFalse(cache.contains(names.get(9)));
+        assertTrue(cache.contains(names.get(1)));
+
+        // Once the hand went round, the entries given a second chance are
+        // the first ones left to evict
+        for (int i = 10; i < 18; i++) {
+            lookup(names.get(i), 1);
+        }
+        for (int i = 18; i < 20; i++) {
+            lookup(names.get(i), 5);
+            assertTrue(cache.insert(newEntry(names.get(i), 1)));
+        }
+        assertFalse(cache.contains(names.get(1)));
+        assertFalse(cache.contains(names.get(2)));
+        assertEquals(10, cache.getEntryCount());
+        assertEquals(10, cache.getCacheSize());
+    }
+
+    /**
+     * The space charged for a gzip variant is accounted in the size of the
+     * entry, is evicted along with it, and never evicts the entry itself.
+     */
+    public void testGrow() {
+        CacheEntry entry = newEntry(names.get(0), 3);
+        assertTrue(cache.insert(entry));
+        assertTrue(cache.insert(newEntry(names.get(1), 3)));
+        assertTrue(cache.insert(newEntry(names.get(2), 3)));
+        assertTrue(cache.grow(entry, 1));
+        assertEquals(4, entry.size);
+        assertEquals(10, cache.getCacheSize());
+
+        // A full segment evicts others, but not the grown entry
+        assertFalse(cache.grow(entry, 2));
+        lookup(names.get(0), 5);
+        assertTrue(cache.grow(entry, 2));
+        assertEquals(6, entry.size);
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(9, cache.getCacheSize());
+        assertTrue(cache.contains(names.get(0)));
+
+        // More than the part of a segment
+        assertFalse(cache.grow(entry, 5));
+        assertEquals(6, entry.size);
+        // Not the cached entry
+        assertFalse(cache.grow(newEntry(names.get(0), 1), 1));
+        assertEquals(9, cache.getCacheSize());
+
+        assertTrue(cache.remove(names.get(0)));
+        assertEquals(3, cache.getCacheSize());
+        assertFalse(cache.grow(entry, 1));
+        assertEquals(3, cache.getCacheSize());
+    }
+
+    /**
+     * Concurrent insertions, removals, lookups and charges leave the size of
+     * the cache equal to the size of its entries.
+     */
+    public void testConcurrentAccess() throws Exception {
+        final int threadCount = 8;
+        final String[] paths = new String[2000];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = "/resource" + i;
+        }
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final Random random = new Random(i);
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 50000; j++) {
+                            // Skewed, so that some resources are popular
+                            int k = (int) (paths.length * Math.pow(random.nextDouble(), 3));
+                            String path = paths[k];
+                            int op = random.nextInt(10);
+                            if (op < 6) {
+                                CacheEntry entry = cache.lookup(path);
+                                if (entry == null) {
+                                    cache.insert(newEntry(path, 1 + random.nextInt(3)));
+                                } else if (entry.name != path) {
+                                    throw new IllegalStateException(path);
+                                }
+                            } else if (op < 8) {
+                                CacheEntry entry = cache.lookup(path);
+                                if (entry != null) {
+                                    cache.grow(entry, 1);
+                                }
+                            } else {
+                                cache.remove(path);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threadCount; i++) {
+            threads[i].join();
+        }
+        if (failure.get() != null) {
+            throw new Exception(failure.get());
+        }
+        assertTrue(cache.getEvictionCount() > 0);
+        assertEquals(cache.getEntrySize(), cache.getCacheSize());
+        assertTrue(cache.getCacheSize() <= 10 * SEGMENTS);
+
+        for (int i = 0; i < paths.length; i++) {
+            cache.remove(paths[i]);
+        }
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getCacheSize());
+    }
+
+    private void fill(int count) {
+        for (int i = 0; i < count; i++) {
+            assertTrue(cache.insert(newEntry(names.get(i), 1)));
+        }
+        assertEquals(count, cache.getCacheSize());
+    }
+
+    private void lookup(String name, int times) {
+        for (int i = 0; i < times; i++) {
+            cache.lookup(name);
+        }
+    }
+
+    private static CacheEntry newEntry(String name, int size) {
+        CacheEntry entry = new CacheEntry();
+        entry.name = name;
+        entry.size = size;
+        return entry;
+    }
+
+    /**
+     * Names of resources which go to the given segment, using the same hash
+     * as the cache.
+     */
+    private static List<String> namesInSegment(int segment, int count) {
+        List<String> result = new ArrayList<String>();
+        for (int i = 0; result.size() < count; i++) {
+            String name = "/page" + i;
+            int h = name.hashCode();
+            h ^= (h >>> 20) ^ (h >>> 12);
+            h = h ^ (h >>> 7) ^ (h >>> 4);
+            if ((h & (SEGMENTS - 1)) == segment) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Cache giving access to its entries.
+     */
+    private static class TestCache extends ConcurrentResourceCache {
+
+        boolean contains(String name) {
+            return entries.containsKey(name);
+        }
+
+        int getEntrySize() {
+            int size = 0;
+            Iterator<String> iterator = entries.keySet().iterator();
+            while (iterator.hasNext()) {
+                size += lookup(iterator.next()).size;
+            }
+            return size;
+        }
+
+    }
+
+}
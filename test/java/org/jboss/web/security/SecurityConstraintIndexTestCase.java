@@ -0,0 +1,165 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.web.security;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.catalina.deploy.SecurityCollection;
+import org.apache.catalina.deploy.SecurityConstraint;
+import org.apache.catalina.deploy.SecurityConstraintIndex;
+
+public class SecurityConstraintIndexTestCase extends TestCase {
+
+    /**
+     * Construct a new instance of this test case.
+     *
+     * @param name Name of the test case
+     */
+    public SecurityConstraintIndexTestCase(String name) {
+        super(name);
+    }
+
+    /**
+     * Set up instance variables required by this test case.
+     */
+    public void setUp() {
+        exact = constraint("exact", new String[] { "/admin/index.html" }, null, null);
+        admin = constraint("admin", new String[] { "/admin/*" }, null, null);
+        adminPost = constraint("adminPost", new String[] { "/admin/secure/*" },
+                new String[] { "POST" }, null);
+        jsp = constraint("jsp", new String[] { "*.jsp" }, null, new String[] { "GET" });
+        all = constraint("all", new String[] { "/" }, null, null);
+        index = new SecurityConstraintIndex(
+                new SecurityConstraint[] { exact, admin, adminPost, jsp, all });
+    }
+
+    /**
+     * Return the tests included in this test suite.
+     */
+    public static Test suite() {
+        return (new TestSuite(SecurityConstraintIndexTestCase.class));
+    }
+
+    /**
+     * Tear down instance variables required by this test case.
+     */
+    public void tearDown() {
+        index = null;
+    }
+
+    private SecurityConstraint exact;
+    private SecurityConstraint admin;
+    private SecurityConstraint adminPost;
+    private SecurityConstraint jsp;
+    private SecurityConstraint all;
+    private SecurityConstraintIndex index;
+
+    /**
+     * An exact match takes precedence over the other patterns.
+     */
+    public void testExact() {
+        assertMatch(index.find("/admin/index.html", "GET"), exact);
+    }
+
+    /**
+     * The longest prefix which includes the method is used.
+     */
+    public void testPrefix() {
+        assertMatch(index.find("/admin", "GET"), admin);
+        assertMatch(index.find("/admin/users", "GET"), admin);
+        assertMatch(index.find("/admin/secure/page", "POST"), adminPost);
+        assertMatch(index.find("/administrator", "GET"), all);
+    }
+
+    /**
+     * A prefix matched by collections which do not include the method does
+     * not stop the lookup.
+     */
+    public void testPrefixMethod() {
+        assertMatch(index.find("/admin/secure/page.jsp", "PUT"), jsp);
+        assertMatch(index.find("/admin/secure/page", "GET"), all);
+        assertMatch(index.find("/admin/secure/page", "OPTIONS"), all);
+    }
+
+    /**
+     * Extension matches use the last path segment, and honor method
+     * omissions.
+     */
+    public void testExtension() {
+        assertMatch(index.find("/app/page.jsp", "POST"), jsp);
+        assertMatch(index.find("/app/page.jsp", "GET"), all);
+        assertMatch(index.find("/app.jsp/page", "POST"), all);
+        assertMatch(index.find("/app/page.", "POST"), all);
+    }
+
+    /**
+     * A context without a default constraint has no constraint for the
+     * paths which are not matched.
+     */
+    public void testNoMatch() {
+        SecurityConstraintIndex index = new SecurityConstraintIndex(
+                new SecurityConstraint[] { exact, admin });
+        assertNull(index.find("/public/index.html", "GET"));
+        assertNull(new SecurityConstraintIndex(new SecurityConstraint[0]).find("/", "GET"));
+    }
+
+    /**
+     * Lookups on a part of a buffer.
+     */
+    public void testBuffer() {
+        char[] buf = "xx/admin/users?yy".toCharArray();
+        assertMatch(index.find(buf, 2, 14, "GET"), admin);
+    }
+
+    private static void assertMatch(SecurityConstraint[] results, SecurityConstraint expected) {
+        assertNotNull(results);
+        assertEquals(1, results.length);
+        assertSame(expected, results[0]);
+    }
+
+    private static SecurityConstraint constraint(String name, String[] patterns,
+            String[] methods, String[] omissions) {
+        SecurityCollection collection = new SecurityCollection(name);
+        for (int i = 0; i < patterns.length; i++) {
+            collection.addPattern(patterns[i]);
+        }
+        if (methods != null) {
+            for (int i = 0; i < methods.length; i++) {
+                collection.addMethod(methods[i]);
+            }
+        }
+        if (omissions != null) {
+            for (int i = 0; i < omissions.length; i++) {
+                collection.addMethodOmission(omissions[i]);
+            }
+        }
+        SecurityConstraint constraint = new SecurityConstraint();
+        constraint.setDisplayName(name);
+        constraint.addCollection(collection);
+        return constraint;
+    }
+
+}
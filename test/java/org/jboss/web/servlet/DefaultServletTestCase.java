@@ -0,0 +1,413 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.web.servlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.catalina.Globals;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.servlets.DefaultServlet;
+import org.apache.coyote.http11.Http11NioProtocol;
+import org.apache.naming.resources.CacheEntry;
+import org.apache.naming.resources.ConcurrentResourceCache;
+import org.apache.naming.resources.FileDirContext;
+import org.apache.naming.resources.ProxyDirContext;
+import org.jboss.web.ServletProxies;
+
+/**
+ * Gzip variants of the cached static resources served by the default
+ * servlet with <code>compressCache</code>.
+ */
+public class DefaultServletTestCase extends TestCase {
+
+    /**
+     * Construct a new instance of this test case.
+     *
+     * @param name Name of the test case
+     */
+    public DefaultServletTestCase(String name) {
+        super(name);
+    }
+
+    /**
+     * Set up instance variables required by this test case.
+     */
+    public void setUp() throws Exception {
+        docBase = File.createTempFile("docbase", "");
+        docBase.delete();
+        docBase.mkdir();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append("Line ").append(i).append(" of the resource\n");
+        }
+        content = sb.toString().getBytes("ISO-8859-1");
+        FileOutputStream os = new FileOutputStream(new File(docBase, "test.txt"));
+        try {
+            os.write(content);
+        } finally {
+            os.close();
+        }
+        FileDirContext dirContext = new FileDirContext();
+        dirContext.setDocBase(docBase.getAbsolutePath());
+        resources = new ProxyDirContext(new Hashtable<String, Object>(), dirContext);
+        servlet = new DefaultServlet();
+        servlet.init(newServletConfig());
+    }
+
+    /**
+     * Return the tests included in this test suite.
+     */
+    public static Test suite() {
+        return (new TestSuite(DefaultServletTestCase.class));
+    }
+
+    /**
+     * Tear down instance variables required by this test case.
+     */
+    public void tearDown() {
+        servlet.destroy();
+        new File(docBase, "test.txt").delete();
+        docBase.delete();
+    }
+
+    private File docBase;
+    private byte[] content;
+    private ProxyDirContext resources;
+    private DefaultServlet servlet;
+
+    /**
+     * The variant has its own ETag and Content-Length, and the response
+     * varies on Accept-Encoding.
+     */
+    public void testVariant() throws Exception {
+        TestResponse identity = get(null, null);
+        assertEquals(200, identity.status);
+        assertNull(identity.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", identity.getHeader("Vary"));
+        assertEquals(String.valueOf(content.length), identity.getHeader("Content-Length"));
+
+        TestResponse gzip = get("gzip, deflate", null);
+        assertEquals(200, gzip.status);
+        assertEquals("gzip", gzip.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", gzip.getHeader("Vary"));
+        byte[] body = gzip.body.toByteArray();
+        assertTrue(body.length < content.length);
+        assertEquals(String.valueOf(body.length), gzip.getHeader("Content-Length"));
+        assertTrue(Arrays.equals(content, gunzip(body)));
+
+        String eTag = identity.getHeader("ETag");
+        String gzipETag = gzip.getHeader("ETag");
+        assertNotNull(gzipETag);
+        assertFalse(eTag.equals(gzipETag));
+        assertEquals(eTag.substring(0, eTag.length() - 1) + "-gzip\"", gzipETag);
+
+        // A client which does not accept gzip still gets the resource
+        TestResponse refused = get("gzip;q=0", null);
+        assertNull(refused.getHeader("Content-Encoding"));
+        assertEquals(eTag, refused.getHeader("ETag"));
+    }
+
+    /**
+     * An explicit gzip coding takes precedence over "*", whatever the order
+     * of the codings.
+     */
+    public void testAcceptEncoding() throws Exception {
+        assertEquals("gzip", get("*;q=0, gzip", null).getHeader("Content-Encoding"));
+        assertEquals("gzip", get("x-gzip;q=0.5, *;q=0", null).getHeader("Content-Encoding"));
+        assertEquals("gzip", get("identity, *", null).getHeader("Content-Encoding"));
+        assertNull(get("*, gzip;q=0", null).getHeader("Content-Encoding"));
+        assertNull(get("gzip;q=0, *", null).getHeader("Content-Encoding"));
+        assertNull(get("*;q=0", null).getHeader("Content-Encoding"));
+        assertNull(get("deflate", null).getHeader("Content-Encoding"));
+    }
+
+    /**
+     * Ranges apply to the compressed bytes.
+     */
+    public void testRange() throws Exception {
+        byte[] body = get("gzip", null).body.toByteArray();
+        TestResponse range = get("gzip", "bytes=10-99");
+        assertEquals(206, range.status);
+        assertEquals("gzip", range.getHeader("Content-Encoding"));
+        assertEquals("bytes 10-99/" + body.length, range.getHeader("Content-Range"));
+        assertEquals("90", range.getHeader("Content-Length"));
+        byte[] part = range.body.toByteArray();
+        assertEquals(90, part.length);
+        for (int i = 0; i < part.length; i++) {
+            assertEquals(body[10 + i], part[i]);
+        }
+    }
+
+    /**
+     * The size of the variant is charged to the entry of the resource in the
+     * cache.
+     */
+    public void testCacheSize() throws Exception {
+        get(null, null);
+        int size = resources.getCache().getCacheSize();
+        byte[] body = get("gzip", null).body.toByteArray();
+        assertEquals(size + 1 + body.length / 1024, resources.getCache().getCacheSize());
+        // The variant is only charged once
+        get("gzip", null);
+        assertEquals(size + 1 + body.length / 1024, resources.getCache().getCacheSize());
+    }
+
+    /**
+     * The concurrent cache charges the variant to the entry of the resource
+     * as well.
+     */
+    public void testConcurrentCacheSize() throws Exception {
+        servlet.destroy();
+        FileDirContext dirContext = new FileDirContext();
+        dirContext.setDocBase(docBase.getAbsolutePath());
+        dirContext.setCacheClassName(ConcurrentResourceCache.class.getName());
+        resources = new ProxyDirContext(new Hashtable<String, Object>(), dirContext);
+        assertTrue(resources.getCache() instanceof ConcurrentResourceCache);
+        servlet = new DefaultServlet();
+        servlet.init(newServletConfig());
+        testCacheSize();
+        CacheEntry entry = resources.lookupCache("/test.txt");
+        int size = resources.getCache().getCacheSize();
+        assertTrue(resources.getCache().remove("/test.txt"));
+        assertEquals(size - entry.size, resources.getCache().getCacheSize());
+    }
+
+    /**
+     * Multiple ranges sent with sendfile carry the same bytes as those copied
+     * by the servlet, their MIME headers included.
+     */
+    public void testSendfileRanges() throws Exception {
+        long[] ranges = { 0, 29999, 40000, 69999, 100000, 100009 };
+        TestResponse copied = get(null, "bytes=0-29999,40000-69999,100000-100009");
+        assertEquals(206, copied.status);
+        byte[] expected = copied.body.toByteArray();
+
+        SendfileServlet sendfileServlet = new SendfileServlet();
+        sendfileServlet.init(newServletConfig());
+        try {
+            Connector connector = new Connector(Http11NioProtocol.class.getName());
+            Request request = new Request();
+            org.apache.coyote.Request coyoteRequest = new org.apache.coyote.Request();
+            coyoteRequest.setSendfile(true);
+            coyoteRequest.setSendfileRanges(true);
+            request.setCoyoteRequest(coyoteRequest);
+            Response response = connector.createResponse();
+            org.apache.coyote.Response coyoteResponse = new org.apache.coyote.Response();
+            response.setCoyoteResponse(coyoteResponse);
+            request.setResponse(response);
+            response.setRequest(request);
+
+            assertTrue(sendfileServlet.sendfile(request.getRequest(), response.getResponse(), ranges));
+            File file = new File(docBase, "test.txt");
+            assertEquals(file.getCanonicalPath(), coyoteResponse.getSendfilePath());
+            long[] positions = coyoteResponse.getSendfileRanges();
+            byte[][] headers = coyoteResponse.getSendfileHeaders();
+            ByteArrayOutputStream sent = new ByteArrayOutputStream();
+            for (int i = 0; i < headers.length; i++) {
+                sent.write(headers[i]);
+                int start = (int) positions[2 * i];
+                sent.write(content, start, (int) positions[2 * i + 1] - start);
+            }
+            sent.write(coyoteResponse.getSendfileTrailer());
+            assertEquals(new String(expected, "ISO-8859-1"), new String(sent.toByteArray(), "ISO-8859-1"));
+            assertEquals(expected.length, coyoteResponse.getContentLengthLong());
+
+            // Not worth it for a few bytes
+            coyoteResponse.reset();
+            assertFalse(sendfileServlet.sendfile(request.getRequest(), response.getResponse(),
+                    new long[] { 0, 9, 20, 29 }));
+            // Nor possible if the connector only sends a single range
+            coyoteRequest.setSendfileRanges(false);
+            assertFalse(sendfileServlet.sendfile(request.getRequest(), response.getResponse(), ranges));
+            assertNull(coyoteResponse.getSendfilePath());
+        } finally {
+            sendfileServlet.destroy();
+        }
+    }
+
+    private TestResponse get(String acceptEncoding, String range) throws Exception {
+        Map<String, String> headers = new HashMap<String, String>();
+        if (acceptEncoding != null) {
+            headers.put("Accept-Encoding", acceptEncoding);
+        }
+        if (range != null) {
+            headers.put("Range", range);
+        }
+        TestResponse response = new TestResponse();
+        servlet.service(newRequest(headers), response.newProxy());
+        return response;
+    }
+
+    private static byte[] gunzip(byte[] b) throws IOException {
+        InputStream is = new GZIPInputStream(new ByteArrayInputStream(b));
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = is.read(buf)) > 0) {
+            os.write(buf, 0, n);
+        }
+        return os.toByteArray();
+    }
+
+    private ServletConfig newServletConfig() {
+        return ServletProxies.newServletConfig("default",
+                Collections.singletonMap("compressCache", "true"),
+                Collections.<String, Object>singletonMap(Globals.RESOURCES_ATTR, resources),
+                "text/plain");
+    }
+
+    private static HttpServletRequest newRequest(final Map<String, String> headers) {
+        return (HttpServletRequest) ServletProxies.newProxy(HttpServletRequest.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("getMethod")) {
+                    return "GET";
+                } else if (name.equals("getPathInfo") || name.equals("getRequestURI")) {
+                    return "/test.txt";
+                } else if (name.equals("getServletPath") || name.equals("getContextPath")) {
+                    return "";
+                } else if (name.equals("getProtocol")) {
+                    return "HTTP/1.1";
+                } else if (name.equals("getHeader")) {
+                    return headers.get(args[0]);
+                } else if (name.equals("getHeaders")) {
+                    String value = headers.get(args[0]);
+                    return Collections.enumeration((value == null)
+                            ? Collections.<String>emptyList() : Collections.singletonList(value));
+                } else if (name.equals("getDateHeader")) {
+                    return Long.valueOf(-1L);
+                }
+                return ServletProxies.defaultValue(method);
+            }
+        });
+    }
+
+    /**
+     * Default servlet sending the given ranges of the resource with sendfile.
+     */
+    private class SendfileServlet extends DefaultServlet {
+
+        boolean sendfile(HttpServletRequest request, HttpServletResponse response,
+                long[] positions) throws IOException {
+            CacheEntry entry = resources.lookupCache("/test.txt");
+            ArrayList<Range> ranges = new ArrayList<Range>();
+            for (int i = 0; i < positions.length; i += 2) {
+                Range range = new Range() {};
+                range.start = positions[i];
+                range.end = positions[i + 1];
+                range.length = content.length;
+                ranges.add(range);
+            }
+            return checkSendfile(request, response, "/test.txt", entry, ranges, "text/plain");
+        }
+
+    }
+
+    /**
+     * Response recording its status, headers and body.
+     */
+    private static class TestResponse implements InvocationHandler {
+
+        int status = 200;
+        final Map<String, List<String>> headers = new HashMap<String, List<String>>();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final ServletOutputStream os = new ServletOutputStream() {
+            public void write(int b) {
+                body.write(b);
+            }
+        };
+
+        HttpServletResponse newProxy() {
+            return (HttpServletResponse) ServletProxies.newProxy(
+                    HttpServletResponse.class, this);
+        }
+
+        String getHeader(String name) {
+            List<String> values = headers.get(name.toLowerCase());
+            return (values == null) ? null : values.get(0);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("setStatus") || name.equals("sendError")) {
+                status = ((Integer) args[0]).intValue();
+            } else if (name.equals("setHeader")) {
+                headers.remove(((String) args[0]).toLowerCase());
+                addHeader((String) args[0], (String) args[1]);
+            } else if (name.equals("addHeader")) {
+                addHeader((String) args[0], (String) args[1]);
+            } else if (name.equals("setContentLength")) {
+                headers.remove("content-length");
+                addHeader("Content-Length", String.valueOf(args[0]));
+            } else if (name.equals("setContentType")) {
+                headers.remove("content-type");
+                addHeader("Content-Type", (String) args[0]);
+            } else if (name.equals("containsHeader")) {
+                return Boolean.valueOf(headers.containsKey(((String) args[0]).toLowerCase()));
+            } else if (name.equals("getOutputStream")) {
+                return os;
+            } else {
+                return ServletProxies.defaultValue(method);
+            }
+            return null;
+        }
+
+        private void addHeader(String name, String value) {
+            List<String> values = headers.get(name.toLowerCase());
+            if (values == null) {
+                values = new ArrayList<String>();
+                headers.put(name.toLowerCase(), values);
+            }
+            values.add(value);
+        }
+
+    }
+
+}
@@ -0,0 +1,317 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.web.servlet;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.GenericServlet;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.core.ApplicationFilterChain;
+import org.apache.catalina.core.ApplicationFilterConfig;
+import org.apache.catalina.core.ApplicationFilterFactory;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.core.StandardWrapper;
+import org.apache.catalina.deploy.FilterDef;
+import org.apache.catalina.deploy.FilterMap;
+import org.jboss.servlet.http.HttpEvent;
+import org.jboss.servlet.http.HttpEventFilter;
+import org.jboss.servlet.http.HttpEventFilterChain;
+
+public class FilterChainTemplateTestCase extends TestCase {
+
+    /**
+     * Construct a new instance of this test case.
+     *
+     * @param name Name of the test case
+     */
+    public FilterChainTemplateTestCase(String name) {
+        super(name);
+    }
+
+    /**
+     * Set up instance variables required by this test case.
+     */
+    public void setUp() {
+        context = new StandardContext();
+        wrapper = newWrapper("servlet");
+    }
+
+    /**
+     * Return the tests included in this test suite.
+     */
+    public static Test suite() {
+        return (new TestSuite(FilterChainTemplateTestCase.class));
+    }
+
+    /**
+     * Tear down instance variables required by this test case.
+     */
+    public void tearDown() {
+        context = null;
+        wrapper = null;
+    }
+
+    private static final Integer REQUEST = ApplicationFilterFactory.REQUEST_INTEGER;
+
+    private StandardContext context;
+
+    private StandardWrapper wrapper;
+
+    /**
+     * The filters mapped by URL pattern come first, in mapping order,
+     * followed by the filters mapped by servlet name.
+     */
+    public void testOrder() {
+        addFilter("byName", new TestFilter());
+        addFilter("byPath", new TestFilter());
+        addFilter("byExtension", new TestFilter());
+        context.addFilterMap(newServletMap("byName", "servlet"));
+        context.addFilterMap(newUrlMap("byPath", "/path/*"));
+        context.addFilterMap(newUrlMap("byExtension", "*.do"));
+
+        assertFilters(REQUEST, "/path/a.do", "byPath", "byExtension", "byName");
+        assertFilters(REQUEST, "/path/a", "byPath", "byName");
+        assertFilters(REQUEST, "/other.do", "byExtension", "byName");
+        assertFilters(REQUEST, "/other", "byName");
+        // Cached paths give the same chains
+        assertFilters(REQUEST, "/path/a.do", "byPath", "byExtension", "byName");
+        assertFilters(REQUEST, "/other", "byName");
+        // Other servlets only get the filters mapped by URL pattern
+        wrapper = newWrapper("other");
+        assertFilters(REQUEST, "/path/a.do", "byPath", "byExtension");
+        // A servlet without a name too
+        wrapper = newWrapper(null);
+        assertFilters(REQUEST, "/path/a.do", "byPath", "byExtension");
+    }
+
+    /**
+     * The chains built for a dispatcher type, or in event mode, do not
+     * leak into those built for another.
+     */
+    public void testDispatcherAndEvent() {
+        addFilter("request", new TestFilter());
+        addFilter("forward", new TestFilter());
+        addFilter("event", new TestEventFilter());
+        context.addFilterMap(newUrlMap("request", "/*"));
+        FilterMap forward = newUrlMap("forward", "/*");
+        forward.setDispatcher("FORWARD");
+        context.addFilterMap(forward);
+        FilterMap event = newUrlMap("event", "/*");
+        event.setDispatcher("REQUEST");
+        event.setDispatcher("FORWARD");
+        context.addFilterMap(event);
+
+        Integer forwardType = ApplicationFilterFactory.FORWARD_INTEGER;
+        assertFilters(REQUEST, "/a", "request", "event");
+        assertFilters(forwardType, "/a", "forward", "event");
+        assertFilters(ApplicationFilterFactory.INCLUDE_INTEGER, "/a");
+        assertEventFilters(REQUEST, "/a", "event");
+        assertEventFilters(forwardType, "/a", "event");
+        // In any order
+        assertFilters(forwardType, "/a", "forward", "event");
+        assertFilters(REQUEST, "/a", "request", "event");
+    }
+
+    /**
+     * Changing the filter mappings or the filters of the context discards
+     * the chains built from the previous ones.
+     */
+    public void testInvalidation() {
+        addFilter("first", new TestFilter());
+        addFilter("second", new TestFilter());
+        context.addFilterMap(newUrlMap("first", "/*"));
+        assertFilters(REQUEST, "/a", "first");
+
+        context.addFilterMap(newUrlMap("second", "/a"));
+        assertFilters(REQUEST, "/a", "first", "second");
+
+        FilterMap before = newUrlMap("second", "/*");
+        context.addFilterMapBefore(before);
+        assertFilters(REQUEST, "/a", "second", "first", "second");
+        assertFilters(REQUEST, "/b", "second", "first");
+
+        context.removeFilterMap(before);
+        assertFilters(REQUEST, "/a", "first", "second");
+        assertFilters(REQUEST, "/b", "first");
+
+        // Mappings of a filter which is not yet configured are skipped
+        FilterDef third = new FilterDef();
+        third.setFilterName("third");
+        third.setFilterClass(TestFilter.class.getName());
+        context.addFilterDef(third);
+        context.addFilterMap(newUrlMap("third", "/*"));
+        assertFilters(REQUEST, "/b", "first");
+        ApplicationFilterConfig config = new ApplicationFilterConfig(context, third);
+        config.setFilter(new TestFilter());
+        context.addApplicationFilterConfig(config);
+        assertFilters(REQUEST, "/b", "first", "third");
+    }
+
+    /**
+     * Past the number of cached paths, the chains of the paths which are not
+     * cached are still built correctly.
+     */
+    public void testManyPaths() {
+        addFilter("exact", new TestFilter());
+        addFilter("extension", new TestFilter());
+        addFilter("byName", new TestFilter());
+        context.addFilterMap(newUrlMap("exact", "/exact"));
+        context.addFilterMap(newUrlMap("extension", "*.do"));
+        context.addFilterMap(newServletMap("byName", "servlet"));
+
+        for (int i = 0; i < 1000; i++) {
+            assertFilters(REQUEST, "/" + i + ".do", "extension", "byName");
+            assertFilters(REQUEST, "/" + i, "byName");
+        }
+        assertFilters(REQUEST, "/exact", "exact", "byName");
+        assertFilters(REQUEST, "/exact.do", "extension", "byName");
+        assertFilters(REQUEST, "/0.do", "extension", "byName");
+        assertFilters(REQUEST, "/999", "byName");
+    }
+
+    /**
+     * Build the chain of the current wrapper for the specified dispatcher
+     * type and path, and check the names of its filters.
+     */
+    private void assertFilters(Integer dispatcher, String path, String... names) {
+        assertFilters(newRequest(dispatcher, path, false), names);
+    }
+
+    /**
+     * Build the chain of the current wrapper in event mode for the specified
+     * dispatcher type and path, and check the names of its filters.
+     */
+    private void assertEventFilters(Integer dispatcher, String path, String... names) {
+        assertFilters(newRequest(dispatcher, path, true), names);
+    }
+
+    private void assertFilters(Request request, String... names) {
+        ApplicationFilterChain chain = ApplicationFilterFactory.getInstance()
+            .createFilterChain(request, wrapper, wrapper.getServlet());
+        ApplicationFilterConfig[] filters = chain.getFilters();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            expected.append(names[i]).append(' ');
+        }
+        StringBuilder actual = new StringBuilder();
+        for (int i = 0; i < chain.getFilterCount(); i++) {
+            actual.append(filters[i].getFilterName()).append(' ');
+        }
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    private Request newRequest(Integer dispatcher, String path, boolean event) {
+        Request request = new Request();
+        request.setAttribute(ApplicationFilterFactory.DISPATCHER_TYPE_ATTR, dispatcher);
+        request.setAttribute(ApplicationFilterFactory.DISPATCHER_REQUEST_PATH_ATTR, path);
+        request.setEventMode(event);
+        return request;
+    }
+
+    private StandardWrapper newWrapper(String name) {
+        StandardWrapper wrapper = new StandardWrapper();
+        if (name != null) {
+            wrapper.setName(name);
+        }
+        wrapper.setServlet(new TestServlet());
+        wrapper.setParent(context);
+        return wrapper;
+    }
+
+    private void addFilter(String name, Filter filter) {
+        FilterDef filterDef = new FilterDef();
+        filterDef.setFilterName(name);
+        filterDef.setFilterClass(filter.getClass().getName());
+        context.addFilterDef(filterDef);
+        ApplicationFilterConfig config = new ApplicationFilterConfig(context, filterDef);
+        config.setFilter(filter);
+        context.addApplicationFilterConfig(config);
+    }
+
+    private static FilterMap newUrlMap(String filterName, String urlPattern) {
+        FilterMap filterMap = new FilterMap();
+        filterMap.setFilterName(filterName);
+        filterMap.addURLPattern(urlPattern);
+        return filterMap;
+    }
+
+    private static FilterMap newServletMap(String filterName, String servletName) {
+        FilterMap filterMap = new FilterMap();
+        filterMap.setFilterName(filterName);
+        filterMap.addServletName(servletName);
+        return filterMap;
+    }
+
+    /**
+     * A filter which passes the requests along.
+     */
+    protected static class TestFilter implements Filter {
+
+        public void init(FilterConfig filterConfig) {
+        }
+
+        public void doFilter(ServletRequest request, ServletResponse response,
+                FilterChain chain) throws IOException, ServletException {
+            chain.doFilter(request, response);
+        }
+
+        public void destroy() {
+        }
+
+    }
+
+    /**
+     * A filter which also passes the events along.
+     */
+    protected static class TestEventFilter extends TestFilter implements HttpEventFilter {
+
+        public void doFilterEvent(HttpEvent event, HttpEventFilterChain chain)
+                throws IOException, ServletException {
+            chain.doFilterEvent(event);
+        }
+
+    }
+
+    /**
+     * A servlet which does nothing.
+     */
+    protected static class TestServlet extends GenericServlet {
+
+        public void service(ServletRequest request, ServletResponse response) {
+        }
+
+    }
+
+}
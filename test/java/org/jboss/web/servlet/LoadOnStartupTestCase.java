@@ -0,0 +1,206 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.web.servlet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.servlet.ServletException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.core.StandardWrapper;
+import org.jboss.logging.Logger;
+
+public class LoadOnStartupTestCase extends TestCase {
+
+    /**
+     * Construct a new instance of this test case.
+     *
+     * @param name Name of the test case
+     */
+    public LoadOnStartupTestCase(String name) {
+        super(name);
+    }
+
+    /**
+     * Set up instance variables required by this test case.
+     */
+    public void setUp() {
+        pool = Executors.newFixedThreadPool(4);
+        context = new TestContext();
+    }
+
+    /**
+     * Return the tests included in this test suite.
+     */
+    public static Test suite() {
+        return (new TestSuite(LoadOnStartupTestCase.class));
+    }
+
+    /**
+     * Tear down instance variables required by this test case.
+     */
+    public void tearDown() {
+        pool.shutdownNow();
+        pool = null;
+        context = null;
+    }
+
+    private ExecutorService pool;
+
+    private TestContext context;
+
+    /**
+     * All the servlets are loaded, and the load errors are reported in the
+     * order of the servlets rather than in the order they completed.
+     */
+    public void testErrorOrder() throws Exception {
+        TestWrapper first = new TestWrapper("first", 200, new ServletException("first"));
+        TestWrapper second = new TestWrapper("second", 0, new ServletException("second"));
+        TestWrapper third = new TestWrapper("third", 0, null);
+        context.loadOnStartup(pool, wrappers(first, second, third));
+        assertTrue(first.loaded);
+        assertTrue(second.loaded);
+        assertTrue(third.loaded);
+        List<String> messages = context.logger.messages;
+        assertEquals(2, messages.size());
+        assertTrue(messages.get(0), messages.get(0).contains("Servlet first "));
+        assertTrue(messages.get(1), messages.get(1).contains("Servlet second "));
+    }
+
+    /**
+     * A failure other than a ServletException is fatal, and is rethrown
+     * once all the servlets are loaded.
+     */
+    public void testUnexpectedFailure() throws Exception {
+        IllegalStateException failure = new IllegalStateException("failure");
+        TestWrapper first = new TestWrapper("first", 0, new ServletException("first"));
+        TestWrapper second = new TestWrapper("second", 100, failure);
+        TestWrapper third = new TestWrapper("third", 0, new IllegalArgumentException("third"));
+        try {
+            context.loadOnStartup(pool, wrappers(first, second, third));
+            fail("The failure was not rethrown");
+        } catch (IllegalStateException e) {
+            assertSame(failure, e);
+        }
+        assertTrue(third.loaded);
+        List<String> messages = context.logger.messages;
+        assertEquals(2, messages.size());
+        assertTrue(messages.get(0), messages.get(0).contains("Servlet first "));
+        assertTrue(messages.get(1), messages.get(1).contains("Servlet third "));
+    }
+
+    private static List<Wrapper> wrappers(Wrapper... wrappers) {
+        List<Wrapper> list = new ArrayList<Wrapper>();
+        Collections.addAll(list, wrappers);
+        return list;
+    }
+
+    /**
+     * Context exposing the concurrent load and recording its log.
+     */
+    private static class TestContext extends StandardContext {
+
+        final RecordingLogger logger = new RecordingLogger();
+
+        public Logger getLogger() {
+            return logger;
+        }
+
+        public void loadOnStartup(ExecutorService pool, List<Wrapper> wrappers) {
+            super.loadOnStartup(pool, wrappers);
+        }
+
+    }
+
+    /**
+     * Wrapper whose load waits for the given delay and then fails with the
+     * given exception, if any.
+     */
+    private static class TestWrapper extends StandardWrapper {
+
+        private final long delay;
+
+        private final Exception failure;
+
+        volatile boolean loaded = false;
+
+        TestWrapper(String name, long delay, Exception failure) {
+            setName(name);
+            this.delay = delay;
+            this.failure = failure;
+        }
+
+        public synchronized void load() throws ServletException {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            loaded = true;
+            if (failure instanceof ServletException) {
+                throw (ServletException) failure;
+            } else if (failure != null) {
+                throw (RuntimeException) failure;
+            }
+        }
+
+    }
+
+    /**
+     * Logger keeping the formatted messages.
+     */
+    private static class RecordingLogger extends Logger {
+
+        final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+
+        RecordingLogger() {
+            super("test");
+        }
+
+        public boolean isEnabled(Level level) {
+            return true;
+        }
+
+        protected void doLog(Level level, String loggerClassName, Object message,
+                Object[] parameters, Throwable thrown) {
+            messages.add(String.valueOf(message));
+        }
+
+        protected void doLogf(Level level, String loggerClassName, String format,
+                Object[] parameters, Throwable thrown) {
+            messages.add(String.format(format, parameters));
+        }
+
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.web.servlet;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.GenericServlet;
+import javax.servlet.Servlet;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.catalina.core.ServletInstancePool;
+
+public class ServletInstancePoolTestCase extends TestCase {
+
+    /**
+     * Construct a new instance of this test case.
+     *
+     * @param name Name of the test case
+     */
+    public ServletInstancePoolTestCase(String name) {
+        super(name);
+    }
+
+    /**
+     * Set up instance variables required by this test case.
+     */
+    public void setUp() {
+        pool = new ServletInstancePool(2);
+    }
+
+    /**
+     * Return the tests included in this test suite.
+     */
+    public static Test suite() {
+        return (new TestSuite(ServletInstancePoolTestCase.class));
+    }
+
+    /**
+     * Tear down instance variables required by this test case.
+     */
+    public void tearDown() {
+        pool = null;
+    }
+
+    private ServletInstancePool pool;
+
+    /**
+     * Instances are created up to the maximum, and the most recently
+     * released one is reused first.
+     */
+    public void testReuse() throws Exception {
+        assertTrue(pool.acquire(0));
+        assertNull(pool.poll());
+        Servlet first = new TestServlet();
+        pool.created();
+        assertTrue(pool.acquire(0));
+        assertNull(pool.poll());
+        Servlet second = new TestServlet();
+        pool.created();
+        assertEquals(2, pool.getAllocated());
+        pool.release(first);
+        pool.release(second);
+        assertEquals(0, pool.getAllocated());
+        assertTrue(pool.acquire(0));
+        assertSame(second, pool.poll());
+        assertEquals(2, pool.getInstances());
+        assertEquals(0, pool.getWaitCount());
+    }
+
+    /**
+     * An allocation times out when all the instances are allocated.
+     */
+    public void testTimeout() throws Exception {
+        assertTrue(pool.acquire(0));
+        assertTrue(pool.acquire(0));
+        assertFalse(pool.acquire(50));
+        assertEquals(1, pool.getWaitCount());
+        assertEquals(1, pool.getTimeoutCount());
+        pool.cancel();
+        assertTrue(pool.acquire(50));
+        assertEquals(1, pool.getWaitCount());
+        assertEquals(2, pool.getAllocated());
+    }
+
+    /**
+     * A waiting allocation gets the instance which is released.
+     */
+    public void testWait() throws Exception {
+        pool.setMaxInstances(1);
+        assertTrue(pool.acquire(0));
+        final Servlet servlet = new TestServlet();
+        pool.created();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Servlet[] result = new Servlet[1];
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    if (pool.acquire(5000)) {
+                        result[0] = pool.poll();
+                    }
+                } catch (InterruptedException e) {
+                    // Ignore
+                }
+                latch.countDown();
+            }
+        };
+        thread.start();
+        Thread.sleep(50);
+        assertEquals(1, latch.getCount());
+        pool.release(servlet);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertSame(servlet, result[0]);
+        assertEquals(1, pool.getWaitCount());
+    }
+
+    /**
+     * Reducing the maximum hands back the idle instances in excess, the
+     * least recently used first, including those released afterwards.
+     */
+    public void testExcess() throws Exception {
+        pool = new ServletInstancePool(3);
+        Servlet[] servlets = new Servlet[3];
+        for (int i = 0; i < servlets.length; i++) {
+            assertTrue(pool.acquire(0));
+            assertNull(pool.poll());
+            servlets[i] = new TestServlet();
+            pool.created();
+        }
+        pool.release(servlets[0]);
+        pool.release(servlets[1]);
+        assertNull(pool.pollExcess());
+        pool.setMaxInstances(1);
+        assertSame(servlets[0], pool.pollExcess());
+        assertSame(servlets[1], pool.pollExcess());
+        assertNull(pool.pollExcess());
+        assertEquals(1, pool.getInstances());
+        pool.release(servlets[2]);
+        assertNull(pool.pollExcess());
+        pool.setMaxInstances(2);
+        assertTrue(pool.acquire(0));
+        assertSame(servlets[2], pool.poll());
+        assertEquals(1, pool.getInstances());
+    }
+
+    private static class TestServlet extends GenericServlet {
+        public void service(ServletRequest request, ServletResponse response) {
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.web.stats;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.coyote.LatencyHistogram;
+
+public class LatencyHistogramTestCase extends TestCase {
+
+    /**
+     * Construct a new instance of this test case.
+     *
+     * @param name Name of the test case
+     */
+    public LatencyHistogramTestCase(String name) {
+        super(name);
+    }
+
+    /**
+     * Set up instance variables required by this test case.
+     */
+    public void setUp() {
+        histogram = new LatencyHistogram(6, 10000L, 4);
+    }
+
+    /**
+     * Return the tests included in this test suite.
+     */
+    public static Test suite() {
+        return (new TestSuite(LatencyHistogramTestCase.class));
+    }
+
+    /**
+     * Tear down instance variables required by this test case.
+     */
+    public void tearDown() {
+        histogram = null;
+    }
+
+    private LatencyHistogram histogram;
+
+    /**
+     * Check the percentiles of uniformly distributed values.
+     */
+    public void testPercentiles() {
+        assertEquals(0, histogram.getPercentile(50));
+        long now = System.currentTimeMillis();
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i, now);
+        }
+        assertEquals(10000, histogram.getCount());
+        long[] percentiles = histogram.getPercentiles(new double[] { 50, 90, 99, 99.9 });
+        long[] expected = { 5000, 9000, 9900, 9990 };
+        for (int i = 0; i < expected.length; i++) {
+            assertTrue(percentiles[i] >= expected[i]);
+            assertTrue(percentiles[i] <= expected[i] * 1.07);
+        }
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+    }
+
+    /**
+     * Check that small values are exact.
+     */
+    public void testSmallValues() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 20; i++) {
+            histogram.record(i, now);
+        }
+        assertEquals(9, histogram.getPercentile(50));
+        assertEquals(19, histogram.getPercentile(100));
+    }
+
+    /**
+     * Check that the values expire with the window.
+     */
+    public void testWindow() {
+        long now = System.currentTimeMillis();
+        histogram.record(100, now);
+        histogram.record(100, now + histogram.getWindowTime() + 10000L);
+        assertEquals(0, histogram.getCount());
+    }
+
+    /**
+     * Check that no value is lost when several threads start recording in
+     * an interval at the same time.
+     */
+    public void testConcurrentRecording() throws Exception {
+        final int threads = 4;
+        final int count = 100000;
+        final long now = System.currentTimeMillis();
+        Thread[] recorders = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            recorders[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < count; j++) {
+                        histogram.record(j & 1023, now);
+                    }
+                }
+            };
+        }
+        for (int i = 0; i < threads; i++) {
+            recorders[i].start();
+        }
+        for (int i = 0; i < threads; i++) {
+            recorders[i].join();
+        }
+        assertEquals(threads * count, histogram.getCount());
+    }
+
+}
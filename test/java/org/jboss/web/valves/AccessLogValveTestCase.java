@@ -0,0 +1,288 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.web.valves;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.catalina.valves.AccessLogValve;
+
+/**
+ * Asynchronous mode of the access log valve, with concurrent producers.
+ */
+public class AccessLogValveTestCase extends TestCase {
+
+    protected static final int PRODUCERS = 8;
+
+    /**
+     * Padding of the log lines, so that a batch of the writer thread holds
+     * less lines than the tests log.
+     */
+    protected static final String PADDING =
+        "GET /app/products/list.jsp?category=12&page=3 HTTP/1.1 200 5120 "
+        + "\"Mozilla/5.0 (X11; Linux x86_64)\"";
+
+    /**
+     * Construct a new instance of this test case.
+     *
+     * @param name Name of the test case
+     */
+    public AccessLogValveTestCase(String name) {
+        super(name);
+    }
+
+    /**
+     * Set up instance variables required by this test case.
+     */
+    public void setUp() throws Exception {
+        directory = File.createTempFile("accesslog", "");
+        directory.delete();
+        directory.mkdir();
+        valve = new TestAccessLogValve();
+        valve.setDirectory(directory.getAbsolutePath());
+        valve.setPrefix("access.");
+        valve.setSuffix(".log");
+        valve.setAsynchronous(true);
+    }
+
+    /**
+     * Return the tests included in this test suite.
+     */
+    public static Test suite() {
+        return (new TestSuite(AccessLogValveTestCase.class));
+    }
+
+    /**
+     * Tear down instance variables required by this test case.
+     */
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        directory.delete();
+    }
+
+    private File directory;
+    private TestAccessLogValve valve;
+
+    /**
+     * No line is lost or reordered when the producers wait for space in a
+     * small queue.
+     */
+    public void testNoLoss() throws Exception {
+        valve.setQueueSize(16);
+        valve.setDropOnOverflow(false);
+        valve.start();
+        produce(valve, 5000, 0);
+        assertEquals(0, valve.getDroppedCount());
+        valve.stop();
+        assertEquals(PRODUCERS * 5000, check(readLines(), 5000, false));
+    }
+
+    /**
+     * Lines are dropped and counted when the queue is full, while the writer
+     * thread is blocked.
+     */
+    public void testDropOnOverflow() throws Exception {
+        valve.setQueueSize(16);
+        valve.setDropOnOverflow(true);
+        valve.start();
+        synchronized (valve) {
+            // The writer thread cannot write while the valve is locked
+            produce(valve, 1000, 0);
+        }
+        long dropped = valve.getDroppedCount();
+        assertTrue(dropped > 0);
+        valve.stop();
+        int written = check(readLines(), 1000, true);
+        assertEquals(PRODUCERS * 1000, written + dropped);
+    }
+
+    /**
+     * The log files are switched by the writer thread, without losing or
+     * reordering lines.
+     */
+    public void testRotation() throws Exception {
+        valve.setFileDateFormat("yyyy-MM-dd.HH-mm-ss");
+        valve.start();
+        valve.opened.clear();
+        // Log for about three seconds, so that the file is switched
+        produce(valve, 300, 10);
+        valve.stop();
+        assertTrue(directory.listFiles().length > 1);
+        assertTrue(valve.opened.size() > 0);
+        for (int i = 0; i < valve.opened.size(); i++) {
+            assertEquals("AccessLogWriter-access.", valve.opened.get(i));
+        }
+        assertEquals(PRODUCERS * 300, check(readLines(), 300, false));
+    }
+
+    /**
+     * The lines logged while the valve is stopped are either all written or
+     * lost after the last written one, but none is lost in between.
+     */
+    public void testStopWhileLogging() throws Exception {
+        valve.setQueueSize(16);
+        valve.setDropOnOverflow(false);
+        valve.start();
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread[] threads = new Thread[PRODUCERS];
+        for (int i = 0; i < PRODUCERS; i++) {
+            final int producer = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; !done.get(); j++) {
+                        valve.log(producer + " " + j + " " + PADDING);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        Thread.sleep(100);
+        valve.stop();
+        done.set(true);
+        for (int i = 0; i < PRODUCERS; i++) {
+            threads[i].join();
+        }
+        List<String> lines = readLines();
+        assertTrue(lines.size() > 0);
+        int[] next = new int[PRODUCERS];
+        for (int i = 0; i < lines.size(); i++) {
+            String[] fields = lines.get(i).split(" ", 3);
+            int producer = Integer.parseInt(fields[0]);
+            assertEquals(next[producer]++, Integer.parseInt(fields[1]));
+        }
+    }
+
+    /**
+     * Log lines from concurrent threads.
+     */
+    private static void produce(final AccessLogValve valve, final int lines,
+            final long pause) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[PRODUCERS];
+        for (int i = 0; i < PRODUCERS; i++) {
+            final int producer = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < lines; j++) {
+                            valve.log(producer + " " + j + " " + PADDING);
+                            if (pause > 0) {
+                                Thread.sleep(pause);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        // Ignore
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (int i = 0; i < PRODUCERS; i++) {
+            threads[i].join();
+        }
+    }
+
+    /**
+     * Read the lines of all the log files, in the order of the files.
+     */
+    private List<String> readLines() throws IOException {
+        File[] files = directory.listFiles();
+        Arrays.sort(files);
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < files.length; i++) {
+            BufferedReader reader = new BufferedReader(new FileReader(files[i]));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Check that the lines of each producer are complete and in order.
+     *
+     * @param lines The lines
+     * @param count The number of lines logged by each producer
+     * @param dropped true if some lines may have been dropped
+     * @return the number of lines
+     */
+    private static int check(List<String> lines, int count, boolean dropped) {
+        int[] next = new int[PRODUCERS];
+        for (int i = 0; i < lines.size(); i++) {
+            String[] fields = lines.get(i).split(" ", 3);
+            assertEquals(3, fields.length);
+            assertEquals(PADDING, fields[2]);
+            int producer = Integer.parseInt(fields[0]);
+            int n = Integer.parseInt(fields[1]);
+            if (dropped) {
+                assertTrue(lines.get(i), n >= next[producer] && n < count);
+            } else {
+                assertEquals(next[producer], n);
+            }
+            next[producer] = n + 1;
+        }
+        if (!dropped) {
+            for (int i = 0; i < PRODUCERS; i++) {
+                assertEquals(count, next[i]);
+            }
+        }
+        return lines.size();
+    }
+
+    /**
+     * Valve recording the threads which open the log files.
+     */
+    private static class TestAccessLogValve extends AccessLogValve {
+
+        final List<String> opened = new ArrayList<String>();
+
+        protected synchronized void open() {
+            opened.add(Thread.currentThread().getName());
+            super.open();
+        }
+
+    }
+
+}